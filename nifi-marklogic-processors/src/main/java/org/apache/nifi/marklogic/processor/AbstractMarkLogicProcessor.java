@@ -21,6 +21,9 @@ import com.marklogic.client.ForbiddenUserException;
 import com.marklogic.client.MarkLogicBindingException;
 import com.marklogic.client.ResourceNotFoundException;
 import com.marklogic.client.UnauthorizedUserException;
+import com.marklogic.client.datamovement.Batcher;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.ForestConfiguration;
 import com.marklogic.client.document.ServerTransform;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.PropertyValue;
@@ -84,6 +87,17 @@ public abstract class AbstractMarkLogicProcessor extends AbstractSessionFactoryP
         .required(false)
         .build();
 
+    public static final PropertyDescriptor SHARED_DATA_MOVEMENT_MANAGER = new PropertyDescriptor.Builder()
+        .name("Use Shared Data Movement Manager")
+        .displayName("Use Shared Data Movement Manager")
+        .description("If true, jobs are created with the DataMovementManager shared by every processor using the " +
+            "same DatabaseClient Service, which reuses the forest configuration cached by that service instead of " +
+            "creating a new manager and reading the forest configuration from MarkLogic each time a job is started.")
+        .allowableValues("true", "false")
+        .defaultValue("false")
+        .required(true)
+        .build();
+
     protected final Map<String, List<PropertyDescriptor>> propertiesByPrefix = new ConcurrentHashMap<>();
 
     // Patterns for more friendly error messages.
@@ -141,14 +155,79 @@ public abstract class AbstractMarkLogicProcessor extends AbstractSessionFactoryP
     }
 
     protected DatabaseClient getDatabaseClient(ProcessContext context) {
+        return getDatabaseClientService(context).getDatabaseClient();
+    }
 
+    protected MarkLogicDatabaseClientService getDatabaseClientService(ProcessContext context) {
         PropertyValue databaseClientServiceProp = context.getProperty(DATABASE_CLIENT_SERVICE);
         Objects.requireNonNull(databaseClientServiceProp);
 
         MarkLogicDatabaseClientService markLogicDatabaseClientService = databaseClientServiceProp.asControllerService(MarkLogicDatabaseClientService.class);
         Objects.requireNonNull(markLogicDatabaseClientService);
+        return markLogicDatabaseClientService;
+    }
+
+    /**
+     * @param context
+     * @return true if the processor supports and has enabled using the DataMovementManager shared via the
+     * DatabaseClient service
+     */
+    protected boolean usesSharedDataMovementManager(ProcessContext context) {
+        return getSupportedPropertyDescriptors().contains(SHARED_DATA_MOVEMENT_MANAGER) &&
+            Boolean.TRUE.equals(context.getProperty(SHARED_DATA_MOVEMENT_MANAGER).asBoolean());
+    }
+
+    /**
+     * @param context
+     * @return the shared DataMovementManager if the user has opted in to it and the DatabaseClient service provides
+     * one; otherwise, a new DataMovementManager
+     */
+    protected DataMovementManager getDataMovementManager(ProcessContext context) {
+        if (usesSharedDataMovementManager(context)) {
+            DataMovementManager sharedManager = getDatabaseClientService(context).getSharedDataMovementManager();
+            if (sharedManager != null) {
+                return sharedManager;
+            }
+        }
+        return getDatabaseClient(context).newDataMovementManager();
+    }
+
+    /**
+     * @param context
+     * @return the forest configuration cached by the DatabaseClient service if the processor uses the shared
+     * DataMovementManager; otherwise, null
+     */
+    protected ForestConfiguration getSharedForestConfiguration(ProcessContext context) {
+        return usesSharedDataMovementManager(context) ? getDatabaseClientService(context).getForestConfiguration() : null;
+    }
+
+    /**
+     * Applies the forest configuration cached by the DatabaseClient service to a batcher created with the shared
+     * DataMovementManager, so that the batcher does not read the forest configuration from MarkLogic itself.
+     *
+     * @param context
+     * @param batcher
+     * @return the given batcher
+     */
+    protected <T extends Batcher> T applySharedForestConfiguration(ProcessContext context, T batcher) {
+        ForestConfiguration forestConfig = getSharedForestConfiguration(context);
+        if (forestConfig != null) {
+            batcher.withForestConfig(forestConfig);
+        }
+        return batcher;
+    }
 
-        return markLogicDatabaseClientService.getDatabaseClient();
+    /**
+     * Lets the DatabaseClient service know about a failure in a job created with the shared DataMovementManager, so
+     * that it can refresh its forest configuration if a host has become unavailable.
+     *
+     * @param context
+     * @param failure
+     */
+    protected void reportFailureToService(ProcessContext context, Throwable failure) {
+        if (usesSharedDataMovementManager(context)) {
+            getDatabaseClientService(context).reportFailure(failure);
+        }
     }
 
     protected String[] getArrayFromCommaSeparatedString(String stringValue) {
@@ -184,6 +263,10 @@ public abstract class AbstractMarkLogicProcessor extends AbstractSessionFactoryP
                 description = "Defines a document metadata key with name '" + postfix + "' that will be added to each document";
                 scope = ExpressionLanguageScope.FLOWFILE_ATTRIBUTES;
                 break;
+            case "bind":
+                description = "Binds the value to the plan parameter named '" + postfix + "'";
+                scope = ExpressionLanguageScope.FLOWFILE_ATTRIBUTES;
+                break;
             case "property":
                 description = "Defines a property with name '" + postfix + "' that will be added to the properties fragment of each document";
                 scope = ExpressionLanguageScope.FLOWFILE_ATTRIBUTES;
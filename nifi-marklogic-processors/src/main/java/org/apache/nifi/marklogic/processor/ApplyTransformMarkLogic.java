@@ -91,6 +91,13 @@ public class ApplyTransformMarkLogic extends QueryMarkLogic {
         list.add(TRANSFORM);
         list.add(STATE_INDEX);
         list.add(STATE_INDEX_TYPE);
+        list.add(OUTPUT_GRANULARITY);
+        list.add(CHECKPOINT_STORAGE);
+        list.add(CHECKPOINT_DIRECTORY);
+        list.add(CHECKPOINT_INTERVAL);
+        list.add(DOCUMENTS_PER_SECOND);
+        list.add(RATE_LIMIT_SCOPE);
+        list.add(SHARED_DATA_MOVEMENT_MANAGER);
         properties = Collections.unmodifiableList(list);
 
         Set<Relationship> set = new HashSet<>();
@@ -16,16 +16,35 @@
  */
 package org.apache.nifi.marklogic.processor;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.marklogic.client.extensions.ResourceServices;
 import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.Format;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.FlowFileFilters;
+import org.apache.nifi.processor.util.StandardValidators;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @CapabilityDescription("Allows for MarkLogic REST extensions to be called with results being sent to new FlowFiles. " +
@@ -43,6 +62,47 @@ public class CallRestExtensionMarkLogic extends ExtensionCallMarkLogic {
         .description("The original FlowFile - either the incoming one or a new one - " +
             "will be sent here after the extension call to MarkLogic is completed.").build();
 
+    /**
+     * Name of the request parameter whose values identify the parts of a batch request.
+     */
+    public static final String CORRELATION_ID_PARAM = "correlation-id";
+
+    public static final PropertyDescriptor FLOWFILE_BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("FlowFile Batch Size")
+        .displayName("FlowFile Batch Size")
+        .required(true)
+        .defaultValue("1")
+        .description("The maximum number of incoming FlowFiles to send to the extension in a single call. If greater " +
+            "than 1, the payload of each FlowFile is sent as a separate part of a single multipart POST request, " +
+            "with request parameters evaluated against the first FlowFile, and no FlowFile is created when there " +
+            "are no incoming FlowFiles. Requires a 'Method Type' of POST and a 'Payload Source' other than None.")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+    public static final PropertyDescriptor MAX_BATCH_DATA_SIZE = new PropertyDescriptor.Builder()
+        .name("Max Batch Data Size")
+        .displayName("Max Batch Data Size")
+        .required(true)
+        .defaultValue("10 MB")
+        .description("Only applies when 'FlowFile Batch Size' is greater than 1. Limits the combined size of the " +
+            "FlowFiles in a batch; a single FlowFile larger than this is still sent in a batch by itself.")
+        .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+        .build();
+    public static final PropertyDescriptor BATCH_CORRELATION = new PropertyDescriptor.Builder()
+        .name("Batch Correlation")
+        .displayName("Batch Correlation")
+        .required(true)
+        .defaultValue(BatchCorrelationTypes.INDEX_STR)
+        .description("Only applies when 'FlowFile Batch Size' is greater than 1. How the parts returned by the " +
+            "extension are mapped back to the FlowFiles in the batch. The UUID of each FlowFile is sent, in the same " +
+            "order as the parts, as the values of the '" + CORRELATION_ID_PARAM + "' request parameter. A JSON " +
+            "object part with an 'error' property causes the FlowFile it belongs to to be sent to failure, while the " +
+            "other FlowFiles in the batch are processed normally.")
+        .allowableValues(BatchCorrelationTypes.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
 
     /**
      * Overrides the relationships set up by the parent class.
@@ -52,6 +112,11 @@ public class CallRestExtensionMarkLogic extends ExtensionCallMarkLogic {
     @Override
     public void init(ProcessorInitializationContext context) {
         super.init(context);
+        List<PropertyDescriptor> list = new ArrayList<>(properties);
+        list.add(FLOWFILE_BATCH_SIZE);
+        list.add(MAX_BATCH_DATA_SIZE);
+        list.add(BATCH_CORRELATION);
+        properties = Collections.unmodifiableList(list);
         Set<Relationship> set = new HashSet<>();
         set.add(ORIGINAL);
         set.add(RESULTS);
@@ -59,6 +124,133 @@ public class CallRestExtensionMarkLogic extends ExtensionCallMarkLogic {
         relationships = Collections.unmodifiableSet(set);
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        Set<ValidationResult> validationResultSet = new HashSet<>();
+        if (validationContext.getProperty(FLOWFILE_BATCH_SIZE).asInteger() > 1) {
+            if (!MethodTypes.POST_STR.equals(validationContext.getProperty(METHOD_TYPE).getValue())) {
+                validationResultSet.add(new ValidationResult.Builder().subject(FLOWFILE_BATCH_SIZE.getDisplayName()).valid(false)
+                    .explanation("FlowFiles can only be sent in batches when the Method Type is '" + MethodTypes.POST_STR + "'").build());
+            }
+            if (PayloadSources.NONE_STR.equals(validationContext.getProperty(PAYLOAD_SOURCE).getValue())) {
+                validationResultSet.add(new ValidationResult.Builder().subject(FLOWFILE_BATCH_SIZE.getDisplayName()).valid(false)
+                    .explanation("FlowFiles can only be sent in batches when the Payload Source is not '" + PayloadSources.NONE_STR + "'").build());
+            }
+        }
+        return validationResultSet;
+    }
+
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        final int batchSize = context.getProperty(FLOWFILE_BATCH_SIZE).asInteger();
+        if (batchSize <= 1) {
+            super.onTrigger(context, sessionFactory);
+            return;
+        }
+
+        final ProcessSession session = sessionFactory.createSession();
+        final double maxBatchBytes = context.getProperty(MAX_BATCH_DATA_SIZE).asDataSize(DataUnit.B);
+        List<FlowFile> flowFiles = session.get(FlowFileFilters.newSizeBasedFilter(maxBatchBytes, DataUnit.B, batchSize));
+        if (!flowFiles.isEmpty()) {
+            callExtensionInBatch(context, session, flowFiles);
+        }
+    }
+
+    /**
+     * Sends the FlowFiles as the parts of a single request and maps the parts returned by the extension back to the
+     * FlowFiles they belong to. Each FlowFile's parts are then routed as if the extension had been called for that
+     * FlowFile alone.
+     */
+    private void callExtensionInBatch(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles) {
+        final boolean correlateByKey = BatchCorrelationTypes.CORRELATION_KEY_STR.equals(context.getProperty(BATCH_CORRELATION).getValue());
+        final String[] ids = new String[flowFiles.size()];
+        final Map<String, Integer> indexesById = new HashMap<>();
+        final List<List<byte[]>> itemResults = new ArrayList<>();
+        final String[] itemErrors = new String[flowFiles.size()];
+        for (int i = 0; i < flowFiles.size(); i++) {
+            ids[i] = flowFiles.get(i).getAttribute("uuid");
+            indexesById.put(ids[i], i);
+            itemResults.add(new ArrayList<>());
+        }
+
+        try {
+            ResourceServices.ServiceResultIterator results = callExtensionWithParts(context, session, flowFiles, CORRELATION_ID_PARAM, ids);
+            int index = 0;
+            try {
+                while (results.hasNext()) {
+                    final ResourceServices.ServiceResult result = results.next();
+                    final byte[] content = result.getContent(new BytesHandle()).get();
+                    final JsonNode resultObject = Format.JSON.equals(result.getFormat()) ? parseObject(content) : null;
+                    Integer item;
+                    if (correlateByKey) {
+                        final JsonNode id = resultObject != null ? resultObject.get("id") : null;
+                        item = id != null && id.isValueNode() ? indexesById.get(id.asText()) : null;
+                    } else {
+                        item = index < flowFiles.size() ? index : null;
+                        index++;
+                    }
+                    if (item == null) {
+                        getLogger().warn("Ignoring part that cannot be mapped to a FlowFile in the batch; format: " + result.getFormat());
+                    } else if (resultObject != null && resultObject.has("error")) {
+                        final JsonNode error = resultObject.get("error");
+                        itemErrors[item] = error.isValueNode() ? error.asText() : error.toString();
+                    } else {
+                        itemResults.get(item).add(content);
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            if (!correlateByKey && index < flowFiles.size()) {
+                getLogger().warn("Expected " + flowFiles.size() + " parts, one for each FlowFile in the batch, but " +
+                    "received " + index);
+                for (int i = index; i < flowFiles.size(); i++) {
+                    itemErrors[i] = "No part was returned for this FlowFile";
+                }
+            }
+        } catch (final Throwable t) {
+            logError(t);
+            synchronized (session) {
+                for (FlowFile flowFile : flowFiles) {
+                    addErrorMessageToFlowFile(t.getMessage(), flowFile, session);
+                    session.transfer(flowFile, FAILURE);
+                }
+                session.commitAsync();
+            }
+            return;
+        }
+
+        synchronized (session) {
+            for (int i = 0; i < flowFiles.size(); i++) {
+                final FlowFile flowFile = flowFiles.get(i);
+                if (itemErrors[i] != null) {
+                    addErrorMessageToFlowFile(itemErrors[i], flowFile, session);
+                    session.transfer(flowFile, FAILURE);
+                    continue;
+                }
+                for (byte[] content : itemResults.get(i)) {
+                    FlowFile resultFlowFile = createFlowFileWithAttributes(session, getAttributesToCopy(flowFile));
+                    resultFlowFile = session.write(resultFlowFile, out -> out.write(content));
+                    session.transfer(resultFlowFile, RESULTS);
+                }
+                session.transfer(flowFile, ORIGINAL);
+            }
+            session.commitAsync();
+        }
+    }
+
+    /**
+     * @return the content as a JSON object, or null if it is not a JSON object
+     */
+    private static JsonNode parseObject(byte[] content) {
+        try {
+            JsonNode node = objectMapper.readTree(content);
+            return node != null && node.isObject() ? node : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     /**
      * @param results
      * @param session
@@ -80,4 +272,17 @@ public class CallRestExtensionMarkLogic extends ExtensionCallMarkLogic {
             transferAndCommit(session, originalFlowFile, ORIGINAL);
         }
     }
+
+    public static class BatchCorrelationTypes {
+
+        public static final String INDEX_STR = "Index";
+        public static final AllowableValue INDEX = new AllowableValue(INDEX_STR, INDEX_STR,
+            "The extension returns exactly one part per part in the request, in the same order as the request parts");
+        public static final String CORRELATION_KEY_STR = "Correlation Key";
+        public static final AllowableValue CORRELATION_KEY = new AllowableValue(CORRELATION_KEY_STR, CORRELATION_KEY_STR,
+            "The extension returns JSON object parts whose 'id' property is the '" + CORRELATION_ID_PARAM + "' value " +
+                "of the request part that each belongs to; a request part may have any number of parts, in any order");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{INDEX, CORRELATION_KEY};
+    }
 }
@@ -22,28 +22,46 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.eval.EvalResult;
+import com.marklogic.client.eval.EvalResultIterator;
 import com.marklogic.client.eval.ServerEvaluationCall;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.StringHandle;
 import org.apache.nifi.annotation.behavior.DynamicProperty;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.*;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.marklogic.processor.util.JsonAttributeExtractor;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.StringUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 @Tags({"MarkLogic", "database", "XQuery", "JavaScript", "module", "server-side"})
 @CapabilityDescription("Executes server-side code in MarkLogic, either in JavaScript or XQuery. "
     + "Code can be given in a Script Body property or can be invoked as a path to a module installed on the server. " +
-    "Requires a MarkLogic user with the privileges listed at https://docs.marklogic.com/REST/POST/v1/eval .")
+    "Requires a MarkLogic user with the privileges listed at https://docs.marklogic.com/REST/POST/v1/eval , and the " +
+    "rest-writer privilege if the Content Format is 'Binary'.")
 @DynamicProperty(
     name = "Any name",
     value = "Any value",
@@ -107,7 +125,8 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         "Write the MarkLogic result to the marklogic.result attribute");
 
     public static final AllowableValue AV_FROMJSON = new AllowableValue(STR_FROMJSON, STR_FROMJSON,
-        "Parse a MarkLogic JSON result into attributes with the same names as the top-level JSON properties, where the values are simple types, not objects or arrays");
+        "Parse a MarkLogic JSON result into attributes with the same names as the top-level JSON properties, where the values are simple types, not objects or arrays, " +
+            "along with an attribute for each value selected by Attribute JSON Pointers");
 
     public static final PropertyDescriptor RESULTS_DESTINATION = new PropertyDescriptor.Builder()
         .name("Results Destination").displayName("Results Destination")
@@ -120,6 +139,14 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         // required.
         .addValidator(PATH_SCRIPT_VALIDATOR).build();
 
+    public static final PropertyDescriptor ATTRIBUTE_JSON_POINTERS = new PropertyDescriptor.Builder()
+        .name("Attribute JSON Pointers").displayName("Attribute JSON Pointers")
+        .description("Only applies when Results Destination is '" + STR_FROMJSON + "'. A comma-separated list of JSON " +
+            "pointers, such as '/address/city', selecting nested values to add as attributes in addition to the " +
+            "top-level properties. Each attribute is named after the segments of its pointer joined by periods, such " +
+            "as 'address.city'.")
+        .required(false).addValidator(Validator.VALID).build();
+
     public static final PropertyDescriptor SKIP_FIRST = new PropertyDescriptor.Builder().name("Skip First Result")
         .displayName("Skip First Result")
         .description("If true, first result is not sent to results relationship or "
@@ -127,6 +154,20 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         .allowableValues("true", "false").required(true).defaultValue("false")
         .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
+    public static final PropertyDescriptor COMBINE_RESULTS = new PropertyDescriptor.Builder().name("Combine Results")
+        .displayName("Combine Results")
+        .description("If true, every result is streamed into a single FlowFile that is sent to the results " +
+            "relationship, separated by the Result Delimiter, instead of a FlowFile being created for each result. " +
+            "The first result and last result relationships are not used. Requires a Results Destination of 'Content'.")
+        .allowableValues("true", "false").required(true).defaultValue("false")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor RESULT_DELIMITER = new PropertyDescriptor.Builder().name("Result Delimiter")
+        .displayName("Result Delimiter")
+        .description("Only applies when Combine Results is true. The text written between consecutive results.")
+        .required(false).defaultValue("\n")
+        .addValidator(Validator.VALID).build();
+
     // ---------------------------
 
     public static final PropertyDescriptor SCRIPT_BODY = new PropertyDescriptor.Builder().name("Script Body")
@@ -141,6 +182,43 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         .required(false).expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
         .addValidator(Validator.VALID).build();
 
+    // ---------- Batch Correlation property ----------
+
+    public static final String STR_INDEX = "Index";
+    public static final String STR_CORRELATION_KEY = "Correlation Key";
+
+    public static final AllowableValue AV_INDEX = new AllowableValue(STR_INDEX, STR_INDEX,
+        "The script returns exactly one result per item in the batch, in the same order as the items");
+
+    public static final AllowableValue AV_CORRELATION_KEY = new AllowableValue(STR_CORRELATION_KEY, STR_CORRELATION_KEY,
+        "The script returns JSON objects whose 'id' property is the 'id' of the item that each result belongs to; " +
+            "an item may have any number of results, in any order");
+
+    public static final PropertyDescriptor FLOWFILE_BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("FlowFile Batch Size").displayName("FlowFile Batch Size")
+        .description("The maximum number of incoming FlowFiles to send to MarkLogic in a single call. If greater than " +
+            "1, the FlowFiles are bound as a JSON array to the variable named by 'Batch Variable' instead of being " +
+            "processed one call at a time, and no FlowFile is created when there are no incoming FlowFiles.")
+        .required(true).defaultValue("1")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    public static final PropertyDescriptor BATCH_VARIABLE = new PropertyDescriptor.Builder()
+        .name("Batch Variable").displayName("Batch Variable")
+        .description("Only applies when 'FlowFile Batch Size' is greater than 1. The name of the external variable in " +
+            "the script that will be populated with a JSON array containing an object for each FlowFile in the batch, " +
+            "with 'index', 'id', and 'attributes' properties, a 'variables' property with the value of each dynamic " +
+            "property, and a 'content' property if 'Content Variable' is set.")
+        .required(true).defaultValue("batch")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor BATCH_CORRELATION = new PropertyDescriptor.Builder()
+        .name("Batch Correlation").displayName("Batch Correlation")
+        .description("Only applies when 'FlowFile Batch Size' is greater than 1. How the results returned by the script " +
+            "are mapped back to the FlowFiles in the batch. A JSON object result with an 'error' property causes the " +
+            "FlowFile it belongs to to be sent to failure, while the other FlowFiles in the batch are processed normally.")
+        .allowableValues(AV_INDEX, AV_CORRELATION_KEY).required(true).defaultValue(STR_INDEX)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
     public static final PropertyDescriptor CONTENT_VARIABLE = new PropertyDescriptor.Builder().name("Content Variable")
         .displayName("Content Variable")
         .description(
@@ -148,6 +226,54 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         .required(false).expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
         .addValidator(Validator.VALID).build();
 
+    public static final PropertyDescriptor MAX_CONCURRENT_CALLS = new PropertyDescriptor.Builder()
+        .name("Max Concurrent Calls").displayName("Max Concurrent Calls")
+        .description("If greater than 0, calls to MarkLogic are made asynchronously on virtual threads owned by the " +
+            "processor instead of on the NiFi thread that receives the FlowFile, with up to this many calls in " +
+            "progress at once. Each call's results are committed as soon as it completes. A single concurrent task " +
+            "can then keep many calls in progress, without requiring the number of concurrent tasks to be raised.")
+        .required(true).defaultValue("0")
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+
+    // ---------- Content Format property ----------
+
+    public static final String STR_FORMAT_STRING = "String";
+    public static final String STR_FORMAT_TEXT = "Text";
+    public static final String STR_FORMAT_JSON = "JSON";
+    public static final String STR_FORMAT_XML = "XML";
+    public static final String STR_FORMAT_BINARY = "Binary";
+
+    // Binary content is written to a temporary document in this collection, so that any not deleted can be found
+    static final String TEMPORARY_COLLECTION = "marklogic-nifi-temporary";
+    static final String TEMPORARY_URI_PREFIX = "/marklogic-nifi/execute-script/";
+
+    public static final AllowableValue AV_FORMAT_STRING = new AllowableValue(STR_FORMAT_STRING, STR_FORMAT_STRING,
+        "The content is decoded as UTF-8 and bound as a string");
+
+    public static final AllowableValue AV_FORMAT_TEXT = new AllowableValue(STR_FORMAT_TEXT, STR_FORMAT_TEXT,
+        "The content is bound as a text node");
+
+    public static final AllowableValue AV_FORMAT_JSON = new AllowableValue(STR_FORMAT_JSON, STR_FORMAT_JSON,
+        "The content is bound as a JSON node");
+
+    public static final AllowableValue AV_FORMAT_XML = new AllowableValue(STR_FORMAT_XML, STR_FORMAT_XML,
+        "The content is bound as an XML node");
+
+    public static final AllowableValue AV_FORMAT_BINARY = new AllowableValue(STR_FORMAT_BINARY, STR_FORMAT_BINARY,
+        "The content is streamed into a temporary binary document, without being decoded, and the URI of that " +
+            "document is bound as a string; the document is deleted once the results have been read. When FlowFiles " +
+            "are batched, the content is instead added to each item as a base64-encoded string");
+
+    public static final PropertyDescriptor CONTENT_FORMAT = new PropertyDescriptor.Builder().name("Content Format")
+        .displayName("Content Format")
+        .description("Only applies when Content Variable is set. Determines how the content of the incoming FlowFile " +
+            "is bound to the Content Variable. External variables are sent to MarkLogic as text in the body of the " +
+            "request, so each format other than 'Binary' holds the content in memory while the request is sent. " +
+            "'Binary' streams the content instead, and requires the rest-writer privilege.")
+        .allowableValues(AV_FORMAT_STRING, AV_FORMAT_TEXT, AV_FORMAT_JSON, AV_FORMAT_XML, AV_FORMAT_BINARY)
+        .required(true).defaultValue(STR_FORMAT_STRING)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
     // ---------- RELATIONSHIPS ----------
 
     protected static final Relationship RESULTS = new Relationship.Builder().name("results")
@@ -170,6 +296,13 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
 
     private static Charset UTF8 = StandardCharsets.UTF_8;
 
+    private static final long ASYNC_PERMIT_WAIT_MILLIS = 100;
+    private static final long ASYNC_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private volatile JsonAttributeExtractor jsonAttributeExtractor;
+    private volatile ExecutorService asyncExecutor;
+    private volatile Semaphore asyncCallPermits;
+
     @Override
     public void init(ProcessorInitializationContext context) {
         super.init(context);
@@ -180,8 +313,16 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         descriptors.add(SCRIPT_BODY);
         descriptors.add(MODULE_PATH);
         descriptors.add(CONTENT_VARIABLE);
+        descriptors.add(CONTENT_FORMAT);
         descriptors.add(RESULTS_DESTINATION);
+        descriptors.add(ATTRIBUTE_JSON_POINTERS);
         descriptors.add(SKIP_FIRST);
+        descriptors.add(COMBINE_RESULTS);
+        descriptors.add(RESULT_DELIMITER);
+        descriptors.add(FLOWFILE_BATCH_SIZE);
+        descriptors.add(BATCH_VARIABLE);
+        descriptors.add(BATCH_CORRELATION);
+        descriptors.add(MAX_CONCURRENT_CALLS);
         this.properties = Collections.unmodifiableList(descriptors);
 
         final Set<Relationship> relationships = new HashSet<>();
@@ -193,17 +334,146 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
         this.relationships = Collections.unmodifiableSet(relationships);
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        Set<ValidationResult> validationResultSet = new HashSet<>();
+        if (validationContext.getProperty(COMBINE_RESULTS).asBoolean()
+            && !STR_CONTENT.equals(validationContext.getProperty(RESULTS_DESTINATION).getValue())) {
+            validationResultSet.add(new ValidationResult.Builder().subject(COMBINE_RESULTS.getDisplayName()).valid(false)
+                .explanation("Results can only be combined when the Results Destination is '" + STR_CONTENT + "'").build());
+        }
+        try {
+            new JsonAttributeExtractor(getJsonPointers(validationContext.getProperty(ATTRIBUTE_JSON_POINTERS).getValue()));
+        } catch (IllegalArgumentException ex) {
+            validationResultSet.add(new ValidationResult.Builder().subject(ATTRIBUTE_JSON_POINTERS.getDisplayName()).valid(false)
+                .explanation(ex.getMessage()).build());
+        }
+        return validationResultSet;
+    }
+
+    private static List<String> getJsonPointers(String value) {
+        List<String> pointers = new ArrayList<>();
+        if (value != null) {
+            for (String pointer : value.split(",")) {
+                if (!pointer.isBlank()) {
+                    pointers.add(pointer.trim());
+                }
+            }
+        }
+        return pointers;
+    }
+
+    @OnScheduled
+    public void onScheduled(ProcessContext context) {
+        jsonAttributeExtractor = new JsonAttributeExtractor(getJsonPointers(context.getProperty(ATTRIBUTE_JSON_POINTERS).getValue()));
+        final int maxConcurrentCalls = context.getProperty(MAX_CONCURRENT_CALLS).asInteger();
+        if (maxConcurrentCalls > 0) {
+            asyncCallPermits = new Semaphore(maxConcurrentCalls);
+            asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        }
+    }
+
+    /**
+     * Waits for in-flight calls to complete so that their sessions are committed before the processor stops.
+     */
+    @OnStopped
+    public void onStopped() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            try {
+                if (!asyncExecutor.awaitTermination(ASYNC_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    getLogger().warn("Interrupting calls that did not complete within " + ASYNC_SHUTDOWN_TIMEOUT_SECONDS +
+                        " seconds of the processor being stopped");
+                    asyncExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                asyncExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            asyncExecutor = null;
+        }
+    }
+
     @Override
     public final void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory)
         throws ProcessException {
         final ProcessSession session = sessionFactory.createSession();
-        FlowFile incomingFlowFile = null;
-        try {
-            incomingFlowFile = session.get();
-            if (incomingFlowFile == null) {
-                incomingFlowFile = session.create();
+        final int batchSize = context.getProperty(FLOWFILE_BATCH_SIZE).asInteger();
+        if (asyncExecutor != null) {
+            dispatchAsync(context, session, batchSize);
+            return;
+        }
+        if (batchSize > 1) {
+            List<FlowFile> flowFiles = session.get(batchSize);
+            if (!flowFiles.isEmpty()) {
+                executeBatch(context, session, flowFiles);
             }
+            return;
+        }
 
+        FlowFile incomingFlowFile = session.get();
+        if (incomingFlowFile == null) {
+            incomingFlowFile = session.create();
+        }
+        execute(context, session, incomingFlowFile);
+    }
+
+    /**
+     * Takes FlowFiles only once a call can be started, so that FlowFiles wait in the incoming queue - where
+     * backpressure applies - instead of in memory, and hands them to the async executor. The NiFi thread is released
+     * as soon as the call is dispatched, and the session is committed by the executor thread once the call completes.
+     */
+    private void dispatchAsync(ProcessContext context, ProcessSession session, int batchSize) {
+        final long waitStart = System.nanoTime();
+        final boolean acquired;
+        try {
+            acquired = asyncCallPermits.tryAcquire(ASYNC_PERMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        session.adjustCounter("Async Slot Wait Millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart), true);
+        if (!acquired) {
+            return;
+        }
+
+        final List<FlowFile> flowFiles;
+        if (batchSize > 1) {
+            flowFiles = session.get(batchSize);
+        } else {
+            FlowFile incomingFlowFile = session.get();
+            flowFiles = List.of(incomingFlowFile != null ? incomingFlowFile : session.create());
+        }
+        if (flowFiles.isEmpty()) {
+            asyncCallPermits.release();
+            return;
+        }
+
+        final long dispatchedAt = System.nanoTime();
+        session.adjustCounter("Async Calls In Flight", 1, true);
+        try {
+            asyncExecutor.execute(() -> {
+                session.adjustCounter("Async Queue Wait Millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - dispatchedAt), true);
+                try {
+                    if (batchSize > 1) {
+                        executeBatch(context, session, flowFiles);
+                    } else {
+                        execute(context, session, flowFiles.get(0));
+                    }
+                } finally {
+                    session.adjustCounter("Async Calls In Flight", -1, true);
+                    asyncCallPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.adjustCounter("Async Calls In Flight", -1, true);
+            asyncCallPermits.release();
+            session.rollback();
+        }
+    }
+
+    private void execute(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile) {
+        try {
             PropertyValue resultsDestinationProp = context.getProperty(RESULTS_DESTINATION);
             Objects.requireNonNull(resultsDestinationProp);
             final String resultsDest = resultsDestinationProp.getValue();
@@ -218,15 +488,6 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
 
             ServerEvaluationCall call = buildCall(context, session, incomingFlowFile);
 
-            // write the content to the contentVariable external variable, if supplied
-            if (contentVariable != null && contentVariable.length() > 0) {
-                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                session.exportTo(incomingFlowFile, bytes);
-                final String content = bytes.toString(StandardCharsets.UTF_8);
-
-                call.addVariable(contentVariable, content);
-            }
-
             // iterate over the dynamic properties and set as variables to send to the
             // script,
             for (PropertyDescriptor entry : context.getProperties().keySet()) {
@@ -237,41 +498,307 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
                 }
             }
 
-            int count = 0;
-            String last = null;
-
-            for (EvalResult result : call.eval()) {
-                count++;
-                final String resultStr = result.getString();
-                last = resultStr;
-                if (count == 1) {
-                    FlowFile firstFF = createFlowFileWithAttributes(session, incomingFlowFile.getAttributes());
-                    resultToFlowFile(session, resultStr, firstFF, resultsDest);
-                    session.transfer(firstFF, FIRST_RESULT);
+            // write the content to the contentVariable external variable, if supplied
+            final String temporaryUri = bindContent(context, session, call, incomingFlowFile, contentVariable,
+                context.getProperty(CONTENT_FORMAT).getValue());
+            try (EvalResultIterator evalResults = call.eval()) {
+                final Iterator<ScriptResult> results = new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return evalResults.hasNext();
+                    }
+
+                    @Override
+                    public ScriptResult next() {
+                        return ScriptResult.streamed(evalResults.next());
+                    }
+                };
+                if (context.getProperty(COMBINE_RESULTS).asBoolean()) {
+                    transferCombinedResults(session, incomingFlowFile, results, skipFirst, context.getProperty(RESULT_DELIMITER).getValue());
+                } else {
+                    transferResults(session, incomingFlowFile, results, resultsDest, skipFirst);
+                }
+            } finally {
+                if (temporaryUri != null) {
+                    deleteTemporaryDocument(context, temporaryUri);
+                }
+            }
+
+            session.commitAsync();
+        } catch (final Throwable t) {
+            logErrorAndTransfer(t, incomingFlowFile, session, FAILURE);
+        }
+    }
+
+    /**
+     * Binds the content of the FlowFile to the content variable, if one is set. The Java Client sends external
+     * variables as text in the body of the eval request, so binary content cannot be bound without being corrupted;
+     * it is instead streamed into a temporary binary document whose URI is bound to the variable.
+     *
+     * @return the URI of the temporary document that must be deleted once the call has completed, or null if none was
+     * written
+     */
+    private String bindContent(ProcessContext context, ProcessSession session, ServerEvaluationCall call,
+                               FlowFile flowFile, String contentVariable, String contentFormat) throws IOException {
+        if (contentVariable == null || contentVariable.isEmpty()) {
+            return null;
+        }
+        if (STR_FORMAT_BINARY.equals(contentFormat)) {
+            final String uri = TEMPORARY_URI_PREFIX + UUID.randomUUID() + ".bin";
+            DocumentMetadataHandle metadata = new DocumentMetadataHandle().withCollections(TEMPORARY_COLLECTION);
+            try (InputStream content = session.read(flowFile)) {
+                getDatabaseClient(context).newBinaryDocumentManager()
+                    .write(uri, metadata, new InputStreamHandle(content).withFormat(Format.BINARY));
+            }
+            call.addVariable(contentVariable, uri);
+            return uri;
+        }
+        try (InputStream content = session.read(flowFile)) {
+            if (STR_FORMAT_STRING.equals(contentFormat)) {
+                call.addVariable(contentVariable, new String(content.readAllBytes(), UTF8));
+            } else {
+                call.addVariable(contentVariable, new BytesHandle(content.readAllBytes()).withFormat(toFormat(contentFormat)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A failure to delete the document does not fail the FlowFile, as the script has already run; the document can be
+     * found via its collection and deleted later.
+     */
+    private void deleteTemporaryDocument(ProcessContext context, String uri) {
+        try {
+            getDatabaseClient(context).newBinaryDocumentManager().delete(uri);
+        } catch (Exception ex) {
+            getLogger().warn("Unable to delete temporary document " + uri + " in collection " + TEMPORARY_COLLECTION +
+                "; cause: " + ex.getMessage());
+        }
+    }
+
+    private static Format toFormat(String contentFormat) {
+        switch (contentFormat) {
+            case STR_FORMAT_JSON:
+                return Format.JSON;
+            case STR_FORMAT_XML:
+                return Format.XML;
+            default:
+                return Format.TEXT;
+        }
+    }
+
+    /**
+     * Sends each result to the results, first result, and last result relationships, and the incoming FlowFile, with
+     * the number of results, to the original relationship. Each result is read from MarkLogic once, into a single
+     * FlowFile; the FlowFiles for the first and last result relationships are clones that share its content. The
+     * FlowFile for the most recent result is only transferred once the next result is read, so that it can still be
+     * cloned if it turns out to be the last result.
+     */
+    private void transferResults(ProcessSession session, FlowFile incomingFlowFile, Iterator<ScriptResult> results,
+                                 String resultsDest, boolean skipFirst) throws IOException {
+        final Map<String, String> attributes = incomingFlowFile.getAttributes();
+        int count = 0;
+        FlowFile previousResult = null;
+
+        while (results.hasNext()) {
+            count++;
+            FlowFile resultFF = resultToFlowFile(session, results.next(), createFlowFileWithAttributes(session, attributes), resultsDest);
+            if (count == 1) {
+                if (skipFirst) {
+                    session.transfer(resultFF, FIRST_RESULT);
+                    continue;
+                }
+                session.transfer(session.clone(resultFF), FIRST_RESULT);
+            }
+            if (previousResult != null) {
+                session.transfer(previousResult, RESULTS);
+            }
+            previousResult = resultFF;
+        }
+
+        if (previousResult != null) {
+            session.transfer(session.clone(previousResult), LAST_RESULT);
+            session.transfer(previousResult, RESULTS);
+        }
+
+        incomingFlowFile = session.putAttribute(incomingFlowFile, MARKLOGIC_RESULTS_COUNT, Integer.toString(count));
+        session.transfer(incomingFlowFile, ORIGINAL);
+    }
+
+    /**
+     * Streams every result into a single FlowFile, separated by the delimiter, so that neither the results nor a
+     * FlowFile per result need to be held by NiFi at once.
+     */
+    private void transferCombinedResults(ProcessSession session, FlowFile incomingFlowFile, Iterator<ScriptResult> results,
+                                         boolean skipFirst, String delimiter) {
+        final byte[] delimiterBytes = delimiter != null ? delimiter.getBytes(UTF8) : new byte[0];
+        final int[] counts = new int[2];
+        FlowFile combined = session.write(createFlowFileWithAttributes(session, incomingFlowFile.getAttributes()), out -> {
+            while (results.hasNext()) {
+                final ScriptResult result = results.next();
+                if (counts[0]++ == 0 && skipFirst) {
+                    result.writeTo(OutputStream.nullOutputStream());
+                    continue;
                 }
-                if (count > 1 || !skipFirst) {
-                    FlowFile resultFF = createFlowFileWithAttributes(session, incomingFlowFile.getAttributes());
-                    resultToFlowFile(session, resultStr, resultFF, resultsDest);
-                    session.transfer(resultFF, RESULTS);
+                if (counts[1]++ > 0) {
+                    out.write(delimiterBytes);
                 }
+                result.writeTo(out);
             }
+        });
 
-            incomingFlowFile = session.putAttribute(incomingFlowFile, MARKLOGIC_RESULTS_COUNT, Integer.toString(count));
-            session.transfer(incomingFlowFile, ORIGINAL);
+        if (counts[1] > 0) {
+            combined = session.putAttribute(combined, MARKLOGIC_RESULTS_COUNT, Integer.toString(counts[1]));
+            session.transfer(combined, RESULTS);
+        } else {
+            session.remove(combined);
+        }
+        incomingFlowFile = session.putAttribute(incomingFlowFile, MARKLOGIC_RESULTS_COUNT, Integer.toString(counts[0]));
+        session.transfer(incomingFlowFile, ORIGINAL);
+    }
 
-            if (last != null && (count > 1 || !skipFirst)) {
-                FlowFile lastFF = createFlowFileWithAttributes(session, incomingFlowFile.getAttributes());
-                resultToFlowFile(session, last, lastFF, resultsDest);
-                session.transfer(lastFF, LAST_RESULT);
+    /**
+     * Executes the script once for every FlowFile in the batch, binding the FlowFiles as a JSON array, and maps the
+     * results back to the FlowFiles they belong to. Each FlowFile's results are then routed as if the script had been
+     * executed for that FlowFile alone. The script or module is determined by the first FlowFile in the batch.
+     */
+    private void executeBatch(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles) {
+        final FlowFile firstFlowFile = flowFiles.get(0);
+        final String resultsDest = context.getProperty(RESULTS_DESTINATION).getValue();
+        final boolean skipFirst = context.getProperty(SKIP_FIRST).getValue().equals("true");
+        final boolean correlateByKey = STR_CORRELATION_KEY.equals(context.getProperty(BATCH_CORRELATION).getValue());
+        final String contentVariable = context.getProperty(CONTENT_VARIABLE).evaluateAttributeExpressions(firstFlowFile).getValue();
+
+        final List<List<ScriptResult>> itemResults = new ArrayList<>();
+        final String[] itemErrors = new String[flowFiles.size()];
+        try {
+            ServerEvaluationCall call = buildCall(context, session, flowFiles);
+            final JsonArray batch = new JsonArray();
+            final Map<String, Integer> indexesById = new HashMap<>();
+            for (int i = 0; i < flowFiles.size(); i++) {
+                final FlowFile flowFile = flowFiles.get(i);
+                final String id = flowFile.getAttribute("uuid");
+                indexesById.put(id, i);
+                itemResults.add(new ArrayList<>());
+                batch.add(buildBatchItem(context, session, flowFile, i, id,
+                    contentVariable != null && !contentVariable.isEmpty() ? context.getProperty(CONTENT_FORMAT).getValue() : null));
             }
+            call.addVariable(context.getProperty(BATCH_VARIABLE).getValue(), new StringHandle(batch.toString()).withFormat(Format.JSON));
+
+            int index = 0;
+            // Closed even if mapping a result fails, so that the response and its connection are released
+            try (EvalResultIterator evalResults = call.eval()) {
+                for (EvalResult result : evalResults) {
+                    final String resultStr = result.getString();
+                    final JsonObject resultObject = Format.JSON.equals(result.getFormat()) ? parseObject(resultStr) : null;
+                    Integer item;
+                    if (correlateByKey) {
+                        final JsonElement id = resultObject != null ? resultObject.get("id") : null;
+                        item = id != null && id.isJsonPrimitive() ? indexesById.get(id.getAsString()) : null;
+                    } else {
+                        item = index < flowFiles.size() ? index : null;
+                        index++;
+                    }
+                    if (item == null) {
+                        getLogger().warn("Ignoring result that cannot be mapped to a FlowFile in the batch: " + abbreviate(resultStr));
+                    } else if (resultObject != null && resultObject.has("error")) {
+                        final JsonElement error = resultObject.get("error");
+                        itemErrors[item] = error.isJsonPrimitive() ? error.getAsString() : error.toString();
+                    } else {
+                        itemResults.get(item).add(ScriptResult.buffered(resultStr));
+                    }
+                }
+            }
+            if (!correlateByKey && index < flowFiles.size()) {
+                getLogger().warn("Expected " + flowFiles.size() + " results, one for each FlowFile in the batch, but " +
+                    "received " + index);
+                for (int i = index; i < flowFiles.size(); i++) {
+                    itemErrors[i] = "No result was returned for this FlowFile";
+                }
+            }
+        } catch (final Throwable t) {
+            logError(t);
+            for (FlowFile flowFile : flowFiles) {
+                addErrorMessageToFlowFile(t.getMessage(), flowFile, session);
+                session.transfer(flowFile, FAILURE);
+            }
+            session.commitAsync();
+            return;
+        }
 
+        try {
+            for (int i = 0; i < flowFiles.size(); i++) {
+                final FlowFile flowFile = flowFiles.get(i);
+                if (itemErrors[i] != null) {
+                    addErrorMessageToFlowFile(itemErrors[i], flowFile, session);
+                    session.transfer(flowFile, FAILURE);
+                } else {
+                    transferResults(session, flowFile, itemResults.get(i).iterator(), resultsDest, skipFirst);
+                }
+            }
             session.commitAsync();
         } catch (final Throwable t) {
-            logErrorAndTransfer(t, incomingFlowFile, session, FAILURE);
+            logError(t);
+            session.rollback(true);
+        }
+    }
+
+    /**
+     * @param contentFormat determines how the content is added to the item, or null if it should not be added; JSON
+     *                      content is added as JSON, binary content is added as a base64-encoded string, and any
+     *                      other content is added as a string
+     */
+    private JsonObject buildBatchItem(ProcessContext context, ProcessSession session, FlowFile flowFile, int index,
+                                      String id, String contentFormat) throws IOException {
+        final JsonObject item = new JsonObject();
+        item.addProperty("index", index);
+        item.addProperty("id", id);
+        final JsonObject attributes = new JsonObject();
+        flowFile.getAttributes().forEach(attributes::addProperty);
+        item.add("attributes", attributes);
+        final JsonObject variables = new JsonObject();
+        for (PropertyDescriptor entry : context.getProperties().keySet()) {
+            if (entry.isDynamic()) {
+                variables.addProperty(entry.getName(), context.getProperty(entry).evaluateAttributeExpressions(flowFile).getValue());
+            }
         }
+        item.add("variables", variables);
+        if (contentFormat != null) {
+            try (InputStream content = session.read(flowFile)) {
+                if (STR_FORMAT_BINARY.equals(contentFormat)) {
+                    item.addProperty("content", Base64.getEncoder().encodeToString(content.readAllBytes()));
+                } else if (STR_FORMAT_JSON.equals(contentFormat)) {
+                    item.add("content", JsonParser.parseReader(new InputStreamReader(content, UTF8)));
+                } else {
+                    item.addProperty("content", new String(content.readAllBytes(), UTF8));
+                }
+            }
+        }
+        return item;
+    }
+
+    private static JsonObject parseObject(String json) {
+        try {
+            JsonElement element = JsonParser.parseString(json);
+            return element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static String abbreviate(String value) {
+        return value != null && value.length() > 200 ? value.substring(0, 200) + "..." : value;
     }
 
     private ServerEvaluationCall buildCall(ProcessContext context, ProcessSession session, FlowFile originalFlowFile) {
+        return buildCall(context, session, List.of(originalFlowFile));
+    }
+
+    /**
+     * Builds the call based on the first FlowFile, and records the executed script or module on every FlowFile.
+     */
+    private ServerEvaluationCall buildCall(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles) {
+        final FlowFile originalFlowFile = flowFiles.get(0);
         DatabaseClient client = getDatabaseClient(context);
         PropertyValue executionTypeProp = context.getProperty(EXECUTION_TYPE);
         Objects.requireNonNull(executionTypeProp);
@@ -282,48 +809,84 @@ public class ExecuteScriptMarkLogic extends AbstractMarkLogicProcessor {
             PropertyValue modulePathProp = context.getProperty(MODULE_PATH);
             Objects.requireNonNull(modulePathProp);
             String modulePath = modulePathProp.evaluateAttributeExpressions(originalFlowFile).getValue();
-            session.putAttribute(originalFlowFile, "marklogic-module-path", modulePath);
+            flowFiles.forEach(flowFile -> session.putAttribute(flowFile, "marklogic-module-path", modulePath));
             return call.modulePath(modulePath);
         }
 
         PropertyValue scriptBodyProp = context.getProperty(SCRIPT_BODY);
         Objects.requireNonNull(scriptBodyProp);
         final String scriptBody = scriptBodyProp.evaluateAttributeExpressions(originalFlowFile).getValue();
-        session.putAttribute(originalFlowFile, "marklogic-script-body", scriptBody);
+        flowFiles.forEach(flowFile -> session.putAttribute(flowFile, "marklogic-script-body", scriptBody));
         return STR_JAVASCRIPT.equals(executionType) ? call.javascript(scriptBody) : call.xquery(scriptBody);
     }
 
-    private void resultToFlowFile(ProcessSession session, String resultStr, FlowFile flowFile, String resultsDest) {
-        synchronized (session) {
-            if (resultsDest.equals("Content")) {
-                // write the query result to the FlowFile content
-                session.write(flowFile, (in, out) -> out.write(resultStr.getBytes(UTF8)));
-            } else if (resultsDest.equals("Attribute")) {
-                session.putAttribute(flowFile, MARKLOGIC_RESULT, resultStr);
-            } else {
-                JsonElement jelement = JsonParser.parseString(resultStr);
-                JsonObject obj = jelement.getAsJsonObject();
-                for (Entry<String, JsonElement> entry : obj.entrySet()) {
-                    String property = entry.getKey();
-                    String value;
-                    JsonElement propertyValue = entry.getValue();
-                    if (propertyValue instanceof JsonObject) {
-                        value = "[object]";
-                    } else if (propertyValue instanceof JsonArray) {
-                        value = "[array]";
-                    } else if (propertyValue == null || propertyValue.isJsonNull()) {
-                        value = "";
-                    } else {
-                        value = entry.toString();
-                    }
+    /**
+     * Only one thread uses the session at a time - when 'Max Concurrent Calls' is set, the triggering thread hands the
+     * session off to the thread making the call and does not use it again - so results are written without locking it.
+     *
+     * @return the FlowFile with the result written to it
+     */
+    private FlowFile resultToFlowFile(ProcessSession session, ScriptResult result, FlowFile flowFile, String resultsDest) throws IOException {
+        if (resultsDest.equals("Content")) {
+            // stream the result to the FlowFile content
+            return session.write(flowFile, out -> result.writeTo(out));
+        } else if (resultsDest.equals("Attribute")) {
+            return session.putAttribute(flowFile, MARKLOGIC_RESULT, result.getString());
+        } else {
+            // tokens are read from the result as it is streamed, and nested structures are skipped unless selected
+            final Map<String, String> attributes;
+            try (InputStream in = result.getInputStream()) {
+                attributes = jsonAttributeExtractor.extract(in);
+            }
+            return session.putAllAttributes(flowFile, attributes);
+        }
+    }
 
-                    if (value == null) {
-                        value = "";
-                    }
-                    session.putAttribute(flowFile, property, value);
+    /**
+     * A single result returned by the script, which is either streamed from MarkLogic when it is written to a FlowFile,
+     * or was already read into a String, such as when results in a batch are mapped back to their FlowFiles.
+     */
+    private interface ScriptResult {
+
+        String getString();
+
+        InputStream getInputStream();
+
+        default void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = getInputStream()) {
+                if (in != null) {
+                    in.transferTo(out);
                 }
             }
         }
+
+        static ScriptResult streamed(EvalResult evalResult) {
+            return new ScriptResult() {
+                @Override
+                public String getString() {
+                    return evalResult.getString();
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return evalResult.get(new InputStreamHandle()).get();
+                }
+            };
+        }
+
+        static ScriptResult buffered(String value) {
+            return new ScriptResult() {
+                @Override
+                public String getString() {
+                    return value;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(value.getBytes(UTF8));
+                }
+            };
+        }
     }
 
     @Override
@@ -204,6 +204,31 @@ public class ExtensionCallMarkLogic extends AbstractMarkLogicProcessor {
         return resourceManager.callService(method, requestBody, requestParams);
     }
 
+    /**
+     * POSTs the payload of each of the given FlowFiles as a separate part of a single multipart request. The request
+     * parameters are evaluated against the first FlowFile.
+     *
+     * @param context
+     * @param session
+     * @param flowFiles
+     * @param correlationParam name of the request parameter that the correlation IDs are sent as
+     * @param correlationIds   one per FlowFile, in the same order as the parts, so that the extension can identify
+     *                         each part; ignored if null
+     * @return
+     */
+    protected ServiceResultIterator callExtensionWithParts(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles,
+                                                           String correlationParam, String[] correlationIds) {
+        BytesHandle[] requestBodies = new BytesHandle[flowFiles.size()];
+        for (int i = 0; i < flowFiles.size(); i++) {
+            requestBodies[i] = buildRequestBody(context, session, flowFiles.get(i));
+        }
+        RequestParameters requestParams = buildRequestParameters(context, flowFiles.get(0));
+        if (correlationIds != null) {
+            requestParams.add(correlationParam, correlationIds);
+        }
+        return resourceManager.callServiceWithParts(requestBodies, requestParams);
+    }
+
     private BytesHandle buildRequestBody(ProcessContext context, ProcessSession session, FlowFile flowFile) {
         BytesHandle requestBody = new BytesHandle();
         PropertyValue payloadSourceProp = context.getProperty(PAYLOAD_SOURCE);
@@ -293,6 +318,13 @@ public class ExtensionCallMarkLogic extends AbstractMarkLogicProcessor {
             }
             return serviceResultIterator;
         }
+
+        /**
+         * The Java Client sends a multipart/mixed request when more than one input is given.
+         */
+        protected ServiceResultIterator callServiceWithParts(BytesHandle[] requestBodies, RequestParameters parameters) {
+            return getServices().post(parameters, requestBodies);
+        }
     }
 
     public static class PayloadSources {
@@ -0,0 +1,540 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.document.DocumentPage;
+import com.marklogic.client.document.DocumentRecord;
+import com.marklogic.client.document.GenericDocumentManager;
+import com.marklogic.client.document.ServerTransform;
+import com.marklogic.client.eval.EvalResult;
+import com.marklogic.client.eval.EvalResultIterator;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.InputStreamHandle;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SystemResource;
+import org.apache.nifi.annotation.behavior.SystemResourceConsideration;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.marklogic.processor.util.DocumentCache;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+@Tags({"MarkLogic", "Get", "Fetch", "Read", "Document"})
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@CapabilityDescription("Fetches documents from MarkLogic by URI. URIs are collected from up to 'Max FlowFiles' " +
+    "incoming FlowFiles at a time and are read in batches of 'Batch Size' URIs, with up to 'Thread Count' batches " +
+    "read in parallel. Requires a MarkLogic user with the 'rest-reader' privilege, and with the privileges required " +
+    "by the MarkLogic 'eval' endpoint when validating cached documents.")
+@SystemResourceConsideration(resource = SystemResource.MEMORY,
+    description = "Documents are streamed into FlowFiles unless they are being cached, but the MarkLogic client " +
+        "reads each batch as a single multipart response, so 'Batch Size' should be reduced when fetching large documents")
+@WritesAttributes({
+    @WritesAttribute(attribute = "filename", description = "The URI of the fetched document"),
+    @WritesAttribute(attribute = "mime.type", description = "The mimetype of the fetched document"),
+    @WritesAttribute(attribute = "markLogicErrorMessage", description = "The error message for a FlowFile sent to failure")
+})
+public class FetchMarkLogic extends AbstractMarkLogicProcessor {
+
+    public static final PropertyDescriptor URI_SOURCE = new PropertyDescriptor.Builder()
+        .name("URI Source").displayName("URI Source")
+        .defaultValue(UriSources.ATTRIBUTE.getValue())
+        .description("Where the URIs of the documents to fetch are read from")
+        .required(true).allowableValues(UriSources.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor URI_ATTRIBUTE = new PropertyDescriptor.Builder()
+        .name("URI Attribute").displayName("URI Attribute").defaultValue(CoreAttributes.FILENAME.key())
+        .description("The attribute containing the URI of the document to fetch when the URI Source is '" +
+            UriSources.ATTRIBUTE_STR + "'")
+        .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor MAX_FLOWFILES = new PropertyDescriptor.Builder()
+        .name("Max FlowFiles").displayName("Max FlowFiles").defaultValue("100")
+        .description("The maximum number of incoming FlowFiles whose URIs are fetched together")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    public static final PropertyDescriptor CACHE_SIZE = new PropertyDescriptor.Builder()
+        .name("Cache Size").displayName("Cache Size").defaultValue("0 B")
+        .description("The maximum total size of documents to cache in memory, keyed by URI, so that documents read " +
+            "repeatedly are not read from MarkLogic each time. The least recently used documents are evicted once the " +
+            "cache is full. Set to '0 B' to disable caching.")
+        .required(true).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+        .name("Cache TTL").displayName("Cache TTL")
+        .description("If set, cached documents older than this are read from MarkLogic again")
+        .required(false).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor CACHE_VALIDATION = new PropertyDescriptor.Builder()
+        .name("Cache Validation").displayName("Cache Validation")
+        .defaultValue(CacheValidations.NONE.getValue())
+        .description("How a cached document is checked against the document in MarkLogic before it is used")
+        .required(true).allowableValues(CacheValidations.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor CACHE_STORAGE = new PropertyDescriptor.Builder()
+        .name("Cache Storage").displayName("Cache Storage")
+        .defaultValue(CacheStorages.HEAP.getValue())
+        .description("Where cached documents are stored")
+        .required(true).allowableValues(CacheStorages.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    protected static final Relationship SUCCESS = new Relationship.Builder().name("success")
+        .description("A FlowFile containing a fetched document is sent to this relationship").build();
+
+    protected static final Relationship NOT_FOUND = new Relationship.Builder().name("not found")
+        .description("A FlowFile for a URI that does not identify a document, or that the user cannot read, is sent " +
+            "to this relationship").build();
+
+    protected static final Relationship FAILURE = new Relationship.Builder().name("failure")
+        .description("An incoming FlowFile is sent to this relationship if any of its URIs could not be fetched due " +
+            "to an error. When the URI Source is '" + UriSources.CONTENT_STR + "', no FlowFiles are created for the " +
+            "URIs of an incoming FlowFile sent to this relationship, so that it can be retried without duplicating " +
+            "documents.").build();
+
+    protected static final Relationship ORIGINAL = new Relationship.Builder().name("original")
+        .description("When the URI Source is '" + UriSources.CONTENT_STR + "', each incoming FlowFile is sent to " +
+            "this relationship once all of its URIs have been fetched").build();
+
+    // Returns the timestamp of the request, followed by the URI and timestamp of each of the given documents that exists
+    private static final String DOCUMENT_TIMESTAMPS_QUERY = "declare variable $URIS as xs:string external; " +
+        "xdmp:request-timestamp(), " +
+        "for $uri in fn:tokenize($URIS, '\n')[. ne ''] " +
+        "let $timestamp := xdmp:document-timestamp($uri) " +
+        "where fn:exists($timestamp) " +
+        "return ($uri, $timestamp)";
+
+    private volatile ExecutorService executor;
+    private volatile DocumentCache documentCache;
+    private volatile boolean validateCachedVersions;
+
+    @Override
+    public void init(ProcessorInitializationContext context) {
+        super.init(context);
+
+        List<PropertyDescriptor> list = new ArrayList<>();
+        list.add(DATABASE_CLIENT_SERVICE);
+        list.add(URI_SOURCE);
+        list.add(URI_ATTRIBUTE);
+        list.add(MAX_FLOWFILES);
+        list.add(BATCH_SIZE);
+        list.add(THREAD_COUNT);
+        list.add(TRANSFORM);
+        list.add(CACHE_SIZE);
+        list.add(CACHE_TTL);
+        list.add(CACHE_VALIDATION);
+        list.add(CACHE_STORAGE);
+        properties = Collections.unmodifiableList(list);
+
+        Set<Relationship> set = new HashSet<>();
+        set.add(SUCCESS);
+        set.add(NOT_FOUND);
+        set.add(FAILURE);
+        set.add(ORIGINAL);
+        relationships = Collections.unmodifiableSet(set);
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        Set<ValidationResult> validationResultSet = new HashSet<>();
+        if (UriSources.ATTRIBUTE_STR.equals(validationContext.getProperty(URI_SOURCE).getValue())
+            && !validationContext.getProperty(URI_ATTRIBUTE).isSet()) {
+            validationResultSet.add(new ValidationResult.Builder().subject(URI_ATTRIBUTE.getDisplayName()).valid(false)
+                .explanation("A URI Attribute is required when the URI Source is '" + UriSources.ATTRIBUTE_STR + "'").build());
+        }
+        return validationResultSet;
+    }
+
+    @OnScheduled
+    public void onScheduled(ProcessContext context) {
+        executor = Executors.newFixedThreadPool(context.getProperty(THREAD_COUNT).asInteger());
+
+        final long cacheBytes = context.getProperty(CACHE_SIZE).asDataSize(DataUnit.B).longValue();
+        if (cacheBytes > 0) {
+            final long ttlMillis = context.getProperty(CACHE_TTL).isSet() ?
+                context.getProperty(CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+            final boolean offHeap = CacheStorages.OFF_HEAP_STR.equals(context.getProperty(CACHE_STORAGE).getValue());
+            documentCache = new DocumentCache(cacheBytes, ttlMillis, offHeap);
+            validateCachedVersions = CacheValidations.VERSION_STR.equals(context.getProperty(CACHE_VALIDATION).getValue());
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (documentCache != null) {
+            documentCache.clear();
+            documentCache = null;
+        }
+        lastReportedCacheBytes = 0;
+    }
+
+    // The size of the cache is reported as a counter, which can only be adjusted by a delta
+    private long lastReportedCacheBytes;
+
+    private synchronized void reportCacheStatistics(ProcessSession session) {
+        DocumentCache cache = documentCache;
+        if (cache == null) {
+            return;
+        }
+        DocumentCache.Statistics statistics = cache.drainStatistics();
+        session.adjustCounter("Cache Hits", statistics.getHits(), false);
+        session.adjustCounter("Cache Misses", statistics.getMisses(), false);
+        session.adjustCounter("Cache Evictions", statistics.getEvictions(), false);
+        session.adjustCounter("Cache Bytes", statistics.getBytes() - lastReportedCacheBytes, false);
+        lastReportedCacheBytes = statistics.getBytes();
+    }
+
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        final ProcessSession session = sessionFactory.createSession();
+        super.populatePropertiesByPrefix(context);
+
+        List<FlowFile> flowFiles = session.get(context.getProperty(MAX_FLOWFILES).asInteger());
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        try {
+            new FetchRequest(context, session, flowFiles).fetch();
+        } catch (Throwable t) {
+            logError(t);
+            synchronized (session) {
+                session.rollback(true);
+            }
+            context.yield();
+        }
+    }
+
+    /**
+     * Fetches the URIs of a group of incoming FlowFiles. Documents are written to FlowFiles by the threads reading
+     * them, with access to the session synchronized as the session is not thread-safe.
+     */
+    private class FetchRequest {
+        private final ProcessSession session;
+        private final boolean urisInContent;
+        private final FlowFile[] flowFiles;
+        private final String[] errorMessages;
+        private final boolean[] found;
+        // When URIs are read from content, the FlowFiles created for each incoming FlowFile are only transferred once
+        // all of its URIs have been fetched, and are removed instead if any of them failed
+        private final List<List<FlowFile>> foundChildren = new ArrayList<>();
+        private final List<List<FlowFile>> notFoundChildren = new ArrayList<>();
+        // Each distinct URI is fetched once, and its document is written for every FlowFile that requested it
+        private final Map<String, List<Integer>> requestersByUri = new LinkedHashMap<>();
+        private final DatabaseClient client;
+        private final GenericDocumentManager documentManager;
+        private final ServerTransform transform;
+        private final int batchSize;
+
+        FetchRequest(ProcessContext context, ProcessSession session, List<FlowFile> incomingFlowFiles) {
+            this.session = session;
+            this.urisInContent = UriSources.CONTENT_STR.equals(context.getProperty(URI_SOURCE).getValue());
+            this.flowFiles = incomingFlowFiles.toArray(new FlowFile[0]);
+            this.errorMessages = new String[flowFiles.length];
+            this.found = new boolean[flowFiles.length];
+            this.client = getDatabaseClient(context);
+            this.documentManager = client.newDocumentManager();
+            this.transform = buildServerTransform(context);
+            this.batchSize = context.getProperty(BATCH_SIZE).asInteger();
+
+            final String uriAttribute = context.getProperty(URI_ATTRIBUTE).getValue();
+            for (int i = 0; i < flowFiles.length; i++) {
+                foundChildren.add(new ArrayList<>());
+                notFoundChildren.add(new ArrayList<>());
+                for (String uri : readUris(flowFiles[i], uriAttribute)) {
+                    requestersByUri.computeIfAbsent(uri, key -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        private List<String> readUris(FlowFile flowFile, String uriAttribute) {
+            List<String> uris = new ArrayList<>();
+            if (urisInContent) {
+                session.read(flowFile, in -> {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            uris.add(line.trim());
+                        }
+                    }
+                });
+            } else {
+                String uri = flowFile.getAttribute(uriAttribute);
+                if (uri != null && !uri.trim().isEmpty()) {
+                    uris.add(uri.trim());
+                }
+            }
+            return uris;
+        }
+
+        void fetch() throws InterruptedException {
+            List<String> uris = new ArrayList<>(requestersByUri.keySet());
+            List<Future<?>> futures = new ArrayList<>();
+            for (int start = 0; start < uris.size(); start += batchSize) {
+                String[] batch = uris.subList(start, Math.min(start + batchSize, uris.size())).toArray(new String[0]);
+                futures.add(executor.submit(() -> fetchBatch(batch)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    // fetchBatch handles its own errors, so this is not expected
+                    logError(ex.getCause());
+                }
+            }
+            transferIncomingFlowFiles();
+        }
+
+        /**
+         * Writes each cached document that is still valid, and reads the remaining documents with a single request.
+         * When cached documents are validated, a single request is first made for the timestamps of the cached
+         * documents, which also returns the timestamp that the remaining documents are cached at.
+         */
+        private void fetchBatch(String[] uris) {
+            final DocumentCache cache = documentCache;
+            Set<String> notFound = new LinkedHashSet<>();
+            Set<String> toRead = new LinkedHashSet<>();
+            Set<String> written = new HashSet<>();
+            try {
+                long readTimestamp = DocumentCache.UNKNOWN_VERSION;
+                Set<String> cachedUris = new HashSet<>();
+                Map<String, Long> timestamps = null;
+                if (cache != null && validateCachedVersions) {
+                    Arrays.stream(uris).filter(cache::contains).forEach(cachedUris::add);
+                    timestamps = new HashMap<>();
+                    readTimestamp = readDocumentTimestamps(cachedUris, timestamps);
+                }
+
+                for (String uri : uris) {
+                    long version = DocumentCache.UNKNOWN_VERSION;
+                    if (timestamps != null && cachedUris.contains(uri)) {
+                        Long timestamp = timestamps.get(uri);
+                        if (timestamp == null) {
+                            cache.invalidate(uri);
+                            notFound.add(uri);
+                            continue;
+                        }
+                        version = timestamp;
+                    }
+                    DocumentCache.Entry entry = cache != null ? cache.get(uri, version) : null;
+                    if (entry != null) {
+                        writeDocument(uri, entry.getMimetype(), new ByteArrayInputStream(entry.getContent()));
+                        written.add(uri);
+                    } else {
+                        toRead.add(uri);
+                    }
+                }
+
+                if (!toRead.isEmpty()) {
+                    Set<String> unread = new LinkedHashSet<>(toRead);
+                    try (DocumentPage page = documentManager.read(transform, unread.toArray(new String[0]))) {
+                        for (DocumentRecord record : page) {
+                            final String uri = record.getUri();
+                            unread.remove(uri);
+                            // A document is only buffered when it needs to be cached
+                            if (cache != null) {
+                                final byte[] content = record.getContent(new BytesHandle()).get();
+                                cache.put(uri, content, record.getMimetype(), readTimestamp);
+                                writeDocument(uri, record.getMimetype(), new ByteArrayInputStream(content));
+                            } else {
+                                try (InputStream content = record.getContent(new InputStreamHandle()).get()) {
+                                    writeDocument(uri, record.getMimetype(), content);
+                                }
+                            }
+                            written.add(uri);
+                        }
+                    }
+                    notFound.addAll(unread);
+                }
+            } catch (Throwable t) {
+                logError(t);
+                final String message = t.getMessage() != null ? t.getMessage() : t.toString();
+                synchronized (session) {
+                    for (String uri : uris) {
+                        if (written.contains(uri)) {
+                            continue;
+                        }
+                        requestersByUri.get(uri).forEach(index -> errorMessages[index] = message);
+                    }
+                }
+                return;
+            }
+            notFound.forEach(this::writeNotFound);
+        }
+
+        /**
+         * @param uris       the URIs of cached documents to return the timestamps of
+         * @param timestamps populated with the timestamp of the most recent update of each document that still exists
+         * @return the timestamp of the request; a document read after this request is cached with this timestamp, and
+         * is only considered stale once it has been updated at a later timestamp
+         */
+        private long readDocumentTimestamps(Set<String> uris, Map<String, Long> timestamps) {
+            try (EvalResultIterator results = client.newServerEval()
+                .xquery(DOCUMENT_TIMESTAMPS_QUERY)
+                .addVariable("URIS", String.join("\n", uris))
+                .eval()) {
+                final long requestTimestamp = Long.parseLong(results.next().getString());
+                while (results.hasNext()) {
+                    final String uri = results.next().getString();
+                    final EvalResult timestamp = results.next();
+                    timestamps.put(uri, Long.parseLong(timestamp.getString()));
+                }
+                return requestTimestamp;
+            }
+        }
+
+        /**
+         * Streams a document into the FlowFile of its first requester, and copies it from that FlowFile for any other
+         * requesters so that the document only needs to be read once.
+         */
+        private void writeDocument(String uri, String mimetype, InputStream content) throws IOException {
+            synchronized (session) {
+                FlowFile firstFlowFile = null;
+                for (int index : requestersByUri.get(uri)) {
+                    FlowFile flowFile = urisInContent ? session.create(flowFiles[index]) : flowFiles[index];
+                    try {
+                        if (firstFlowFile == null) {
+                            flowFile = session.importFrom(content, flowFile);
+                        } else {
+                            try (InputStream in = session.read(firstFlowFile)) {
+                                flowFile = session.importFrom(in, flowFile);
+                            }
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        if (urisInContent) {
+                            session.remove(flowFile);
+                        }
+                        throw ex;
+                    }
+                    flowFile = session.putAttribute(flowFile, CoreAttributes.FILENAME.key(), uri);
+                    if (mimetype != null) {
+                        flowFile = session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), mimetype);
+                    }
+                    if (firstFlowFile == null) {
+                        firstFlowFile = flowFile;
+                    }
+                    if (urisInContent) {
+                        foundChildren.get(index).add(flowFile);
+                    } else {
+                        flowFiles[index] = flowFile;
+                        found[index] = true;
+                    }
+                }
+            }
+        }
+
+        private void writeNotFound(String uri) {
+            if (!urisInContent) {
+                return;
+            }
+            synchronized (session) {
+                for (int index : requestersByUri.get(uri)) {
+                    FlowFile flowFile = session.putAttribute(session.create(flowFiles[index]), CoreAttributes.FILENAME.key(), uri);
+                    notFoundChildren.get(index).add(flowFile);
+                }
+            }
+        }
+
+        private void transferIncomingFlowFiles() {
+            synchronized (session) {
+                for (int i = 0; i < flowFiles.length; i++) {
+                    FlowFile flowFile = flowFiles[i];
+                    if (errorMessages[i] != null) {
+                        session.remove(foundChildren.get(i));
+                        session.remove(notFoundChildren.get(i));
+                        session.transfer(session.putAttribute(flowFile, "markLogicErrorMessage", errorMessages[i]), FAILURE);
+                    } else if (urisInContent) {
+                        session.transfer(foundChildren.get(i), SUCCESS);
+                        session.transfer(notFoundChildren.get(i), NOT_FOUND);
+                        session.transfer(flowFile, ORIGINAL);
+                    } else {
+                        session.transfer(flowFile, found[i] ? SUCCESS : NOT_FOUND);
+                    }
+                }
+                reportCacheStatistics(session);
+                session.commitAsync();
+            }
+        }
+    }
+
+    public static class CacheValidations {
+        public static final String NONE_STR = "None";
+        public static final AllowableValue NONE = new AllowableValue(NONE_STR, NONE_STR,
+            "Cached documents are used without being checked, and are only read again once evicted or expired");
+        public static final String VERSION_STR = "Version";
+        public static final AllowableValue VERSION = new AllowableValue(VERSION_STR, VERSION_STR,
+            "Before the cached documents in a batch are used, a single request is made for the timestamps of their " +
+                "most recent updates, and a document is read again if it has been updated since it was cached or is " +
+                "not found if it no longer exists. Requires the privileges of the MarkLogic 'eval' endpoint.");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{NONE, VERSION};
+    }
+
+    public static class CacheStorages {
+        public static final String HEAP_STR = "Heap";
+        public static final AllowableValue HEAP = new AllowableValue(HEAP_STR, HEAP_STR,
+            "Cached documents are stored on the Java heap");
+        public static final String OFF_HEAP_STR = "Off-Heap";
+        public static final AllowableValue OFF_HEAP = new AllowableValue(OFF_HEAP_STR, OFF_HEAP_STR,
+            "Cached documents are stored in direct byte buffers, which are allocated outside the Java heap but are " +
+                "still held in the memory of the NiFi process; they are not spilled to disk. This avoids adding to " +
+                "garbage collection pressure for large caches, at the cost of copying a document onto the heap each " +
+                "time it is used. The JVM's maximum direct memory (-XX:MaxDirectMemorySize) must allow for the Cache Size.");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{HEAP, OFF_HEAP};
+    }
+
+    public static class UriSources {
+        public static final String ATTRIBUTE_STR = "Attribute";
+        public static final AllowableValue ATTRIBUTE = new AllowableValue(ATTRIBUTE_STR, ATTRIBUTE_STR,
+            "Each incoming FlowFile identifies a single URI via the URI Attribute. The document is written to the " +
+                "incoming FlowFile, which is sent to 'success', or the FlowFile is sent to 'not found'.");
+        public static final String CONTENT_STR = "Content";
+        public static final AllowableValue CONTENT = new AllowableValue(CONTENT_STR, CONTENT_STR,
+            "The content of each incoming FlowFile is a newline-delimited list of URIs. A new FlowFile is created " +
+                "for each URI and sent to 'success' or 'not found', and the incoming FlowFile is sent to 'original'.");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{ATTRIBUTE, CONTENT};
+    }
+}
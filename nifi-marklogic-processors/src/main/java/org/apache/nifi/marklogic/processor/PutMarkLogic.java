@@ -284,6 +284,7 @@ public class PutMarkLogic extends AbstractMarkLogicProcessor {
         list.add(URI_SUFFIX);
         list.add(DUPLICATE_URI_HANDLING);
         list.add(RESTART_FAILED_BATCHER);
+        list.add(SHARED_DATA_MOVEMENT_MANAGER);
         properties = Collections.unmodifiableList(list);
 
         Set<Relationship> set = new HashSet<>();
@@ -298,7 +299,7 @@ public class PutMarkLogic extends AbstractMarkLogicProcessor {
     public void onScheduled(ProcessContext context) {
         getLogger().info("OnScheduled");
         super.populatePropertiesByPrefix(context);
-        dataMovementManager = getDatabaseClient(context).newDataMovementManager();
+        dataMovementManager = getDataMovementManager(context);
         createAndStartWriteBatcher(context);
     }
 
@@ -325,7 +326,7 @@ public class PutMarkLogic extends AbstractMarkLogicProcessor {
         Objects.requireNonNull(threadCountProp);
 
         try {
-            this.writeBatcher = dataMovementManager.newWriteBatcher();
+            this.writeBatcher = applySharedForestConfiguration(context, dataMovementManager.newWriteBatcher());
             Objects.requireNonNull(this.writeBatcher);
             this.writeBatcher
                 .withJobId(jobIdProp.getValue())
@@ -360,6 +361,7 @@ public class PutMarkLogic extends AbstractMarkLogicProcessor {
                     }
                 }
             }).onBatchFailure((writeBatch, throwable) -> {
+                reportFailureToService(context, throwable);
                 for (WriteEvent writeEvent : writeBatch.getItems()) {
                     transferFlowFile(writeEvent, FAILURE);
                     duplicateFlowFileMap.remove(writeEvent.getTargetUri());
@@ -451,8 +453,9 @@ public class PutMarkLogic extends AbstractMarkLogicProcessor {
             PropertyValue restartFailedBatcherProp = context.getProperty(RESTART_FAILED_BATCHER);
             Objects.requireNonNull(restartFailedBatcherProp);
             if ("true".equals(restartFailedBatcherProp.getValue())) {
-                // Ensure that if the process has multiple tasks assigned to it, only one triggers this block.
-                synchronized (this.dataMovementManager) {
+                // Ensure that if the process has multiple tasks assigned to it, only one triggers this block. This
+                // does not lock the DataMovementManager, as it may be shared with other processors.
+                synchronized (this) {
                     if (this.writeBatcher.isStopped()) {
                         getLogger().info("Batcher is stopped; attempting to create and start a new batcher.");
                         if (!createAndStartNewBatcher(flowFile, context, session)) {
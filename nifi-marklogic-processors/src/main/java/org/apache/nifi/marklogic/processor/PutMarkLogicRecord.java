@@ -130,6 +130,7 @@ public class PutMarkLogicRecord extends PutMarkLogic {
         list.add(URI_PREFIX);
         list.add(URI_SUFFIX);
         list.add(RESTART_FAILED_BATCHER);
+        list.add(SHARED_DATA_MOVEMENT_MANAGER);
         properties = Collections.unmodifiableList(list);
 
         Set<Relationship> set = new HashSet<>();
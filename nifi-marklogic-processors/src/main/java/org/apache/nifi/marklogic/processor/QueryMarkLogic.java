@@ -18,40 +18,76 @@ package org.apache.nifi.marklogic.processor;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.datamovement.*;
 import com.marklogic.client.datamovement.impl.JobReportImpl;
 import com.marklogic.client.document.DocumentManager.Metadata;
+import com.marklogic.client.document.DocumentPage;
+import com.marklogic.client.document.GenericDocumentManager;
 import com.marklogic.client.document.ServerTransform;
 import com.marklogic.client.io.*;
+import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.query.QueryManager;
 import com.marklogic.client.query.RawCombinedQueryDefinition;
 import com.marklogic.client.query.StructuredQueryBuilder;
 import com.marklogic.client.query.StructuredQueryBuilder.Operator;
+import com.marklogic.client.query.Tuple;
 import com.marklogic.client.query.ValuesDefinition;
 import com.marklogic.client.util.EditableNamespaceContext;
 import org.apache.nifi.annotation.behavior.*;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
 import org.apache.nifi.components.*;
 import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.components.state.StateMap;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.controller.NodeTypeProvider;
+import org.apache.nifi.marklogic.controller.MarkLogicDatabaseClientService;
+import org.apache.nifi.marklogic.controller.TokenBucketRateLimiter;
+import org.apache.nifi.marklogic.processor.util.BackfillWindows;
+import org.apache.nifi.marklogic.processor.util.CheckpointStore;
+import org.apache.nifi.marklogic.processor.util.DocumentProjection;
+import org.apache.nifi.marklogic.processor.util.FileCheckpointStore;
+import org.apache.nifi.marklogic.processor.util.ForestPartitioner;
+import org.apache.nifi.marklogic.processor.util.PipelinedQueryBatchListener;
+import org.apache.nifi.marklogic.processor.util.QueryBatchCheckpoint;
+import org.apache.nifi.marklogic.processor.util.RateLimitedQueryBatchListener;
 import org.apache.nifi.marklogic.processor.util.QueryBatcherBuilder;
+import org.apache.nifi.marklogic.processor.util.QueryJobSummary;
 import org.apache.nifi.marklogic.processor.util.QueryBatcherContext;
 import org.apache.nifi.marklogic.processor.util.QueryTypes;
 import org.apache.nifi.marklogic.processor.util.RangeIndexQuery;
+import org.apache.nifi.marklogic.processor.util.StateCheckpointStore;
+import org.apache.nifi.marklogic.processor.util.StateQuery;
+import org.apache.nifi.marklogic.processor.util.TieBreakerRangeIndexQuery;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.EscapeUtils;
 import org.apache.nifi.util.StringUtils;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Supports querying MarkLogic via the Data Movement SDK (DMSDK). More information on DMSDK can be found at
@@ -86,11 +122,29 @@ import java.util.concurrent.atomic.AtomicLong;
     @WritesAttribute(
         attribute = "filename",
         description = "The filename is set to the URI of the document retrieved from MarkLogic"
+    ),
+    @WritesAttribute(
+        attribute = "marklogic-count",
+        description = "When the Return Type is 'Estimate' or 'Count', set on the original FlowFile to the number of " +
+            "documents matching the query"
+    ),
+    @WritesAttribute(
+        attribute = "marklogic-coalesced-requests",
+        description = "When a Coalescing Window is set, set on the original FlowFile that ran a job to the number of " +
+            "identical queued requests that were attached to that job when it started"
+    ),
+    @WritesAttribute(
+        attribute = "marklogic-coalesced-with",
+        description = "When a Coalescing Window is set, set on an original FlowFile that was attached to another " +
+            "request's job to the UUID of the FlowFile that ran the job"
     )
 })
 @Stateful(description = "Can keep state of a range index value to restrict future queries", scopes = {Scope.CLUSTER})
 public class QueryMarkLogic extends AbstractMarkLogicProcessor {
 
+    // The number of queued FlowFiles examined for identical requests when a job starts
+    static final int MAX_COALESCING_SCAN = 1000;
+
     public static final PropertyDescriptor CONSISTENT_SNAPSHOT = new PropertyDescriptor.Builder()
         .name("Consistent Snapshot").displayName("Consistent Snapshot").defaultValue("true")
         .description("Set to 'true' for query results to be based on the same server timestamp")
@@ -135,12 +189,170 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         .allowableValues(IndexTypes.allValues).defaultValue(IndexTypes.JSON_PROPERTY.getValue())
         .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
+    public static final PropertyDescriptor WATERMARK_MODE = new PropertyDescriptor.Builder().name("Watermark Mode")
+        .displayName("Watermark Mode").description("Determines how the most recent value in the State Index is used " +
+            "to select documents the next time the processor runs")
+        .required(true).allowableValues(WatermarkModes.allValues).defaultValue(WatermarkModes.GREATER_THAN_MAX.getValue())
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor WATERMARK_MAX_TIE_URIS = new PropertyDescriptor.Builder()
+        .name("Watermark Max Tie URIs").displayName("Watermark Max Tie URIs").defaultValue("1000")
+        .description("When the Watermark Mode is '" + WatermarkModes.URI_TIE_BREAKER_STR + "', the maximum number of " +
+            "URIs sharing the most recent State Index value that will be stored in state. If more documents than this " +
+            "share that value, the next query falls back to selecting only documents with a greater value.")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
     public static final PropertyDescriptor COLLECTIONS = new PropertyDescriptor.Builder().name("Collections")
         .displayName("Collections")
         .description(
             "Deprecated; use Query Type and Query instead. Comma-separated list of collections to query.")
         .required(false).addValidator(Validator.VALID).build();
 
+    public static final PropertyDescriptor CLUSTER_PARTITIONING = new PropertyDescriptor.Builder()
+        .name("Cluster Partitioning").displayName("Cluster Partitioning").defaultValue("false")
+        .description("When 'true', each NiFi node running this processor only queries a subset of the forests in the " +
+            "database, such that the nodes together query every forest exactly once. The processor should then be " +
+            "scheduled to run on all nodes instead of only the primary node. Nodes coordinate via cluster state, and " +
+            "forests are reassigned when a node starts running this processor or has not run it for longer than the " +
+            "'Partition Membership Timeout'. The assignment is only eventually consistent: until every node has run " +
+            "again after a node joins or leaves, nodes may disagree on the members, so a forest may be queried by more " +
+            "than one node or by none. Cannot be used with a State Index unless running a backfill.")
+        .required(true).allowableValues("true", "false").addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+    public static final PropertyDescriptor PARTITION_MEMBERSHIP_TIMEOUT = new PropertyDescriptor.Builder()
+        .name("Partition Membership Timeout").displayName("Partition Membership Timeout").defaultValue("5 min")
+        .description("When 'Cluster Partitioning' is 'true', a node that has not run this processor within this " +
+            "amount of time no longer has forests assigned to it; should be greater than the run schedule of the processor")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor BACKFILL_START = new PropertyDescriptor.Builder()
+        .name("Backfill Start").displayName("Backfill Start")
+        .description("The inclusive xs:dateTime at which a backfill on the State Index begins. When both this and " +
+            "'Backfill End' are set, the processor runs in backfill mode instead of keeping track of the most recent " +
+            "value in the State Index; the range is split into windows of 'Backfill Window Size', which are queried " +
+            "concurrently. Completed windows are recorded in state so that a restarted backfill only queries the " +
+            "windows that have not yet completed.")
+        .required(false).addValidator(Validator.VALID).build();
+
+    public static final PropertyDescriptor BACKFILL_END = new PropertyDescriptor.Builder()
+        .name("Backfill End").displayName("Backfill End")
+        .description("The exclusive xs:dateTime at which a backfill on the State Index ends; see 'Backfill Start'")
+        .required(false).addValidator(Validator.VALID).build();
+
+    public static final PropertyDescriptor BACKFILL_WINDOW_SIZE = new PropertyDescriptor.Builder()
+        .name("Backfill Window Size").displayName("Backfill Window Size").defaultValue("1 day")
+        .description("The length of time covered by each window of a backfill")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor BACKFILL_CONCURRENT_WINDOWS = new PropertyDescriptor.Builder()
+        .name("Backfill Concurrent Windows").displayName("Backfill Concurrent Windows").defaultValue("2")
+        .description("The number of backfill windows to query at the same time; each window is queried by a separate " +
+            "job using 'Thread Count' threads")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    public static final PropertyDescriptor OUTPUT_GRANULARITY = new PropertyDescriptor.Builder()
+        .name("Output Granularity").displayName("Output Granularity")
+        .defaultValue(OutputGranularities.PER_URI.getValue())
+        .description("Determines how many FlowFiles are created for the URIs that are processed. Does not apply when " +
+            "documents or metadata are returned, as each of those requires a FlowFile per URI.")
+        .required(true).allowableValues(OutputGranularities.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROJECTION_PATHS = new PropertyDescriptor.Builder()
+        .name("Projection Paths").displayName("Projection Paths")
+        .description("Newline-delimited paths identifying the parts of each document to return instead of the entire " +
+            "document, which can greatly reduce the amount of data transferred for large documents. Each path is an " +
+            "XPath expression for XML documents or a path expression such as '/order/id' for JSON documents; " +
+            "namespace prefixes can be defined via dynamic properties prefixed with 'ns:'. Only applies when " +
+            "documents are returned. Documents are read as of the time each batch is processed, regardless of the " +
+            "'Consistent Snapshot' setting.")
+        .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROJECTION_SELECTION = new PropertyDescriptor.Builder()
+        .name("Projection Selection").displayName("Projection Selection")
+        .defaultValue(ProjectionSelections.INCLUDE_WITH_ANCESTORS.getValue())
+        .description("How the Projection Paths determine the content that is returned for each document")
+        .required(true).allowableValues(ProjectionSelections.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor READ_THREAD_COUNT = new PropertyDescriptor.Builder()
+        .name("Read Thread Count").displayName("Read Thread Count")
+        .description("Only applies when the Return Type includes documents. If set, documents are read by a separate " +
+            "pool of this many threads, while the threads defined by 'Thread Count' only retrieve batches of URIs and " +
+            "hand them off to these threads. This allows URI retrieval and document reads to be tuned separately and " +
+            "prevents slow document reads from delaying the retrieval of the next batches of URIs. If not set, the " +
+            "threads defined by 'Thread Count' both retrieve URIs and read documents.")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor READ_QUEUE_SIZE = new PropertyDescriptor.Builder()
+        .name("Read Queue Size").displayName("Read Queue Size")
+        .description("Only applies when 'Read Thread Count' is set. The number of batches of URIs that can wait to be " +
+            "read before URI retrieval pauses. The current number of waiting batches is shown by the 'Read Queue " +
+            "Depth' counter.")
+        .defaultValue("10")
+        .required(true)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor CHECKPOINT_STORAGE = new PropertyDescriptor.Builder()
+        .name("Checkpoint Storage").displayName("Checkpoint Storage")
+        .defaultValue(CheckpointStorageTypes.NONE.getValue())
+        .description("Where to store the progress of a running job. When set, a job that does not complete - because " +
+            "the processor is stopped or NiFi is restarted - is resumed the next time the processor runs by skipping " +
+            "the batches of URIs that were already processed.")
+        .required(true).allowableValues(CheckpointStorageTypes.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor CHECKPOINT_DIRECTORY = new PropertyDescriptor.Builder()
+        .name("Checkpoint Directory").displayName("Checkpoint Directory")
+        .description("The directory on the local file system in which to store checkpoints when the Checkpoint " +
+            "Storage is '" + CheckpointStorageTypes.LOCAL_FILE_STR + "'")
+        .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor CHECKPOINT_INTERVAL = new PropertyDescriptor.Builder()
+        .name("Checkpoint Interval").displayName("Checkpoint Interval").defaultValue("30 sec")
+        .description("The minimum amount of time between saving checkpoints while a job is running")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor COALESCING_WINDOW = new PropertyDescriptor.Builder()
+        .name("Coalescing Window").displayName("Coalescing Window").defaultValue("0 sec")
+        .description("If greater than zero, FlowFiles that evaluate to the same query and State Index as a running " +
+            "job are attached to that job instead of running their own, so the documents are only retrieved from " +
+            "MarkLogic once; each FlowFile produced by the job is cloned for each attached FlowFile. Identical " +
+            "FlowFiles among the first " + MAX_COALESCING_SCAN + " queued when a job starts are attached immediately, " +
+            "and FlowFiles processed later are attached for up to this amount of time after the job starts, until the " +
+            "job produces its first FlowFile.")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+    public static final PropertyDescriptor DOCUMENTS_PER_SECOND = new PropertyDescriptor.Builder()
+        .name("Documents Per Second").displayName("Documents Per Second")
+        .description("The maximum number of documents per second that this processor will process, across all of " +
+            "its jobs. Applied per batch, before the batch is processed. Evaluated for each incoming FlowFile, and " +
+            "a new value applies to every running job from its next batch. Leave blank for no limit. Ignored when " +
+            "the Rate Limit Scope is '" + RateLimitScopes.SHARED_STR + "'.")
+        .required(false).expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+    public static final PropertyDescriptor BYTES_PER_SECOND = new PropertyDescriptor.Builder()
+        .name("Bytes Per Second").displayName("Bytes Per Second")
+        .description("The maximum amount of document content per second, such as '10 MB', that this processor will " +
+            "read, across all of its jobs. Only applies when the Return Type includes documents. The content read " +
+            "for a batch delays the next batch. Evaluated for each incoming FlowFile, and a new value applies to every " +
+            "running job from its next batch. Leave blank for no limit. Ignored when the Rate Limit Scope is '" +
+            RateLimitScopes.SHARED_STR + "'.")
+        .required(false).expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+        .addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+
+    public static final PropertyDescriptor RATE_LIMIT_SCOPE = new PropertyDescriptor.Builder()
+        .name("Rate Limit Scope").displayName("Rate Limit Scope")
+        .defaultValue(RateLimitScopes.PROCESSOR.getValue())
+        .description("Whether the rate limits are defined by this processor or shared with other processors via the " +
+            "DatabaseClient service")
+        .required(true).allowableValues(RateLimitScopes.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
     protected static final Relationship SUCCESS = new Relationship.Builder().name("success")
         .description("For each document matching the query, a FlowFile is sent to this relationship").build();
 
@@ -161,6 +373,37 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     // This is only captured here to facilitate unit-testing
     private QueryBatcher queryBatcher;
 
+    // Guards read-modify-write updates of the state map by the threads of a single processor instance
+    private final Object stateLock = new Object();
+
+    // Read when batches are transferred; the property cannot change while the processor is running
+    private volatile String outputGranularity = OutputGranularities.PER_URI_STR;
+    private final Map<QueryBatcher, QueryJobSummary> jobSummaries = new ConcurrentHashMap<>();
+
+    // Shared by every job of this processor when the Rate Limit Scope is Processor; the rates are updated on each trigger
+    private final TokenBucketRateLimiter documentsRateLimiter = new TokenBucketRateLimiter("Documents per second", 0);
+    private final TokenBucketRateLimiter bytesRateLimiter = new TokenBucketRateLimiter("Bytes per second", 0);
+
+    // Jobs that can be resumed from a checkpoint are stopped when the processor is unscheduled
+    private final Set<QueryBatcherContext> checkpointedJobs = ConcurrentHashMap.newKeySet();
+    // Checkpoints of running jobs, so that failed batches can be kept from advancing them
+    private final Map<QueryBatcher, QueryBatchCheckpoint> checkpointsByBatcher = new ConcurrentHashMap<>();
+    private final Set<QueryBatcher> stoppedCheckpointedBatchers = ConcurrentHashMap.newKeySet();
+
+    // Requests attached to the job running in each session, whose results are cloned for those requests
+    private final Map<ProcessSession, CoalescedRequests> coalescedRequests = new ConcurrentHashMap<>();
+    // Running jobs that can still accept requests, keyed by the coalescing key of the request that started each job
+    private final Map<String, CoalescedRequests> coalescingJobs = new ConcurrentHashMap<>();
+
+    private static final String BACKFILL_RANGE_KEY = "backfill.range";
+    private static final String BACKFILL_WINDOW_KEY_PREFIX = "backfill.window.";
+    private static final int MAX_STATE_UPDATE_ATTEMPTS = 10;
+    // "queryState" is not very descriptive, but it has to be preserved for backwards compatibility
+    private static final String QUERY_STATE_KEY = "queryState";
+    private static final String TIE_URIS_KEY = "queryState.tieUris";
+
+    private volatile NodeTypeProvider nodeTypeProvider;
+
     protected QueryBatcher getQueryBatcherForTesting() {
         return this.queryBatcher;
     }
@@ -168,6 +411,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     @Override
     public void init(ProcessorInitializationContext context) {
         super.init(context);
+        this.nodeTypeProvider = context.getNodeTypeProvider();
 
         List<PropertyDescriptor> list = new ArrayList<>(properties);
         list.add(CONSISTENT_SNAPSHOT);
@@ -176,9 +420,30 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         list.add(RETURN_TYPE);
         list.add(INCLUDE_DOCUMENT_PROPERTIES);
         list.add(TRANSFORM);
+        list.add(PROJECTION_PATHS);
+        list.add(PROJECTION_SELECTION);
+        list.add(READ_THREAD_COUNT);
+        list.add(READ_QUEUE_SIZE);
         list.add(STATE_INDEX);
         list.add(STATE_INDEX_TYPE);
+        list.add(WATERMARK_MODE);
+        list.add(WATERMARK_MAX_TIE_URIS);
         list.add(COLLECTIONS);
+        list.add(CLUSTER_PARTITIONING);
+        list.add(PARTITION_MEMBERSHIP_TIMEOUT);
+        list.add(BACKFILL_START);
+        list.add(BACKFILL_END);
+        list.add(BACKFILL_WINDOW_SIZE);
+        list.add(BACKFILL_CONCURRENT_WINDOWS);
+        list.add(OUTPUT_GRANULARITY);
+        list.add(CHECKPOINT_STORAGE);
+        list.add(CHECKPOINT_DIRECTORY);
+        list.add(CHECKPOINT_INTERVAL);
+        list.add(COALESCING_WINDOW);
+        list.add(DOCUMENTS_PER_SECOND);
+        list.add(BYTES_PER_SECOND);
+        list.add(RATE_LIMIT_SCOPE);
+        list.add(SHARED_DATA_MOVEMENT_MANAGER);
         properties = Collections.unmodifiableList(list);
 
         Set<Relationship> set = new HashSet<>();
@@ -213,6 +478,37 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
                     + "The deprecated Collections property will be migrated appropriately.")
                 .build());
         }
+
+        if (CheckpointStorageTypes.LOCAL_FILE_STR.equals(validationContext.getProperty(CHECKPOINT_STORAGE).getValue())
+            && !validationContext.getProperty(CHECKPOINT_DIRECTORY).isSet()) {
+            validationResultSet.add(new ValidationResult.Builder().subject(CHECKPOINT_DIRECTORY.getDisplayName()).valid(false)
+                .explanation("A Checkpoint Directory must be set when the Checkpoint Storage is '" +
+                    CheckpointStorageTypes.LOCAL_FILE_STR + "'").build());
+        }
+
+        String backfillStart = validationContext.getProperty(BACKFILL_START).getValue();
+        String backfillEnd = validationContext.getProperty(BACKFILL_END).getValue();
+        if (backfillStart != null || backfillEnd != null) {
+            if (backfillStart == null || backfillEnd == null) {
+                validationResultSet.add(new ValidationResult.Builder().subject("Backfill").valid(false)
+                    .explanation("Both Backfill Start and Backfill End must be set to run a backfill").build());
+            } else if (!BackfillWindows.isValidDateTime(backfillStart) || !BackfillWindows.isValidDateTime(backfillEnd)) {
+                validationResultSet.add(new ValidationResult.Builder().subject("Backfill").valid(false)
+                    .explanation("Backfill Start and Backfill End must be valid xs:dateTime values").build());
+            }
+            if (!validationContext.getProperty(STATE_INDEX).isSet()) {
+                validationResultSet.add(new ValidationResult.Builder().subject("Backfill").valid(false)
+                    .explanation("A State Index must be set to run a backfill").build());
+            }
+        } else if (Boolean.TRUE.equals(validationContext.getProperty(CLUSTER_PARTITIONING).asBoolean())
+            && validationContext.getProperty(STATE_INDEX).isSet()) {
+            // Each node would store the most recent value across every forest, causing the other nodes to skip
+            // documents in their own forests that they have not yet processed
+            validationResultSet.add(new ValidationResult.Builder().subject(CLUSTER_PARTITIONING.getDisplayName()).valid(false)
+                .explanation("Cluster Partitioning cannot be used with a State Index, as the State Index value " +
+                    "stored in cluster state is shared by every node; it can only be used with a State Index when " +
+                    "running a backfill").build());
+        }
         return validationResultSet;
     }
 
@@ -233,27 +529,284 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         super.populatePropertiesByPrefix(context);
 
         FlowFile incomingFlowFile = session.get();
+        final boolean receivedFlowFile = incomingFlowFile != null;
         if (incomingFlowFile == null) {
             incomingFlowFile = session.create();
         }
 
+        if (isBackfill(context)) {
+            runBackfill(context, session, incomingFlowFile);
+            return;
+        }
+
+        final String returnType = context.getProperty(RETURN_TYPE).getValue();
+        if (ReturnTypes.ESTIMATE_STR.equals(returnType) || ReturnTypes.COUNT_STR.equals(returnType)) {
+            runCount(context, session, incomingFlowFile, ReturnTypes.ESTIMATE_STR.equals(returnType));
+            return;
+        }
+
         try {
+            if (receivedFlowFile && attachToRunningJob(context, session, incomingFlowFile)) {
+                return;
+            }
             QueryBatcherContext queryBatcherContext = newQueryBatcher(context, incomingFlowFile);
             session.putAttribute(incomingFlowFile, "marklogic-query", queryBatcherContext.getQueryRepresentation());
-            configureQueryBatcher(context, session, incomingFlowFile, queryBatcherContext.getBatcher());
+            QueryBatchCheckpoint checkpoint = newCheckpoint(context, queryBatcherContext.getQueryRepresentation());
+            configureQueryBatcher(context, session, incomingFlowFile, queryBatcherContext.getBatcher(), true, checkpoint);
 
             // Save a reference to this solely to facilitate unit testing
             this.queryBatcher = queryBatcherContext.getBatcher();
 
-            // Transfer the incoming FF immediately in case the QueryBatcher returns no results
+            final boolean hasForestsToQuery = applyClusterPartitioning(context, session, incomingFlowFile, queryBatcherContext);
+            try {
+                if (receivedFlowFile) {
+                    incomingFlowFile = coalesceIdenticalRequests(context, session, incomingFlowFile, queryBatcherContext);
+                }
+
+                // Transfer the incoming FF immediately in case the QueryBatcher returns no results
+                transferAndCommit(session, incomingFlowFile, ORIGINAL);
+                if (hasForestsToQuery) {
+                    runQueryBatcherJob(queryBatcherContext, checkpoint);
+                } else {
+                    context.yield();
+                }
+            } finally {
+                CoalescedRequests requests = coalescedRequests.remove(session);
+                if (requests != null) {
+                    coalescingJobs.remove(requests.key, requests);
+                }
+            }
+        } catch (Throwable t) {
+            logErrorAndTransfer(t, incomingFlowFile, session, FAILURE);
+            context.yield();
+        }
+    }
+
+    /**
+     * @return the Coalescing Window in milliseconds, or zero if requests are not coalesced
+     */
+    private long getCoalescingWindowMillis(ProcessContext context) {
+        if (!getSupportedPropertyDescriptors().contains(COALESCING_WINDOW)) {
+            return 0;
+        }
+        return context.getProperty(COALESCING_WINDOW).asTimePeriod(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * If the user has set a Coalescing Window, attaches the incoming FlowFile to a running job for the same request
+     * if that job can still accept requests. The FlowFile is then sent to the original relationship, and every
+     * FlowFile that the running job sends to the success or failure relationship is cloned for it.
+     *
+     * @return true if the FlowFile was attached to a running job, in which case it has been transferred and committed
+     */
+    private boolean attachToRunningJob(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile) {
+        if (getCoalescingWindowMillis(context) <= 0 || coalescingJobs.isEmpty()) {
+            return false;
+        }
+        CoalescedRequests job = coalescingJobs.get(buildCoalescingKey(context, incomingFlowFile));
+        if (job == null || !job.attach(getAttributesToCopy(incomingFlowFile))) {
+            return false;
+        }
+        incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-query", job.queryRepresentation);
+        incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-coalesced-with", job.leaderUuid);
+        session.adjustCounter("Coalesced Requests", 1, false);
+        getLogger().info("Attached FlowFile " + incomingFlowFile.getAttribute(CoreAttributes.UUID.key()) +
+            " to the running job for FlowFile " + job.leaderUuid);
+        transferAndCommit(session, incomingFlowFile, ORIGINAL);
+        return true;
+    }
+
+    /**
+     * If the user has set a Coalescing Window, registers the job that is about to run for the incoming FlowFile so
+     * that identical requests can be attached to it, and immediately attaches any identical FlowFiles that are already
+     * queued. This does not wait for further requests; those are attached by {@code attachToRunningJob} as they
+     * arrive. The attached FlowFiles are sent to the original relationship, and every FlowFile that the job sends to
+     * the success or failure relationship is cloned for each of them.
+     *
+     * @return the incoming FlowFile, with the number of queued requests that were attached added to it
+     */
+    private FlowFile coalesceIdenticalRequests(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile,
+                                               QueryBatcherContext queryBatcherContext) {
+        final long windowMillis = getCoalescingWindowMillis(context);
+        if (windowMillis <= 0) {
+            return incomingFlowFile;
+        }
+
+        final String requestKey = buildCoalescingKey(context, incomingFlowFile);
+        // Only the head of the queue is examined, so that the cost of a trigger does not grow with the backlog
+        final int[] examined = new int[1];
+        final FlowFileFilter identicalRequestFilter = flowFile -> {
+            if (examined[0]++ >= MAX_COALESCING_SCAN) {
+                return FlowFileFilter.FlowFileFilterResult.REJECT_AND_TERMINATE;
+            }
+            return requestKey.equals(buildCoalescingKey(context, flowFile)) ?
+                FlowFileFilter.FlowFileFilterResult.ACCEPT_AND_CONTINUE :
+                FlowFileFilter.FlowFileFilterResult.REJECT_AND_CONTINUE;
+        };
+        List<FlowFile> attachedFlowFiles = session.get(identicalRequestFilter);
+
+        final String leaderUuid = incomingFlowFile.getAttribute(CoreAttributes.UUID.key());
+        CoalescedRequests job = new CoalescedRequests(requestKey, leaderUuid, queryBatcherContext.getQueryRepresentation(),
+            getAttributesToCopy(incomingFlowFile), System.currentTimeMillis() + windowMillis);
+        for (FlowFile attachedFlowFile : attachedFlowFiles) {
+            job.attach(getAttributesToCopy(attachedFlowFile));
+            attachedFlowFile = session.putAttribute(attachedFlowFile, "marklogic-query", job.queryRepresentation);
+            attachedFlowFile = session.putAttribute(attachedFlowFile, "marklogic-coalesced-with", leaderUuid);
+            session.transfer(attachedFlowFile, ORIGINAL);
+        }
+        coalescedRequests.put(session, job);
+        // A job for the same request that is no longer accepting requests is replaced
+        coalescingJobs.put(requestKey, job);
+        if (attachedFlowFiles.isEmpty()) {
+            return incomingFlowFile;
+        }
+        session.adjustCounter("Coalesced Requests", attachedFlowFiles.size(), false);
+        getLogger().info("Attached " + attachedFlowFiles.size() + " identical requests to the job for FlowFile " + leaderUuid);
+        return session.putAttribute(incomingFlowFile, "marklogic-coalesced-requests", Integer.toString(attachedFlowFiles.size()));
+    }
+
+    /**
+     * @return a key that is identical for FlowFiles that result in the same job; only the query, the State Index, and
+     * the namespaces can differ based on FlowFile attributes, while every other input is the same for every FlowFile
+     */
+    private String buildCoalescingKey(ProcessContext context, FlowFile flowFile) {
+        QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue = determineQueryTypeAndValue(context, flowFile);
+        StringBuilder key = new StringBuilder()
+            .append(queryTypeAndValue.getType()).append('\n')
+            .append(queryTypeAndValue.getValue()).append('\n')
+            .append(context.getProperty(STATE_INDEX).evaluateAttributeExpressions(flowFile).getValue()).append('\n')
+            .append(context.getProperty(RETURN_TYPE).getValue()).append('\n')
+            .append(context.getProperty(TRANSFORM).getValue());
+        List<PropertyDescriptor> namespaceProperties = propertiesByPrefix.get("ns");
+        if (namespaceProperties != null) {
+            for (PropertyDescriptor propertyDesc : namespaceProperties) {
+                key.append('\n').append(propertyDesc.getName()).append('=')
+                    .append(context.getProperty(propertyDesc).evaluateAttributeExpressions(flowFile).getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Transfers a FlowFile produced by a job, first cloning it for every request attached to the job via the
+     * Coalescing Window. Each clone has the attributes of the attached request instead of those of the request that
+     * ran the job. The caller must hold the lock on the session.
+     */
+    protected final void transferToRequesters(ProcessSession session, FlowFile flowFile, Relationship relationship) {
+        CoalescedRequests requests = coalescedRequests.get(session);
+        if (requests != null) {
+            for (Map<String, String> attributes : requests.close()) {
+                FlowFile clone = session.clone(flowFile);
+                Set<String> attributesToRemove = new HashSet<>(requests.leaderAttributes.keySet());
+                attributesToRemove.removeAll(attributes.keySet());
+                clone = session.removeAllAttributes(clone, attributesToRemove);
+                clone = session.putAllAttributes(clone, attributes);
+                session.transfer(clone, relationship);
+            }
+        }
+        session.transfer(flowFile, relationship);
+    }
+
+    /**
+     * The requests attached to a running job. Requests can only be attached until the job transfers its first
+     * FlowFile, as the FlowFiles transferred before a request was attached could not be cloned for it, and for no
+     * longer than the Coalescing Window after the job starts.
+     */
+    private static class CoalescedRequests {
+        private final String key;
+        private final String leaderUuid;
+        private final String queryRepresentation;
+        private final Map<String, String> leaderAttributes;
+        private final long acceptUntilMillis;
+        private final List<Map<String, String>> attachedAttributes = new ArrayList<>();
+        private boolean closed;
+
+        CoalescedRequests(String key, String leaderUuid, String queryRepresentation, Map<String, String> leaderAttributes,
+                          long acceptUntilMillis) {
+            this.key = key;
+            this.leaderUuid = leaderUuid;
+            this.queryRepresentation = queryRepresentation;
+            this.leaderAttributes = leaderAttributes;
+            this.acceptUntilMillis = acceptUntilMillis;
+        }
+
+        /**
+         * @return true if the request was attached; false if the job is no longer accepting requests
+         */
+        synchronized boolean attach(Map<String, String> attributes) {
+            if (closed || System.currentTimeMillis() > acceptUntilMillis) {
+                return false;
+            }
+            attachedAttributes.add(attributes);
+            return true;
+        }
+
+        /**
+         * Stops accepting requests, as the job is transferring a FlowFile.
+         *
+         * @return the attributes of every attached request
+         */
+        synchronized List<Map<String, String>> close() {
+            closed = true;
+            return attachedAttributes;
+        }
+    }
+
+    /**
+     * Counts the documents matching the query, including the constraint on the State Index, and adds the count to
+     * the incoming FlowFile before transferring it to the original relationship. The stored state is not updated.
+     *
+     * @param context
+     * @param session
+     * @param incomingFlowFile
+     * @param estimate if true, a single search request returns an estimate; otherwise, a single values request
+     *                 returns the exact number of matching URIs
+     */
+    private void runCount(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile, boolean estimate) {
+        try {
+            final long startTime = System.currentTimeMillis();
+            long count;
+            if (estimate) {
+                DatabaseClient client = getDatabaseClient(context);
+                StateQuery stateQuery = buildStateQuery(client, context, incomingFlowFile);
+                QueryDefinition queryDef = new QueryBatcherBuilder(client).newQueryDefinition(
+                    determineQueryTypeAndValue(context, incomingFlowFile),
+                    stateQuery != null ? Collections.singletonList(stateQuery) : Collections.emptyList());
+                QueryManager queryManager = client.newQueryManager();
+                queryManager.setPageLength(0);
+                count = queryManager.search(queryDef, new SearchHandle()).getTotalResults();
+            } else {
+                count = countUris(context, incomingFlowFile);
+            }
+            incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-count", Long.toString(count));
+            incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-count-type", estimate ? "estimate" : "exact");
+            incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-count-duration",
+                Long.toString(System.currentTimeMillis() - startTime));
             transferAndCommit(session, incomingFlowFile, ORIGINAL);
-            runQueryBatcherJob(queryBatcherContext);
         } catch (Throwable t) {
             logErrorAndTransfer(t, incomingFlowFile, session, FAILURE);
             context.yield();
         }
     }
 
+    /**
+     * Counts the URIs matching the query via a "count" aggregate on the URI lexicon, which MarkLogic computes for a
+     * single request.
+     *
+     * @return the exact number of URIs that a job would process
+     */
+    private long countUris(ProcessContext context, FlowFile incomingFlowFile) {
+        DatabaseClient client = getDatabaseClient(context);
+        StateQuery stateQuery = buildStateQuery(client, context, incomingFlowFile);
+        ValuesDefinition valuesDef = new QueryBatcherBuilder(client).newUriCountDefinition(
+            determineQueryTypeAndValue(context, incomingFlowFile),
+            stateQuery != null ? Collections.singletonList(stateQuery) : Collections.emptyList());
+        ValuesHandle valuesResult = new ValuesHandle();
+        valuesResult.setQueryCriteria(valuesDef);
+        valuesResult = client.newQueryManager().values(valuesDef, valuesResult);
+        return Long.parseLong(valuesResult.getAggregate("count").getValue());
+    }
+
     /**
      * Constructs a new QueryBatcher based on inputs provided by the user.
      *
@@ -265,8 +818,86 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     private QueryBatcherContext newQueryBatcher(ProcessContext context, FlowFile incomingFlowFile) {
         DatabaseClient client = getDatabaseClient(context);
         QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue = determineQueryTypeAndValue(context, incomingFlowFile);
-        RangeIndexQuery stateRangeIndexQuery = buildStateQuery(client, context, incomingFlowFile);
-        return new QueryBatcherBuilder(client).newQueryBatcher(queryTypeAndValue, stateRangeIndexQuery);
+        StateQuery stateQuery = buildStateQuery(client, context, incomingFlowFile);
+        return new QueryBatcherBuilder(client, getDataMovementManager(context), getSharedForestConfiguration(context))
+            .newQueryBatcher(queryTypeAndValue, stateQuery);
+    }
+
+    /**
+     * If the user has enabled cluster partitioning, restricts the QueryBatcher to the forests assigned to this node.
+     * The names of the assigned forests are added to the incoming FlowFile to show how forests were distributed.
+     *
+     * @param context
+     * @param session
+     * @param incomingFlowFile
+     * @param queryBatcherContext
+     * @return false if partitioning is enabled and no forests are currently assigned to this node
+     * @throws IOException if this node could not be registered in cluster state
+     */
+    private boolean applyClusterPartitioning(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile,
+                                             QueryBatcherContext queryBatcherContext) throws IOException {
+        List<Forest> assignedForests = assignClusterForests(context, queryBatcherContext.getManager());
+        if (assignedForests == null) {
+            return true;
+        }
+        if (incomingFlowFile != null) {
+            session.putAttribute(incomingFlowFile, "marklogic-forests", toForestNames(assignedForests));
+        }
+        if (assignedForests.isEmpty()) {
+            return false;
+        }
+        queryBatcherContext.getBatcher().withForestConfig(ForestPartitioner.toForestConfiguration(assignedForests));
+        return true;
+    }
+
+    /**
+     * @param context
+     * @param manager used to read the forest configuration if the DatabaseClient service does not provide one
+     * @return null if cluster partitioning is not enabled; otherwise, the forests currently assigned to this node,
+     * which may be empty. The assignment is based on this node's view of the members and may overlap with or miss
+     * forests of another node's assignment until every node has run since the members last changed.
+     * @throws IOException if this node could not be registered in cluster state
+     */
+    private List<Forest> assignClusterForests(ProcessContext context, DataMovementManager manager) throws IOException {
+        PropertyValue clusterPartitioningProp = context.getProperty(CLUSTER_PARTITIONING);
+        Objects.requireNonNull(clusterPartitioningProp);
+        if (!Boolean.TRUE.equals(clusterPartitioningProp.asBoolean())) {
+            return null;
+        }
+
+        PropertyValue timeoutProp = context.getProperty(PARTITION_MEMBERSHIP_TIMEOUT);
+        Objects.requireNonNull(timeoutProp);
+        final String nodeId = determineNodeIdentifier();
+        ForestPartitioner partitioner = new ForestPartitioner(context.getStateManager(), nodeId,
+            timeoutProp.asTimePeriod(TimeUnit.MILLISECONDS));
+        List<String> members = partitioner.registerAndListMembers();
+
+        ForestConfiguration forestConfig = getSharedForestConfiguration(context);
+        if (forestConfig == null) {
+            forestConfig = manager.readForestConfig();
+        }
+        List<Forest> assignedForests = ForestPartitioner.assignForests(forestConfig.listForests(), members, nodeId);
+        getLogger().info("Node " + nodeId + " is one of " + members.size() + " partition members; assigned forests: " +
+            toForestNames(assignedForests));
+        return assignedForests;
+    }
+
+    private static String toForestNames(List<Forest> forests) {
+        return forests.stream().map(Forest::getForestName).collect(Collectors.joining(","));
+    }
+
+    private String determineNodeIdentifier() {
+        if (nodeTypeProvider != null) {
+            Optional<String> currentNode = nodeTypeProvider.getCurrentNode();
+            if (currentNode.isPresent()) {
+                return currentNode.get();
+            }
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
     }
 
     /**
@@ -301,8 +932,12 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
      * @param session
      * @param incomingFlowFile
      * @param queryBatcher
+     * @param updateQueryState whether the most recent State Index value should be stored after the job completes;
+     *                         this is not done for backfill windows
+     * @param checkpoint       if not null, used to skip batches already processed and to record processed batches
      */
-    private void configureQueryBatcher(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile, QueryBatcher queryBatcher) {
+    private void configureQueryBatcher(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile,
+                                       QueryBatcher queryBatcher, boolean updateQueryState, QueryBatchCheckpoint checkpoint) {
         PropertyValue batchSizeProp = context.getProperty(BATCH_SIZE);
         Objects.requireNonNull(batchSizeProp);
         if (batchSizeProp.asInteger() != null) {
@@ -316,7 +951,30 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         }
 
         Map<String, String> attributesToCopy = getAttributesToCopy(incomingFlowFile);
+        outputGranularity = context.getProperty(OUTPUT_GRANULARITY).getValue();
         QueryBatchListener batchListener = buildQueryBatchListener(context, session, attributesToCopy);
+        RateLimitedQueryBatchListener rateLimitedListener = buildRateLimitedListener(context, session, incomingFlowFile, batchListener);
+        if (rateLimitedListener != null) {
+            batchListener = rateLimitedListener;
+        }
+        // Wraps the rate-limited listener so that batches skipped by the checkpoint are not counted against the limits
+        if (checkpoint != null) {
+            batchListener = checkpoint.wrap(batchListener);
+            checkpointsByBatcher.put(queryBatcher, checkpoint);
+        }
+        PipelinedQueryBatchListener pipeline = buildPipeline(context, session, attributesToCopy, batchListener);
+        if (pipeline != null) {
+            // Registered before any other job completion listener, as those depend on every batch having been processed
+            queryBatcher.onJobCompletion(batcher -> completePipeline(session, pipeline));
+            batchListener = pipeline;
+        }
+        if (rateLimitedListener != null) {
+            // Registered after the pipeline's listener, so that batches still queued for reading are included
+            queryBatcher.onJobCompletion(batcher -> logRates(rateLimitedListener));
+        }
+        if (OutputGranularities.JOB_SUMMARY_STR.equals(outputGranularity)) {
+            configureJobSummary(session, attributesToCopy, queryBatcher);
+        }
         queryBatcher.onUrisReady(batchListener);
 
         queryBatcher.onUrisReady(batch -> {
@@ -325,15 +983,146 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
             }
         });
 
-        configureJobCompletionListener(context, incomingFlowFile, queryBatcher);
+        if (updateQueryState) {
+            configureJobCompletionListener(context, incomingFlowFile, queryBatcher);
+        }
 
         /**
          * onQueryFailure is confusing in that - based on an analysis of the QueryBatcherImpl source code - the listener
          * likely never be invoked, and certainly not on account of a query failure. This is here only in the
          * extremely unlikely event that a listener is invoked.
          */
-        queryBatcher.onQueryFailure(ex ->
-            logErrorAndTransfer(ex, createFlowFileWithAttributes(session, attributesToCopy), session, FAILURE));
+        queryBatcher.onQueryFailure(ex -> {
+            reportFailureToService(context, ex);
+            logErrorAndTransfer(ex, createFlowFileWithAttributes(session, attributesToCopy), session, FAILURE);
+        });
+    }
+
+    /**
+     * @return a listener that limits the rate at which the given listener processes batches, based on either this
+     * processor's limits or the limits shared via the DatabaseClient service; null if there are no limits
+     */
+    private RateLimitedQueryBatchListener buildRateLimitedListener(ProcessContext context, ProcessSession session,
+                                                                   FlowFile incomingFlowFile, QueryBatchListener batchListener) {
+        if (!getSupportedPropertyDescriptors().contains(RATE_LIMIT_SCOPE)) {
+            return null;
+        }
+        TokenBucketRateLimiter documentsLimiter;
+        TokenBucketRateLimiter bytesLimiter;
+        if (RateLimitScopes.SHARED_STR.equals(context.getProperty(RATE_LIMIT_SCOPE).getValue())) {
+            MarkLogicDatabaseClientService service = getDatabaseClientService(context);
+            documentsLimiter = service.getSharedRateLimiter(MarkLogicDatabaseClientService.DOCUMENTS_RATE_LIMITER);
+            bytesLimiter = service.getSharedRateLimiter(MarkLogicDatabaseClientService.BYTES_RATE_LIMITER);
+        } else {
+            documentsLimiter = applyRate(context, incomingFlowFile, DOCUMENTS_PER_SECOND, documentsRateLimiter);
+            bytesLimiter = applyRate(context, incomingFlowFile, BYTES_PER_SECOND, bytesRateLimiter);
+        }
+        if (documentsLimiter == null && bytesLimiter == null) {
+            return null;
+        }
+        return new RateLimitedQueryBatchListener(batchListener, documentsLimiter, bytesLimiter).withWaitListener(waitMillis -> {
+            synchronized (session) {
+                session.adjustCounter("Rate Limit Wait Millis", waitMillis, false);
+            }
+        });
+    }
+
+    /**
+     * Applies the rate currently defined by the given property to the given limiter. The limiter is shared by every job
+     * of this processor, so a new rate - such as one based on an attribute of the incoming FlowFile - takes effect for
+     * the jobs that are already running as well, starting with their next batch.
+     *
+     * @return the limiter, or null if the property is not supported or has no value, in which case the limiter no
+     * longer limits the running jobs either
+     */
+    private TokenBucketRateLimiter applyRate(ProcessContext context, FlowFile incomingFlowFile, PropertyDescriptor property,
+                                             TokenBucketRateLimiter limiter) {
+        if (!getSupportedPropertyDescriptors().contains(property)) {
+            return null;
+        }
+        final PropertyValue value = context.getProperty(property).evaluateAttributeExpressions(incomingFlowFile);
+        double permitsPerSecond = 0;
+        if (value.getValue() != null && !value.getValue().isBlank()) {
+            permitsPerSecond = BYTES_PER_SECOND.equals(property) ? value.asDataSize(DataUnit.B) : value.asInteger();
+        }
+        // Only set when it changes, so that each new rate is logged once
+        if (limiter.getRate() != permitsPerSecond) {
+            limiter.setRate(permitsPerSecond);
+            getLogger().info("Rate limit is now " + limiter);
+        }
+        return permitsPerSecond > 0 ? limiter : null;
+    }
+
+    private void logRates(RateLimitedQueryBatchListener listener) {
+        getLogger().info(String.format("Processed %d documents (%.1f per second) and %d bytes (%.1f per second); " +
+                "batches waited %d ms due to rate limits", listener.getDocuments(), listener.getDocumentsPerSecond(),
+            listener.getBytes(), listener.getBytesPerSecond(), listener.getWaitMillis()));
+    }
+
+    /**
+     * @return a listener that hands each batch off to a separate pool of threads for reading documents, if the user
+     * has set a Read Thread Count and the Return Type includes documents; otherwise, null
+     */
+    private PipelinedQueryBatchListener buildPipeline(ProcessContext context, ProcessSession session,
+                                                      Map<String, String> attributesToCopy, QueryBatchListener batchListener) {
+        final String returnType = context.getProperty(RETURN_TYPE).getValue();
+        final Integer readThreadCount = context.getProperty(READ_THREAD_COUNT).asInteger();
+        if (readThreadCount == null ||
+            !(ReturnTypes.DOCUMENTS_STR.equals(returnType) || ReturnTypes.DOCUMENTS_AND_META_STR.equals(returnType))) {
+            return null;
+        }
+        final int readQueueSize = context.getProperty(READ_QUEUE_SIZE).asInteger();
+        return new PipelinedQueryBatchListener(batchListener, readThreadCount, readQueueSize, (batch, throwable) -> {
+            getLogger().error("Unable to read batch of URIs; cause: " + throwable.getMessage());
+            transferBatch(session, attributesToCopy, batch, FAILURE, throwable);
+        }).withQueueDepthListener(delta -> {
+            synchronized (session) {
+                session.adjustCounter("Read Queue Depth", delta, true);
+            }
+        });
+    }
+
+    /**
+     * Waits for the batches still queued in the pipeline to be read and records how the time was spent, which shows
+     * whether retrieving URIs or reading documents is the bottleneck.
+     */
+    private void completePipeline(ProcessSession session, PipelinedQueryBatchListener pipeline) {
+        pipeline.awaitCompletion();
+        synchronized (session) {
+            session.adjustCounter("URI Retrieval Blocked Millis", pipeline.getUriRetrievalBlockedMillis(), false);
+            session.adjustCounter("Read Thread Idle Millis", pipeline.getIdleMillis(), false);
+            session.commitAsync();
+        }
+        getLogger().info("Read " + pipeline.getProcessedBatches() + " batches; maximum read queue depth: " +
+            pipeline.getMaxQueueDepth() + " of " + pipeline.getQueueSize() + "; URI retrieval was blocked for " +
+            pipeline.getUriRetrievalBlockedMillis() + " ms waiting for reads; read threads were idle for " +
+            pipeline.getIdleMillis() + " ms waiting for URIs");
+    }
+
+    /**
+     * Accumulates counts for the job's batches and writes them to a single FlowFile once the job completes.
+     *
+     * @param session
+     * @param attributesToCopy
+     * @param queryBatcher
+     */
+    private void configureJobSummary(ProcessSession session, Map<String, String> attributesToCopy, QueryBatcher queryBatcher) {
+        jobSummaries.put(queryBatcher, new QueryJobSummary());
+        queryBatcher.onJobCompletion(batcher -> {
+            QueryJobSummary summary = jobSummaries.remove(batcher);
+            if (summary == null) {
+                return;
+            }
+            synchronized (session) {
+                FlowFile flowFile = session.write(createFlowFileWithAttributes(session, attributesToCopy),
+                    out -> out.write(summary.toJson(System.currentTimeMillis()).toString().getBytes(StandardCharsets.UTF_8)));
+                session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), "application/json");
+                session.putAttribute(flowFile, "marklogic-success-uris", Long.toString(summary.getSuccessUris()));
+                session.putAttribute(flowFile, "marklogic-failure-uris", Long.toString(summary.getFailureUris()));
+                transferToRequesters(session, flowFile, SUCCESS);
+                session.commitAsync();
+            }
+        });
     }
 
     /**
@@ -356,13 +1145,47 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     }
 
     /**
-     * Used to trigger a commitAsync after each batch is processed.
+     * Used to trigger a commitAsync after each batch is processed, and to read only the projected parts of each
+     * document when a projection is configured.
      */
     static class DocumentExporter extends ExportListener {
         private ProcessSession session;
+        private DocumentProjection projection;
+        private ServerTransform projectionTransform;
+        private boolean projectionMetadata;
+
         public DocumentExporter(ProcessSession session) {
             this.session = session;
         }
+
+        DocumentExporter withProjection(DocumentProjection projection, ServerTransform transform, boolean retrieveMetadata) {
+            this.projection = projection;
+            this.projectionTransform = transform;
+            this.projectionMetadata = retrieveMetadata;
+            return this;
+        }
+
+        /**
+         * When projecting, the batch is read via a multi-document search so that the extract-document-data option
+         * applies; a plain multi-document read always returns entire documents.
+         */
+        @Override
+        protected DocumentPage getDocs(QueryBatch batch) {
+            if (projection == null) {
+                return super.getDocs(batch);
+            }
+            GenericDocumentManager docMgr = batch.getClient().newDocumentManager();
+            docMgr.setPageLength(batch.getItems().length);
+            if (projectionMetadata) {
+                docMgr.setMetadataCategories(Metadata.ALL);
+            }
+            RawCombinedQueryDefinition query = batch.getClient().newQueryManager().newRawCombinedQueryDefinition(
+                new StringHandle(projection.toBatchQuery(batch.getItems())).withFormat(Format.XML));
+            if (projectionTransform != null) {
+                query.setResponseTransform(projectionTransform);
+            }
+            return docMgr.search(query, 1);
+        }
         @Override
         public void processEvent(QueryBatch batch) {
             super.processEvent(batch);
@@ -384,17 +1207,25 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     private ExportListener buildFullDocumentExporter(ProcessContext context, ProcessSession session, Map<String, String> incomingAttributes) {
         final boolean retrieveMetadata = shouldRetrieveMetadata(context);
 
-        ExportListener exportListener = new DocumentExporter(session).onDocumentReady(doc -> {
+        DocumentExporter documentExporter = new DocumentExporter(session);
+        DocumentProjection projection = buildDocumentProjection(context, incomingAttributes);
+        if (projection != null) {
+            documentExporter.withProjection(projection, buildServerTransform(context), retrieveMetadata);
+        }
+
+        ExportListener exportListener = documentExporter.onDocumentReady(doc -> {
+            final byte[] content = doc.getContent(new BytesHandle()).get();
+            RateLimitedQueryBatchListener.recordBytes(content.length);
             synchronized (session) {
                 final FlowFile flowFile = session.write(
                     createFlowFileWithAttributes(session, incomingAttributes),
-                    out -> out.write(doc.getContent(new BytesHandle()).get())
+                    out -> out.write(content)
                 );
                 session.putAttribute(flowFile, CoreAttributes.FILENAME.key(), doc.getUri());
                 if (retrieveMetadata) {
                     addDocumentMetadata(context, session, flowFile, doc.getMetadata(new DocumentMetadataHandle()));
                 }
-                session.transfer(flowFile, SUCCESS);
+                transferToRequesters(session, flowFile, SUCCESS);
                 if (getLogger().isDebugEnabled()) {
                     getLogger().debug("Routing " + doc.getUri() + " to " + SUCCESS.getName());
                 }
@@ -421,17 +1252,78 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     }
 
     /**
-     * Convenience method for transferring a batch to a relationship, with an optional Throwable supported.
+     * @param context
+     * @param incomingAttributes used to evaluate the namespace properties that can be referenced by the paths
+     * @return null if no Projection Paths are set
+     */
+    private DocumentProjection buildDocumentProjection(ProcessContext context, Map<String, String> incomingAttributes) {
+        final String projectionPaths = context.getProperty(PROJECTION_PATHS).getValue();
+        if (projectionPaths == null) {
+            return null;
+        }
+        List<String> paths = Arrays.stream(projectionPaths.split("\\r?\\n"))
+            .map(String::trim).filter(path -> !path.isEmpty()).collect(Collectors.toList());
+        if (paths.isEmpty()) {
+            return null;
+        }
+
+        Map<String, String> namespaces = new LinkedHashMap<>();
+        List<PropertyDescriptor> namespaceProperties = propertiesByPrefix.get("ns");
+        if (namespaceProperties != null) {
+            for (PropertyDescriptor propertyDesc : namespaceProperties) {
+                namespaces.put(propertyDesc.getName().substring(3),
+                    context.getProperty(propertyDesc).evaluateAttributeExpressions(incomingAttributes).getValue());
+            }
+        }
+        return new DocumentProjection(paths, context.getProperty(PROJECTION_SELECTION).getValue(), namespaces);
+    }
+
+    /**
+     * Convenience method for transferring a batch to a relationship, with an optional Throwable supported. Depending
+     * on the Output Granularity, this creates a FlowFile for each URI, a single FlowFile for the batch, or - for a
+     * successful batch when only a job summary is written - no FlowFile at all. A failed batch is also reported to the
+     * checkpoint of its job, if any, so that a resumed job does not skip it.
      */
     protected final void transferBatch(ProcessSession session, Map<String, String> incomingAttributes, QueryBatch batch, Relationship relationship, Throwable throwable) {
+        if (throwable != null) {
+            QueryBatchCheckpoint checkpoint = checkpointsByBatcher.get(batch.getBatcher());
+            if (checkpoint != null) {
+                checkpoint.batchFailed(batch);
+            }
+        }
+        final String granularity = outputGranularity;
+        if (OutputGranularities.JOB_SUMMARY_STR.equals(granularity)) {
+            QueryJobSummary summary = jobSummaries.get(batch.getBatcher());
+            if (summary != null) {
+                summary.addBatch(batch.getItems().length, throwable == null);
+            }
+            if (throwable == null) {
+                return;
+            }
+        }
+
         synchronized (session) {
+            if (!OutputGranularities.PER_URI_STR.equals(granularity)) {
+                // Failed batches are always written so that the URIs that failed are known
+                FlowFile flowFile = session.write(createFlowFileWithAttributes(session, incomingAttributes),
+                    out -> out.write(String.join("\n", batch.getItems()).getBytes(StandardCharsets.UTF_8)));
+                session.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), "text/plain");
+                session.putAttribute(flowFile, "marklogic-job-batch-number", Long.toString(batch.getJobBatchNumber()));
+                session.putAttribute(flowFile, "marklogic-uri-count", Integer.toString(batch.getItems().length));
+                if (throwable != null) {
+                    addErrorMessageToFlowFile(throwable.getMessage(), flowFile, session);
+                }
+                transferToRequesters(session, flowFile, relationship);
+                session.commitAsync();
+                return;
+            }
             for (String uri : batch.getItems()) {
                 FlowFile flowFile = createFlowFileWithAttributes(session, incomingAttributes);
                 session.putAttribute(flowFile, CoreAttributes.FILENAME.key(), uri);
                 if (throwable != null) {
                     addErrorMessageToFlowFile(throwable.getMessage(), flowFile, session);
                 }
-                session.transfer(flowFile, relationship);
+                transferToRequesters(session, flowFile, relationship);
             }
             session.commitAsync();
         }
@@ -448,6 +1340,9 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         PropertyValue consistentSnapshotProp = context.getProperty(CONSISTENT_SNAPSHOT);
         Objects.requireNonNull(consistentSnapshotProp);
         final boolean consistentSnapshot = Boolean.TRUE.equals(consistentSnapshotProp.asBoolean());
+        if (!shouldRetrieveMetadata(context) && !OutputGranularities.PER_URI_STR.equals(context.getProperty(OUTPUT_GRANULARITY).getValue())) {
+            return batch -> transferBatch(session, incomingAttributes, batch, SUCCESS, null);
+        }
         return batch -> {
             synchronized (session) {
                 Arrays.stream(batch.getItems()).forEach(uri -> {
@@ -462,7 +1357,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
                             batch.getClient().newDocumentManager().readMetadata(uri, metadata);
                             addDocumentMetadata(context, session, flowFile, metadata);
                         }
-                        session.transfer(flowFile, SUCCESS);
+                        transferToRequesters(session, flowFile, SUCCESS);
                         if (getLogger().isDebugEnabled()) {
                             getLogger().debug("Routing " + uri + " to " + SUCCESS.getName());
                         }
@@ -472,7 +1367,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
                         FlowFile flowFile = createFlowFileWithAttributes(session, incomingAttributes);
                         session.putAttribute(flowFile, CoreAttributes.FILENAME.key(), uri);
                         addErrorMessageToFlowFile(throwable.getMessage(), flowFile, session);
-                        session.transfer(flowFile, FAILURE);
+                        transferToRequesters(session, flowFile, FAILURE);
                     }
                 });
                 session.commitAsync();
@@ -534,7 +1429,264 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
     }
 
     /**
-     * Returns a RangeIndexQuery if the user has defined the STATE_INDEX property and a dateTime is found in the NiFi
+     * Runs the {@code QueryBatcher} job and then either removes the checkpoint, if the job processed every batch, or
+     * saves it, if the job was stopped because the processor was unscheduled.
+     *
+     * @param queryBatcherContext
+     * @param checkpoint          can be null
+     */
+    private void runQueryBatcherJob(QueryBatcherContext queryBatcherContext, QueryBatchCheckpoint checkpoint) throws IOException {
+        if (checkpoint == null) {
+            runQueryBatcherJob(queryBatcherContext);
+            return;
+        }
+        if (checkpoint.isResuming()) {
+            getLogger().info("Resuming job from checkpoint saved by a job at server timestamp " +
+                checkpoint.getPreviousServerTimestamp() + "; batches processed by the previous job will be skipped");
+        }
+        checkpointedJobs.add(queryBatcherContext);
+        try {
+            runQueryBatcherJob(queryBatcherContext);
+        } finally {
+            checkpointedJobs.remove(queryBatcherContext);
+            checkpointsByBatcher.remove(queryBatcherContext.getBatcher());
+        }
+        if (stoppedCheckpointedBatchers.remove(queryBatcherContext.getBatcher())) {
+            checkpoint.save();
+            getLogger().info("Job was stopped before completing; saved checkpoint so that it can be resumed");
+        } else {
+            checkpoint.clear();
+            if (checkpoint.isResuming()) {
+                // Documents changed between the two timestamps may have been missed or processed twice
+                getLogger().info("Resumed job completed at server timestamp " + checkpoint.getServerTimestamp() +
+                    "; skipped " + checkpoint.getSkippedBatches() + " batches processed by the previous job at server timestamp " +
+                    checkpoint.getPreviousServerTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Stops any running job that can be resumed from a checkpoint, so that stopping the processor does not require
+     * waiting for a long-running job to complete. Jobs without a checkpoint are left to complete, as before.
+     */
+    @OnUnscheduled
+    public void onUnscheduled() {
+        for (QueryBatcherContext queryBatcherContext : checkpointedJobs) {
+            getLogger().info("Stopping job so that it can be resumed from its checkpoint");
+            stoppedCheckpointedBatchers.add(queryBatcherContext.getBatcher());
+            queryBatcherContext.getManager().stopJob(queryBatcherContext.getBatcher());
+        }
+    }
+
+    /**
+     * @param context
+     * @param query   the query being run, which identifies the checkpoint
+     * @return a checkpoint based on the user's chosen storage; null if no checkpoint storage was chosen
+     * @throws IOException if an existing checkpoint could not be loaded
+     */
+    private QueryBatchCheckpoint newCheckpoint(ProcessContext context, String query) throws IOException {
+        final String storageType = context.getProperty(CHECKPOINT_STORAGE).getValue();
+        CheckpointStore store;
+        if (CheckpointStorageTypes.CLUSTER_STATE_STR.equals(storageType)) {
+            // Under cluster partitioning, each node runs its own job and so keeps its own checkpoint
+            store = Boolean.TRUE.equals(context.getProperty(CLUSTER_PARTITIONING).asBoolean()) ?
+                new StateCheckpointStore(context.getStateManager(), determineNodeIdentifier()) :
+                new StateCheckpointStore(context.getStateManager());
+        } else if (CheckpointStorageTypes.LOCAL_FILE_STR.equals(storageType)) {
+            Path directory = Paths.get(context.getProperty(CHECKPOINT_DIRECTORY).getValue());
+            store = new FileCheckpointStore(directory.resolve(getIdentifier() + ".checkpoint"));
+        } else {
+            return null;
+        }
+        return new QueryBatchCheckpoint(store, query, context.getProperty(CHECKPOINT_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS));
+    }
+
+    private boolean isBackfill(ProcessContext context) {
+        return context.getProperty(BACKFILL_START).isSet() && context.getProperty(BACKFILL_END).isSet();
+    }
+
+    /**
+     * Splits the backfill range into windows and concurrently runs a QueryBatcher job for each window that has not
+     * been recorded as complete in the state map. A window is only recorded as complete when its job finishes without
+     * any failed batches, so a restarted or partially failed backfill will re-query just the unfinished windows.
+     *
+     * @param context
+     * @param session
+     * @param incomingFlowFile
+     */
+    private void runBackfill(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile) {
+        ExecutorService executor = null;
+        boolean transferred = false;
+        try {
+            final String start = context.getProperty(BACKFILL_START).getValue();
+            final String end = context.getProperty(BACKFILL_END).getValue();
+            final long windowMillis = context.getProperty(BACKFILL_WINDOW_SIZE).asTimePeriod(TimeUnit.MILLISECONDS);
+            List<BackfillWindows.Window> windows = BackfillWindows.split(start, end, Duration.ofMillis(windowMillis));
+            final List<Forest> assignedForests = assignClusterForests(context, getDataMovementManager(context));
+            Set<String> completedWindows = getCompletedBackfillWindows(context, start + "/" + end + "/" + windowMillis);
+            List<BackfillWindows.Window> remainingWindows = new ArrayList<>();
+            Map<String, List<Forest>> remainingForestsByWindow = new HashMap<>();
+            for (BackfillWindows.Window window : windows) {
+                if (completedWindows.contains(window.getStart())) {
+                    continue;
+                }
+                if (assignedForests == null) {
+                    remainingWindows.add(window);
+                } else {
+                    List<Forest> remainingForests = assignedForests.stream()
+                        .filter(forest -> !completedWindows.contains(toBackfillWindowKey(window, forest)))
+                        .collect(Collectors.toList());
+                    if (!remainingForests.isEmpty()) {
+                        remainingWindows.add(window);
+                        remainingForestsByWindow.put(window.getStart(), remainingForests);
+                    }
+                }
+            }
+
+            if (assignedForests != null) {
+                session.putAttribute(incomingFlowFile, "marklogic-forests", toForestNames(assignedForests));
+            }
+            session.putAttribute(incomingFlowFile, "marklogic-backfill-windows", Integer.toString(windows.size()));
+            session.putAttribute(incomingFlowFile, "marklogic-backfill-remaining-windows", Integer.toString(remainingWindows.size()));
+            transferAndCommit(session, incomingFlowFile, ORIGINAL);
+            transferred = true;
+            if (remainingWindows.isEmpty()) {
+                if (assignedForests != null && assignedForests.isEmpty()) {
+                    getLogger().info("No forests are currently assigned to this node");
+                } else {
+                    getLogger().info("All " + windows.size() + " backfill windows have completed");
+                }
+                context.yield();
+                return;
+            }
+
+            getLogger().info("Running backfill for " + remainingWindows.size() + " of " + windows.size() + " windows");
+            executor = Executors.newFixedThreadPool(context.getProperty(BACKFILL_CONCURRENT_WINDOWS).asInteger());
+            List<Future<?>> futures = new ArrayList<>();
+            for (BackfillWindows.Window window : remainingWindows) {
+                final List<Forest> forests = remainingForestsByWindow.get(window.getStart());
+                futures.add(executor.submit(() -> runBackfillWindow(context, session, incomingFlowFile, window, forests)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    logError(ex.getCause());
+                }
+            }
+        } catch (Throwable t) {
+            if (transferred) {
+                logError(t);
+            } else {
+                logErrorAndTransfer(t, incomingFlowFile, session, FAILURE);
+            }
+            context.yield();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @param forests if not null, the forests of this node that have not yet been queried for the window, in which
+     *                case the window is only recorded as complete for those forests
+     */
+    private void runBackfillWindow(ProcessContext context, ProcessSession session, FlowFile incomingFlowFile,
+                                   BackfillWindows.Window window, List<Forest> forests) {
+        DatabaseClient client = getDatabaseClient(context);
+        QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue = determineQueryTypeAndValue(context, incomingFlowFile);
+        List<RangeIndexQuery> windowQueries = Arrays.asList(
+            buildStateRangeIndexQuery(client, context, incomingFlowFile, Operator.GE, window.getStart()),
+            buildStateRangeIndexQuery(client, context, incomingFlowFile, Operator.LT, window.getEnd())
+        );
+        QueryBatcherContext queryBatcherContext = new QueryBatcherBuilder(client, getDataMovementManager(context),
+            getSharedForestConfiguration(context)).newQueryBatcher(queryTypeAndValue, windowQueries);
+        configureQueryBatcher(context, session, incomingFlowFile, queryBatcherContext.getBatcher(), false, null);
+        queryBatcherContext.getBatcher().onJobCompletion(batcher -> {
+            JobReport report = new JobReportImpl(batcher);
+            if (report.getFailureBatchesCount() == 0) {
+                recordCompletedBackfillWindow(context, window, forests);
+            } else {
+                getLogger().warn("Backfill window " + window + " had " + report.getFailureBatchesCount() +
+                    " failed batches; it will be queried again the next time the processor runs");
+            }
+        });
+        if (forests != null) {
+            queryBatcherContext.getBatcher().withForestConfig(ForestPartitioner.toForestConfiguration(forests));
+            getLogger().info("Querying backfill window " + window + " in forests: " + toForestNames(forests));
+        } else {
+            getLogger().info("Querying backfill window " + window);
+        }
+        runQueryBatcherJob(queryBatcherContext);
+    }
+
+    /**
+     * @param context
+     * @param rangeSignature identifies the configured backfill; if it differs from the one in the state map, then the
+     *                       backfill configuration has changed and any previously completed windows are discarded
+     * @return the start values of the windows that have already been completed, along with the keys built by
+     * {@code toBackfillWindowKey} for the windows that have been completed for a forest when partitioning
+     * @throws IOException
+     */
+    private Set<String> getCompletedBackfillWindows(ProcessContext context, String rangeSignature) throws IOException {
+        Map<String, String> state = updateClusterState(context, newState -> {
+            if (!rangeSignature.equals(newState.get(BACKFILL_RANGE_KEY))) {
+                newState.keySet().removeIf(key -> key.startsWith(BACKFILL_WINDOW_KEY_PREFIX));
+                newState.put(BACKFILL_RANGE_KEY, rangeSignature);
+            }
+        });
+        return state.keySet().stream()
+            .filter(key -> key.startsWith(BACKFILL_WINDOW_KEY_PREFIX))
+            .map(key -> key.substring(BACKFILL_WINDOW_KEY_PREFIX.length()))
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Under cluster partitioning, completion is recorded for each forest instead of for the window, as every node
+     * queries the window in its own forests and the forests may be reassigned before the other nodes do so.
+     */
+    private void recordCompletedBackfillWindow(ProcessContext context, BackfillWindows.Window window, List<Forest> forests) {
+        try {
+            updateClusterState(context, newState -> {
+                if (forests == null) {
+                    newState.put(BACKFILL_WINDOW_KEY_PREFIX + window.getStart(), window.getEnd());
+                } else {
+                    forests.forEach(forest -> newState.put(BACKFILL_WINDOW_KEY_PREFIX + toBackfillWindowKey(window, forest), window.getEnd()));
+                }
+            });
+        } catch (IOException e) {
+            getLogger().error("Unable to record completion of backfill window " + window + "; cause: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toBackfillWindowKey(BackfillWindows.Window window, Forest forest) {
+        return window.getStart() + "/" + forest.getForestName();
+    }
+
+    /**
+     * Applies the given update to the cluster state. A compare-and-set is used so that concurrent updates from other
+     * nodes, such as partitioning heartbeats, are not lost; the lock avoids needless retries between the threads of
+     * this processor.
+     *
+     * @return the updated state
+     */
+    private Map<String, String> updateClusterState(ProcessContext context, Consumer<Map<String, String>> update) throws IOException {
+        synchronized (stateLock) {
+            for (int attempt = 1; attempt <= MAX_STATE_UPDATE_ATTEMPTS; attempt++) {
+                StateMap stateMap = context.getStateManager().getState(Scope.CLUSTER);
+                Map<String, String> newState = new HashMap<>(stateMap.toMap());
+                update.accept(newState);
+                if (newState.equals(stateMap.toMap()) || context.getStateManager().replace(stateMap, newState, Scope.CLUSTER)) {
+                    return newState;
+                }
+            }
+        }
+        throw new IOException("Unable to update state after " + MAX_STATE_UPDATE_ATTEMPTS + " attempts due to concurrent state updates");
+    }
+
+    /**
+     * Returns a StateQuery if the user has defined the STATE_INDEX property and a dateTime is found in the NiFi
      * state map from a previous run of this processor. This query can then be combined with the query based on the
      * user's inputs to only select URIs with a dateTime value greater than the value found in the NiFi state map.
      * This effectively solves the problem of "Only process URIs newer than when the processor last ran".
@@ -544,7 +1696,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
      * @param incomingFlowFile
      * @return
      */
-    private RangeIndexQuery buildStateQuery(DatabaseClient client, ProcessContext context, FlowFile incomingFlowFile) {
+    private StateQuery buildStateQuery(DatabaseClient client, ProcessContext context, FlowFile incomingFlowFile) {
         PropertyValue stateIndexProp = context.getProperty(STATE_INDEX);
         Objects.requireNonNull(stateIndexProp);
         if (!stateIndexProp.isSet()) {
@@ -556,6 +1708,23 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
             return null;
         }
 
+        RangeIndexQuery stateQuery = buildStateRangeIndexQuery(client, context, incomingFlowFile, Operator.GT, previousQueryDateTime);
+        if (WatermarkModes.URI_TIE_BREAKER_STR.equals(context.getProperty(WATERMARK_MODE).getValue())) {
+            List<String> tieUris = getTieUrisFromStateMap(context);
+            if (!tieUris.isEmpty()) {
+                return new TieBreakerRangeIndexQuery(stateQuery, tieUris);
+            }
+        }
+        return stateQuery;
+    }
+
+    /**
+     * @return a RangeIndexQuery on the xs:dateTime State Index defined by the user
+     */
+    private RangeIndexQuery buildStateRangeIndexQuery(DatabaseClient client, ProcessContext context, FlowFile incomingFlowFile,
+                                                      Operator operator, String dateTime) {
+        PropertyValue stateIndexProp = context.getProperty(STATE_INDEX);
+        Objects.requireNonNull(stateIndexProp);
         String stateIndexValue = stateIndexProp.evaluateAttributeExpressions(incomingFlowFile).getValue();
 
         PropertyValue stateIndexTypeProp = context.getProperty(STATE_INDEX_TYPE);
@@ -566,8 +1735,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         StructuredQueryBuilder queryBuilder = client.newQueryManager().newStructuredQueryBuilder();
         queryBuilder.setNamespaces(namespaces);
 
-        return new RangeIndexQuery(queryBuilder, stateIndexTypeValue, stateIndexValue, "xs:dateTime", Operator.GT,
-            previousQueryDateTime);
+        return new RangeIndexQuery(queryBuilder, stateIndexTypeValue, stateIndexValue, "xs:dateTime", operator, dateTime);
     }
 
     /**
@@ -587,8 +1755,27 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
             return null;
         }
 
-        // "queryState" is not very descriptive, but it has to be preserved for backwards compatibility
-        return stateMap.get("queryState");
+        return stateMap.get(QUERY_STATE_KEY);
+    }
+
+    /**
+     * @param context
+     * @return the URIs of the documents that had the most recent State Index value when it was stored; empty if none
+     * were stored
+     */
+    private List<String> getTieUrisFromStateMap(ProcessContext context) {
+        String tieUris;
+        try {
+            tieUris = context.getStateManager().getState(Scope.CLUSTER).get(TIE_URIS_KEY);
+        } catch (IOException e) {
+            getLogger().error("Unable to get watermark tie URIs; failed to get state map: " + e.getMessage(), e);
+            return Collections.emptyList();
+        }
+        List<String> uris = new ArrayList<>();
+        if (!StringUtils.isEmpty(tieUris)) {
+            JsonParser.parseString(tieUris).getAsJsonArray().forEach(uri -> uris.add(uri.getAsString()));
+        }
+        return uris;
     }
 
     /**
@@ -635,9 +1822,13 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
 
             PropertyValue stateIndexProp = context.getProperty(STATE_INDEX);
             Objects.requireNonNull(stateIndexProp);
-            boolean stateValueShouldBeUpdated = report.getFailureBatchesCount() == 0 && stateIndexProp.isSet();
+            // A job stopped so that it can be resumed has not queried every document, so the state must not advance
+            boolean stateValueShouldBeUpdated = report.getFailureBatchesCount() == 0 && stateIndexProp.isSet()
+                && !stoppedCheckpointedBatchers.contains(batcher);
 
-            if (stateValueShouldBeUpdated) {
+            if (stateValueShouldBeUpdated && WatermarkModes.URI_TIE_BREAKER_STR.equals(context.getProperty(WATERMARK_MODE).getValue())) {
+                storeWatermarkWithTieUris(context, incomingFlowFile, batcher.getPrimaryClient(), serverTimestamp.get());
+            } else if (stateValueShouldBeUpdated) {
                 DatabaseClient dbClient = batcher.getPrimaryClient();
                 Objects.requireNonNull(dbClient);
                 QueryManager queryMgr = dbClient.newQueryManager();
@@ -655,7 +1846,7 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
                 try {
                     StateMap stateMap = context.getStateManager().getState(Scope.CLUSTER);
                     Map<String, String> alterMap = new HashMap<>(stateMap.toMap());
-                    alterMap.put("queryState", queryStateValue);
+                    alterMap.put(QUERY_STATE_KEY, queryStateValue);
                     context.getStateManager().setState(alterMap, Scope.CLUSTER);
                 } catch (IOException e) {
                     getLogger().error("{} Failed to store state", new Object[]{this});
@@ -664,6 +1855,103 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         });
     }
 
+    /**
+     * Stores the most recent value in the State Index along with the URIs of every document having that value. A
+     * single tuples query on the State Index and the URI lexicon, in descending order, returns both at once. The next
+     * query then selects documents with a greater value or with an equal value and a URI that is not stored, so that
+     * documents sharing the most recent value but committed after this job's point-in-time are not skipped.
+     *
+     * @param context
+     * @param incomingFlowFile
+     * @param dbClient
+     * @param serverTimestamp  the point-in-time timestamp of the completed job
+     */
+    private void storeWatermarkWithTieUris(ProcessContext context, FlowFile incomingFlowFile, DatabaseClient dbClient,
+                                           long serverTimestamp) {
+        Objects.requireNonNull(dbClient);
+        final int maxTieUris = context.getProperty(WATERMARK_MAX_TIE_URIS).asInteger();
+        QueryManager queryMgr = dbClient.newQueryManager();
+        ValuesDefinition valuesDef = queryMgr.newValuesDefinition("state");
+        valuesDef.setQueryDefinition(queryMgr.newRawCombinedQueryDefinition(
+            new StringHandle(buildStateTuplesOptions(context, incomingFlowFile, maxTieUris + 1)).withFormat(Format.XML)));
+        TuplesHandle tuplesResult = new TuplesHandle();
+        tuplesResult.setPointInTimeQueryTimestamp(serverTimestamp);
+        tuplesResult.setQueryCriteria(valuesDef);
+        Tuple[] tuples = queryMgr.tuples(valuesDef, tuplesResult).getTuples();
+        if (tuples == null || tuples.length == 0) {
+            return;
+        }
+
+        final String watermark = tuples[0].getValues()[0].get(String.class);
+        JsonArray tieUris = new JsonArray();
+        for (Tuple tuple : tuples) {
+            if (watermark.equals(tuple.getValues()[0].get(String.class))) {
+                tieUris.add(tuple.getValues()[1].get(String.class));
+            }
+        }
+        if (tieUris.size() > maxTieUris) {
+            getLogger().warn("More than " + maxTieUris + " documents have the most recent State Index value of " +
+                watermark + "; the next query will only select documents with a greater value");
+        }
+        try {
+            updateClusterState(context, newState -> {
+                newState.put(QUERY_STATE_KEY, watermark);
+                if (tieUris.size() > maxTieUris) {
+                    newState.remove(TIE_URIS_KEY);
+                } else {
+                    newState.put(TIE_URIS_KEY, tieUris.toString());
+                }
+            });
+        } catch (IOException e) {
+            getLogger().error("{} Failed to store state", new Object[]{this});
+        }
+    }
+
+    /**
+     * Builds a set of search options for getting the most recent values from the index identified by the user, paired
+     * with the URIs of the documents having each value.
+     *
+     * @param context
+     * @param flowFile
+     * @param limit    the maximum number of value and URI pairs to return
+     * @return
+     */
+    private String buildStateTuplesOptions(final ProcessContext context, final FlowFile flowFile, int limit) {
+        final String stateIndexValue = context.getProperty(STATE_INDEX).evaluateAttributeExpressions(flowFile).getValue();
+        StringBuilder options = new StringBuilder("<search xmlns=\"http://marklogic.com/appservices/search\"><options>")
+            .append("<tuples name=\"state\"><range type=\"xs:dateTime\">");
+        switch (context.getProperty(STATE_INDEX_TYPE).getValue()) {
+            case IndexTypes.ELEMENT_STR:
+                boolean hasNamespace = stateIndexValue.contains(":");
+                String[] parts = stateIndexValue.split(":", 2);
+                String name = (hasNamespace) ? parts[1] : stateIndexValue;
+                String ns = (hasNamespace) ? context.getProperty("ns:" + parts[0]).evaluateAttributeExpressions(flowFile).getValue() : "";
+                options.append("<element ns=\"").append(EscapeUtils.escapeHtml(ns)).append("\" name=\"")
+                    .append(EscapeUtils.escapeHtml(name)).append("\"/>");
+                break;
+            case IndexTypes.JSON_PROPERTY_STR:
+                options.append("<json-property>").append(EscapeUtils.escapeHtml(stateIndexValue)).append("</json-property>");
+                break;
+            case IndexTypes.PATH_STR:
+                options.append("<path-index");
+                List<PropertyDescriptor> namespaceProperties = propertiesByPrefix.get("ns");
+                if (namespaceProperties != null) {
+                    for (PropertyDescriptor propertyDesc : namespaceProperties) {
+                        options.append(" xmlns:").append(propertyDesc.getName().substring(3)).append("=\"")
+                            .append(EscapeUtils.escapeHtml(context.getProperty(propertyDesc).evaluateAttributeExpressions(flowFile).getValue()))
+                            .append("\"");
+                    }
+                }
+                options.append(">").append(EscapeUtils.escapeHtml(stateIndexValue)).append("</path-index>");
+                break;
+            default:
+                break;
+        }
+        return options.append("</range><uri/><values-option>descending</values-option>")
+            .append("<values-option>limit=").append(limit).append("</values-option>")
+            .append("</tuples></options></search>").toString();
+    }
+
     /**
      * Builds a set of search options for getting the most recent value from the index identified by the user.
      *
@@ -741,9 +2029,95 @@ public class QueryMarkLogic extends AbstractMarkLogicProcessor {
         public static final AllowableValue META = new AllowableValue(META_STR, META_STR,
             "Each FlowFile will have attributes added containing metadata for a document matching the query");
 
+        public static final String ESTIMATE_STR = "Estimate";
+        public static final AllowableValue ESTIMATE = new AllowableValue(ESTIMATE_STR, ESTIMATE_STR,
+            "No URIs or documents are retrieved; instead, the 'marklogic-count' attribute of the original FlowFile is " +
+                "set to MarkLogic's estimate of the number of documents matching the query, which is resolved from " +
+                "the indexes with a single request");
+        public static final String COUNT_STR = "Count";
+        public static final AllowableValue COUNT = new AllowableValue(COUNT_STR, COUNT_STR,
+            "No FlowFiles are created for matching URIs; instead, the 'marklogic-count' attribute of the original " +
+                "FlowFile is set to the exact number of URIs that a job would process, which is computed by MarkLogic " +
+                "from the URI lexicon with a single request.");
+
         public static final AllowableValue[] allValues = new AllowableValue[]{URIS_ONLY, DOCUMENTS,
-            DOCUMENTS_AND_META, META};
+            DOCUMENTS_AND_META, META, ESTIMATE, COUNT};
+
+    }
+
+    public static class OutputGranularities {
+        public static final String PER_URI_STR = "Per URI";
+        public static final AllowableValue PER_URI = new AllowableValue(PER_URI_STR, PER_URI_STR,
+            "A FlowFile is created for each URI, with its 'filename' attribute set to the URI");
+        public static final String PER_BATCH_STR = "Per Batch";
+        public static final AllowableValue PER_BATCH = new AllowableValue(PER_BATCH_STR, PER_BATCH_STR,
+            "A FlowFile is created for each batch of URIs, with its content being the newline-delimited URIs");
+        public static final String JOB_SUMMARY_STR = "Job Summary";
+        public static final AllowableValue JOB_SUMMARY = new AllowableValue(JOB_SUMMARY_STR, JOB_SUMMARY_STR,
+            "A single FlowFile is created when the job completes, with its content being a JSON object containing " +
+                "counts and timings for the job. A FlowFile is still created for each batch that fails.");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{PER_URI, PER_BATCH, JOB_SUMMARY};
+    }
+
+    public static class ProjectionSelections {
+        public static final AllowableValue INCLUDE_WITH_ANCESTORS = new AllowableValue(
+            DocumentProjection.INCLUDE_WITH_ANCESTORS, DocumentProjection.INCLUDE_WITH_ANCESTORS,
+            "Each document is returned with only the selected nodes and their ancestors, preserving the structure of " +
+                "the document");
+        public static final AllowableValue INCLUDE = new AllowableValue(
+            DocumentProjection.INCLUDE, DocumentProjection.INCLUDE,
+            "Only the selected nodes of each document are returned, wrapped by MarkLogic in an 'extracted' element " +
+                "for XML documents or an 'extracted' array for JSON documents");
+        public static final AllowableValue EXCLUDE = new AllowableValue(
+            DocumentProjection.EXCLUDE, DocumentProjection.EXCLUDE,
+            "Each document is returned without the selected nodes");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{INCLUDE_WITH_ANCESTORS, INCLUDE, EXCLUDE};
+    }
+
+    public static class CheckpointStorageTypes {
+        public static final String NONE_STR = "None";
+        public static final AllowableValue NONE = new AllowableValue(NONE_STR, NONE_STR,
+            "Progress is not stored; a job that does not complete will be restarted from the beginning");
+        public static final String CLUSTER_STATE_STR = "Cluster State";
+        public static final AllowableValue CLUSTER_STATE = new AllowableValue(CLUSTER_STATE_STR, CLUSTER_STATE_STR,
+            "Progress is stored in the processor's cluster state, which stores one entry per forest in the database");
+        public static final String LOCAL_FILE_STR = "Local File";
+        public static final AllowableValue LOCAL_FILE = new AllowableValue(LOCAL_FILE_STR, LOCAL_FILE_STR,
+            "Progress is stored in a file in the Checkpoint Directory; suited to databases with many forests, but " +
+                "the job can only be resumed on the same NiFi node");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{NONE, CLUSTER_STATE, LOCAL_FILE};
+    }
+
+    public static class WatermarkModes {
+        public static final String GREATER_THAN_MAX_STR = "Greater Than Max";
+        public static final AllowableValue GREATER_THAN_MAX = new AllowableValue(GREATER_THAN_MAX_STR, GREATER_THAN_MAX_STR,
+            "Stores the most recent State Index value and selects documents with a greater value the next time the " +
+                "processor runs. Documents that share the most recent value but are committed after a job starts will " +
+                "not be selected.");
+        public static final String URI_TIE_BREAKER_STR = "Max With URI Tie-Breaker";
+        public static final AllowableValue URI_TIE_BREAKER = new AllowableValue(URI_TIE_BREAKER_STR, URI_TIE_BREAKER_STR,
+            "Stores the most recent State Index value along with the URIs of the documents having that value, and " +
+                "selects documents with a greater value, or an equal value and a URI that was not stored, the next " +
+                "time the processor runs. Requires the URI lexicon to be enabled in the database.");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{GREATER_THAN_MAX, URI_TIE_BREAKER};
+    }
 
+    public static class RateLimitScopes {
+        public static final String PROCESSOR_STR = "Processor";
+        public static final AllowableValue PROCESSOR = new AllowableValue(PROCESSOR_STR, PROCESSOR_STR,
+            "The limits are defined by the 'Documents Per Second' and 'Bytes Per Second' properties of this processor " +
+                "and apply to this processor only; they can be changed while the processor is running via Expression " +
+                "Language");
+        public static final String SHARED_STR = "Shared";
+        public static final AllowableValue SHARED = new AllowableValue(SHARED_STR, SHARED_STR,
+            "The limits are defined by the DatabaseClient service and apply across every processor that shares them; " +
+                "they are fixed while the service is enabled");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{PROCESSOR, SHARED};
     }
 
     public static class IndexTypes {
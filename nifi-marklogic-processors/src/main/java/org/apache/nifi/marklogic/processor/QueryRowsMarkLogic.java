@@ -1,30 +1,69 @@
 package org.apache.nifi.marklogic.processor;
 
 import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.RowBatchFailureListener;
+import com.marklogic.client.datamovement.RowBatcher;
 import com.marklogic.client.expression.PlanBuilder;
+import com.marklogic.client.io.BytesHandle;
 import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.row.RowManager;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
 import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.Stateful;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.Validator;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateMap;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.marklogic.processor.util.OpticRowRecordReader;
+import org.apache.nifi.marklogic.processor.util.OpticWatermark;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Tags({"MarkLogic", "Query", "Read", "Rows"})
 @InputRequirement(InputRequirement.Requirement.INPUT_ALLOWED)
 @CapabilityDescription("Executes a serialized Optic query plan and writes the returned rows to a FlowFile. " +
     "Requires a MarkLogic user with the 'rest-reader' privilege.")
+@DynamicProperty(
+    name = "bind:{name}",
+    value = "The value to bind to the plan parameter",
+    description = "Binds the value - which can reference FlowFile attributes - to the parameter named '{name}' in " +
+        "the plan, as defined via op.param('{name}'), so that the plan itself does not need to vary per FlowFile",
+    expressionLanguageScope = ExpressionLanguageScope.FLOWFILE_ATTRIBUTES
+)
+@Stateful(description = "Can keep state of the maximum value of a watermark column to restrict future queries to " +
+    "rows with a greater value", scopes = {Scope.CLUSTER})
 public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
 
     public static final PropertyDescriptor PLAN = new PropertyDescriptor.Builder()
@@ -39,13 +78,88 @@ public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
     public static final PropertyDescriptor MIMETYPE = new PropertyDescriptor.Builder()
         .name("MIME Type")
         .displayName("MIME Type")
-        .description("The MIME type to use when returning the rows")
+        .description("The MIME type to use when returning the rows; ignored when a Record Writer is set")
         .defaultValue("text/csv")
         .required(true)
         .addValidator(Validator.VALID)
         .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
         .build();
 
+    public static final PropertyDescriptor MICRO_BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("Micro-Batch Size")
+        .displayName("Micro-Batch Size")
+        .description("The maximum number of incoming FlowFiles whose plans are executed concurrently in a single " +
+            "invocation of the processor. Suited to many small parameterized queries, as each FlowFile's rows are " +
+            "held in memory until the micro-batch completes. Does not apply when 'Partition Size' is set.")
+        .defaultValue("1")
+        .required(true)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder()
+        .name("record-writer")
+        .displayName("Record Writer")
+        .description("If set, the rows are retrieved as JSON, parsed into Records as they are streamed from MarkLogic, " +
+            "and written with this Record Writer into FlowFiles of at most 'Max Rows Per FlowFile' rows each. The " +
+            "schema is derived from the column names and types returned by MarkLogic.")
+        .identifiesControllerService(RecordSetWriterFactory.class)
+        .expressionLanguageSupported(ExpressionLanguageScope.NONE)
+        .required(false)
+        .build();
+
+    public static final PropertyDescriptor MAX_ROWS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+        .name("Max Rows Per FlowFile")
+        .displayName("Max Rows Per FlowFile")
+        .description("Only applies when a Record Writer is set. The maximum number of rows written to each FlowFile.")
+        .defaultValue("10000")
+        .required(true)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor PARTITION_SIZE = new PropertyDescriptor.Builder()
+        .name("Partition Size")
+        .displayName("Partition Size")
+        .description("If set, the rows are exported in parallel by splitting the rows of the plan's view into " +
+            "partitions of approximately this many rows, based on MarkLogic's estimate of the number of rows in the " +
+            "view. Each partition is retrieved by a separate request, with requests spread across the hosts in the " +
+            "cluster, and is written to its own FlowFile. The plan must start with a view and must not sort, group, " +
+            "limit, or join rows, as those operations cannot be applied to each partition separately. If not set, " +
+            "every row is retrieved by a single request and written to a single FlowFile.")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor PARTITION_THREAD_COUNT = new PropertyDescriptor.Builder()
+        .name("Partition Thread Count")
+        .displayName("Partition Thread Count")
+        .description("Only applies when 'Partition Size' is set. The number of partitions that are retrieved and " +
+            "written to FlowFiles concurrently.")
+        .defaultValue("4")
+        .required(true)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor WATERMARK_COLUMN = new PropertyDescriptor.Builder()
+        .name("Watermark Column")
+        .displayName("Watermark Column")
+        .description("If set, only rows whose value for this column is greater than the maximum value exported by " +
+            "the previous run of the processor are exported. The column must belong to the view that the plan starts " +
+            "with, and its value must increase whenever a row is added or changed, such as a last-modified dateTime. " +
+            "The maximum value is stored in cluster state once the exported rows have been committed.")
+        .required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor WATERMARK_COLUMN_TYPE = new PropertyDescriptor.Builder()
+        .name("Watermark Column Type")
+        .displayName("Watermark Column Type")
+        .description("Only applies when 'Watermark Column' is set. The type of the watermark column, which determines " +
+            "how its values are compared to the stored maximum value.")
+        .defaultValue(WatermarkColumnTypes.DATE_TIME.getValue())
+        .required(true)
+        .allowableValues(WatermarkColumnTypes.allValues)
+        .build();
+
     protected static final Relationship FAILURE = new Relationship.Builder().name("failure")
         .description("If any error occurs while querying for rows, the incoming FlowFile, or a new one if an incoming one " +
             "does not exist, will be sent here").build();
@@ -65,6 +179,14 @@ public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
         list.add(DATABASE_CLIENT_SERVICE);
         list.add(PLAN);
         list.add(MIMETYPE);
+        list.add(MICRO_BATCH_SIZE);
+        list.add(RECORD_WRITER);
+        list.add(MAX_ROWS_PER_FLOWFILE);
+        list.add(PARTITION_SIZE);
+        list.add(PARTITION_THREAD_COUNT);
+        list.add(WATERMARK_COLUMN);
+        list.add(WATERMARK_COLUMN_TYPE);
+        list.add(SHARED_DATA_MOVEMENT_MANAGER);
         properties = Collections.unmodifiableList(list);
 
         final Set<Relationship> set = new HashSet<>();
@@ -74,32 +196,136 @@ public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
         relationships = Collections.unmodifiableSet(set);
     }
 
+    private static final String BIND_PREFIX = "bind";
+    private static final String WATERMARK_KEY_PREFIX = "watermark:";
+    private static final int MAX_STATE_UPDATE_ATTEMPTS = 10;
+
+    private final Object stateLock = new Object();
+
+    // Reused for every FlowFile when the plan does not reference FlowFile attributes
+    private volatile PlanBuilder.Plan cachedPlan;
+    private volatile ExecutorService microBatchExecutor;
+
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        Set<ValidationResult> validationResultSet = new HashSet<>();
+        final boolean hasBindings = validationContext.getProperties().keySet().stream()
+            .anyMatch(descriptor -> descriptor.isDynamic() && descriptor.getName().startsWith(BIND_PREFIX + ":"));
+        if (hasBindings && validationContext.getProperty(PARTITION_SIZE).isSet()) {
+            validationResultSet.add(new ValidationResult.Builder().subject(PARTITION_SIZE.getDisplayName()).valid(false)
+                .explanation("Plan parameters cannot be bound when the rows are exported in partitions").build());
+        }
+        if (validationContext.getProperty(WATERMARK_COLUMN).isSet() && validationContext.getProperty(MICRO_BATCH_SIZE).asInteger() > 1) {
+            validationResultSet.add(new ValidationResult.Builder().subject(WATERMARK_COLUMN.getDisplayName()).valid(false)
+                .explanation("A watermark column cannot be used when the Micro-Batch Size is greater than 1").build());
+        }
+        return validationResultSet;
+    }
+
+    /**
+     * A plan that does not reference FlowFile attributes is the same for every FlowFile, so it is only read once. With
+     * per-FlowFile values bound as parameters, every request then sends MarkLogic the same plan, which allows MarkLogic
+     * to reuse its cached query plan instead of optimizing a new plan for every FlowFile.
+     */
+    @OnScheduled
+    public void onScheduled(ProcessContext context) {
+        cachedPlan = null;
+        if (!context.getProperty(PLAN).isExpressionLanguagePresent() && !context.getProperty(WATERMARK_COLUMN).isSet()) {
+            cachedPlan = getDatabaseClient(context).newRowManager()
+                .newRawPlanDefinition(new StringHandle(context.getProperty(PLAN).getValue()));
+        }
+        final int microBatchSize = context.getProperty(MICRO_BATCH_SIZE).asInteger();
+        if (microBatchSize > 1) {
+            microBatchExecutor = Executors.newFixedThreadPool(microBatchSize);
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (microBatchExecutor != null) {
+            microBatchExecutor.shutdownNow();
+            microBatchExecutor = null;
+        }
+        cachedPlan = null;
+    }
+
     @Override
     public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        super.populatePropertiesByPrefix(context);
         final ProcessSession session = sessionFactory.createSession();
+        if (microBatchExecutor != null && !context.getProperty(PARTITION_SIZE).isSet()) {
+            List<FlowFile> flowFiles = session.get(context.getProperty(MICRO_BATCH_SIZE).asInteger());
+            if (!flowFiles.isEmpty()) {
+                executeMicroBatch(context, session, flowFiles);
+                return;
+            }
+        }
         FlowFile incomingFlowFile = session.get();
         if (incomingFlowFile == null) {
             incomingFlowFile = session.create();
         }
         try {
-            final String jsonPlan = determineJsonPlan(context, incomingFlowFile);
-            final String mimeType = determineMimeType(context, incomingFlowFile);
-
-            session.putAttribute(incomingFlowFile, "marklogic-optic-plan", jsonPlan);
+            String jsonPlan = determineJsonPlan(context, incomingFlowFile);
+            final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+            final String mimeType = writerFactory != null ? "application/json" : determineMimeType(context, incomingFlowFile);
 
             final DatabaseClient client = getDatabaseClient(context);
             final RowManager rowManager = client.newRowManager();
-            PlanBuilder.Plan plan = rowManager.newRawPlanDefinition(new StringHandle(jsonPlan));
+
+            String watermarkKey = null;
+            String watermark = null;
+            if (context.getProperty(WATERMARK_COLUMN).isSet()) {
+                final String column = context.getProperty(WATERMARK_COLUMN).getValue();
+                final OpticWatermark opticWatermark = new OpticWatermark(column, context.getProperty(WATERMARK_COLUMN_TYPE).getValue());
+                watermarkKey = WATERMARK_KEY_PREFIX + column;
+                final String previousWatermark = context.getStateManager().getState(Scope.CLUSTER).get(watermarkKey);
+                watermark = queryMaxWatermark(rowManager, opticWatermark, jsonPlan, previousWatermark);
+                if (watermark == null) {
+                    getLogger().debug("No rows have a value for " + column + " greater than " + previousWatermark);
+                    if (previousWatermark != null) {
+                        incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-watermark", previousWatermark);
+                    }
+                    transferAndCommit(session, incomingFlowFile, ORIGINAL);
+                    return;
+                }
+                jsonPlan = opticWatermark.restrict(jsonPlan, previousWatermark, watermark);
+                incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-watermark", watermark);
+            }
+
+            session.putAttribute(incomingFlowFile, "marklogic-optic-plan", jsonPlan);
+
+            if (writerFactory != null) {
+                rowManager.setDatatypeStyle(RowManager.RowSetPart.HEADER);
+            }
+            final Integer partitionSize = context.getProperty(PARTITION_SIZE).asInteger();
+            if (partitionSize != null) {
+                final AtomicLong failedPartitions = new AtomicLong();
+                final long partitions = exportPartitions(context, sessionFactory, rowManager, jsonPlan, mimeType,
+                    partitionSize, getAttributesToCopy(incomingFlowFile), failedPartitions);
+                incomingFlowFile = session.putAttribute(incomingFlowFile, "marklogic-partitions", Long.toString(partitions));
+                if (watermark != null && failedPartitions.get() > 0) {
+                    getLogger().warn("Not storing watermark " + watermark + " as " + failedPartitions.get() +
+                        " partitions failed; the rows will be exported again the next time the processor runs");
+                    watermark = null;
+                }
+                transferAndCommit(session, incomingFlowFile, ORIGINAL, context, watermarkKey, watermark);
+                return;
+            }
+            PlanBuilder.Plan plan = buildPlan(rowManager, jsonPlan, determinePlanBindings(context, incomingFlowFile));
             try (InputStreamHandle handle = new InputStreamHandle()){
                 try (InputStream inputStream = rowManager.resultDoc(plan, handle.withMimetype(mimeType))
                         .get()) {
                     if (inputStream != null) {
-                        FlowFile resultFlowFile = session.write(
-                            createFlowFileWithAttributes(session, incomingFlowFile.getAttributes()),
-                            out -> transferAndClose(inputStream, out));
-                        session.transfer(resultFlowFile, SUCCESS);
+                        if (writerFactory != null) {
+                            writeRecords(context, session, writerFactory, inputStream, incomingFlowFile.getAttributes());
+                        } else {
+                            FlowFile resultFlowFile = session.write(
+                                createFlowFileWithAttributes(session, incomingFlowFile.getAttributes()),
+                                out -> transferAndClose(inputStream, out));
+                            session.transfer(resultFlowFile, SUCCESS);
+                        }
                     }
-                    transferAndCommit(session, incomingFlowFile, ORIGINAL);
+                    transferAndCommit(session, incomingFlowFile, ORIGINAL, context, watermarkKey, watermark);
                 }
             }
 
@@ -108,6 +334,253 @@ public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
         }
     }
 
+    /**
+     * Determines the maximum value of the watermark column before the rows are exported, instead of tracking it while
+     * the rows are streamed, as the rows are otherwise written to FlowFiles without being parsed. The export is then
+     * bounded by this value, so that rows added while the export runs are left for the next run instead of being
+     * skipped by a watermark that was read after them.
+     *
+     * @return the maximum value, or null if no rows have a value greater than the previous watermark
+     */
+    private String queryMaxWatermark(RowManager rowManager, OpticWatermark opticWatermark, String jsonPlan,
+                                     String previousWatermark) throws IOException {
+        final String maxPlan = opticWatermark.maxValuePlan(jsonPlan, previousWatermark);
+        final StringHandle result = rowManager.resultDoc(rowManager.newRawPlanDefinition(new StringHandle(maxPlan)),
+            new StringHandle().withMimetype("application/json"));
+        return OpticWatermark.readMaxValue(result != null ? result.get() : null);
+    }
+
+    /**
+     * Transfers the FlowFile and, once the session has been committed, stores the watermark so that the rows exported
+     * by this run are not exported again. If the commit fails, the watermark is not stored and the same rows are
+     * exported the next time the processor runs.
+     */
+    private void transferAndCommit(ProcessSession session, FlowFile flowFile, Relationship relationship,
+                                   ProcessContext context, String watermarkKey, String watermark) {
+        if (watermark == null) {
+            transferAndCommit(session, flowFile, relationship);
+            return;
+        }
+        synchronized (session) {
+            session.transfer(flowFile, relationship);
+            session.commitAsync(() -> storeWatermark(context, watermarkKey, watermark));
+        }
+    }
+
+    private void storeWatermark(ProcessContext context, String watermarkKey, String watermark) {
+        try {
+            synchronized (stateLock) {
+                for (int attempt = 1; attempt <= MAX_STATE_UPDATE_ATTEMPTS; attempt++) {
+                    StateMap stateMap = context.getStateManager().getState(Scope.CLUSTER);
+                    Map<String, String> newState = new HashMap<>(stateMap.toMap());
+                    newState.put(watermarkKey, watermark);
+                    if (context.getStateManager().replace(stateMap, newState, Scope.CLUSTER)) {
+                        return;
+                    }
+                }
+            }
+            getLogger().error("Unable to store watermark " + watermark + " after " + MAX_STATE_UPDATE_ATTEMPTS +
+                " attempts due to concurrent state updates");
+        } catch (IOException e) {
+            getLogger().error("Unable to store watermark " + watermark + "; cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Executes the plan for each FlowFile concurrently, using the executor sized by Micro-Batch Size. Each FlowFile's
+     * plan and bindings are evaluated, and its results written, by the calling thread, as the session cannot be used
+     * by multiple threads at once.
+     */
+    private void executeMicroBatch(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles) {
+        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+        final RowManager rowManager = getDatabaseClient(context).newRowManager();
+        if (writerFactory != null) {
+            rowManager.setDatatypeStyle(RowManager.RowSetPart.HEADER);
+        }
+
+        final List<String> jsonPlans = new ArrayList<>();
+        final List<Future<byte[]>> results = new ArrayList<>();
+        for (FlowFile flowFile : flowFiles) {
+            jsonPlans.add(null);
+            try {
+                final String jsonPlan = determineJsonPlan(context, flowFile);
+                jsonPlans.set(jsonPlans.size() - 1, jsonPlan);
+                final String mimeType = writerFactory != null ? "application/json" : determineMimeType(context, flowFile);
+                final PlanBuilder.Plan plan = buildPlan(rowManager, jsonPlan, determinePlanBindings(context, flowFile));
+                results.add(microBatchExecutor.submit(() -> rowManager.resultDoc(plan, new BytesHandle().withMimetype(mimeType)).get()));
+            } catch (Exception ex) {
+                results.add(CompletableFuture.failedFuture(ex));
+            }
+        }
+
+        for (int i = 0; i < flowFiles.size(); i++) {
+            FlowFile flowFile = flowFiles.get(i);
+            if (jsonPlans.get(i) != null) {
+                flowFile = session.putAttribute(flowFile, "marklogic-optic-plan", jsonPlans.get(i));
+            }
+            try {
+                final byte[] rows = results.get(i).get();
+                if (rows != null && rows.length > 0) {
+                    final Map<String, String> attributes = getAttributesToCopy(flowFile);
+                    if (writerFactory != null) {
+                        writeRecords(context, session, writerFactory, new ByteArrayInputStream(rows), attributes);
+                    } else {
+                        FlowFile resultFlowFile = session.write(createFlowFileWithAttributes(session, attributes), out -> out.write(rows));
+                        session.transfer(resultFlowFile, SUCCESS);
+                    }
+                }
+                session.transfer(flowFile, ORIGINAL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                session.rollback();
+                return;
+            } catch (Exception ex) {
+                final Throwable cause = ex instanceof ExecutionException && ex.getCause() != null ? ex.getCause() : ex;
+                logError(cause);
+                addErrorMessageToFlowFile(cause.getMessage(), flowFile, session);
+                session.transfer(flowFile, FAILURE);
+            }
+        }
+        session.commitAsync();
+    }
+
+    /**
+     * @return the cached plan if the plan does not vary per FlowFile, with the given bindings applied
+     */
+    private PlanBuilder.Plan buildPlan(RowManager rowManager, String jsonPlan, Map<String, String> bindings) {
+        PlanBuilder.Plan plan = cachedPlan != null ? cachedPlan : rowManager.newRawPlanDefinition(new StringHandle(jsonPlan));
+        for (Map.Entry<String, String> binding : bindings.entrySet()) {
+            plan = plan.bindParam(binding.getKey(), binding.getValue());
+        }
+        return plan;
+    }
+
+    /**
+     * @return the value of each "bind:" property, evaluated against the FlowFile, keyed by parameter name
+     */
+    protected Map<String, String> determinePlanBindings(ProcessContext context, FlowFile flowFile) {
+        Map<String, String> bindings = new LinkedHashMap<>();
+        List<PropertyDescriptor> bindProperties = propertiesByPrefix.get(BIND_PREFIX);
+        if (bindProperties != null) {
+            for (PropertyDescriptor descriptor : bindProperties) {
+                String value = context.getProperty(descriptor).evaluateAttributeExpressions(flowFile).getValue();
+                bindings.put(descriptor.getName().substring(BIND_PREFIX.length() + 1), value);
+            }
+        }
+        return bindings;
+    }
+
+    /**
+     * Exports the rows via a RowBatcher, which splits the rows of the plan's view into partitions that are retrieved
+     * concurrently. Each partition is written to a FlowFile in its own session, so that partitions are streamed and
+     * committed independently of one another instead of contending for a single session.
+     *
+     * @param failedPartitions incremented for each partition that is sent to failure
+     * @return the number of partitions that were written to FlowFiles
+     */
+    private long exportPartitions(ProcessContext context, ProcessSessionFactory sessionFactory, RowManager rowManager,
+                                  String jsonPlan, String mimeType, int partitionSize, Map<String, String> attributes,
+                                  AtomicLong failedPartitions) {
+        final AtomicLong exportedPartitions = new AtomicLong();
+        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+        final DataMovementManager dataMovementManager = getDataMovementManager(context);
+        final RowBatcher<InputStream> rowBatcher = applySharedForestConfiguration(context,
+                dataMovementManager.newRowBatcher(new InputStreamHandle().withMimetype(mimeType)))
+            .withBatchView(rowManager.newRawPlanDefinition(new StringHandle(jsonPlan)))
+            .withBatchSize(partitionSize)
+            .withThreadCount(context.getProperty(PARTITION_THREAD_COUNT).asInteger())
+            .onSuccess(event -> {
+                final ProcessSession partitionSession = sessionFactory.createSession();
+                final Map<String, String> partitionAttributes = new HashMap<>(attributes);
+                partitionAttributes.put("marklogic-partition", Long.toString(event.getJobBatchNumber()));
+                try {
+                    if (writerFactory != null) {
+                        writeRecords(context, partitionSession, writerFactory, event.getRowsDoc(), partitionAttributes);
+                    } else {
+                        FlowFile flowFile = partitionSession.write(createFlowFileWithAttributes(partitionSession, partitionAttributes),
+                            out -> transferAndClose(event.getRowsDoc(), out));
+                        partitionSession.transfer(flowFile, SUCCESS);
+                    }
+                    partitionSession.commitAsync();
+                    exportedPartitions.incrementAndGet();
+                } catch (Exception ex) {
+                    partitionSession.rollback();
+                    failedPartitions.incrementAndGet();
+                    transferPartitionFailure(sessionFactory, attributes, event.getJobBatchNumber(), ex);
+                }
+            })
+            .onFailure((event, throwable) -> {
+                reportFailureToService(context, throwable);
+                failedPartitions.incrementAndGet();
+                transferPartitionFailure(sessionFactory, attributes, event.getJobBatchNumber(), throwable);
+                event.withDisposition(RowBatchFailureListener.BatchFailureDisposition.SKIP);
+            });
+
+        if (writerFactory != null) {
+            rowBatcher.getRowManager().setDatatypeStyle(RowManager.RowSetPart.HEADER);
+        }
+        dataMovementManager.startJob(rowBatcher);
+        rowBatcher.awaitCompletion();
+        dataMovementManager.stopJob(rowBatcher);
+        getLogger().info("Exported " + exportedPartitions.get() + " partitions of approximately " + partitionSize +
+            " rows each, based on an estimate of " + rowBatcher.getRowEstimate() + " rows");
+        return exportedPartitions.get();
+    }
+
+    /**
+     * Parses the JSON rows into Records as they are read and writes them with the Record Writer into FlowFiles of at
+     * most Max Rows Per FlowFile rows each, so that neither the rows nor a FlowFile's worth of Records are held in memory.
+     *
+     * @param inputStream JSON rows with the column types in the header; closed once every row has been read
+     * @return the number of FlowFiles sent to success
+     */
+    private int writeRecords(ProcessContext context, ProcessSession session, RecordSetWriterFactory writerFactory,
+                             InputStream inputStream, Map<String, String> attributes) throws IOException, SchemaNotFoundException {
+        final int maxRows = context.getProperty(MAX_ROWS_PER_FLOWFILE).asInteger();
+        int flowFileCount = 0;
+        try (OpticRowRecordReader reader = new OpticRowRecordReader(inputStream)) {
+            final RecordSchema writeSchema = writerFactory.getSchema(attributes, reader.getSchema());
+            Record record = reader.nextRecord();
+            while (record != null) {
+                final Record firstRecord = record;
+                final Map<String, String> writeAttributes = new HashMap<>();
+                FlowFile flowFile = session.write(createFlowFileWithAttributes(session, attributes), out -> {
+                    try (RecordSetWriter writer = writerFactory.createWriter(getLogger(), writeSchema, out, attributes)) {
+                        writer.beginRecordSet();
+                        Record next = firstRecord;
+                        int count = 0;
+                        while (next != null) {
+                            writer.write(next);
+                            if (++count == maxRows) {
+                                break;
+                            }
+                            next = reader.nextRecord();
+                        }
+                        WriteResult result = writer.finishRecordSet();
+                        writeAttributes.putAll(result.getAttributes());
+                        writeAttributes.put("record.count", Integer.toString(result.getRecordCount()));
+                        writeAttributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+                    } catch (SchemaNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                });
+                flowFile = session.putAllAttributes(flowFile, writeAttributes);
+                session.transfer(flowFile, SUCCESS);
+                flowFileCount++;
+                record = reader.nextRecord();
+            }
+        }
+        return flowFileCount;
+    }
+
+    private void transferPartitionFailure(ProcessSessionFactory sessionFactory, Map<String, String> attributes,
+                                          long partition, Throwable throwable) {
+        final ProcessSession failureSession = sessionFactory.createSession();
+        FlowFile flowFile = createFlowFileWithAttributes(failureSession, attributes);
+        flowFile = failureSession.putAttribute(flowFile, "marklogic-partition", Long.toString(partition));
+        logErrorAndTransfer(throwable, flowFile, failureSession, FAILURE);
+    }
+
     protected String determineJsonPlan(ProcessContext context, FlowFile flowFile) {
         PropertyValue planProp = context.getProperty(PLAN);
         Objects.requireNonNull(planProp);
@@ -129,4 +602,24 @@ public class QueryRowsMarkLogic extends AbstractMarkLogicProcessor {
             return count;
         }
     }
+
+    public static class WatermarkColumnTypes {
+        public static final String DATE_TIME_STR = "xs:dateTime";
+        public static final AllowableValue DATE_TIME = new AllowableValue(DATE_TIME_STR, DATE_TIME_STR,
+            "Values are compared as dateTimes");
+        public static final String DATE_STR = "xs:date";
+        public static final AllowableValue DATE = new AllowableValue(DATE_STR, DATE_STR,
+            "Values are compared as dates");
+        public static final String INTEGER_STR = "xs:integer";
+        public static final AllowableValue INTEGER = new AllowableValue(INTEGER_STR, INTEGER_STR,
+            "Values are compared as integers");
+        public static final String DECIMAL_STR = "xs:decimal";
+        public static final AllowableValue DECIMAL = new AllowableValue(DECIMAL_STR, DECIMAL_STR,
+            "Values are compared as decimals");
+        public static final String STRING_STR = "xs:string";
+        public static final AllowableValue STRING = new AllowableValue(STRING_STR, STRING_STR,
+            "Values are compared as strings using the default collation");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{DATE_TIME, DATE, INTEGER, DECIMAL, STRING};
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an explicit [start, end) xs:dateTime range into consecutive windows so that a historical backfill can be
+ * executed as several smaller jobs. Values with a timezone offset keep that offset; values without one are treated
+ * as local dateTimes, mirroring how MarkLogic treats them.
+ */
+public class BackfillWindows {
+
+    private BackfillWindows() {
+    }
+
+    /**
+     * @param start      inclusive xs:dateTime
+     * @param end        exclusive xs:dateTime
+     * @param windowSize must be positive
+     * @return the windows covering the range, in order; the last window is truncated at the end of the range
+     */
+    public static List<Window> split(String start, String end, Duration windowSize) {
+        if (windowSize.isZero() || windowSize.isNegative()) {
+            throw new IllegalArgumentException("Backfill window size must be positive");
+        }
+        final boolean hasOffset = hasOffset(start);
+        if (hasOffset != hasOffset(end)) {
+            throw new IllegalArgumentException("Backfill start and end must either both have a timezone offset or both not have one");
+        }
+
+        List<Window> windows = new ArrayList<>();
+        if (hasOffset) {
+            OffsetDateTime current = OffsetDateTime.parse(start);
+            OffsetDateTime last = OffsetDateTime.parse(end);
+            while (current.isBefore(last)) {
+                OffsetDateTime next = current.plus(windowSize);
+                windows.add(new Window(format(current), format(next.isBefore(last) ? next : last)));
+                current = next;
+            }
+        } else {
+            LocalDateTime current = LocalDateTime.parse(start);
+            LocalDateTime last = LocalDateTime.parse(end);
+            while (current.isBefore(last)) {
+                LocalDateTime next = current.plus(windowSize);
+                windows.add(new Window(format(current), format(next.isBefore(last) ? next : last)));
+                current = next;
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * @param value
+     * @return true if the value is a valid xs:dateTime that can be used for a backfill range
+     */
+    public static boolean isValidDateTime(String value) {
+        try {
+            if (hasOffset(value)) {
+                OffsetDateTime.parse(value);
+            } else {
+                LocalDateTime.parse(value);
+            }
+            return true;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasOffset(String value) {
+        try {
+            OffsetDateTime.parse(value);
+            return true;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private static String format(Temporal value) {
+        // The ISO formatters always include seconds, which xs:dateTime requires, whereas toString() omits them when zero
+        return value instanceof OffsetDateTime ?
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(value) :
+            DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(value);
+    }
+
+    /**
+     * A single [start, end) window of a backfill range.
+     */
+    public static class Window {
+        private final String start;
+        private final String end;
+
+        public Window(String start, String end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getStart() {
+            return start;
+        }
+
+        public String getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ")";
+        }
+    }
+}
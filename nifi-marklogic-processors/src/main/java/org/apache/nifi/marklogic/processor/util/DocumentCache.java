@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, in-process cache of documents keyed by URI. Entries are evicted in least-recently-used order once the
+ * total size of the cached content exceeds the maximum number of bytes, and optionally once they are older than a
+ * time-to-live. Content can be stored in direct buffers, allocated outside the Java heap but still within the memory of
+ * the JVM process, so that a large cache does not add to garbage collection pressure; content is copied back onto the
+ * heap each time it is returned.
+ * <p>
+ * Each entry records a version of the document it was read at - the server timestamp of the read - allowing a caller
+ * to validate an entry against the timestamp of the document's most recent update before using it. Counts of hits, misses and evictions are accumulated until they are
+ * drained so that they can be reported as NiFi counters.
+ */
+public class DocumentCache {
+
+    /**
+     * Used when the version of a document is not known.
+     */
+    public static final long UNKNOWN_VERSION = -1;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes  the maximum total size of cached content
+     * @param ttlMillis entries older than this are not returned; zero or less for no limit
+     * @param offHeap   whether content is stored in direct buffers
+     */
+    public DocumentCache(long maxBytes, long ttlMillis, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param uri
+     * @param currentVersion the timestamp of the most recent update of the document, or {@code UNKNOWN_VERSION} if it
+     *                       is not known, in which case the entry is only subject to the time-to-live
+     * @return the cached entry for the URI; null if there is none, or if it has expired or the document was updated
+     * after the entry was read
+     */
+    public synchronized Entry get(String uri, long currentVersion) {
+        Entry entry = entries.get(uri);
+        if (entry != null) {
+            boolean expired = ttlMillis > 0 && System.currentTimeMillis() - entry.createdTime > ttlMillis;
+            boolean stale = currentVersion != UNKNOWN_VERSION && currentVersion > entry.version;
+            if (expired || stale) {
+                remove(uri);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Unlike {@code get}, does not affect the order of eviction or the counts of hits and misses.
+     *
+     * @return whether an entry is cached for the URI, though it may have expired
+     */
+    public synchronized boolean contains(String uri) {
+        return entries.containsKey(uri);
+    }
+
+    /**
+     * Caches the content of a document. Content larger than the maximum size of the cache is not cached.
+     */
+    public synchronized void put(String uri, byte[] content, String mimetype, long version) {
+        remove(uri);
+        if (content.length > maxBytes) {
+            return;
+        }
+        entries.put(uri, new Entry(content, mimetype, version, offHeap));
+        bytes += content.length;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().length;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String uri) {
+        remove(uri);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(String uri) {
+        Entry removed = entries.remove(uri);
+        if (removed != null) {
+            bytes -= removed.length;
+        }
+    }
+
+    /**
+     * @return the hits, misses and evictions since the previous call, along with the current size of the cache
+     */
+    public synchronized Statistics drainStatistics() {
+        Statistics statistics = new Statistics(hits, misses, evictions, bytes);
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        return statistics;
+    }
+
+    public static class Entry {
+        private final byte[] heapContent;
+        private final ByteBuffer offHeapContent;
+        private final int length;
+        private final String mimetype;
+        private final long version;
+        private final long createdTime = System.currentTimeMillis();
+
+        Entry(byte[] content, String mimetype, long version, boolean offHeap) {
+            this.length = content.length;
+            this.mimetype = mimetype;
+            this.version = version;
+            if (offHeap) {
+                this.heapContent = null;
+                this.offHeapContent = ByteBuffer.allocateDirect(content.length).put(content);
+                this.offHeapContent.flip();
+            } else {
+                this.heapContent = content;
+                this.offHeapContent = null;
+            }
+        }
+
+        public byte[] getContent() {
+            if (heapContent != null) {
+                return heapContent;
+            }
+            byte[] content = new byte[length];
+            offHeapContent.duplicate().get(content);
+            return content;
+        }
+
+        public String getMimetype() {
+            return mimetype;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long bytes;
+
+        Statistics(long hits, long misses, long evictions, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.bytes = bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the search options that ask MarkLogic to return only selected parts of each document, via the
+ * {@code extract-document-data} option, along with a combined query that reads a batch of documents by URI with those
+ * options applied.
+ * <p>
+ * A QueryBatcher retrieves only URIs, and response options such as {@code extract-document-data} are ignored when
+ * doing so. The projection is therefore applied when each batch of documents is read, via a multi-document search
+ * whose query is a {@code document-query} on the batch's URIs.
+ */
+public class DocumentProjection {
+
+    public static final String INCLUDE_WITH_ANCESTORS = "include-with-ancestors";
+    public static final String INCLUDE = "include";
+    public static final String EXCLUDE = "exclude";
+
+    private final List<String> paths;
+    private final String selected;
+    private final Map<String, String> namespaces;
+
+    /**
+     * @param paths      extract paths - XPath expressions for XML documents or path expressions for JSON documents
+     * @param selected   one of "include-with-ancestors", "include", or "exclude"
+     * @param namespaces prefixes and namespace URIs that can be referenced by the paths; may be empty
+     */
+    public DocumentProjection(List<String> paths, String selected, Map<String, String> namespaces) {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("At least one projection path must be specified");
+        }
+        this.paths = paths;
+        this.selected = selected;
+        this.namespaces = namespaces != null ? namespaces : Collections.emptyMap();
+    }
+
+    /**
+     * @return an XML search options element containing the {@code extract-document-data} option
+     */
+    public String toSearchOptions() {
+        StringBuilder options = new StringBuilder("<options xmlns=\"http://marklogic.com/appservices/search\">")
+            .append("<extract-document-data selected=\"").append(escape(selected)).append("\">");
+        for (String path : paths) {
+            options.append("<extract-path");
+            namespaces.forEach((prefix, uri) ->
+                options.append(" xmlns:").append(prefix).append("=\"").append(escape(uri)).append("\""));
+            options.append(">").append(escape(path)).append("</extract-path>");
+        }
+        return options.append("</extract-document-data></options>").toString();
+    }
+
+    /**
+     * @param uris the URIs of the documents to read
+     * @return an XML combined query that matches exactly the given documents and projects each of them
+     */
+    public String toBatchQuery(String[] uris) {
+        StringBuilder query = new StringBuilder("<search xmlns=\"http://marklogic.com/appservices/search\">")
+            .append("<query><document-query>");
+        for (String uri : uris) {
+            query.append("<uri>").append(escape(uri)).append("</uri>");
+        }
+        return query.append("</document-query></query>").append(toSearchOptions()).append("</search>").toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Stores a checkpoint in a properties file on the local file system. Intended for large jobs whose checkpoint would
+ * not comfortably fit in cluster state; note that the checkpoint is only visible to the NiFi node that wrote it.
+ * The file is written to a temporary file first and then moved into place so that a crash while saving cannot leave
+ * a partially written checkpoint behind.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+    private final Path file;
+
+    public FileCheckpointStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public Map<String, String> load() throws IOException {
+        Map<String, String> checkpoint = new HashMap<>();
+        if (Files.exists(file)) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            }
+            props.stringPropertyNames().forEach(name -> checkpoint.put(name, props.getProperty(name)));
+        }
+        return checkpoint;
+    }
+
+    @Override
+    public synchronized void save(Map<String, String> checkpoint) throws IOException {
+        Properties props = new Properties();
+        props.putAll(checkpoint);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            props.store(out, "QueryBatcher checkpoint");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
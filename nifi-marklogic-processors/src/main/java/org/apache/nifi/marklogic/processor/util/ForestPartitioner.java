@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.Forest;
+import com.marklogic.client.datamovement.ForestConfiguration;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Partitions the forests of a MarkLogic database across the nodes of a NiFi cluster so that each node queries a
+ * disjoint subset of forests.
+ * <p>
+ * Nodes announce themselves by writing a heartbeat into the processor's cluster state each time they run. Every node
+ * with a heartbeat newer than the membership timeout is considered a member. Both the members and the forests are
+ * sorted before forests are dealt out round-robin, so nodes that see the same members compute the same assignment
+ * without any further coordination.
+ * <p>
+ * The assignment itself is not stored; each node computes it from the members it saw when it last registered. It is
+ * therefore only eventually consistent: after a node joins or leaves, nodes that have not yet run again still use the
+ * previous members, so a forest may be queried by two nodes or by none until every node has registered again.
+ */
+public class ForestPartitioner {
+
+    public static final String MEMBER_KEY_PREFIX = "partition.member.";
+
+    private static final int MAX_STATE_UPDATE_ATTEMPTS = 10;
+
+    private final StateManager stateManager;
+    private final String nodeId;
+    private final long membershipTimeoutMillis;
+
+    public ForestPartitioner(StateManager stateManager, String nodeId, long membershipTimeoutMillis) {
+        this.stateManager = stateManager;
+        this.nodeId = nodeId;
+        this.membershipTimeoutMillis = membershipTimeoutMillis;
+    }
+
+    /**
+     * Records a heartbeat for this node in cluster state, pruning the heartbeats of nodes that have expired, and
+     * returns the sorted list of live members. A compare-and-set is used so that concurrent heartbeats from other
+     * nodes are not lost.
+     *
+     * @return the sorted identifiers of every live member, including this node
+     * @throws IOException if the state could not be updated
+     */
+    public List<String> registerAndListMembers() throws IOException {
+        for (int attempt = 1; attempt <= MAX_STATE_UPDATE_ATTEMPTS; attempt++) {
+            final long now = System.currentTimeMillis();
+            StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+            Map<String, String> newState = new HashMap<>(stateMap.toMap());
+            newState.entrySet().removeIf(entry -> entry.getKey().startsWith(MEMBER_KEY_PREFIX) && isExpired(entry.getValue(), now));
+            newState.put(MEMBER_KEY_PREFIX + nodeId, Long.toString(now));
+            if (stateManager.replace(stateMap, newState, Scope.CLUSTER)) {
+                return selectMembers(newState);
+            }
+        }
+        throw new IOException("Unable to register node " + nodeId + " for forest partitioning after " +
+            MAX_STATE_UPDATE_ATTEMPTS + " attempts due to concurrent state updates");
+    }
+
+    private boolean isExpired(String heartbeat, long now) {
+        try {
+            return now - Long.parseLong(heartbeat) > membershipTimeoutMillis;
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    private List<String> selectMembers(Map<String, String> state) {
+        List<String> members = new ArrayList<>();
+        state.keySet().forEach(key -> {
+            if (key.startsWith(MEMBER_KEY_PREFIX)) {
+                members.add(key.substring(MEMBER_KEY_PREFIX.length()));
+            }
+        });
+        Collections.sort(members);
+        return members;
+    }
+
+    /**
+     * Deterministically selects the forests that the given node is responsible for.
+     *
+     * @param forests every forest in the database
+     * @param members the sorted identifiers of every live member
+     * @param nodeId  the node to select forests for
+     * @return the forests assigned to the node; empty if the node is not a member or there are more members than forests
+     */
+    public static List<Forest> assignForests(Forest[] forests, List<String> members, String nodeId) {
+        final int memberIndex = members.indexOf(nodeId);
+        if (forests == null || memberIndex < 0) {
+            return Collections.emptyList();
+        }
+        List<Forest> sortedForests = new ArrayList<>(Arrays.asList(forests));
+        sortedForests.sort(Comparator.comparing(Forest::getForestName).thenComparing(Forest::getForestId));
+        List<Forest> assigned = new ArrayList<>();
+        for (int i = 0; i < sortedForests.size(); i++) {
+            if (i % members.size() == memberIndex) {
+                assigned.add(sortedForests.get(i));
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * @param forests the forests assigned to a node
+     * @return a configuration that restricts a batcher to the given forests
+     */
+    public static ForestConfiguration toForestConfiguration(List<Forest> forests) {
+        final Forest[] assignedForests = forests.toArray(new Forest[0]);
+        return () -> assignedForests.clone();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts FlowFile attributes from a JSON object by reading it as a stream of tokens, so that neither the object nor
+ * any of its nested structures are materialized. Each top-level property becomes an attribute with the same name, and
+ * each configured JSON pointer becomes an attribute named after the pointer's segments joined by periods - e.g.
+ * "/address/city" becomes "address.city". Scalar values are the text of the value, null values are empty, and objects
+ * and arrays are "[object]" and "[array]". Nested structures are skipped without being parsed unless a pointer
+ * selects a value within them.
+ */
+public class JsonAttributeExtractor {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Map<String, String> attributeNamesByPointer = new HashMap<>();
+    // Pointers to the objects and arrays that contain a selected value, which are the only ones that must be parsed
+    private final Set<String> parentPointers = new HashSet<>();
+
+    /**
+     * @param pointers JSON pointers, such as "/address/city" or "/items/0/id", selecting nested values to extract
+     */
+    public JsonAttributeExtractor(Collection<String> pointers) {
+        for (String pointer : pointers) {
+            JsonPointer jsonPointer = JsonPointer.compile(pointer);
+            if (jsonPointer.matches()) {
+                continue;
+            }
+            StringBuilder name = new StringBuilder();
+            for (JsonPointer segment = jsonPointer; !segment.matches(); segment = segment.tail()) {
+                name.append(name.length() > 0 ? "." : "").append(segment.getMatchingProperty());
+            }
+            attributeNamesByPointer.put(jsonPointer.toString(), name.toString());
+            for (JsonPointer parent = jsonPointer.head(); parent != null && !parent.matches(); parent = parent.head()) {
+                parentPointers.add(parent.toString());
+            }
+        }
+    }
+
+    /**
+     * @param json a JSON object; the stream is read up to the end of the object but is not closed
+     * @return the extracted attributes, in the order in which they appear in the object
+     */
+    public Map<String, String> extract(InputStream json) throws IOException {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                attributes.put(name, describe(parser));
+                readValue(parser, "/" + escape(name), attributes);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Reads the value at the parser's current token, adding an attribute if a pointer selects it, and descending into
+     * it only if a pointer selects a value within it.
+     */
+    private void readValue(JsonParser parser, String pointer, Map<String, String> attributes) throws IOException {
+        final String attributeName = attributeNamesByPointer.get(pointer);
+        if (attributeName != null) {
+            attributes.put(attributeName, describe(parser));
+        }
+        final JsonToken token = parser.currentToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+            return;
+        }
+        if (!parentPointers.contains(pointer)) {
+            parser.skipChildren();
+        } else if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                readValue(parser, pointer + "/" + escape(name), attributes);
+            }
+        } else {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                readValue(parser, pointer + "/" + index++, attributes);
+            }
+        }
+    }
+
+    private static String describe(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return "[object]";
+            case START_ARRAY:
+                return "[array]";
+            case VALUE_NULL:
+                return "";
+            default:
+                return parser.getText();
+        }
+    }
+
+    private static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.type.ChoiceDataType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Incrementally reads the JSON rows returned by an Optic query as NiFi Records, so that rows can be written by a
+ * Record Writer without the entire response being held in memory. The response must have been requested with
+ * column types in the header - i.e. via {@code RowManager.setDatatypeStyle(RowSetPart.HEADER)} - as the schema is built
+ * from the "columns" array that precedes the "rows" array.
+ * <p>
+ * Column names are converted to field names that are valid for every Record Writer - including Avro, which does not
+ * allow the periods in a qualified column name such as "Example.default.Id" - by replacing each character other than a
+ * letter, digit, or underscore with an underscore. xs:integer and the other integer types without a fixed size are read
+ * as big integers, while xs:decimal values, and values of types without a Record equivalent, are read as strings so
+ * that no precision is lost. A Record date or time has no timezone, so an xs:date or xs:time column is a choice of a
+ * date or time and a string, and a value that has a timezone is read as a string so that the timezone is kept.
+ */
+public class OpticRowRecordReader implements Closeable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Pattern INVALID_FIELD_CHARACTERS = Pattern.compile("[^A-Za-z0-9_]");
+
+    private final JsonParser parser;
+    private final RecordSchema schema;
+    private final Map<String, RecordField> fieldsByColumn = new HashMap<>();
+    private boolean exhausted;
+
+    /**
+     * @param inputStream the Optic response, which is closed when this reader is closed
+     * @throws IOException if the response cannot be read or does not start with a "columns" array
+     */
+    public OpticRowRecordReader(InputStream inputStream) throws IOException {
+        this.parser = JSON_FACTORY.createParser(inputStream);
+        this.schema = readSchema();
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the next row, or null if there are no more rows
+     * @throws IOException
+     */
+    public Record nextRecord() throws IOException {
+        if (exhausted) {
+            return null;
+        }
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            exhausted = true;
+            return null;
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String column = parser.currentName();
+            parser.nextToken();
+            RecordField field = fieldsByColumn.get(column);
+            Object value = readValue();
+            if (field != null) {
+                values.put(field.getFieldName(), convert(value, field.getDataType()));
+            }
+        }
+        return new MapRecord(schema, values);
+    }
+
+    private RecordSchema readSchema() throws IOException {
+        final JsonToken firstToken = parser.nextToken();
+        if (firstToken == null) {
+            // MarkLogic returns an empty response when no rows match
+            exhausted = true;
+            return new SimpleRecordSchema(new ArrayList<>());
+        }
+        if (firstToken != JsonToken.START_OBJECT) {
+            throw new IOException("Expected Optic response to be a JSON object");
+        }
+        List<RecordField> fields = new ArrayList<>();
+        boolean foundColumns = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.currentName();
+            parser.nextToken();
+            if ("columns".equals(name)) {
+                readColumns(fields);
+                foundColumns = true;
+            } else if ("rows".equals(name)) {
+                if (!foundColumns) {
+                    throw new IOException("Expected the 'columns' array to precede the 'rows' array in the Optic " +
+                        "response; ensure column types are requested in the header");
+                }
+                if (parser.currentToken() != JsonToken.START_ARRAY) {
+                    exhausted = true;
+                }
+                return new SimpleRecordSchema(fields);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!foundColumns) {
+            throw new IOException("Expected Optic response to contain a 'columns' array");
+        }
+        exhausted = true;
+        return new SimpleRecordSchema(fields);
+    }
+
+    private void readColumns(List<RecordField> fields) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String column = null;
+            String type = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                if ("name".equals(name)) {
+                    column = parser.getValueAsString();
+                } else if ("type".equals(name)) {
+                    type = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (column != null) {
+                RecordField field = new RecordField(toFieldName(column), toDataType(type), true);
+                fieldsByColumn.put(column, field);
+                fields.add(field);
+            }
+        }
+    }
+
+    /**
+     * Reads a column value, which is either a plain JSON value or - if column types were requested per row - an object
+     * with a "value" field.
+     */
+    private Object readValue() throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            Object value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                if ("value".equals(name)) {
+                    value = readValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return value;
+        }
+        if (token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+    }
+
+    static String toFieldName(String column) {
+        return INVALID_FIELD_CHARACTERS.matcher(column).replaceAll("_");
+    }
+
+    static DataType toDataType(String type) {
+        if (type == null) {
+            return RecordFieldType.STRING.getDataType();
+        }
+        switch (type) {
+            case "xs:boolean":
+                return RecordFieldType.BOOLEAN.getDataType();
+            case "xs:int":
+            case "xs:short":
+            case "xs:byte":
+            case "xs:unsignedShort":
+            case "xs:unsignedByte":
+                return RecordFieldType.INT.getDataType();
+            case "xs:long":
+            case "xs:unsignedInt":
+                return RecordFieldType.LONG.getDataType();
+            case "xs:integer":
+            case "xs:nonNegativeInteger":
+            case "xs:positiveInteger":
+            case "xs:nonPositiveInteger":
+            case "xs:negativeInteger":
+            case "xs:unsignedLong":
+                return RecordFieldType.BIGINT.getDataType();
+            case "xs:float":
+                return RecordFieldType.FLOAT.getDataType();
+            case "xs:double":
+                return RecordFieldType.DOUBLE.getDataType();
+            case "xs:date":
+                return RecordFieldType.CHOICE.getChoiceDataType(RecordFieldType.DATE.getDataType(), RecordFieldType.STRING.getDataType());
+            case "xs:dateTime":
+                return RecordFieldType.TIMESTAMP.getDataType();
+            case "xs:time":
+                return RecordFieldType.CHOICE.getChoiceDataType(RecordFieldType.TIME.getDataType(), RecordFieldType.STRING.getDataType());
+            default:
+                return RecordFieldType.STRING.getDataType();
+        }
+    }
+
+    /**
+     * Converts a value to the first type of a choice, as the string that is the other choice is only used for values
+     * that cannot be converted without losing their timezone.
+     */
+    static Object convert(Object value, DataType dataType) {
+        if (dataType instanceof ChoiceDataType choiceDataType) {
+            return convert(value, choiceDataType.getPossibleSubTypes().get(0).getFieldType());
+        }
+        return convert(value, dataType.getFieldType());
+    }
+
+    static Object convert(Object value, RecordFieldType fieldType) {
+        if (!(value instanceof String text) || text.isEmpty()) {
+            return value;
+        }
+        switch (fieldType) {
+            case BOOLEAN:
+                return Boolean.valueOf(text);
+            case INT:
+                return Integer.valueOf(text);
+            case LONG:
+                return Long.valueOf(text);
+            case BIGINT:
+                return new BigInteger(text);
+            case FLOAT:
+                return Float.valueOf(text);
+            case DOUBLE:
+                return Double.valueOf(text);
+            case DATE:
+                return hasTimezone(text) ? text : Date.valueOf(LocalDate.parse(text));
+            case TIMESTAMP:
+                return toTimestamp(text);
+            case TIME:
+                return hasTimezone(text) ? text : Time.valueOf(LocalTime.parse(text));
+            default:
+                return text;
+        }
+    }
+
+    private static Timestamp toTimestamp(String text) {
+        if (text.endsWith("Z") || text.lastIndexOf('+') > 0 || text.lastIndexOf('-') > text.indexOf('T')) {
+            return Timestamp.from(OffsetDateTime.parse(text).toInstant());
+        }
+        return Timestamp.valueOf(LocalDateTime.parse(text));
+    }
+
+    /**
+     * xs:date and xs:time values can have a timezone, which has no equivalent in a Record date or time.
+     */
+    private static boolean hasTimezone(String text) {
+        if (text.endsWith("Z")) {
+            return true;
+        }
+        int index = Math.max(text.lastIndexOf('+'), text.lastIndexOf('-'));
+        // A date has two hyphens of its own, so only an offset following the day can be a timezone
+        return index > 7 && text.length() - index == 6;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
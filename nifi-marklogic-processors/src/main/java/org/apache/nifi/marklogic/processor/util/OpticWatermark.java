@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+
+/**
+ * Restricts a serialized Optic plan to the rows whose watermark column has a value greater than the watermark stored
+ * by the previous export and no greater than the current maximum value, so that each export only reads the rows added
+ * or changed since the previous one. The restriction is applied immediately after the first operator of the plan -
+ * typically {@code op.fromView} - so that it is evaluated against the view before any other operator, such as a limit,
+ * is applied.
+ * <p>
+ * Watermark values are added to the plan as typed literals via a JSON serializer, so they cannot alter the structure
+ * of the plan regardless of their content.
+ */
+public class OpticWatermark {
+
+    static final String MAX_COLUMN = "watermarkMax";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String column;
+    private final String type;
+
+    /**
+     * @param column the name of the watermark column in the view that the plan starts with
+     * @param type   the XML Schema type of the column, such as "xs:dateTime"; values are compared as strings when
+     *               the type is "xs:string"
+     */
+    public OpticWatermark(String column, String type) {
+        this.column = column;
+        this.type = type;
+    }
+
+    /**
+     * @param jsonPlan
+     * @param lower    the watermark stored by the previous export; null if there is none
+     * @param upper    the current maximum value of the watermark column
+     * @return the plan restricted to rows with a watermark value greater than lower and no greater than upper
+     */
+    public String restrict(String jsonPlan, String lower, String upper) throws IOException {
+        ObjectNode condition = compare("le", upper);
+        if (lower != null) {
+            ObjectNode and = newFunction("op", "and");
+            and.withArray("args").add(compare("gt", lower)).add(condition);
+            condition = and;
+        }
+        ObjectNode plan = readPlan(jsonPlan);
+        ArrayNode operators = getOperators(plan);
+        operators.insert(1, where(condition));
+        return MAPPER.writeValueAsString(plan);
+    }
+
+    /**
+     * @param jsonPlan
+     * @param lower    the watermark stored by the previous export; null if there is none
+     * @return a plan that returns the maximum value of the watermark column, considering only rows with a value greater
+     * than lower
+     */
+    public String maxValuePlan(String jsonPlan, String lower) throws IOException {
+        ObjectNode plan = readPlan(jsonPlan);
+        ArrayNode operators = getOperators(plan);
+        JsonNode accessor = operators.get(0);
+        operators.removeAll();
+        operators.add(accessor);
+        if (lower != null) {
+            operators.add(where(compare("gt", lower)));
+        }
+        ObjectNode max = newFunction("op", "max");
+        max.withArray("args").add(columnReference(MAX_COLUMN)).add(columnReference(column));
+        ObjectNode groupBy = newFunction("op", "group-by");
+        groupBy.withArray("args").addNull().addArray().add(max);
+        operators.add(groupBy);
+        return MAPPER.writeValueAsString(plan);
+    }
+
+    /**
+     * @param json the JSON rows returned by the plan from {@link #maxValuePlan(String, String)}
+     * @return the maximum value, or null if there are no rows to export
+     */
+    public static String readMaxValue(String json) throws IOException {
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        JsonNode rows = MAPPER.readTree(json).path("rows");
+        if (!rows.isArray() || rows.isEmpty()) {
+            return null;
+        }
+        JsonNode value = rows.get(0).path(MAX_COLUMN);
+        if (value.isObject()) {
+            value = value.path("value");
+        }
+        return value.isMissingNode() || value.isNull() || value.asText().isEmpty() ? null : value.asText();
+    }
+
+    private ObjectNode compare(String function, String value) {
+        ObjectNode comparison = newFunction("op", function);
+        comparison.withArray("args").add(columnReference(column)).add(literal(value));
+        return comparison;
+    }
+
+    private JsonNode literal(String value) {
+        if (type == null || "xs:string".equals(type)) {
+            return MAPPER.getNodeFactory().textNode(value);
+        }
+        ObjectNode cast = newFunction("xs", type.substring(type.indexOf(':') + 1));
+        cast.withArray("args").add(value);
+        return cast;
+    }
+
+    private static ObjectNode where(JsonNode condition) {
+        ObjectNode where = newFunction("op", "where");
+        where.withArray("args").add(condition);
+        return where;
+    }
+
+    private static ObjectNode columnReference(String name) {
+        ObjectNode col = newFunction("op", "col");
+        col.withArray("args").add(name);
+        return col;
+    }
+
+    private static ObjectNode newFunction(String namespace, String function) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("ns", namespace);
+        node.put("fn", function);
+        node.putArray("args");
+        return node;
+    }
+
+    private static ObjectNode readPlan(String jsonPlan) throws IOException {
+        JsonNode plan = MAPPER.readTree(jsonPlan);
+        if (!(plan instanceof ObjectNode)) {
+            throw new IOException("Expected the plan to be a serialized Optic plan");
+        }
+        return (ObjectNode) plan;
+    }
+
+    private static ArrayNode getOperators(ObjectNode plan) throws IOException {
+        JsonNode args = plan.path("$optic").path("args");
+        if (!args.isArray() || args.isEmpty()) {
+            throw new IOException("Expected the plan to be a serialized Optic plan with at least one operator");
+        }
+        return (ArrayNode) args;
+    }
+}
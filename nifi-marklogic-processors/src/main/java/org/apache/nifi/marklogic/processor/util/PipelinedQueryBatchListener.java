@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatchListener;
+import com.marklogic.client.datamovement.QueryBatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Decouples retrieving URI batches from processing them, such as reading the documents in each batch. The
+ * QueryBatcher threads only hand each batch off to a bounded queue, which is drained by a separately sized set of
+ * threads that invoke the delegate listener. When the queue is full, the QueryBatcher threads block until a batch has
+ * been taken from it, so URI retrieval is never more than the queue size ahead of processing.
+ * <p>
+ * The time that QueryBatcher threads spend blocked on a full queue, and the time that the processing threads spend
+ * idle waiting for a batch, show whether processing or URI retrieval is the bottleneck.
+ * <p>
+ * Because the QueryBatcher considers a batch done once it has been queued, {@link #awaitCompletion()} must be called
+ * when the job completes - and before anything that depends on every batch having been processed - to wait for the
+ * queue to be drained.
+ */
+public class PipelinedQueryBatchListener implements QueryBatchListener {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final QueryBatchListener delegate;
+    private final int threadCount;
+    private final int queueSize;
+    private final BiConsumer<QueryBatch, Throwable> failureHandler;
+    private final BlockingQueue<QueryBatch> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private IntConsumer queueDepthListener;
+
+    private volatile boolean completing;
+    private volatile QueryBatcher batcher;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong processedBatches = new AtomicLong();
+    private final AtomicLong uriRetrievalBlockedNanos = new AtomicLong();
+    private final AtomicLong idleNanos = new AtomicLong();
+
+    /**
+     * @param delegate       the listener that processes each batch
+     * @param threadCount    the number of threads that invoke the delegate
+     * @param queueSize      the number of batches that can wait for a thread before URI retrieval is blocked; if zero,
+     *                       each batch is handed directly to an idle thread
+     * @param failureHandler invoked with any error thrown by the delegate, or with the batch if it could not be queued
+     */
+    public PipelinedQueryBatchListener(QueryBatchListener delegate, int threadCount, int queueSize,
+                                       BiConsumer<QueryBatch, Throwable> failureHandler) {
+        if (threadCount < 1 || queueSize < 0) {
+            throw new IllegalArgumentException("Thread count must be positive and queue size must not be negative");
+        }
+        this.delegate = delegate;
+        this.threadCount = threadCount;
+        this.queueSize = queueSize;
+        this.failureHandler = failureHandler;
+        this.queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+    }
+
+    /**
+     * @param queueDepthListener invoked with +1 when a batch is queued and -1 when a thread takes it from the queue
+     * @return this listener
+     */
+    public PipelinedQueryBatchListener withQueueDepthListener(IntConsumer queueDepthListener) {
+        this.queueDepthListener = queueDepthListener;
+        return this;
+    }
+
+    @Override
+    public void initializeListener(QueryBatcher queryBatcher) {
+        delegate.initializeListener(queryBatcher);
+    }
+
+    @Override
+    public void processEvent(QueryBatch batch) {
+        if (completing) {
+            failureHandler.accept(batch, new IllegalStateException("Unable to queue batch " + batch.getJobBatchNumber() +
+                " as the pipeline has already completed"));
+            return;
+        }
+        if (batch.getBatcher() != null) {
+            batcher = batch.getBatcher();
+        }
+        startThreadsIfNecessary();
+
+        final long start = System.nanoTime();
+        try {
+            queue.put(batch);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failureHandler.accept(batch, ex);
+            return;
+        }
+        uriRetrievalBlockedNanos.addAndGet(System.nanoTime() - start);
+        notifyQueueDepthListener(1);
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    private synchronized void startThreadsIfNecessary() {
+        if (!threads.isEmpty()) {
+            return;
+        }
+        for (int i = 1; i <= threadCount; i++) {
+            Thread thread = new Thread(this::processQueuedBatches, "pipelined-batch-reader-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    private void processQueuedBatches() {
+        while (true) {
+            QueryBatch batch;
+            final long start = System.nanoTime();
+            try {
+                batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (!completing) {
+                idleNanos.addAndGet(System.nanoTime() - start);
+            }
+            if (batch == null) {
+                // Threads are not left behind if a job is stopped without awaitCompletion being called
+                QueryBatcher currentBatcher = batcher;
+                if (completing || (currentBatcher != null && currentBatcher.isStopped())) {
+                    return;
+                }
+                continue;
+            }
+            process(batch);
+        }
+    }
+
+    private void process(QueryBatch batch) {
+        notifyQueueDepthListener(-1);
+        try {
+            // Batches still queued when a job is stopped are not processed, just as the QueryBatcher does not
+            // retrieve any more batches once stopped
+            QueryBatcher batchBatcher = batch.getBatcher();
+            if (batchBatcher == null || !batchBatcher.isStopped()) {
+                delegate.processEvent(batch);
+                processedBatches.incrementAndGet();
+            }
+        } catch (Throwable t) {
+            failureHandler.accept(batch, t);
+        }
+    }
+
+    private void notifyQueueDepthListener(int delta) {
+        if (queueDepthListener != null) {
+            queueDepthListener.accept(delta);
+        }
+    }
+
+    /**
+     * Waits for every queued batch to be processed and then stops the threads of this listener. No further batches
+     * can be queued afterwards.
+     */
+    public void awaitCompletion() {
+        completing = true;
+        List<Thread> threadsToJoin;
+        synchronized (this) {
+            threadsToJoin = new ArrayList<>(threads);
+        }
+        try {
+            for (Thread thread : threadsToJoin) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of batches currently waiting for a thread
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getProcessedBatches() {
+        return processedBatches.get();
+    }
+
+    /**
+     * @return the total time QueryBatcher threads were blocked waiting for room in the queue; a large value relative
+     * to the job duration means that processing batches is the bottleneck
+     */
+    public long getUriRetrievalBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(uriRetrievalBlockedNanos.get());
+    }
+
+    /**
+     * @return the total time, across all processing threads, spent waiting for a batch to be queued; a large value
+     * relative to the job duration means that URI retrieval is the bottleneck
+     */
+    public long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(idleNanos.get());
+    }
+}
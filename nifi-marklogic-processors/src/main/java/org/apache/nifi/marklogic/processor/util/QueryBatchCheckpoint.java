@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatchListener;
+import com.marklogic.client.datamovement.QueryBatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of a QueryBatcher job so that, if the job does not complete, a later job for the same query can
+ * skip the batches that were already processed.
+ * <p>
+ * A QueryBatcher retrieves the URIs in each forest in ascending order. For each forest, this records the last URI of
+ * the highest batch for which every batch up to and including it has been processed; batches are processed out of
+ * order by multiple threads, so a batch only advances the checkpoint once all of the batches before it in the same
+ * forest have been processed. When a job is resumed, a batch is skipped if every one of its URIs is at or before the
+ * checkpoint for its forest. URIs are compared by Unicode code point, matching the codepoint collation of the URI
+ * lexicon. A batch that only partially overlaps the checkpoint is processed again in full, so processing is
+ * at-least-once. A batch reported via {@link #batchFailed(QueryBatch)} is never recorded as processed, so the
+ * checkpoint for its forest does not advance past it.
+ * <p>
+ * The checkpoint is keyed on a SHA-256 digest of the query; a checkpoint for a different query is discarded.
+ */
+public class QueryBatchCheckpoint {
+
+    public static final String QUERY_HASH_KEY = "queryHash";
+    public static final String SERVER_TIMESTAMP_KEY = "serverTimestamp";
+    public static final String FOREST_KEY_PREFIX = "forest.";
+
+    private final CheckpointStore store;
+    private final String queryHash;
+    private final long saveIntervalMillis;
+    private final Long previousServerTimestamp;
+    private final Map<String, String> resumeUris = new HashMap<>();
+    private final Map<String, ForestProgress> forestProgress = new ConcurrentHashMap<>();
+    private final AtomicLong lastSaveTime = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong skippedBatches = new AtomicLong();
+    private final AtomicLong serverTimestamp = new AtomicLong();
+    private final Set<String> failedBatches = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param store
+     * @param query              the query being run; only its digest is stored
+     * @param saveIntervalMillis the minimum time between saves of the checkpoint while the job is running
+     * @throws IOException if an existing checkpoint cannot be loaded
+     */
+    public QueryBatchCheckpoint(CheckpointStore store, String query, long saveIntervalMillis) throws IOException {
+        this.store = store;
+        this.queryHash = digest(query);
+        this.saveIntervalMillis = saveIntervalMillis;
+
+        Map<String, String> existing = store.load();
+        if (queryHash.equals(existing.get(QUERY_HASH_KEY))) {
+            existing.forEach((key, value) -> {
+                if (key.startsWith(FOREST_KEY_PREFIX)) {
+                    resumeUris.put(key.substring(FOREST_KEY_PREFIX.length()), value);
+                }
+            });
+            String timestamp = existing.get(SERVER_TIMESTAMP_KEY);
+            this.previousServerTimestamp = timestamp != null ? Long.valueOf(timestamp) : null;
+        } else {
+            this.previousServerTimestamp = null;
+            if (!existing.isEmpty()) {
+                store.clear();
+            }
+        }
+    }
+
+    /**
+     * @param delegate
+     * @return a listener that skips batches already processed according to this checkpoint, passes every other batch
+     * to the given delegate, and then records the batch as processed unless it failed
+     */
+    public QueryBatchListener wrap(QueryBatchListener delegate) {
+        return new CheckpointingListener(delegate);
+    }
+
+    private static String digest(String query) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records that the given batch was not processed successfully, so that it does not advance the checkpoint. Must
+     * be called before the listener returned by {@link #wrap(QueryBatchListener)} finishes processing the batch, as
+     * is the case for the failure listeners of the DMSDK batch listeners.
+     *
+     * @param batch
+     */
+    public void batchFailed(QueryBatch batch) {
+        failedBatches.add(toBatchKey(batch));
+    }
+
+    private static String toBatchKey(QueryBatch batch) {
+        return batch.getForest().getForestId() + ":" + batch.getForestBatchNumber();
+    }
+
+    /**
+     * @return true if a checkpoint for the same query was loaded, meaning that the job is being resumed
+     */
+    public boolean isResuming() {
+        return !resumeUris.isEmpty();
+    }
+
+    /**
+     * @return the server timestamp of the job that saved the checkpoint being resumed; null if not resuming
+     */
+    public Long getPreviousServerTimestamp() {
+        return previousServerTimestamp;
+    }
+
+    /**
+     * @return the server timestamp of the first batch processed by this job; 0 if no batch has been processed yet
+     */
+    public long getServerTimestamp() {
+        return serverTimestamp.get();
+    }
+
+    public long getSkippedBatches() {
+        return skippedBatches.get();
+    }
+
+    public void save() throws IOException {
+        Map<String, String> checkpoint = new HashMap<>();
+        checkpoint.put(QUERY_HASH_KEY, queryHash);
+        if (serverTimestamp.get() > 0) {
+            checkpoint.put(SERVER_TIMESTAMP_KEY, Long.toString(serverTimestamp.get()));
+        }
+        // Forests not yet reached by this job keep their checkpoint from the job being resumed
+        resumeUris.forEach((forestId, uri) -> checkpoint.put(FOREST_KEY_PREFIX + forestId, uri));
+        forestProgress.forEach((forestId, progress) -> {
+            String uri = progress.getCheckpointUri();
+            if (uri != null) {
+                checkpoint.put(FOREST_KEY_PREFIX + forestId, uri);
+            }
+        });
+        store.save(checkpoint);
+    }
+
+    /**
+     * Removes the checkpoint; to be called once the job has processed every batch.
+     */
+    public void clear() throws IOException {
+        store.clear();
+    }
+
+    private void saveIfIntervalElapsed() throws IOException {
+        final long now = System.currentTimeMillis();
+        final long lastSave = lastSaveTime.get();
+        if (now - lastSave >= saveIntervalMillis && lastSaveTime.compareAndSet(lastSave, now)) {
+            save();
+        }
+    }
+
+    boolean shouldSkip(QueryBatch batch) {
+        String resumeUri = resumeUris.get(batch.getForest().getForestId());
+        String lastUri = lastUri(batch.getItems());
+        return resumeUri != null && lastUri != null && compareUris(lastUri, resumeUri) <= 0;
+    }
+
+    void batchProcessed(QueryBatch batch) {
+        if (batch.getServerTimestamp() > 0) {
+            serverTimestamp.compareAndSet(0, batch.getServerTimestamp());
+        }
+        final String forestId = batch.getForest().getForestId();
+        forestProgress
+            .computeIfAbsent(forestId, id -> new ForestProgress(resumeUris.get(id)))
+            .batchProcessed(batch.getForestBatchNumber(), lastUri(batch.getItems()));
+    }
+
+    private static String lastUri(String[] uris) {
+        String last = null;
+        if (uris != null) {
+            for (String uri : uris) {
+                if (last == null || compareUris(uri, last) > 0) {
+                    last = uri;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Compares URIs by Unicode code point; {@code String.compareTo} compares UTF-16 code units instead, which orders
+     * supplementary characters differently.
+     */
+    static int compareUris(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int cpA = a.codePointAt(i);
+            int cpB = b.codePointAt(j);
+            if (cpA != cpB) {
+                return Integer.compare(cpA, cpB);
+            }
+            i += Character.charCount(cpA);
+            j += Character.charCount(cpB);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Tracks the contiguous range of processed batches in a single forest.
+     */
+    private static class ForestProgress {
+        private final Map<Long, String> processedAhead = new HashMap<>();
+        private long nextBatchNumber = 1;
+        private String checkpointUri;
+
+        ForestProgress(String resumeUri) {
+            this.checkpointUri = resumeUri;
+        }
+
+        synchronized void batchProcessed(long forestBatchNumber, String lastUri) {
+            processedAhead.put(forestBatchNumber, lastUri);
+            while (processedAhead.containsKey(nextBatchNumber)) {
+                String uri = processedAhead.remove(nextBatchNumber);
+                if (uri != null && (checkpointUri == null || compareUris(uri, checkpointUri) > 0)) {
+                    checkpointUri = uri;
+                }
+                nextBatchNumber++;
+            }
+        }
+
+        synchronized String getCheckpointUri() {
+            return checkpointUri;
+        }
+    }
+
+    private class CheckpointingListener implements QueryBatchListener {
+        private final QueryBatchListener delegate;
+
+        CheckpointingListener(QueryBatchListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void initializeListener(QueryBatcher queryBatcher) {
+            delegate.initializeListener(queryBatcher);
+        }
+
+        @Override
+        public void processEvent(QueryBatch batch) {
+            if (shouldSkip(batch)) {
+                skippedBatches.incrementAndGet();
+            } else {
+                delegate.processEvent(batch);
+            }
+            if (!failedBatches.remove(toBatchKey(batch))) {
+                batchProcessed(batch);
+            }
+            try {
+                saveIfIntervalElapsed();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to save checkpoint; cause: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package org.apache.nifi.marklogic.processor.util;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.ForestConfiguration;
 import com.marklogic.client.datamovement.QueryBatcher;
 import com.marklogic.client.io.Format;
 import com.marklogic.client.io.StringHandle;
@@ -9,6 +14,11 @@ import com.marklogic.client.query.*;
 import org.apache.nifi.util.EscapeUtils;
 import org.apache.nifi.util.Tuple;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -19,12 +29,52 @@ import java.util.regex.Pattern;
 public class QueryBatcherBuilder {
 
     private DatabaseClient client;
+    private DataMovementManager dataMovementManager;
+    private ForestConfiguration forestConfiguration;
     private final static Pattern searchJson = Pattern.compile("^\\s*\\{\\s*\"(search|ctsquery)\"\\s*:\\s*");
     private final static Pattern searchJsonEnd = Pattern.compile("\\}\\s*$");
 
+    /**
+     * The name of the values definition, over the URI lexicon, in the options of a URI count query.
+     */
+    public final static String URI_VALUES_NAME = "uris";
+
+    // Keyed on the query type and value; bounded since the query value can be set via FlowFile attributes
+    private final static int MAX_CACHED_TEMPLATES = 100;
+    private final static Map<String, CombinedQueryTemplate> combinedQueryTemplates =
+        new LinkedHashMap<String, CombinedQueryTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CombinedQueryTemplate> eldest) {
+                return size() > MAX_CACHED_TEMPLATES;
+            }
+        };
+
 
     public QueryBatcherBuilder(DatabaseClient client) {
+        this(client, null);
+    }
+
+    /**
+     * @param client
+     * @param dataMovementManager the manager to create QueryBatchers with; if null, a new manager is created for each
+     *                            QueryBatcher
+     */
+    public QueryBatcherBuilder(DatabaseClient client, DataMovementManager dataMovementManager) {
+        this(client, dataMovementManager, null);
+    }
+
+    /**
+     * @param client
+     * @param dataMovementManager the manager to create QueryBatchers with; if null, a new manager is created for each
+     *                            QueryBatcher
+     * @param forestConfiguration if not null, applied to each QueryBatcher so that it does not read the forest
+     *                            configuration from MarkLogic; used with a shared manager whose configuration is cached
+     */
+    public QueryBatcherBuilder(DatabaseClient client, DataMovementManager dataMovementManager,
+                               ForestConfiguration forestConfiguration) {
         this.client = client;
+        this.dataMovementManager = dataMovementManager;
+        this.forestConfiguration = forestConfiguration;
     }
 
     /**
@@ -36,8 +86,22 @@ public class QueryBatcherBuilder {
      * @param stateRangeIndexQuery can be null
      * @return
      */
-    public QueryBatcherContext newQueryBatcher(QueryTypeAndValue queryTypeAndValue, RangeIndexQuery stateRangeIndexQuery) {
-        DataMovementManager dataMovementManager = client.newDataMovementManager();
+    public QueryBatcherContext newQueryBatcher(QueryTypeAndValue queryTypeAndValue, StateQuery stateRangeIndexQuery) {
+        return newQueryBatcher(queryTypeAndValue, stateRangeIndexQuery != null ?
+            Collections.singletonList(stateRangeIndexQuery) : Collections.emptyList());
+    }
+
+    /**
+     * Constructs a {@code QueryBatcher} based on the given query type and value, with every one of the given state
+     * queries and-ed to it. This supports constraining a query to a bounded range, such as a backfill window.
+     *
+     * @param queryTypeAndValue
+     * @param stateRangeIndexQueries can be empty
+     * @return
+     */
+    public QueryBatcherContext newQueryBatcher(QueryTypeAndValue queryTypeAndValue, List<? extends StateQuery> stateRangeIndexQueries) {
+        DataMovementManager dataMovementManager = this.dataMovementManager != null ?
+            this.dataMovementManager : client.newDataMovementManager();
         QueryManager queryManager = client.newQueryManager();
 
         Tuple<QueryDefinition, Format> queryAndFormat = buildQueryDefinitionAndFormat(queryManager, queryTypeAndValue);
@@ -45,8 +109,8 @@ public class QueryBatcherBuilder {
         String queryRepresentation;
 
         QueryBatcher queryBatcher;
-        if (stateRangeIndexQuery != null) {
-            String rawCombinedQuery = buildRawCombinedQueryWithStateQuery(queryAndFormat, queryTypeAndValue, stateRangeIndexQuery);
+        if (!stateRangeIndexQueries.isEmpty()) {
+            String rawCombinedQuery = buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateRangeIndexQueries);
             queryRepresentation = rawCombinedQuery;
             StringHandle handle = new StringHandle(rawCombinedQuery).withFormat(queryAndFormat.getValue());
             RawCombinedQueryDefinition query = queryManager.newRawCombinedQueryDefinition(handle);
@@ -66,10 +130,59 @@ public class QueryBatcherBuilder {
                 queryRepresentation = ((StringQueryDefinition) queryDef).getCriteria();
             }
         }
-        
+        if (forestConfiguration != null) {
+            queryBatcher.withForestConfig(forestConfiguration);
+        }
+
         return new QueryBatcherContext(dataMovementManager, queryBatcher, queryDef, queryRepresentation);
     }
 
+    /**
+     * Constructs the query that a {@code QueryBatcher} built from the same inputs would run, with every one of the
+     * given state queries and-ed to it. This allows the matching documents to be counted without running a job.
+     *
+     * @param queryTypeAndValue
+     * @param stateRangeIndexQueries can be empty
+     * @return
+     */
+    public QueryDefinition newQueryDefinition(QueryTypeAndValue queryTypeAndValue, List<? extends StateQuery> stateRangeIndexQueries) {
+        QueryManager queryManager = client.newQueryManager();
+        Tuple<QueryDefinition, Format> queryAndFormat = buildQueryDefinitionAndFormat(queryManager, queryTypeAndValue);
+        if (stateRangeIndexQueries.isEmpty()) {
+            return queryAndFormat.getKey();
+        }
+        String rawCombinedQuery = buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateRangeIndexQueries);
+        return queryManager.newRawCombinedQueryDefinition(new StringHandle(rawCombinedQuery).withFormat(queryAndFormat.getValue()));
+    }
+
+    /**
+     * Constructs a values query that counts the URIs a {@code QueryBatcher} built from the same inputs would retrieve,
+     * with every one of the given state queries and-ed to it. The count is an aggregate over the URI lexicon - which a
+     * {@code QueryBatcher} requires as well - and so is computed by MarkLogic and returned by a single request without
+     * any URIs being returned.
+     *
+     * @param queryTypeAndValue
+     * @param stateRangeIndexQueries can be empty
+     * @return a definition whose "count" aggregate is the number of matching URIs
+     */
+    public ValuesDefinition newUriCountDefinition(QueryTypeAndValue queryTypeAndValue, List<? extends StateQuery> stateRangeIndexQueries) {
+        QueryManager queryManager = client.newQueryManager();
+        String countQuery = buildUriCountQuery(queryTypeAndValue, stateRangeIndexQueries);
+        Format format = getCombinedQueryTemplate(queryTypeAndValue).format;
+        ValuesDefinition valuesDef = queryManager.newValuesDefinition(URI_VALUES_NAME);
+        valuesDef.setAggregate("count");
+        valuesDef.setQueryDefinition(queryManager.newRawCombinedQueryDefinition(new StringHandle(countQuery).withFormat(format)));
+        return valuesDef;
+    }
+
+    /**
+     * Combines the user's query and the given state queries into a combined query whose options define the
+     * {@code URI_VALUES_NAME} values over the URI lexicon.
+     */
+    static String buildUriCountQuery(QueryTypeAndValue queryTypeAndValue, List<? extends StateQuery> stateRangeIndexQueries) {
+        return getCombinedQueryTemplate(queryTypeAndValue).renderWithUriValues(stateRangeIndexQueries);
+    }
+
     private Tuple<QueryDefinition, Format> buildQueryDefinitionAndFormat(QueryManager queryManager, QueryTypeAndValue queryTypeAndValue) {
         QueryDefinition queryDef;
         final String queryValue = queryTypeAndValue.value;
@@ -97,77 +210,149 @@ public class QueryBatcherBuilder {
     }
 
     /**
-     * Combines the user's NiFi-properties-based query with the given state query into a string representing the
-     * raw combined query.
+     * Combines the user's NiFi-properties-based query with the given state queries into a string representing the
+     * raw combined query. The parts of the combined query derived from the user's query are cached, so that only the
+     * state queries - which contain the value that changes each time the processor runs - are serialized each time.
      *
-     * @param queryDefAndFormat
      * @param queryTypeAndValue
-     * @param stateRangeIndexQuery
+     * @param stateRangeIndexQueries
      * @return
      */
-    private String buildRawCombinedQueryWithStateQuery(Tuple<QueryDefinition, Format> queryDefAndFormat,
-                                                       QueryTypeAndValue queryTypeAndValue,
-                                                       RangeIndexQuery stateRangeIndexQuery) {
-        final QueryDefinition queryDef = queryDefAndFormat.getKey();
-        final Format format = queryDefAndFormat.getValue();
-        final String queryValue = queryTypeAndValue.value;
+    static String buildRawCombinedQueryWithStateQuery(QueryTypeAndValue queryTypeAndValue,
+                                                      List<? extends StateQuery> stateRangeIndexQueries) {
+        return getCombinedQueryTemplate(queryTypeAndValue).render(stateRangeIndexQueries);
+    }
 
-        StringBuilder rawCombinedQueryBuilder = new StringBuilder();
-        if (queryDef instanceof StructuredQueryDefinition || queryDef instanceof RawStructuredQueryDefinition) {
-            rawCombinedQueryBuilder.append((format == Format.JSON) ? "{ \"search\": { "
-                : "<search xmlns=\"http://marklogic.com/appservices/search\">");
-            String queryBody;
-            if (queryDef instanceof StructuredQueryDefinition) {
-                queryBody = ((StructuredQueryDefinition) queryDef).serialize();
-            } else {
-                queryBody = queryValue;
+    static CombinedQueryTemplate getCombinedQueryTemplate(QueryTypeAndValue queryTypeAndValue) {
+        final String key = queryTypeAndValue.type + "\n" + queryTypeAndValue.value;
+        synchronized (combinedQueryTemplates) {
+            CombinedQueryTemplate template = combinedQueryTemplates.get(key);
+            if (template != null) {
+                return template;
             }
-            if (format == Format.JSON) {
-                rawCombinedQueryBuilder
-                    .append("\"query\": {\"queries\": [ ")
-                    .append(stateRangeIndexQuery.toStructuredQuery(format))
-                    .append(",")
-                    .append(queryBody)
-                    .append("]}");
-            } else {
-                rawCombinedQueryBuilder
-                    .append("<query>")
-                    .append(stateRangeIndexQuery.toStructuredQuery(format))
-                    .append(queryBody)
-                    .append("</query>");
+        }
+        CombinedQueryTemplate template = newCombinedQueryTemplate(queryTypeAndValue);
+        synchronized (combinedQueryTemplates) {
+            combinedQueryTemplates.put(key, template);
+        }
+        return template;
+    }
+
+    private static CombinedQueryTemplate newCombinedQueryTemplate(QueryTypeAndValue queryTypeAndValue) {
+        final String queryValue = queryTypeAndValue.value;
+        switch (queryTypeAndValue.type) {
+            case QueryTypes.COLLECTION_STR:
+                return newStructuredQueryTemplate(Format.XML, new StructuredQueryBuilder().collection(queryValue.split(",")).serialize());
+            case QueryTypes.STRUCTURED_JSON_STR:
+                return newStructuredQueryTemplate(Format.JSON, queryValue);
+            case QueryTypes.STRUCTURED_XML_STR:
+                return newStructuredQueryTemplate(Format.XML, queryValue);
+            case QueryTypes.COMBINED_JSON_STR:
+                return new CombinedQueryTemplate(Format.JSON, true,
+                    "{\"ctsquery\": { \"andQuery\": { \"queries\": [ ", ",",
+                    "," + prepQueryToCombineJSON(queryValue) + "]}}}");
+            case QueryTypes.COMBINED_XML_STR:
+                return new CombinedQueryTemplate(Format.XML, true,
+                    "<cts:and-query xmlns:cts=\"http://marklogic.com/cts\">" + queryValue, "", "</cts:and-query>");
+            default:
+                return new CombinedQueryTemplate(Format.XML, false,
+                    "<search  xmlns=\"http://marklogic.com/appservices/search\">", "",
+                    "<qtext>" + EscapeUtils.escapeHtml(queryValue) + "</qtext></search>");
+        }
+    }
+
+    private static CombinedQueryTemplate newStructuredQueryTemplate(Format format, String queryBody) {
+        return format == Format.JSON ?
+            new CombinedQueryTemplate(format, false, "{ \"search\": { \"query\": {\"queries\": [ ", ",",
+                "," + queryBody + "]}} }") :
+            new CombinedQueryTemplate(format, false,
+                "<search xmlns=\"http://marklogic.com/appservices/search\"><query>", "",
+                queryBody + "</query></search>");
+    }
+
+    /**
+     * Removes any number of enclosing "search" or "ctsquery" objects from a JSON query so that the query can be
+     * combined with other cts queries.
+     */
+    static String prepQueryToCombineJSON(String json) {
+        String current = json;
+        Matcher start = searchJson.matcher(current);
+        while (start.lookingAt()) {
+            String remainder = current.substring(start.end());
+            Matcher end = searchJsonEnd.matcher(remainder);
+            current = end.find() ? remainder.substring(0, end.start()) : remainder;
+            start = searchJson.matcher(current);
+        }
+        return current;
+    }
+
+    /**
+     * The parts of a raw combined query that are derived from the user's query, between which the serialized state
+     * queries are placed.
+     */
+    static class CombinedQueryTemplate {
+        private final Format format;
+        private final boolean ctsQuery;
+        private final String prefix;
+        private final String delimiter;
+        private final String suffix;
+
+        CombinedQueryTemplate(Format format, boolean ctsQuery, String prefix, String delimiter, String suffix) {
+            this.format = format;
+            this.ctsQuery = ctsQuery;
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.suffix = suffix;
+        }
+
+        String render(List<? extends StateQuery> stateRangeIndexQueries) {
+            if (stateRangeIndexQueries.isEmpty() && !delimiter.isEmpty() && suffix.startsWith(delimiter)) {
+                return prefix + suffix.substring(delimiter.length());
             }
-            rawCombinedQueryBuilder.append((format == Format.JSON) ? "} }" : "</search>");
-        } else if (queryDef instanceof RawCombinedQueryDefinition) {
-            if (format == Format.XML) {
-                rawCombinedQueryBuilder
-                    .append("<cts:and-query xmlns:cts=\"http://marklogic.com/cts\">")
-                    .append(queryValue)
-                    .append(stateRangeIndexQuery.toCtsQuery(format))
-                    .append("</cts:and-query>");
-            } else {
-                rawCombinedQueryBuilder
-                    .append("{\"ctsquery\": { \"andQuery\": { \"queries\": [ ")
-                    .append(stateRangeIndexQuery.toCtsQuery(format))
-                    .append(",")
-                    .append(prepQueryToCombineJSON(queryValue))
-                    .append("]}}}");
+            StringBuilder builder = new StringBuilder(prefix.length() + suffix.length() + 256 * stateRangeIndexQueries.size())
+                .append(prefix);
+            for (int i = 0; i < stateRangeIndexQueries.size(); i++) {
+                if (i > 0) {
+                    builder.append(delimiter);
+                }
+                StateQuery query = stateRangeIndexQueries.get(i);
+                builder.append(ctsQuery ? query.toCtsQuery(format) : query.toStructuredQuery(format));
             }
-        } else if (queryDef instanceof StringQueryDefinition) {
-            rawCombinedQueryBuilder
-                .append("<search  xmlns=\"http://marklogic.com/appservices/search\">")
-                .append(stateRangeIndexQuery.toStructuredQuery(format))
-                .append("<qtext>").append(EscapeUtils.escapeHtml(queryValue))
-                .append("</qtext></search>");
+            return builder.append(suffix).toString();
         }
-        return rawCombinedQueryBuilder.toString();
-    }
 
-    private String prepQueryToCombineJSON(String json) {
-        if (searchJson.matcher(json).lookingAt()) {
-            String newJSON = searchJsonEnd.matcher(searchJson.matcher(json).replaceFirst("")).replaceFirst("");
-            return (newJSON.equals(json)) ? json : prepQueryToCombineJSON(newJSON);
-        } else {
-            return json;
+        /**
+         * Renders the combined query as a search that also contains the options defining the URI lexicon values.
+         */
+        String renderWithUriValues(List<? extends StateQuery> stateRangeIndexQueries) {
+            final String query = render(stateRangeIndexQueries);
+            if (format == Format.JSON) {
+                JsonObject rootObject = JsonParser.parseString(query).getAsJsonObject();
+                JsonObject searchObject;
+                if (ctsQuery) {
+                    searchObject = new JsonObject();
+                    searchObject.add("ctsquery", rootObject.get("ctsquery"));
+                    rootObject = new JsonObject();
+                    rootObject.add("search", searchObject);
+                } else {
+                    searchObject = rootObject.getAsJsonObject("search");
+                }
+                JsonObject valuesObject = new JsonObject();
+                valuesObject.addProperty("name", URI_VALUES_NAME);
+                valuesObject.add("uri", JsonNull.INSTANCE);
+                JsonArray valuesArray = new JsonArray();
+                valuesArray.add(valuesObject);
+                JsonObject optionsObject = new JsonObject();
+                optionsObject.add("values", valuesArray);
+                searchObject.add("options", optionsObject);
+                return rootObject.toString();
+            }
+            final String options = "<options><values name=\"" + URI_VALUES_NAME + "\"><uri/></values></options>";
+            if (ctsQuery) {
+                return "<search xmlns=\"http://marklogic.com/appservices/search\">" + query + options + "</search>";
+            }
+            final int end = query.lastIndexOf("</search>");
+            return query.substring(0, end) + options + query.substring(end);
         }
     }
 
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates counts for a QueryBatcher job whose batches are not written out as individual FlowFiles, so that a
+ * single FlowFile summarizing the job can be written once the job completes. Safe for use by multiple batch threads.
+ */
+public class QueryJobSummary {
+
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong successBatches = new AtomicLong();
+    private final AtomicLong successUris = new AtomicLong();
+    private final AtomicLong failureBatches = new AtomicLong();
+    private final AtomicLong failureUris = new AtomicLong();
+
+    public void addBatch(int uriCount, boolean success) {
+        if (success) {
+            successBatches.incrementAndGet();
+            successUris.addAndGet(uriCount);
+        } else {
+            failureBatches.incrementAndGet();
+            failureUris.addAndGet(uriCount);
+        }
+    }
+
+    public long getSuccessUris() {
+        return successUris.get();
+    }
+
+    public long getFailureUris() {
+        return failureUris.get();
+    }
+
+    /**
+     * @param endTime
+     * @return a JSON object with the counts and timings of the job
+     */
+    public JsonObject toJson(long endTime) {
+        JsonObject json = new JsonObject();
+        json.addProperty("successBatches", successBatches.get());
+        json.addProperty("successUris", successUris.get());
+        json.addProperty("failureBatches", failureBatches.get());
+        json.addProperty("failureUris", failureUris.get());
+        json.addProperty("startTime", startTime);
+        json.addProperty("endTime", endTime);
+        json.addProperty("durationMillis", endTime - startTime);
+        return json;
+    }
+}
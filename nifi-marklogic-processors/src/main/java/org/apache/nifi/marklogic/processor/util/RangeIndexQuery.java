@@ -20,6 +20,7 @@ import com.marklogic.client.io.Format;
 import com.marklogic.client.query.StructuredQueryBuilder;
 import com.marklogic.client.query.StructuredQueryBuilder.Operator;
 import com.marklogic.client.query.StructuredQueryBuilder.RangeIndex;
+import com.marklogic.client.query.StructuredQueryDefinition;
 import org.apache.nifi.marklogic.processor.QueryMarkLogic.IndexTypes;
 import org.apache.nifi.util.EscapeUtils;
 
@@ -27,7 +28,7 @@ import javax.xml.namespace.QName;
 import java.util.Collection;
 import java.util.regex.Matcher;
 
-public class RangeIndexQuery {
+public class RangeIndexQuery implements StateQuery {
     private String value;
     private Operator operator;
     private String dataType;
@@ -69,6 +70,18 @@ public class RangeIndexQuery {
         this.value = value;
     }
 
+    /**
+     * @param operator
+     * @return a copy of this query that compares its value with the given operator
+     */
+    public RangeIndexQuery withOperator(Operator operator) {
+        return new RangeIndexQuery(queryBuilder, rangeIndexType, rangeIndexValue, dataType, operator, value);
+    }
+
+    protected StructuredQueryBuilder getQueryBuilder() {
+        return queryBuilder;
+    }
+
     public String structuredOperatorToCtsOperator(String operator) {
         String ctsOperator;
         switch (operator) {
@@ -97,6 +110,7 @@ public class RangeIndexQuery {
         return ctsOperator;
     }
 
+    @Override
     public String toCtsQuery(Format format) {
         StringBuilder strBuilder = new StringBuilder();
         if (format == Format.XML) {
@@ -167,27 +181,10 @@ public class RangeIndexQuery {
         return strBuilder.toString();
     }
 
+    @Override
     public String toStructuredQuery(Format format) {
         if (format == Format.XML) {
-            RangeIndex rangeIndex = null;
-            switch (rangeIndexType) {
-                case IndexTypes.ELEMENT_STR:
-                    boolean hasNamespace = rangeIndexValue.contains(":");
-                    String[] parts = rangeIndexValue.split(":", 2);
-                    String name = (hasNamespace) ? parts[1] : rangeIndexValue;
-                    String ns = (hasNamespace) ? queryBuilder.getNamespaces().getNamespaceURI(parts[0]) : "";
-                    rangeIndex = queryBuilder.element(new QName(ns, name));
-                    break;
-                case IndexTypes.JSON_PROPERTY_STR:
-                    rangeIndex = queryBuilder.jsonProperty(rangeIndexValue);
-                    break;
-                case IndexTypes.PATH_STR:
-                    rangeIndex = queryBuilder.pathIndex(rangeIndexValue);
-                    break;
-                default:
-                    break;
-            }
-            return queryBuilder.range(rangeIndex, this.getDataType(), this.getOperator(), this.getValue()).serialize();
+            return toStructuredQueryDefinition().serialize();
         } else {
             StringBuilder strBuilder = new StringBuilder();
             strBuilder.append("{ \"range-query\": { \"type\": \"").append(dataType).append("\",");
@@ -227,4 +224,29 @@ public class RangeIndexQuery {
             return strBuilder.toString();
         }
     }
+
+    /**
+     * @return this query as a structured query definition, for use with a {@code StructuredQueryBuilder}
+     */
+    protected StructuredQueryDefinition toStructuredQueryDefinition() {
+        RangeIndex rangeIndex = null;
+        switch (rangeIndexType) {
+            case IndexTypes.ELEMENT_STR:
+                boolean hasNamespace = rangeIndexValue.contains(":");
+                String[] parts = rangeIndexValue.split(":", 2);
+                String name = (hasNamespace) ? parts[1] : rangeIndexValue;
+                String ns = (hasNamespace) ? queryBuilder.getNamespaces().getNamespaceURI(parts[0]) : "";
+                rangeIndex = queryBuilder.element(new QName(ns, name));
+                break;
+            case IndexTypes.JSON_PROPERTY_STR:
+                rangeIndex = queryBuilder.jsonProperty(rangeIndexValue);
+                break;
+            case IndexTypes.PATH_STR:
+                rangeIndex = queryBuilder.pathIndex(rangeIndexValue);
+                break;
+            default:
+                break;
+        }
+        return queryBuilder.range(rangeIndex, this.getDataType(), this.getOperator(), this.getValue());
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatchListener;
+import com.marklogic.client.datamovement.QueryBatcher;
+import org.apache.nifi.marklogic.controller.TokenBucketRateLimiter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Limits the rate at which a delegate listener processes batches. Before each batch is processed, a permit is acquired
+ * from the documents limiter for each URI in the batch. The bytes read while processing the batch - as reported via
+ * {@link #recordBytes(long)} by the thread processing it - are charged to the bytes limiter afterwards, which delays
+ * the next batch processed by any thread sharing that limiter.
+ * <p>
+ * Either limiter can be null, and either can be shared with other listeners, including those of other processors.
+ */
+public class RateLimitedQueryBatchListener implements QueryBatchListener {
+
+    private static final ThreadLocal<long[]> BYTES_IN_BATCH = new ThreadLocal<>();
+
+    private final QueryBatchListener delegate;
+    private final TokenBucketRateLimiter documentsLimiter;
+    private final TokenBucketRateLimiter bytesLimiter;
+    private LongConsumer waitListener;
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    /**
+     * @param delegate         the listener that processes each batch
+     * @param documentsLimiter limits the number of URIs processed per second; can be null
+     * @param bytesLimiter     limits the number of bytes read per second; can be null
+     */
+    public RateLimitedQueryBatchListener(QueryBatchListener delegate, TokenBucketRateLimiter documentsLimiter,
+                                         TokenBucketRateLimiter bytesLimiter) {
+        this.delegate = delegate;
+        this.documentsLimiter = documentsLimiter;
+        this.bytesLimiter = bytesLimiter;
+    }
+
+    /**
+     * @param waitListener invoked with the number of milliseconds that a batch was made to wait, whenever it was made
+     *                     to wait at all
+     * @return this
+     */
+    public RateLimitedQueryBatchListener withWaitListener(LongConsumer waitListener) {
+        this.waitListener = waitListener;
+        return this;
+    }
+
+    /**
+     * Records bytes read by the calling thread while processing the current batch. Has no effect if the calling thread
+     * is not processing a batch for a rate-limited listener.
+     *
+     * @param byteCount
+     */
+    public static void recordBytes(long byteCount) {
+        long[] bytesInBatch = BYTES_IN_BATCH.get();
+        if (bytesInBatch != null) {
+            bytesInBatch[0] += byteCount;
+        }
+    }
+
+    @Override
+    public void processEvent(QueryBatch batch) {
+        final int uriCount = batch.getItems().length;
+        long waited = acquire(documentsLimiter, uriCount);
+
+        final long[] bytesInBatch = new long[1];
+        BYTES_IN_BATCH.set(bytesInBatch);
+        try {
+            delegate.processEvent(batch);
+        } finally {
+            BYTES_IN_BATCH.remove();
+            documents.addAndGet(uriCount);
+            bytes.addAndGet(bytesInBatch[0]);
+            waited += acquire(bytesLimiter, bytesInBatch[0]);
+            if (waited > 0) {
+                waitMillis.addAndGet(waited);
+                if (waitListener != null) {
+                    waitListener.accept(waited);
+                }
+            }
+        }
+    }
+
+    /**
+     * An interrupted wait does not prevent the batch from being processed, as dropping it would lose data; the
+     * interrupt is preserved so that the QueryBatcher can respond to it.
+     */
+    private static long acquire(TokenBucketRateLimiter limiter, long permits) {
+        if (limiter == null) {
+            return 0;
+        }
+        try {
+            return limiter.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    @Override
+    public void initializeListener(QueryBatcher queryBatcher) {
+        delegate.initializeListener(queryBatcher);
+    }
+
+    public TokenBucketRateLimiter getDocumentsLimiter() {
+        return documentsLimiter;
+    }
+
+    public TokenBucketRateLimiter getBytesLimiter() {
+        return bytesLimiter;
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getWaitMillis() {
+        return waitMillis.get();
+    }
+
+    public double getDocumentsPerSecond() {
+        return documents.get() / getElapsedSeconds();
+    }
+
+    public double getBytesPerSecond() {
+        return bytes.get() / getElapsedSeconds();
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(System.nanoTime() - startNanos, 1) / 1_000_000_000.0;
+    }
+}
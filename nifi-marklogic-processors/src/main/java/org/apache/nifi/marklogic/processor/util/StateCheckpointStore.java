@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.components.state.StateManager;
+import org.apache.nifi.components.state.StateMap;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores a checkpoint in a processor's cluster state, alongside any other state the processor keeps. Each entry of the
+ * checkpoint is stored with a common key prefix. Suitable for jobs on databases with a modest number of forests, as
+ * NiFi limits the size of cluster state.
+ * <p>
+ * When each node of a NiFi cluster runs its own job, such as with cluster partitioning, each node must use a store
+ * for its own node identifier so that the nodes do not overwrite each other's checkpoints.
+ */
+public class StateCheckpointStore implements CheckpointStore {
+
+    public static final String KEY_PREFIX = "checkpoint.";
+    public static final String NODE_KEY_PREFIX = "checkpoint-node.";
+
+    private static final int MAX_STATE_UPDATE_ATTEMPTS = 10;
+
+    private final StateManager stateManager;
+    private final String keyPrefix;
+
+    public StateCheckpointStore(StateManager stateManager) {
+        this.stateManager = stateManager;
+        this.keyPrefix = KEY_PREFIX;
+    }
+
+    /**
+     * @param stateManager
+     * @param nodeId identifies the node whose checkpoint is stored; entries for other nodes are left untouched
+     */
+    public StateCheckpointStore(StateManager stateManager, String nodeId) {
+        this.stateManager = stateManager;
+        // Dots are escaped so that the prefix for one node is never a prefix of that for another node
+        this.keyPrefix = NODE_KEY_PREFIX + nodeId.replace("%", "%25").replace(".", "%2E") + ".";
+    }
+
+    @Override
+    public Map<String, String> load() throws IOException {
+        Map<String, String> checkpoint = new HashMap<>();
+        stateManager.getState(Scope.CLUSTER).toMap().forEach((key, value) -> {
+            if (key.startsWith(keyPrefix)) {
+                checkpoint.put(key.substring(keyPrefix.length()), value);
+            }
+        });
+        return checkpoint;
+    }
+
+    @Override
+    public void save(Map<String, String> checkpoint) throws IOException {
+        update(checkpoint);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        update(null);
+    }
+
+    /**
+     * Replaces every entry of this store's checkpoint in the state map, using a compare-and-set so that concurrent updates to the
+     * processor's other state are not lost.
+     */
+    private synchronized void update(Map<String, String> checkpoint) throws IOException {
+        for (int attempt = 1; attempt <= MAX_STATE_UPDATE_ATTEMPTS; attempt++) {
+            StateMap stateMap = stateManager.getState(Scope.CLUSTER);
+            Map<String, String> newState = new HashMap<>(stateMap.toMap());
+            newState.keySet().removeIf(key -> key.startsWith(keyPrefix));
+            if (checkpoint != null) {
+                checkpoint.forEach((key, value) -> newState.put(keyPrefix + key, value));
+            }
+            if (newState.equals(stateMap.toMap()) || stateManager.replace(stateMap, newState, Scope.CLUSTER)) {
+                return;
+            }
+        }
+        throw new IOException("Unable to store checkpoint after " + MAX_STATE_UPDATE_ATTEMPTS +
+            " attempts due to concurrent state updates");
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.io.Format;
+
+/**
+ * A query on the State Index that is combined with the user's query, such that only documents matching both are
+ * selected.
+ */
+public interface StateQuery {
+
+    /**
+     * @param format
+     * @return this query as a serialized cts query in the given format
+     */
+    String toCtsQuery(Format format);
+
+    /**
+     * @param format
+     * @return this query as a serialized structured query in the given format
+     */
+    String toStructuredQuery(Format format);
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.google.gson.JsonPrimitive;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.query.StructuredQueryBuilder;
+import com.marklogic.client.query.StructuredQueryBuilder.Operator;
+import org.apache.nifi.util.EscapeUtils;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Matches documents whose state index value is greater than a watermark, along with documents whose value equals the
+ * watermark but whose URI was not already returned when the watermark was captured. This avoids skipping documents
+ * that share the watermark value but were committed after the previous query ran, as long as they are committed
+ * before the next query runs. Once that query stores a greater watermark, a document committed later with a value
+ * equal to the previous watermark is still skipped.
+ * <p>
+ * The greater-than query and the equal query are held rather than inherited, as this query has no single index,
+ * operator, or value of its own.
+ */
+public class TieBreakerRangeIndexQuery implements StateQuery {
+
+    private final RangeIndexQuery greaterThanQuery;
+    private final RangeIndexQuery equalQuery;
+    private final Collection<String> excludedUris;
+
+    /**
+     * @param greaterThanQuery a query on the watermark with an operator of GT
+     * @param excludedUris     the URIs of the documents that were returned with a value equal to the watermark
+     */
+    public TieBreakerRangeIndexQuery(RangeIndexQuery greaterThanQuery, Collection<String> excludedUris) {
+        this.greaterThanQuery = greaterThanQuery;
+        this.equalQuery = greaterThanQuery.withOperator(Operator.EQ);
+        this.excludedUris = excludedUris;
+    }
+
+    @Override
+    public String toCtsQuery(Format format) {
+        if (format == Format.XML) {
+            StringBuilder strBuilder = new StringBuilder("<cts:or-query xmlns:cts=\"http://marklogic.com/cts\">")
+                .append(greaterThanQuery.toCtsQuery(format))
+                .append("<cts:and-query>")
+                .append(equalQuery.toCtsQuery(format))
+                .append("<cts:not-query><cts:document-query>");
+            excludedUris.forEach(uri -> strBuilder.append("<cts:uri>").append(EscapeUtils.escapeHtml(uri)).append("</cts:uri>"));
+            return strBuilder.append("</cts:document-query></cts:not-query></cts:and-query></cts:or-query>").toString();
+        }
+        return "{\"orQuery\":{\"queries\":[" + greaterThanQuery.toCtsQuery(format) +
+            ",{\"andQuery\":{\"queries\":[" + equalQuery.toCtsQuery(format) +
+            ",{\"notQuery\":{\"query\":{\"documentQuery\":{\"uris\":[" + toJsonArrayContents() + "]}}}}]}}]}}";
+    }
+
+    @Override
+    public String toStructuredQuery(Format format) {
+        if (format == Format.XML) {
+            StructuredQueryBuilder queryBuilder = greaterThanQuery.getQueryBuilder();
+            return queryBuilder.or(
+                greaterThanQuery.toStructuredQueryDefinition(),
+                queryBuilder.and(
+                    equalQuery.toStructuredQueryDefinition(),
+                    queryBuilder.not(queryBuilder.document(excludedUris.toArray(new String[0])))
+                )
+            ).serialize();
+        }
+        return "{\"or-query\":{\"queries\":[" + greaterThanQuery.toStructuredQuery(format) +
+            ",{\"and-query\":{\"queries\":[" + equalQuery.toStructuredQuery(format) +
+            ",{\"not-query\":{\"document-query\":{\"uri\":[" + toJsonArrayContents() + "]}}}]}}]}}";
+    }
+
+    public Collection<String> getExcludedUris() {
+        return excludedUris;
+    }
+
+    private String toJsonArrayContents() {
+        return excludedUris.stream().map(uri -> new JsonPrimitive(uri).toString()).collect(Collectors.joining(","));
+    }
+}
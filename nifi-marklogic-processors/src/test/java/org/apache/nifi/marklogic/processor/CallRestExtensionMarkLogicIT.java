@@ -1,10 +1,14 @@
 package org.apache.nifi.marklogic.processor;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marklogic.client.io.Format;
 import com.marklogic.junit5.XmlNode;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
@@ -95,4 +99,62 @@ public class CallRestExtensionMarkLogicIT extends AbstractMarkLogicIT {
         String error = failures.get(0).getAttribute("markLogicErrorMessage");
         assertTrue(error.contains("Undefined function post()"), "Unexpected error: " + error);
     }
+
+    @Test
+    void batchCorrelatedByIndex() throws IOException {
+        TestRunner runner = newBatchTestRunner();
+        runner.run();
+        runner.assertQueueEmpty();
+
+        List<MockFlowFile> failures = runner.getFlowFilesForRelationship(CallRestExtensionMarkLogic.FAILURE);
+        assertEquals(1, failures.size(), "Only the FlowFile whose part failed should be sent to failure");
+        assertEquals("2", failures.get(0).getAttribute("item"));
+        assertEquals("Input 2 failed", failures.get(0).getAttribute("markLogicErrorMessage"));
+
+        assertEquals(2, runner.getFlowFilesForRelationship(CallRestExtensionMarkLogic.ORIGINAL).size());
+        verifyBatchResults(runner);
+    }
+
+    @Test
+    void batchCorrelatedByKey() throws IOException {
+        TestRunner runner = newBatchTestRunner();
+        runner.setProperty(CallRestExtensionMarkLogic.BATCH_CORRELATION, CallRestExtensionMarkLogic.BatchCorrelationTypes.CORRELATION_KEY_STR);
+        runner.setProperty("param:reverse", "true");
+        runner.run();
+        runner.assertQueueEmpty();
+
+        List<MockFlowFile> failures = runner.getFlowFilesForRelationship(CallRestExtensionMarkLogic.FAILURE);
+        assertEquals(1, failures.size());
+        assertEquals("2", failures.get(0).getAttribute("item"));
+
+        assertEquals(2, runner.getFlowFilesForRelationship(CallRestExtensionMarkLogic.ORIGINAL).size());
+        verifyBatchResults(runner);
+    }
+
+    private TestRunner newBatchTestRunner() {
+        TestRunner runner = newReaderTestRunner(CallRestExtensionMarkLogic.class);
+        runner.setValidateExpressionUsage(false);
+        runner.setProperty(CallRestExtensionMarkLogic.EXTENSION_NAME, "batchItems");
+        runner.setProperty(CallRestExtensionMarkLogic.METHOD_TYPE, CallRestExtensionMarkLogic.MethodTypes.POST_STR);
+        runner.setProperty(CallRestExtensionMarkLogic.PAYLOAD_SOURCE, CallRestExtensionMarkLogic.PayloadSources.FLOWFILE_CONTENT_STR);
+        runner.setProperty(CallRestExtensionMarkLogic.PAYLOAD_FORMAT, Format.JSON.name());
+        runner.setProperty(CallRestExtensionMarkLogic.FLOWFILE_BATCH_SIZE, "10");
+
+        runner.enqueue("{\"name\":\"a\"}", Map.of("item", "1"));
+        runner.enqueue("{\"fail\":true}", Map.of("item", "2"));
+        runner.enqueue("{\"name\":\"c\"}", Map.of("item", "3"));
+        return runner;
+    }
+
+    private void verifyBatchResults(TestRunner runner) throws IOException {
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(CallRestExtensionMarkLogic.RESULTS);
+        assertEquals(2, results.size(), "All 3 FlowFiles should have been sent in a single call, with each part " +
+            "that did not fail being sent to results");
+        for (MockFlowFile result : results) {
+            JsonNode content = new ObjectMapper().readTree(runner.getContentAsByteArray(result));
+            String expectedName = "1".equals(result.getAttribute("item")) ? "A" : "C";
+            assertEquals(expectedName, content.get("name").asText(), "Each part should be sent to results with the " +
+                "attributes of the FlowFile it belongs to");
+        }
+    }
 }
@@ -112,6 +112,22 @@ public class DeleteMarkLogicIT extends AbstractMarkLogicIT {
         assertTrue(attributes.containsKey("uuid"));
     }
 
+    @Test
+    public void documentsPerSecond() {
+        TestRunner runner = newWriterTestRunner(DeleteMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.BATCH_SIZE, "5");
+        runner.setProperty(QueryMarkLogic.DOCUMENTS_PER_SECOND, "${docs.per.second}");
+        runner.assertValid();
+        runner.enqueue("", Map.of("docs.per.second", "20"));
+        runner.run();
+
+        runner.assertTransferCount(QueryMarkLogic.SUCCESS, numDocs);
+        assertTrue(runner.getCounterValue("Rate Limit Wait Millis") > 0,
+            "With more documents than the limit allows per second, some batches should have waited");
+    }
+
     @Test
     public void userCanReadButNotUpdate() {
         TestRunner runner = newReaderTestRunner(DeleteMarkLogic.class);
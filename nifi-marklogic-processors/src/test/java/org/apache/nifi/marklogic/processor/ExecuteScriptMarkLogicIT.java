@@ -90,6 +90,33 @@ public class ExecuteScriptMarkLogicIT extends AbstractMarkLogicIT {
         });
     }
 
+    @Test
+    public void batchOfFlowFiles() {
+        TestRunner runner = newEvaluatorTestRunner(ExecuteScriptMarkLogic.class);
+        runner.setValidateExpressionUsage(false);
+        runner.setProperty(ExecuteScriptMarkLogic.EXECUTION_TYPE, ExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(ExecuteScriptMarkLogic.RESULTS_DESTINATION, ExecuteScriptMarkLogic.AV_CONTENT);
+        runner.setProperty(ExecuteScriptMarkLogic.FLOWFILE_BATCH_SIZE, "10");
+        runner.setProperty(ExecuteScriptMarkLogic.SCRIPT_BODY, "var batch; Sequence.from(batch.toObject().map(item => " +
+            "item.attributes.name === 'bad' ? {error: 'Bad name'} : item.attributes.name.toUpperCase()))");
+        for (String name : List.of("a", "bad", "c")) {
+            runner.enqueue("", Map.of("name", name));
+        }
+        runner.run(1);
+
+        runner.assertQueueEmpty();
+        assertEquals(2, runner.getFlowFilesForRelationship(ExecuteScriptMarkLogic.ORIGINAL).size());
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(ExecuteScriptMarkLogic.RESULTS);
+        assertEquals(2, results.size());
+        for (MockFlowFile result : results) {
+            result.assertContentEquals(result.getAttribute("name").toUpperCase());
+        }
+        List<MockFlowFile> failures = runner.getFlowFilesForRelationship(ExecuteScriptMarkLogic.FAILURE);
+        assertEquals(1, failures.size());
+        failures.get(0).assertAttributeEquals("name", "bad");
+        failures.get(0).assertAttributeEquals("markLogicErrorMessage", "Bad name");
+    }
+
     @Test
     public void invalidJavascript() {
         TestRunner runner = newEvaluatorTestRunner(ExecuteScriptMarkLogic.class);
@@ -17,12 +17,27 @@
 package org.apache.nifi.marklogic.processor;
 
 import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.document.BinaryDocumentManager;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.StringHandle;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ExecuteScriptMarkLogicTest extends AbstractMarkLogicProcessorTest {
 
@@ -62,8 +77,265 @@ public class ExecuteScriptMarkLogicTest extends AbstractMarkLogicProcessorTest {
         serverEval.reset();
     }
 
+    @Test
+    public void contentBoundAsString() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_VARIABLE, "content");
+        runner.enqueue("some text");
+        runner.run();
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        assertEquals("some text", serverEval.variables.get("content"), "The content should be bound as a string by default");
+        serverEval.reset();
+    }
+
+    @Test
+    public void jsonContentBoundAsNode() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_VARIABLE, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_FORMAT, TestExecuteScriptMarkLogic.AV_FORMAT_JSON);
+        runner.enqueue("{\"hello\":\"world\"}");
+        runner.run();
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        BytesHandle content = (BytesHandle) serverEval.variables.get("content");
+        assertEquals(Format.JSON, content.getFormat());
+        assertEquals("{\"hello\":\"world\"}", new String(content.get(), StandardCharsets.UTF_8));
+        assertTrue(processor.writtenDocuments.isEmpty());
+        serverEval.reset();
+    }
+
+    @Test
+    public void binaryContentIsStreamedToTemporaryDocument() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "cts.doc(content)");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_VARIABLE, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_FORMAT, TestExecuteScriptMarkLogic.AV_FORMAT_BINARY);
+        final byte[] binary = new byte[]{(byte) 0xFF, 0x00, (byte) 0xC3};
+        runner.enqueue(binary);
+        runner.run();
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        final String uri = (String) serverEval.variables.get("content");
+        assertTrue(uri.startsWith(TestExecuteScriptMarkLogic.TEMPORARY_URI_PREFIX), "The URI of the temporary document " +
+            "should be bound instead of the content, which the eval request would decode as text; bound: " + uri);
+        assertArrayEquals(binary, processor.writtenDocuments.get(uri), "The content should be written without being decoded");
+        assertEquals(List.of(uri), processor.deletedUris, "The temporary document should be deleted once the call completes");
+        assertEquals(1, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).size());
+        serverEval.reset();
+    }
+
+    @Test
+    public void binaryContentInBatchIsBase64Encoded() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "batch");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_VARIABLE, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_FORMAT, TestExecuteScriptMarkLogic.AV_FORMAT_BINARY);
+        runner.setProperty(TestExecuteScriptMarkLogic.FLOWFILE_BATCH_SIZE, "2");
+        runner.setProperty(TestExecuteScriptMarkLogic.BATCH_CORRELATION, TestExecuteScriptMarkLogic.AV_CORRELATION_KEY);
+        runner.enqueue(new byte[]{(byte) 0xFF, 0x00, (byte) 0xC3});
+        runner.run();
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        final String batch = ((StringHandle) serverEval.variables.get("batch")).get();
+        assertTrue(batch.contains("\"content\":\"/wDD\""), batch);
+        serverEval.reset();
+    }
+
+    @Test
+    public void resultsAreStreamedToFlowFiles() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "results");
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        for (String result : List.of("one", "two", "three")) {
+            serverEval.results.add(new StringEvalResult(result));
+        }
+        runner.enqueue("", Map.of("name", "a"));
+        runner.run();
+
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS);
+        assertEquals(3, results.size());
+        results.get(0).assertContentEquals("one");
+        results.get(2).assertContentEquals("three");
+        results.forEach(result -> result.assertAttributeEquals("name", "a"));
+        runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.FIRST_RESULT).get(0).assertContentEquals("one");
+        assertEquals(1, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.LAST_RESULT).size());
+        runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.LAST_RESULT).get(0).assertContentEquals("three");
+        runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).get(0)
+            .assertAttributeEquals(TestExecuteScriptMarkLogic.MARKLOGIC_RESULTS_COUNT, "3");
+        serverEval.reset();
+    }
+
+    @Test
+    public void combinedResults() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "results");
+        runner.setProperty(TestExecuteScriptMarkLogic.COMBINE_RESULTS, "true");
+        runner.setProperty(TestExecuteScriptMarkLogic.SKIP_FIRST, "true");
+        runner.setProperty(TestExecuteScriptMarkLogic.RESULT_DELIMITER, ",");
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        for (String result : List.of("header", "one", "two")) {
+            serverEval.results.add(new StringEvalResult(result));
+        }
+        runner.enqueue("");
+        runner.run();
+
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS);
+        assertEquals(1, results.size());
+        results.get(0).assertContentEquals("one,two");
+        results.get(0).assertAttributeEquals(TestExecuteScriptMarkLogic.MARKLOGIC_RESULTS_COUNT, "2");
+        assertEquals(0, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.FIRST_RESULT).size());
+        assertEquals(0, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.LAST_RESULT).size());
+        runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).get(0)
+            .assertAttributeEquals(TestExecuteScriptMarkLogic.MARKLOGIC_RESULTS_COUNT, "3");
+
+        runner.setProperty(TestExecuteScriptMarkLogic.RESULTS_DESTINATION, TestExecuteScriptMarkLogic.AV_ATTRIBUTE);
+        runner.assertNotValid();
+        serverEval.reset();
+    }
+
+    @Test
+    public void batchCorrelatedByIndex() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "batch");
+        runner.setProperty(TestExecuteScriptMarkLogic.CONTENT_VARIABLE, "content");
+        runner.setProperty(TestExecuteScriptMarkLogic.FLOWFILE_BATCH_SIZE, "3");
+        runner.setProperty("greeting", "hello ${name}");
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        serverEval.results.add(new StringEvalResult("first"));
+        serverEval.results.add(new StringEvalResult("{\"error\":\"Invalid item\"}", Format.JSON));
+        for (String name : List.of("a", "b", "c")) {
+            runner.enqueue("content " + name, Map.of("name", name));
+        }
+        runner.run();
+
+        assertEquals(1, serverEval.javascriptCalls, "All 3 FlowFiles should have been sent in a single call");
+        final String batch = ((StringHandle) serverEval.variables.get("batch")).get();
+        assertTrue(batch.contains("\"index\":2"), batch);
+        assertTrue(batch.contains("\"content\":\"content b\""), batch);
+        assertTrue(batch.contains("\"variables\":{\"greeting\":\"hello c\"}"), batch);
+
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS);
+        assertEquals(1, results.size());
+        results.get(0).assertContentEquals("first");
+        results.get(0).assertAttributeEquals("name", "a");
+        runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).get(0).assertAttributeEquals("name", "a");
+
+        List<MockFlowFile> failures = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.FAILURE);
+        assertEquals(2, failures.size(), "A failure of one item should not affect the other items in the batch");
+        failures.get(0).assertAttributeEquals("name", "b");
+        failures.get(0).assertAttributeEquals("markLogicErrorMessage", "Invalid item");
+        failures.get(1).assertAttributeEquals("name", "c");
+        failures.get(1).assertAttributeEquals("markLogicErrorMessage", "No result was returned for this FlowFile");
+        assertEquals(1, serverEval.closedResultIterators, "The results should be closed so that the connection is released");
+        serverEval.reset();
+    }
+
+    @Test
+    public void batchCorrelatedByKey() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "batch");
+        runner.setProperty(TestExecuteScriptMarkLogic.FLOWFILE_BATCH_SIZE, "2");
+        runner.setProperty(TestExecuteScriptMarkLogic.BATCH_CORRELATION, TestExecuteScriptMarkLogic.AV_CORRELATION_KEY);
+        MockFlowFile first = runner.enqueue("", Map.of("name", "a"));
+        MockFlowFile second = runner.enqueue("", Map.of("name", "b"));
+
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        final String secondId = second.getAttribute("uuid");
+        serverEval.results.add(new StringEvalResult("{\"id\":\"" + secondId + "\",\"value\":1}", Format.JSON));
+        serverEval.results.add(new StringEvalResult("{\"id\":\"unknown\"}", Format.JSON));
+        serverEval.results.add(new StringEvalResult("{\"id\":\"" + secondId + "\",\"value\":2}", Format.JSON));
+        runner.run();
+
+        assertEquals(2, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).size());
+        for (MockFlowFile original : runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL)) {
+            original.assertAttributeEquals(TestExecuteScriptMarkLogic.MARKLOGIC_RESULTS_COUNT,
+                original.getAttribute("uuid").equals(first.getAttribute("uuid")) ? "0" : "2");
+        }
+        List<MockFlowFile> results = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS);
+        assertEquals(2, results.size(), "The result with an unknown id should have been ignored");
+        results.forEach(result -> result.assertAttributeEquals("name", "b"));
+        assertEquals(0, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.FAILURE).size());
+        serverEval.reset();
+    }
+
+    @Test
+    public void attributesFromJson() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "result");
+        runner.setProperty(TestExecuteScriptMarkLogic.RESULTS_DESTINATION, TestExecuteScriptMarkLogic.AV_FROMJSON);
+        runner.setProperty(TestExecuteScriptMarkLogic.ATTRIBUTE_JSON_POINTERS, "/address/city, /items/0");
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        serverEval.results.add(new StringEvalResult("{\"name\":\"Jane\",\"age\":41,\"address\":{\"city\":\"Springfield\"},\"items\":[\"a\"]}", Format.JSON));
+        runner.enqueue("");
+        runner.run();
+
+        MockFlowFile result = runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS).get(0);
+        result.assertAttributeEquals("name", "Jane");
+        result.assertAttributeEquals("age", "41");
+        result.assertAttributeEquals("address", "[object]");
+        result.assertAttributeEquals("items", "[array]");
+        result.assertAttributeEquals("address.city", "Springfield");
+        result.assertAttributeEquals("items.0", "a");
+
+        runner.setProperty(TestExecuteScriptMarkLogic.ATTRIBUTE_JSON_POINTERS, "address/city");
+        runner.assertNotValid();
+        serverEval.reset();
+    }
+
+    @Test
+    public void asyncCalls() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestExecuteScriptMarkLogic.EXECUTION_TYPE, TestExecuteScriptMarkLogic.AV_JAVASCRIPT);
+        runner.setProperty(TestExecuteScriptMarkLogic.SCRIPT_BODY, "result");
+        runner.setProperty(TestExecuteScriptMarkLogic.MAX_CONCURRENT_CALLS, "2");
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        serverEval.results.add(new StringEvalResult("result"));
+        for (int i = 0; i < 3; i++) {
+            runner.enqueue("");
+        }
+        runner.run(3);
+
+        assertEquals(3, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.ORIGINAL).size(),
+            "Stopping the processor should wait for every in-flight call to be committed");
+        assertEquals(3, runner.getFlowFilesForRelationship(TestExecuteScriptMarkLogic.RESULTS).size());
+        assertEquals(Long.valueOf(0), runner.getCounterValue("Async Calls In Flight"), "Every call should have completed");
+        serverEval.reset();
+    }
+
     class TestExecuteScriptMarkLogic extends ExecuteScriptMarkLogic {
-        TestMLDatabaseClient testClient = new TestMLDatabaseClient();
+        final Map<String, byte[]> writtenDocuments = new HashMap<>();
+        final List<String> deletedUris = new ArrayList<>();
+
+        TestMLDatabaseClient testClient = new TestMLDatabaseClient() {
+            @Override
+            public BinaryDocumentManager newBinaryDocumentManager() {
+                return (BinaryDocumentManager) Proxy.newProxyInstance(BinaryDocumentManager.class.getClassLoader(),
+                    new Class[]{BinaryDocumentManager.class}, (proxy, method, args) -> {
+                        if ("write".equals(method.getName()) && args.length == 3) {
+                            writtenDocuments.put((String) args[0], ((InputStreamHandle) args[2]).get().readAllBytes());
+                            return null;
+                        }
+                        if ("delete".equals(method.getName())) {
+                            deletedUris.addAll(args[0] instanceof String[] uris ? List.of(uris) : List.of((String) args[0]));
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            }
+        };
 
         @Override
         public DatabaseClient getDatabaseClient(ProcessContext context) {
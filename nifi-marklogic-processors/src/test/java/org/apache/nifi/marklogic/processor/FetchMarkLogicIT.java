@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor;
+
+import com.marklogic.client.datamovement.WriteBatcher;
+import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.io.StringHandle;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FetchMarkLogicIT extends AbstractMarkLogicIT {
+
+    @BeforeEach
+    public void setup() {
+        super.setup();
+
+        WriteBatcher writeBatcher = dataMovementManager.newWriteBatcher()
+            .withBatchSize(3)
+            .withThreadCount(3);
+        dataMovementManager.startJob(writeBatcher);
+        for (IngestDoc document : documents) {
+            DocumentMetadataHandle handle = new DocumentMetadataHandle();
+            handle.withPermission("rest-reader", DocumentMetadataHandle.Capability.READ);
+            writeBatcher.add(document.getFileName(), handle, new StringHandle(document.getContent()));
+        }
+        writeBatcher.flushAndWait();
+        dataMovementManager.stopJob(writeBatcher);
+    }
+
+    @Test
+    public void urisInAttributes() {
+        TestRunner runner = newReaderTestRunner(FetchMarkLogic.class);
+        runner.assertValid();
+
+        for (int i = 0; i < 10; i++) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("filename", documents.get(i).getFileName());
+            attributes.put("hello", "world");
+            runner.enqueue("", attributes);
+        }
+        Map<String, String> missing = new HashMap<>();
+        missing.put("filename", "/does-not-exist.json");
+        runner.enqueue("", missing);
+        runner.run();
+
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, 10);
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 1);
+        runner.assertTransferCount(FetchMarkLogic.FAILURE, 0);
+        runner.getFlowFilesForRelationship(FetchMarkLogic.SUCCESS).forEach(flowFile -> {
+            assertEquals("world", flowFile.getAttribute("hello"));
+            String uri = flowFile.getAttribute(CoreAttributes.FILENAME.key());
+            IngestDoc doc = documents.stream().filter(d -> d.getFileName().equals(uri)).findFirst().get();
+            flowFile.assertContentEquals(doc.getContent());
+        });
+    }
+
+    @Test
+    public void urisInContent() {
+        TestRunner runner = newReaderTestRunner(FetchMarkLogic.class);
+        runner.setProperty(FetchMarkLogic.URI_SOURCE, FetchMarkLogic.UriSources.CONTENT);
+        runner.assertValid();
+
+        StringBuilder uris = new StringBuilder();
+        documents.forEach(doc -> uris.append(doc.getFileName()).append("\n"));
+        uris.append("/does-not-exist.json\n");
+        runner.enqueue(uris.toString().getBytes(StandardCharsets.UTF_8));
+        runner.run();
+
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, numDocs);
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 1);
+        runner.assertTransferCount(FetchMarkLogic.ORIGINAL, 1);
+        MockFlowFile notFound = runner.getFlowFilesForRelationship(FetchMarkLogic.NOT_FOUND).get(0);
+        assertEquals("/does-not-exist.json", notFound.getAttribute(CoreAttributes.FILENAME.key()));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.document.DocumentPage;
+import com.marklogic.client.document.DocumentRecord;
+import com.marklogic.client.document.GenericDocumentManager;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.io.InputStreamHandle;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.util.MockFlowFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FetchMarkLogicTest extends AbstractMarkLogicProcessorTest {
+
+    private TestFetchMarkLogic processor;
+
+    @BeforeEach
+    public void setup() {
+        processor = new TestFetchMarkLogic();
+        initialize(processor);
+        runner.setProperty(FetchMarkLogic.DATABASE_CLIENT_SERVICE, databaseClientServiceIdentifier);
+        runner.enableControllerService(service);
+        processor.documents.put("/a.json", "{\"a\":1}");
+        processor.documents.put("/b.xml", "<b/>");
+    }
+
+    @Test
+    public void urisFromAttribute() {
+        runner.enqueue("", Map.of("filename", "/a.json"));
+        runner.enqueue("", Map.of("filename", "/missing.json"));
+        runner.run();
+
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, 1);
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 1);
+        MockFlowFile flowFile = runner.getFlowFilesForRelationship(FetchMarkLogic.SUCCESS).get(0);
+        flowFile.assertContentEquals("{\"a\":1}");
+        flowFile.assertAttributeEquals("mime.type", "application/json");
+        runner.getFlowFilesForRelationship(FetchMarkLogic.NOT_FOUND).get(0).assertAttributeEquals("filename", "/missing.json");
+        assertEquals(1, processor.readRequests.size(), "Both URIs should have been read in a single request");
+    }
+
+    @Test
+    public void urisFromContent() {
+        runner.setProperty(FetchMarkLogic.URI_SOURCE, FetchMarkLogic.UriSources.CONTENT);
+        runner.enqueue("/a.json\n/b.xml\n\n/missing.json");
+        runner.run();
+
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, 2);
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 1);
+        runner.assertTransferCount(FetchMarkLogic.ORIGINAL, 1);
+        runner.assertTransferCount(FetchMarkLogic.FAILURE, 0);
+        List<MockFlowFile> documents = runner.getFlowFilesForRelationship(FetchMarkLogic.SUCCESS);
+        documents.get(0).assertAttributeEquals("filename", "/a.json");
+        documents.get(1).assertContentEquals("<b/>");
+    }
+
+    @Test
+    public void uriRequestedByMultipleFlowFiles() {
+        runner.enqueue("", Map.of("filename", "/a.json", "name", "first"));
+        runner.enqueue("", Map.of("filename", "/a.json", "name", "second"));
+        runner.run();
+
+        List<MockFlowFile> documents = runner.getFlowFilesForRelationship(FetchMarkLogic.SUCCESS);
+        assertEquals(2, documents.size());
+        documents.forEach(flowFile -> flowFile.assertContentEquals("{\"a\":1}"));
+        documents.get(1).assertAttributeEquals("name", "second");
+        assertEquals(1, processor.readRequests.get(0).length, "The shared URI should only have been read once");
+    }
+
+    @Test
+    public void failedFlowFileHasNoChildren() {
+        processor.failingUris.add("/fails.json");
+        runner.setProperty(FetchMarkLogic.URI_SOURCE, FetchMarkLogic.UriSources.CONTENT);
+        runner.setProperty(FetchMarkLogic.BATCH_SIZE, "1");
+        runner.setProperty(FetchMarkLogic.THREAD_COUNT, "1");
+        runner.enqueue("/a.json\n/missing.json\n/fails.json");
+        runner.enqueue("/b.xml");
+        runner.run();
+
+        runner.assertTransferCount(FetchMarkLogic.FAILURE, 1);
+        runner.getFlowFilesForRelationship(FetchMarkLogic.FAILURE).get(0)
+            .assertAttributeEquals("markLogicErrorMessage", "Unable to read /fails.json");
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 0);
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, 1);
+        runner.getFlowFilesForRelationship(FetchMarkLogic.SUCCESS).get(0).assertContentEquals("<b/>");
+        runner.assertTransferCount(FetchMarkLogic.ORIGINAL, 1);
+        runner.getFlowFilesForRelationship(FetchMarkLogic.ORIGINAL).get(0).assertContentEquals("/b.xml");
+    }
+
+    @Test
+    public void cachedDocumentsAreValidatedInOneRequest() {
+        runner.setProperty(FetchMarkLogic.CACHE_SIZE, "1 MB");
+        runner.setProperty(FetchMarkLogic.CACHE_VALIDATION, FetchMarkLogic.CacheValidations.VERSION);
+        TestServerEvaluationCall serverEval = (TestServerEvaluationCall) processor.getDatabaseClient(processContext).newServerEval();
+        serverEval.results.add(new StringEvalResult("100"));
+
+        runner.enqueue("", Map.of("filename", "/a.json"));
+        runner.run(1, false, true);
+        assertEquals("", serverEval.variables.get("URIS"), "Documents that are not cached should not be validated");
+        assertEquals(1, processor.readRequests.size());
+
+        serverEval.results.add(new StringEvalResult("/a.json"));
+        serverEval.results.add(new StringEvalResult("90"));
+        runner.enqueue("", Map.of("filename", "/a.json"));
+        runner.enqueue("", Map.of("filename", "/b.xml"));
+        runner.run(1, false, false);
+        assertEquals("/a.json", serverEval.variables.get("URIS"));
+        assertEquals(2, processor.readRequests.size());
+        assertArrayEquals(new String[]{"/b.xml"}, processor.readRequests.get(1),
+            "The cached document was not updated after it was read, so it should not have been read again");
+        assertEquals(2, serverEval.xqueryCalls, "Each batch should have made a single validation request");
+
+        serverEval.reset();
+        serverEval.results.add(new StringEvalResult("200"));
+        serverEval.results.add(new StringEvalResult("/a.json"));
+        serverEval.results.add(new StringEvalResult("150"));
+        runner.enqueue("", Map.of("filename", "/a.json"));
+        runner.run(1, false, false);
+        assertEquals(3, processor.readRequests.size(), "The document was updated after it was cached");
+
+        serverEval.reset();
+        serverEval.results.add(new StringEvalResult("300"));
+        runner.enqueue("", Map.of("filename", "/a.json"));
+        runner.run(1, true, false);
+        assertEquals(3, processor.readRequests.size());
+        runner.assertTransferCount(FetchMarkLogic.SUCCESS, 4);
+        runner.assertTransferCount(FetchMarkLogic.NOT_FOUND, 1);
+        serverEval.reset();
+    }
+
+    /**
+     * Reads documents from an in-memory map via a minimal proxy of GenericDocumentManager.
+     */
+    static class TestFetchMarkLogic extends FetchMarkLogic {
+        final Map<String, String> documents = new LinkedHashMap<>();
+        final Set<String> failingUris = new HashSet<>();
+        final List<String[]> readRequests = Collections.synchronizedList(new ArrayList<>());
+
+        private final TestMLDatabaseClient testClient = new TestMLDatabaseClient() {
+            @Override
+            public GenericDocumentManager newDocumentManager() {
+                return (GenericDocumentManager) Proxy.newProxyInstance(GenericDocumentManager.class.getClassLoader(),
+                    new Class[]{GenericDocumentManager.class}, (proxy, method, args) -> {
+                        if ("read".equals(method.getName()) && args.length == 2 && args[1] instanceof String[]) {
+                            return readDocuments((String[]) args[1]);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            }
+        };
+
+        @Override
+        public DatabaseClient getDatabaseClient(ProcessContext context) {
+            return testClient;
+        }
+
+        private DocumentPage readDocuments(String[] uris) {
+            readRequests.add(uris);
+            List<DocumentRecord> records = new ArrayList<>();
+            for (String uri : uris) {
+                if (failingUris.contains(uri)) {
+                    throw new RuntimeException("Unable to read " + uri);
+                }
+                if (documents.containsKey(uri)) {
+                    records.add(newRecord(uri, documents.get(uri).getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+            return (DocumentPage) Proxy.newProxyInstance(DocumentPage.class.getClassLoader(),
+                new Class[]{DocumentPage.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "iterator" -> records.iterator();
+                    case "close" -> null;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        }
+
+        private static DocumentRecord newRecord(String uri, byte[] content) {
+            return (DocumentRecord) Proxy.newProxyInstance(DocumentRecord.class.getClassLoader(),
+                new Class[]{DocumentRecord.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getUri" -> uri;
+                    case "getMimetype" -> uri.endsWith(".json") ? "application/json" : "application/xml";
+                    case "getContent" -> {
+                        if (args[0] instanceof InputStreamHandle handle) {
+                            handle.set(new ByteArrayInputStream(content));
+                        } else {
+                            ((BytesHandle) args[0]).set(content);
+                        }
+                        yield args[0];
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.nifi.marklogic.processor;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.marklogic.client.datamovement.DataMovementManager;
 import com.marklogic.client.datamovement.QueryBatcher;
 import com.marklogic.client.document.DocumentWriteSet;
 import com.marklogic.client.document.GenericDocumentManager;
@@ -28,6 +29,8 @@ import com.marklogic.rest.util.Fragment;
 import org.apache.nifi.components.state.Scope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.marklogic.controller.MarkLogicDatabaseClientService;
+import org.apache.nifi.marklogic.controller.TokenBucketRateLimiter;
 import org.apache.nifi.marklogic.processor.util.QueryTypes;
 import org.apache.nifi.processor.Processor;
 import org.apache.nifi.util.MockFlowFile;
@@ -96,6 +99,143 @@ public class QueryMarkLogicIT extends AbstractMarkLogicIT {
         verifySimpleCollectionQueryResult(runner);
     }
 
+    @Test
+    public void pipelinedDocumentReads() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.READ_THREAD_COUNT, "2");
+        runner.setProperty(QueryMarkLogic.READ_QUEUE_SIZE, "1");
+        runner.enqueue(new MockFlowFile(12345));
+        runner.run();
+
+        verifySimpleCollectionQueryResult(runner);
+        assertEquals(Long.valueOf(0), runner.getCounterValue("Read Queue Depth"), "Every queued batch should have been read");
+    }
+
+    @Test
+    public void identicalRequestsAreCoalesced() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, "${collection}");
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.COALESCING_WINDOW, "1 sec");
+        runner.enqueue("", Map.of("collection", TEST_COLLECTION, "requester", "a"));
+        runner.enqueue("", Map.of("collection", TEST_COLLECTION, "requester", "b"));
+        runner.enqueue("", Map.of("collection", "some-other-collection", "requester", "c"));
+        runner.run();
+
+        runner.assertTransferCount(QueryMarkLogic.ORIGINAL, 2);
+        runner.assertTransferCount(QueryMarkLogic.SUCCESS, numDocs * 2);
+        assertEquals(1, runner.getQueueSize().getObjectCount(), "The FlowFile with a different query should not be attached");
+        assertEquals(Long.valueOf(1), runner.getCounterValue("Coalesced Requests"));
+
+        MockFlowFile leader = runner.getFlowFilesForRelationship(QueryMarkLogic.ORIGINAL).stream()
+            .filter(flowFile -> "a".equals(flowFile.getAttribute("requester"))).findFirst().get();
+        leader.assertAttributeEquals("marklogic-coalesced-requests", "1");
+        MockFlowFile attached = runner.getFlowFilesForRelationship(QueryMarkLogic.ORIGINAL).stream()
+            .filter(flowFile -> "b".equals(flowFile.getAttribute("requester"))).findFirst().get();
+        attached.assertAttributeEquals("marklogic-coalesced-with", leader.getAttribute("uuid"));
+
+        for (String requester : Arrays.asList("a", "b")) {
+            assertEquals(numDocs, runner.getFlowFilesForRelationship(QueryMarkLogic.SUCCESS).stream()
+                .filter(flowFile -> requester.equals(flowFile.getAttribute("requester"))).count());
+        }
+    }
+
+    @Test
+    public void sharedDataMovementManager() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.SHARED_DATA_MOVEMENT_MANAGER, "true");
+        runner.enqueue(new MockFlowFile(12345));
+        runner.run();
+        verifySimpleCollectionQueryResult(runner);
+
+        DataMovementManager sharedManager = service.getSharedDataMovementManager();
+        assertNotNull(sharedManager);
+        assertNotNull(service.getForestConfiguration());
+
+        runner.clearTransferState();
+        runner.enqueue(new MockFlowFile(12346));
+        runner.run();
+        runner.assertTransferCount(QueryMarkLogic.SUCCESS, numDocs);
+        assertSame(sharedManager, service.getSharedDataMovementManager(),
+            "Every run should reuse the manager owned by the service");
+    }
+
+    @Test
+    public void documentsPerSecond() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.BATCH_SIZE, "5");
+        runner.setProperty(QueryMarkLogic.DOCUMENTS_PER_SECOND, "20");
+        runner.setProperty(QueryMarkLogic.BYTES_PER_SECOND, "1 MB");
+        runner.enqueue(new MockFlowFile(12345));
+
+        long start = System.currentTimeMillis();
+        runner.run();
+        long duration = System.currentTimeMillis() - start;
+
+        verifySimpleCollectionQueryResult(runner);
+        assertTrue(duration >= 400, "30 documents at 20 per second, with the first 20 allowed as a burst, should " +
+            "take at least half a second; took: " + duration);
+        assertTrue(runner.getCounterValue("Rate Limit Wait Millis") > 0);
+    }
+
+    @Test
+    public void sharedRateLimit() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.BATCH_SIZE, "5");
+        runner.setProperty(QueryMarkLogic.DOCUMENTS_PER_SECOND, "1");
+        runner.setProperty(QueryMarkLogic.RATE_LIMIT_SCOPE, QueryMarkLogic.RateLimitScopes.SHARED);
+
+        TokenBucketRateLimiter sharedLimiter = service.getSharedRateLimiter(MarkLogicDatabaseClientService.DOCUMENTS_RATE_LIMITER);
+        sharedLimiter.setRate(1000);
+        runner.enqueue(new MockFlowFile(12345));
+        runner.run();
+
+        verifySimpleCollectionQueryResult(runner);
+        assertEquals(numDocs, sharedLimiter.getAcquiredPermits(),
+            "The service's limit should be used instead of the processor's");
+    }
+
+    @Test
+    public void estimateReturnType() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.RETURN_TYPE, QueryMarkLogic.ReturnTypes.ESTIMATE);
+        runner.enqueue(new MockFlowFile(12345));
+        runner.run();
+
+        runner.assertTransferCount(QueryMarkLogic.SUCCESS, 0);
+        runner.assertTransferCount(QueryMarkLogic.ORIGINAL, 1);
+        MockFlowFile originalFlowFile = runner.getFlowFilesForRelationship(QueryMarkLogic.ORIGINAL).get(0);
+        originalFlowFile.assertAttributeEquals("marklogic-count", Integer.toString(numDocs));
+        originalFlowFile.assertAttributeEquals("marklogic-count-type", "estimate");
+    }
+
+    @Test
+    public void countReturnType() {
+        TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
+        runner.setProperty(QueryMarkLogic.QUERY, TEST_COLLECTION);
+        runner.setProperty(QueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION);
+        runner.setProperty(QueryMarkLogic.RETURN_TYPE, QueryMarkLogic.ReturnTypes.COUNT);
+        runner.setProperty(QueryMarkLogic.BATCH_SIZE, "7");
+        runner.enqueue(new MockFlowFile(12345));
+        runner.run();
+
+        runner.assertTransferCount(QueryMarkLogic.SUCCESS, 0);
+        runner.assertTransferCount(QueryMarkLogic.ORIGINAL, 1);
+        MockFlowFile originalFlowFile = runner.getFlowFilesForRelationship(QueryMarkLogic.ORIGINAL).get(0);
+        originalFlowFile.assertAttributeEquals("marklogic-count", Integer.toString(numDocs));
+        originalFlowFile.assertAttributeEquals("marklogic-count-type", "exact");
+    }
+
     @Test
     public void collectionQueryWithNoIncomingFlowFile() {
         TestRunner runner = getNewTestRunner(QueryMarkLogic.class);
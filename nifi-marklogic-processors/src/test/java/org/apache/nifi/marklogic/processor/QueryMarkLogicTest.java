@@ -17,18 +17,37 @@
 package org.apache.nifi.marklogic.processor;
 
 import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.Forest;
+import com.marklogic.client.datamovement.ForestConfiguration;
+import com.marklogic.client.datamovement.JobTicket;
+import com.marklogic.client.datamovement.QueryBatcher;
 import com.marklogic.client.io.Format;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.query.RawCombinedQueryDefinition;
 import com.marklogic.client.query.RawStructuredQueryDefinition;
 import com.marklogic.client.query.StructuredQueryDefinition;
+import org.apache.nifi.marklogic.controller.TokenBucketRateLimiter;
 import org.apache.nifi.marklogic.processor.util.QueryTypes;
+import org.apache.nifi.marklogic.processor.util.RateLimitedQueryBatchListener;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessSession;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class QueryMarkLogicTest extends AbstractMarkLogicProcessorTest {
@@ -65,6 +84,122 @@ public class QueryMarkLogicTest extends AbstractMarkLogicProcessorTest {
         assertTrue(queryBatcher.getQueryDefinition() instanceof StructuredQueryDefinition);
     }
 
+    @Test
+    public void sharedForestConfigurationIsApplied() {
+        runner.enableControllerService(service);
+        ForestConfiguration forestConfig = () -> new Forest[0];
+        processor.sharedForestConfiguration = forestConfig;
+
+        TestQueryBatcher queryBatcher = runProcessorAndReturnQueryDefinition();
+        assertSame(forestConfig, queryBatcher.getForestConfig(),
+            "The forest configuration cached by the service should be applied instead of being read again");
+    }
+
+    @Test
+    public void rateLimitIsAppliedToRunningJobs() {
+        runner.enableControllerService(service);
+        processContext.setProperty(TestQueryMarkLogic.DOCUMENTS_PER_SECOND, "${rate}");
+        processContext.setProperty(TestQueryMarkLogic.BYTES_PER_SECOND, "1 MB");
+
+        addFlowFile(new HashMap<>(Map.of("rate", "10")), "");
+        RateLimitedQueryBatchListener firstJob = (RateLimitedQueryBatchListener) runProcessorAndReturnQueryDefinition().getUrisReadyListeners()[0];
+        TokenBucketRateLimiter documentsLimiter = firstJob.getDocumentsLimiter();
+        assertEquals(10, documentsLimiter.getRate());
+        assertEquals(1024 * 1024, firstJob.getBytesLimiter().getRate());
+
+        addFlowFile(new HashMap<>(Map.of("rate", "20")), "");
+        RateLimitedQueryBatchListener secondJob = (RateLimitedQueryBatchListener) runProcessorAndReturnQueryDefinition().getUrisReadyListeners()[0];
+        assertSame(documentsLimiter, secondJob.getDocumentsLimiter(), "Every job should share the processor's limiter");
+        assertEquals(20, documentsLimiter.getRate(), "The new rate should apply to the jobs that are already running");
+
+        addFlowFile("");
+        RateLimitedQueryBatchListener thirdJob = (RateLimitedQueryBatchListener) runProcessorAndReturnQueryDefinition().getUrisReadyListeners()[0];
+        assertNull(thirdJob.getDocumentsLimiter());
+        assertEquals(0, documentsLimiter.getRate(), "A blank rate should remove the limit for running jobs as well");
+    }
+
+    @Test
+    public void queuedIdenticalRequestsAreAttachedWithoutWaiting() {
+        processContext.setProperty(TestQueryMarkLogic.COALESCING_WINDOW, "1 min");
+        MockFlowFile leader = addFlowFile("");
+        addFlowFile("");
+        List<MockProcessSession> sessions = new ArrayList<>();
+
+        final long start = System.currentTimeMillis();
+        processor.initialize(initializationContext);
+        processor.onTrigger(processContext, recordingSessionFactory(sessions));
+        assertTrue(System.currentTimeMillis() - start < 30000,
+            "The job should start immediately instead of waiting for the Coalescing Window");
+
+        assertEquals(1, processor.jobsStarted.get());
+        List<MockFlowFile> originals = sessions.get(0).getFlowFilesForRelationship(TestQueryMarkLogic.ORIGINAL);
+        assertEquals(2, originals.size());
+        for (MockFlowFile original : originals) {
+            if (leader.getAttribute("uuid").equals(original.getAttribute("uuid"))) {
+                original.assertAttributeEquals("marklogic-coalesced-requests", "1");
+            } else {
+                original.assertAttributeEquals("marklogic-coalesced-with", leader.getAttribute("uuid"));
+            }
+        }
+    }
+
+    @Test
+    public void queueScanForIdenticalRequestsIsCapped() {
+        processContext.setProperty(TestQueryMarkLogic.COALESCING_WINDOW, "1 min");
+        for (int i = 0; i <= TestQueryMarkLogic.MAX_COALESCING_SCAN + 1; i++) {
+            addFlowFile("");
+        }
+        List<MockProcessSession> sessions = new ArrayList<>();
+
+        processor.initialize(initializationContext);
+        processor.onTrigger(processContext, recordingSessionFactory(sessions));
+
+        assertEquals(1, processor.jobsStarted.get());
+        assertEquals(TestQueryMarkLogic.MAX_COALESCING_SCAN + 1,
+            sessions.get(0).getFlowFilesForRelationship(TestQueryMarkLogic.ORIGINAL).size());
+        assertEquals(1, sharedSessionState.getFlowFileQueue().size().getObjectCount(),
+            "FlowFiles beyond the scan limit should be left in the queue");
+    }
+
+    @Test
+    public void requestIsAttachedToRunningJob() throws Exception {
+        processContext.setProperty(TestQueryMarkLogic.COALESCING_WINDOW, "1 min");
+        processor.jobCompletion = new CountDownLatch(1);
+        MockFlowFile leader = addFlowFile("");
+        List<MockProcessSession> sessions = new CopyOnWriteArrayList<>();
+        ProcessSessionFactory sessionFactory = recordingSessionFactory(sessions);
+        processor.initialize(initializationContext);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> leaderJob = executor.submit(() -> processor.onTrigger(processContext, sessionFactory));
+            assertTrue(processor.jobStarted.await(30, TimeUnit.SECONDS));
+
+            addFlowFile("");
+            processor.onTrigger(processContext, sessionFactory);
+            assertEquals(1, processor.jobsStarted.get(), "The request should not have started its own job");
+            MockFlowFile attached = sessions.get(1).getFlowFilesForRelationship(TestQueryMarkLogic.ORIGINAL).get(0);
+            attached.assertAttributeEquals("marklogic-coalesced-with", leader.getAttribute("uuid"));
+
+            processor.jobCompletion.countDown();
+            leaderJob.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        addFlowFile("");
+        processor.onTrigger(processContext, sessionFactory);
+        assertEquals(2, processor.jobsStarted.get(), "The job has completed, so the request should run its own job");
+    }
+
+    private ProcessSessionFactory recordingSessionFactory(List<MockProcessSession> sessions) {
+        return () -> {
+            MockProcessSession session = new MockProcessSession(sharedSessionState, processor);
+            sessions.add(session);
+            return session;
+        };
+    }
+
     @Test
     public void testCombinedJsonQueryMarkLogic() {
         processContext.setProperty(TestQueryMarkLogic.QUERY_TYPE, QueryTypes.COMBINED_JSON.getValue());
@@ -117,10 +252,51 @@ public class QueryMarkLogicTest extends AbstractMarkLogicProcessorTest {
         assertEquals(handle.getFormat(), Format.XML);
     }
 
+    @Test
+    public void clusterPartitioningWithStateIndexIsInvalid() {
+        runner.enableControllerService(service);
+        runner.setProperty(TestQueryMarkLogic.DATABASE_CLIENT_SERVICE, databaseClientServiceIdentifier);
+        runner.setProperty(TestQueryMarkLogic.QUERY_TYPE, QueryTypes.COLLECTION.getValue());
+        runner.setProperty(TestQueryMarkLogic.QUERY, "test");
+        runner.setProperty(TestQueryMarkLogic.CLUSTER_PARTITIONING, "true");
+        runner.assertValid();
+
+        runner.setProperty(TestQueryMarkLogic.STATE_INDEX, "lastModified");
+        runner.assertNotValid();
+
+        runner.setProperty(TestQueryMarkLogic.BACKFILL_START, "2020-01-01T00:00:00");
+        runner.setProperty(TestQueryMarkLogic.BACKFILL_END, "2020-01-02T00:00:00");
+        runner.assertValid();
+    }
+
     class TestQueryMarkLogic extends QueryMarkLogic {
+        ForestConfiguration sharedForestConfiguration;
+        final AtomicInteger jobsStarted = new AtomicInteger();
+        final CountDownLatch jobStarted = new CountDownLatch(1);
+        // If set, each job keeps running until this is counted down
+        CountDownLatch jobCompletion;
+
+        @Override
+        protected ForestConfiguration getSharedForestConfiguration(ProcessContext context) {
+            return sharedForestConfiguration;
+        }
+
         @Override
         public DatabaseClient getDatabaseClient(ProcessContext context) {
-            return new TestMLDatabaseClient();
+            return new TestMLDatabaseClient() {
+                @Override
+                public DataMovementManager newDataMovementManager() {
+                    return new TestDataMovementManager() {
+                        @Override
+                        public JobTicket startJob(QueryBatcher batcher) {
+                            ((TestQueryBatcher) batcher).completion = jobCompletion;
+                            jobsStarted.incrementAndGet();
+                            jobStarted.countDown();
+                            return null;
+                        }
+                    };
+                }
+            };
         }
     }
 
@@ -3,15 +3,21 @@ package org.apache.nifi.marklogic.processor;
 import com.marklogic.client.document.JSONDocumentManager;
 import com.marklogic.client.io.DocumentMetadataHandle;
 import com.marklogic.client.io.StringHandle;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.record.MockRecordWriter;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -92,6 +98,124 @@ public class QueryRowsMarkLogicIT extends AbstractMarkLogicIT {
         assertEquals(0, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.FAILURE).size());
     }
 
+    @Test
+    public void partitionedExport() {
+        // Generated via require('/MarkLogic/optic').fromView("Example","default").export()
+        final String serializedPlan = "{\"$optic\":{\"ns\":\"op\", \"fn\":\"operators\", \"args\":[{\"ns\":\"op\", \"fn\":\"from-view\", \"args\":[\"Example\", \"default\", null, null]}]}}";
+
+        TestRunner runner = newReaderTestRunner(QueryRowsMarkLogic.class);
+        runner.setProperty(QueryRowsMarkLogic.PLAN, serializedPlan);
+        runner.setProperty(QueryRowsMarkLogic.PARTITION_SIZE, "2");
+        runner.setProperty(QueryRowsMarkLogic.PARTITION_THREAD_COUNT, "2");
+        runner.run();
+
+        List<MockFlowFile> partitions = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.SUCCESS);
+        assertTrue(partitions.size() > 1, "With 5 rows and a partition size of 2, the rows should have been split " +
+            "across multiple partitions; partitions: " + partitions.size());
+
+        Set<String> ids = new HashSet<>();
+        Set<String> partitionNumbers = new HashSet<>();
+        for (MockFlowFile partition : partitions) {
+            partitionNumbers.add(partition.getAttribute("marklogic-partition"));
+            String content = new String(partition.toByteArray(), StandardCharsets.UTF_8);
+            for (String line : content.split("\\r?\\n")) {
+                if (!line.isBlank() && !line.startsWith("Example.default.Id")) {
+                    ids.add(line.trim().replace("\"", ""));
+                }
+            }
+        }
+        assertEquals(Set.of("0", "1", "2", "3", "4"), ids, "Each row should have been written to exactly one partition");
+        assertEquals(partitions.size(), partitionNumbers.size(), "Each partition FlowFile should identify its partition");
+
+        List<MockFlowFile> originals = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.ORIGINAL);
+        assertEquals(1, originals.size());
+        originals.get(0).assertAttributeEquals("marklogic-partitions", Integer.toString(partitions.size()));
+        assertEquals(0, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.FAILURE).size());
+    }
+
+    @Test
+    public void recordWriter() throws InitializationException {
+        // Generated via require('/MarkLogic/optic').fromView("Example","default").orderBy("Id").export()
+        final String serializedPlan = "{\"$optic\":{\"ns\":\"op\", \"fn\":\"operators\", \"args\":[{\"ns\":\"op\", \"fn\":\"from-view\", \"args\":[\"Example\", \"default\", null, null]}, {\"ns\":\"op\", \"fn\":\"order-by\", \"args\":[[{\"ns\":\"op\", \"fn\":\"col\", \"args\":[\"Id\"]}]]}]}}";
+
+        TestRunner runner = newReaderTestRunner(QueryRowsMarkLogic.class);
+        MockRecordWriter recordWriter = new MockRecordWriter(null, false);
+        runner.addControllerService("writer", recordWriter);
+        runner.enableControllerService(recordWriter);
+        runner.setProperty(QueryRowsMarkLogic.PLAN, serializedPlan);
+        runner.setProperty(QueryRowsMarkLogic.RECORD_WRITER, "writer");
+        runner.setProperty(QueryRowsMarkLogic.MAX_ROWS_PER_FLOWFILE, "2");
+        runner.run();
+
+        List<MockFlowFile> files = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.SUCCESS);
+        assertEquals(3, files.size(), "The 5 rows should have been split into FlowFiles of at most 2 rows each");
+        files.get(0).assertAttributeEquals("record.count", "2");
+        files.get(0).assertContentEquals("0\n1\n");
+        files.get(1).assertContentEquals("2\n3\n");
+        files.get(2).assertAttributeEquals("record.count", "1");
+        files.get(2).assertContentEquals("4\n");
+
+        assertEquals(1, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.ORIGINAL).size());
+        assertEquals(0, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.FAILURE).size());
+    }
+
+    @Test
+    public void boundParametersInMicroBatch() {
+        // Generated via require('/MarkLogic/optic').fromView("Example","default").where(op.eq(op.col("Id"), op.param("id"))).export()
+        final String serializedPlan = "{\"$optic\":{\"ns\":\"op\", \"fn\":\"operators\", \"args\":[{\"ns\":\"op\", \"fn\":\"from-view\", \"args\":[\"Example\", \"default\", null, null]}, {\"ns\":\"op\", \"fn\":\"where\", \"args\":[{\"ns\":\"op\", \"fn\":\"eq\", \"args\":[{\"ns\":\"op\", \"fn\":\"col\", \"args\":[\"Id\"]}, {\"ns\":\"op\", \"fn\":\"param\", \"args\":[\"id\"]}]}]}]}}";
+
+        TestRunner runner = newReaderTestRunner(QueryRowsMarkLogic.class);
+        runner.setProperty(QueryRowsMarkLogic.PLAN, serializedPlan);
+        runner.setProperty("bind:id", "${id}");
+        runner.setProperty(QueryRowsMarkLogic.MICRO_BATCH_SIZE, "3");
+        for (int i = 1; i <= 3; i++) {
+            runner.enqueue("", Map.of("id", Integer.toString(i)));
+        }
+        runner.run();
+
+        List<MockFlowFile> originals = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.ORIGINAL);
+        assertEquals(3, originals.size(), "Every FlowFile in the micro-batch should have been processed in a single run");
+        List<MockFlowFile> files = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.SUCCESS);
+        assertEquals(3, files.size());
+        for (MockFlowFile file : files) {
+            final String id = file.getAttribute("id");
+            final String response = new String(file.toByteArray(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("Example.default.Id"));
+            assertEquals(2, response.trim().split("\\r?\\n").length, "Only the row for the bound ID should be " +
+                "returned; response: " + response);
+            assertTrue(response.contains(id), "Each FlowFile should receive the row matching its own binding; response: " + response);
+        }
+        assertEquals(0, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.FAILURE).size());
+    }
+
+    @Test
+    public void watermarkColumn() throws IOException {
+        final String serializedPlan = "{\"$optic\":{\"ns\":\"op\", \"fn\":\"operators\", \"args\":[{\"ns\":\"op\", \"fn\":\"from-view\", \"args\":[\"Example\", \"default\", null, null]}, {\"ns\":\"op\", \"fn\":\"order-by\", \"args\":[[{\"ns\":\"op\", \"fn\":\"col\", \"args\":[\"Id\"]}]]}]}}";
+
+        TestRunner runner = newReaderTestRunner(QueryRowsMarkLogic.class);
+        runner.setProperty(QueryRowsMarkLogic.PLAN, serializedPlan);
+        runner.setProperty(QueryRowsMarkLogic.WATERMARK_COLUMN, "Id");
+        runner.setProperty(QueryRowsMarkLogic.WATERMARK_COLUMN_TYPE, QueryRowsMarkLogic.WatermarkColumnTypes.STRING);
+        runner.getStateManager().setState(Map.of("watermark:Id", "1"), Scope.CLUSTER);
+        runner.run();
+
+        List<MockFlowFile> files = runner.getFlowFilesForRelationship(QueryRowsMarkLogic.SUCCESS);
+        assertEquals(1, files.size());
+        final String response = new String(files.getFirst().toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(4, response.trim().split("\\r?\\n").length, "Only the rows with an Id greater than the " +
+            "stored watermark should have been exported; response: " + response);
+        assertTrue(response.contains("2") && response.contains("3") && response.contains("4"), response);
+        runner.getStateManager().assertStateEquals("watermark:Id", "4", Scope.CLUSTER);
+        runner.getFlowFilesForRelationship(QueryRowsMarkLogic.ORIGINAL).getFirst().assertAttributeEquals("marklogic-watermark", "4");
+
+        runner.clearTransferState();
+        runner.run();
+        assertEquals(0, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.SUCCESS).size(),
+            "No rows have been added since the previous run, so none should have been exported");
+        assertEquals(1, runner.getFlowFilesForRelationship(QueryRowsMarkLogic.ORIGINAL).size());
+        runner.getStateManager().assertStateEquals("watermark:Id", "4", Scope.CLUSTER);
+    }
+
     @Test
     public void invalidPlan() {
         final String serializedPlan = "invalid Plan";
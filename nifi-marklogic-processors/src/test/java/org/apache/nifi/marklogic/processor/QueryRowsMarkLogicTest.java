@@ -41,4 +41,29 @@ public class QueryRowsMarkLogicTest extends AbstractMarkLogicProcessorTest {
             "anything", myProcessor.determineJsonPlan(processContext, addFlowFile(attributes, "content")),
             "The serialized plan should be evaluated against the FlowFile attributes");
     }
+
+    @Test
+    public void evaluatePlanBindings() {
+        processContext.setProperty("bind:id", "${id}");
+        processContext.setProperty("bind:status", "active");
+        myProcessor.populatePropertiesByPrefix(processContext);
+        attributes.put("id", "123");
+
+        Map<String, String> bindings = myProcessor.determinePlanBindings(processContext, addFlowFile(attributes, "content"));
+        assertEquals(2, bindings.size());
+        assertEquals("123", bindings.get("id"), "Each binding should be evaluated against the FlowFile attributes");
+        assertEquals("active", bindings.get("status"));
+    }
+
+    @Test
+    public void partitionsCannotBeCombinedWithBindings() {
+        configureDatabaseClientService();
+        runner.setProperty(QueryRowsMarkLogic.DATABASE_CLIENT_SERVICE, databaseClientServiceIdentifier);
+        runner.setProperty(QueryRowsMarkLogic.PLAN, "anything");
+        runner.setProperty("bind:id", "${id}");
+        runner.assertValid();
+
+        runner.setProperty(QueryRowsMarkLogic.PARTITION_SIZE, "1000");
+        runner.assertNotValid();
+    }
 }
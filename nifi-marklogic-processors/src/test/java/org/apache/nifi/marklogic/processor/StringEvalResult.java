@@ -2,15 +2,25 @@ package org.apache.nifi.marklogic.processor;
 
 import com.marklogic.client.eval.EvalResult;
 import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.io.marker.AbstractReadHandle;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
 public class StringEvalResult implements EvalResult {
 
     private String value;
+    private Format format;
 
     public StringEvalResult(String value) {
+        this(value, Format.TEXT);
+    }
+
+    public StringEvalResult(String value, Format format) {
         this.value = value;
+        this.format = format;
     }
 
     @Override
@@ -20,11 +30,15 @@ public class StringEvalResult implements EvalResult {
 
     @Override
     public Format getFormat() {
-        return Format.TEXT;
+        return format;
     }
 
     @Override
     public <H extends AbstractReadHandle> H get(H h) {
+        if (h instanceof InputStreamHandle) {
+            ((InputStreamHandle) h).set(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+            return h;
+        }
         return (H) new StringHandle(value);
     }
 
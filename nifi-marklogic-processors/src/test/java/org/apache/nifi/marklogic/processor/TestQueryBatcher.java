@@ -20,7 +20,10 @@ import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.datamovement.*;
 import com.marklogic.client.query.SearchQueryDefinition;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /*
@@ -31,7 +34,10 @@ class TestQueryBatcher implements QueryBatcher {
     int batchSize = 100;
     int threadCount = 3;
     SearchQueryDefinition queryDef;
-
+    ForestConfiguration forestConfig;
+    // If set, awaitCompletion blocks until this is counted down, simulating a job that is still running
+    CountDownLatch completion;
+    private final List<QueryBatchListener> urisReadyListeners = new ArrayList<>();
 
     public TestQueryBatcher(SearchQueryDefinition queryDef) {
         this.queryDef = queryDef;
@@ -59,7 +65,7 @@ class TestQueryBatcher implements QueryBatcher {
 
     @Override
     public ForestConfiguration getForestConfig() {
-        return null;
+        return forestConfig;
     }
 
     @Override
@@ -69,6 +75,7 @@ class TestQueryBatcher implements QueryBatcher {
 
     @Override
     public QueryBatcher onUrisReady(QueryBatchListener listener) {
+        urisReadyListeners.add(listener);
         return this;
     }
 
@@ -93,7 +100,7 @@ class TestQueryBatcher implements QueryBatcher {
 
     @Override
     public QueryBatchListener[] getUrisReadyListeners() {
-        return null;
+        return urisReadyListeners.toArray(new QueryBatchListener[0]);
     }
 
     @Override
@@ -125,6 +132,7 @@ class TestQueryBatcher implements QueryBatcher {
 
     @Override
     public QueryBatcher withForestConfig(ForestConfiguration forestConfig) {
+        this.forestConfig = forestConfig;
         return this;
     }
 
@@ -189,6 +197,13 @@ class TestQueryBatcher implements QueryBatcher {
 
     @Override
     public boolean awaitCompletion() {
+        if (completion != null) {
+            try {
+                completion.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         return false;
     }
 
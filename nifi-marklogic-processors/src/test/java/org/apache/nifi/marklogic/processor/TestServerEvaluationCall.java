@@ -27,8 +27,10 @@ import com.marklogic.client.io.marker.AbstractWriteHandle;
 import com.marklogic.client.io.marker.TextWriteHandle;
 import com.marklogic.client.util.EditableNamespaceContext;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public class TestServerEvaluationCall implements ServerEvaluationCall {
@@ -36,6 +38,8 @@ public class TestServerEvaluationCall implements ServerEvaluationCall {
     public int javascriptCalls = 0;
     public int modulePathCalls = 0;
     public Map<String, Object> variables = new HashMap<>();
+    public List<EvalResult> results = new ArrayList<>();
+    public int closedResultIterators = 0;
 
     @Override
     public ServerEvaluationCall xquery(String xquery) {
@@ -121,7 +125,12 @@ public class TestServerEvaluationCall implements ServerEvaluationCall {
 
     @Override
     public EvalResultIterator eval() throws ForbiddenUserException, FailedRequestException {
-        return new TestEvalResultIterator();
+        return results.isEmpty() ? new TestEvalResultIterator() : new MockEvalResultIterator(results) {
+            @Override
+            public void close() {
+                closedResultIterators++;
+            }
+        };
     }
 
     public void reset() {
@@ -129,6 +138,8 @@ public class TestServerEvaluationCall implements ServerEvaluationCall {
         javascriptCalls = 0;
         modulePathCalls = 0;
         variables.clear();
+        results.clear();
+        closedResultIterators = 0;
     }
 
     class TestEvalResultIterator implements EvalResultIterator {
@@ -150,6 +161,7 @@ public class TestServerEvaluationCall implements ServerEvaluationCall {
 
         @Override
         public void close() {
+            closedResultIterators++;
         }
     }
 }
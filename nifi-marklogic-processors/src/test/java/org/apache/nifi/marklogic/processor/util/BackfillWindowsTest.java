@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackfillWindowsTest {
+
+    @Test
+    public void lastWindowIsTruncated() {
+        List<BackfillWindows.Window> windows = BackfillWindows.split("2020-01-01T00:00:00", "2020-01-03T12:00:00", Duration.ofDays(1));
+        assertEquals(3, windows.size());
+        assertEquals("2020-01-01T00:00:00", windows.get(0).getStart());
+        assertEquals("2020-01-02T00:00:00", windows.get(0).getEnd());
+        assertEquals("2020-01-02T00:00:00", windows.get(1).getStart());
+        assertEquals("2020-01-03T00:00:00", windows.get(2).getStart());
+        assertEquals("2020-01-03T12:00:00", windows.get(2).getEnd());
+    }
+
+    @Test
+    public void offsetIsRetained() {
+        List<BackfillWindows.Window> windows = BackfillWindows.split("2020-01-01T00:00:00Z", "2020-01-01T02:00:00Z", Duration.ofHours(1));
+        assertEquals(2, windows.size());
+        assertEquals("[2020-01-01T01:00:00Z, 2020-01-01T02:00:00Z)", windows.get(1).toString());
+    }
+
+    @Test
+    public void emptyRange() {
+        assertTrue(BackfillWindows.split("2020-01-02T00:00:00", "2020-01-01T00:00:00", Duration.ofDays(1)).isEmpty());
+    }
+
+    @Test
+    public void invalidInputs() {
+        assertThrows(IllegalArgumentException.class,
+            () -> BackfillWindows.split("2020-01-01T00:00:00Z", "2020-01-02T00:00:00", Duration.ofDays(1)));
+        assertThrows(IllegalArgumentException.class,
+            () -> BackfillWindows.split("2020-01-01T00:00:00", "2020-01-02T00:00:00", Duration.ZERO));
+        assertTrue(BackfillWindows.isValidDateTime("2020-01-01T00:00:00-05:00"));
+        assertFalse(BackfillWindows.isValidDateTime("2020-01-01"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        DocumentCache cache = new DocumentCache(10, 0, false);
+        cache.put("/a.txt", bytes("aaaa"), "text/plain", DocumentCache.UNKNOWN_VERSION);
+        cache.put("/b.txt", bytes("bbbb"), "text/plain", DocumentCache.UNKNOWN_VERSION);
+        assertNotNull(cache.get("/a.txt", DocumentCache.UNKNOWN_VERSION), "Reading /a.txt makes /b.txt the eldest");
+
+        cache.put("/c.txt", bytes("cccc"), "text/plain", DocumentCache.UNKNOWN_VERSION);
+        assertNull(cache.get("/b.txt", DocumentCache.UNKNOWN_VERSION));
+        assertEquals("aaaa", new String(cache.get("/a.txt", DocumentCache.UNKNOWN_VERSION).getContent(), StandardCharsets.UTF_8));
+        assertEquals("text/plain", cache.get("/c.txt", DocumentCache.UNKNOWN_VERSION).getMimetype());
+
+        DocumentCache.Statistics statistics = cache.drainStatistics();
+        assertEquals(3, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(8, statistics.getBytes());
+
+        statistics = cache.drainStatistics();
+        assertEquals(0, statistics.getHits(), "Draining should reset the counts");
+        assertEquals(8, statistics.getBytes(), "Draining should not affect the size of the cache");
+    }
+
+    @Test
+    public void contentLargerThanCacheIsNotCached() {
+        DocumentCache cache = new DocumentCache(3, 0, false);
+        cache.put("/a.txt", bytes("aaaa"), "text/plain", DocumentCache.UNKNOWN_VERSION);
+        assertNull(cache.get("/a.txt", DocumentCache.UNKNOWN_VERSION));
+        assertEquals(0, cache.drainStatistics().getBytes());
+    }
+
+    @Test
+    public void staleVersionIsNotReturned() {
+        DocumentCache cache = new DocumentCache(100, 0, true);
+        cache.put("/a.json", bytes("{}"), "application/json", 5);
+        assertEquals("{}", new String(cache.get("/a.json", 5).getContent(), StandardCharsets.UTF_8));
+        assertNotNull(cache.get("/a.json", DocumentCache.UNKNOWN_VERSION),
+            "An unknown version should not invalidate the entry");
+        assertNull(cache.get("/a.json", 6));
+        assertNull(cache.get("/a.json", 5), "The stale entry should have been removed");
+        assertEquals(0, cache.drainStatistics().getBytes());
+    }
+
+    @Test
+    public void entryIsValidUntilDocumentIsUpdatedAfterIt() {
+        DocumentCache cache = new DocumentCache(100, 0, false);
+        cache.put("/a.json", bytes("{}"), "application/json", 10);
+        assertTrue(cache.contains("/a.json"));
+        assertNotNull(cache.get("/a.json", 7), "The document was last updated before the entry was read");
+        assertNull(cache.get("/a.json", 11));
+        assertFalse(cache.contains("/a.json"));
+
+        DocumentCache.Statistics statistics = cache.drainStatistics();
+        assertEquals(1, statistics.getHits(), "Checking whether an entry is cached should not count as a hit");
+        assertEquals(1, statistics.getMisses());
+    }
+
+    @Test
+    public void expiredEntryIsNotReturned() throws InterruptedException {
+        DocumentCache cache = new DocumentCache(100, 1, false);
+        cache.put("/a.txt", bytes("a"), "text/plain", DocumentCache.UNKNOWN_VERSION);
+        Thread.sleep(20);
+        assertNull(cache.get("/a.txt", DocumentCache.UNKNOWN_VERSION));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
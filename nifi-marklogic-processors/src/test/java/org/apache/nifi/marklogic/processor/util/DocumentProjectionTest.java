@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DocumentProjectionTest {
+
+    @Test
+    public void batchQuery() {
+        DocumentProjection projection = new DocumentProjection(Arrays.asList("/order/id", "/order/total"),
+            DocumentProjection.INCLUDE_WITH_ANCESTORS, Collections.emptyMap());
+
+        assertEquals("<search xmlns=\"http://marklogic.com/appservices/search\">" +
+                "<query><document-query><uri>/a.json</uri><uri>/b&amp;c.json</uri></document-query></query>" +
+                "<options xmlns=\"http://marklogic.com/appservices/search\">" +
+                "<extract-document-data selected=\"include-with-ancestors\">" +
+                "<extract-path>/order/id</extract-path><extract-path>/order/total</extract-path>" +
+                "</extract-document-data></options></search>",
+            projection.toBatchQuery(new String[]{"/a.json", "/b&c.json"}));
+    }
+
+    @Test
+    public void namespacesAreDeclaredOnEachPath() {
+        DocumentProjection projection = new DocumentProjection(Collections.singletonList("/ex:order[@id > 1]"),
+            DocumentProjection.EXCLUDE, Collections.singletonMap("ex", "org:example"));
+
+        assertEquals("<options xmlns=\"http://marklogic.com/appservices/search\">" +
+                "<extract-document-data selected=\"exclude\">" +
+                "<extract-path xmlns:ex=\"org:example\">/ex:order[@id &gt; 1]</extract-path>" +
+                "</extract-document-data></options>",
+            projection.toSearchOptions());
+    }
+
+    @Test
+    public void pathsAreRequired() {
+        assertThrows(IllegalArgumentException.class, () ->
+            new DocumentProjection(Collections.emptyList(), DocumentProjection.INCLUDE, null));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.Forest;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.marklogic.processor.QueryMarkLogic;
+import org.apache.nifi.util.MockStateManager;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ForestPartitionerTest {
+
+    private final Forest[] forests = new Forest[]{
+        newForest("forest-3"), newForest("forest-1"), newForest("forest-2"), newForest("forest-4"), newForest("forest-5")
+    };
+
+    @Test
+    public void everyForestAssignedToExactlyOneMember() {
+        List<String> members = Arrays.asList("node-a", "node-b", "node-c");
+        List<String> assignedNames = new ArrayList<>();
+        for (String member : members) {
+            assignedNames.addAll(names(ForestPartitioner.assignForests(forests, members, member)));
+        }
+        Collections.sort(assignedNames);
+        assertEquals(Arrays.asList("forest-1", "forest-2", "forest-3", "forest-4", "forest-5"), assignedNames);
+        assertEquals(Arrays.asList("forest-1", "forest-4"), names(ForestPartitioner.assignForests(forests, members, "node-a")));
+    }
+
+    @Test
+    public void nonMemberIsAssignedNothing() {
+        assertTrue(ForestPartitioner.assignForests(forests, Arrays.asList("node-a"), "node-z").isEmpty());
+    }
+
+    @Test
+    public void membersAreRegisteredAndExpired() throws Exception {
+        MockStateManager stateManager = new MockStateManager(new QueryMarkLogic());
+        Map<String, String> initialState = new HashMap<>();
+        initialState.put("queryState", "2020-01-01T00:00:00");
+        initialState.put(ForestPartitioner.MEMBER_KEY_PREFIX + "node-gone", "0");
+        stateManager.setState(initialState, Scope.CLUSTER);
+
+        new ForestPartitioner(stateManager, "node-b", 60000).registerAndListMembers();
+        List<String> members = new ForestPartitioner(stateManager, "node-a", 60000).registerAndListMembers();
+
+        assertEquals(Arrays.asList("node-a", "node-b"), members);
+        assertEquals("2020-01-01T00:00:00", stateManager.getState(Scope.CLUSTER).get("queryState"),
+            "Registering members should not affect any other state");
+    }
+
+    @Test
+    public void assignmentConvergesAfterMemberJoins() throws Exception {
+        MockStateManager stateManager = new MockStateManager(new QueryMarkLogic());
+        ForestPartitioner nodeA = new ForestPartitioner(stateManager, "node-a", 60000);
+        ForestPartitioner nodeB = new ForestPartitioner(stateManager, "node-b", 60000);
+
+        List<String> membersSeenByA = nodeA.registerAndListMembers();
+        List<String> membersSeenByB = nodeB.registerAndListMembers();
+        assertEquals(Arrays.asList("node-a"), membersSeenByA);
+        assertEquals(Arrays.asList("node-a", "node-b"), membersSeenByB);
+
+        List<String> assignedToA = names(ForestPartitioner.assignForests(forests, membersSeenByA, "node-a"));
+        List<String> assignedToB = names(ForestPartitioner.assignForests(forests, membersSeenByB, "node-b"));
+        assertEquals(Arrays.asList("forest-1", "forest-2", "forest-3", "forest-4", "forest-5"), assignedToA);
+        assertEquals(Arrays.asList("forest-2", "forest-4"), assignedToB,
+            "Until node-a runs again, both nodes are assigned forest-2 and forest-4");
+
+        membersSeenByA = nodeA.registerAndListMembers();
+        assignedToA = names(ForestPartitioner.assignForests(forests, membersSeenByA, "node-a"));
+        assertEquals(Arrays.asList("forest-1", "forest-3", "forest-5"), assignedToA);
+        assertTrue(Collections.disjoint(assignedToA, assignedToB));
+    }
+
+    private static List<String> names(List<Forest> forests) {
+        return forests.stream().map(Forest::getForestName).collect(Collectors.toList());
+    }
+
+    private static Forest newForest(String name) {
+        return (Forest) Proxy.newProxyInstance(Forest.class.getClassLoader(), new Class[]{Forest.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getForestName":
+                        return name;
+                    case "getForestId":
+                        return name + "-id";
+                    case "toString":
+                        return name;
+                    default:
+                        return null;
+                }
+            });
+    }
+}
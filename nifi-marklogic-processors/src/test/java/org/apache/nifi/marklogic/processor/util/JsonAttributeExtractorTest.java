@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonAttributeExtractorTest {
+
+    private static final String JSON = "{\"name\":\"Jane\",\"age\":41,\"active\":true,\"nickname\":null," +
+        "\"address\":{\"city\":\"Springfield\",\"geo\":{\"lat\":1.5}},\"items\":[{\"id\":\"a\"},{\"id\":\"b\"}]," +
+        "\"a/b\":{\"c~d\":\"escaped\"}}";
+
+    @Test
+    public void topLevelProperties() throws IOException {
+        Map<String, String> attributes = extract(List.of());
+        assertEquals(7, attributes.size());
+        assertEquals("Jane", attributes.get("name"));
+        assertEquals("41", attributes.get("age"));
+        assertEquals("true", attributes.get("active"));
+        assertEquals("", attributes.get("nickname"));
+        assertEquals("[object]", attributes.get("address"));
+        assertEquals("[array]", attributes.get("items"));
+    }
+
+    @Test
+    public void nestedValuesSelectedByPointers() throws IOException {
+        Map<String, String> attributes = extract(List.of("/address/city", "/address/geo", "/address/geo/lat",
+            "/items/1/id", "/a~1b/c~0d", "/missing/value"));
+        assertEquals("Springfield", attributes.get("address.city"));
+        assertEquals("[object]", attributes.get("address.geo"));
+        assertEquals("1.5", attributes.get("address.geo.lat"));
+        assertEquals("b", attributes.get("items.1.id"));
+        assertEquals("escaped", attributes.get("a/b.c~d"));
+        assertFalse(attributes.containsKey("missing.value"));
+        assertFalse(attributes.containsKey("items.0.id"));
+        assertEquals("[object]", attributes.get("address"), "Top-level properties should still be extracted");
+    }
+
+    @Test
+    public void notAnObject() {
+        assertThrows(IOException.class, () -> extract(List.of(), "[1, 2]"));
+    }
+
+    private Map<String, String> extract(List<String> pointers) throws IOException {
+        return extract(pointers, JSON);
+    }
+
+    private Map<String, String> extract(List<String> pointers, String json) throws IOException {
+        return new JsonAttributeExtractor(pointers).extract(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.type.ChoiceDataType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpticRowRecordReaderTest {
+
+    @Test
+    public void schemaFromColumnHeader() throws IOException {
+        try (OpticRowRecordReader reader = newReader("{\"columns\":[" +
+            "{\"name\":\"Example.default.Id\",\"type\":\"xs:integer\"}," +
+            "{\"name\":\"Example.default.Name\",\"type\":\"xs:string\"}," +
+            "{\"name\":\"Example.default.Active\",\"type\":\"xs:boolean\"}," +
+            "{\"name\":\"Example.default.Price\",\"type\":\"xs:decimal\"}," +
+            "{\"name\":\"Example.default.Score\",\"type\":\"xs:double\"}," +
+            "{\"name\":\"rowCount\"}" +
+            "],\"rows\":[]}")) {
+
+            List<RecordField> fields = reader.getSchema().getFields();
+            assertEquals(6, fields.size());
+            assertEquals("Example_default_Id", fields.get(0).getFieldName(),
+                "Periods should be replaced so that the name is valid for every Record Writer, including Avro");
+            assertEquals(RecordFieldType.BIGINT, fields.get(0).getDataType().getFieldType(),
+                "xs:integer has no fixed size, so it should not be limited to a long");
+            assertEquals(RecordFieldType.STRING, fields.get(1).getDataType().getFieldType());
+            assertEquals(RecordFieldType.BOOLEAN, fields.get(2).getDataType().getFieldType());
+            assertEquals(RecordFieldType.STRING, fields.get(3).getDataType().getFieldType(),
+                "Decimals should be read as strings so that no precision is lost");
+            assertEquals(RecordFieldType.DOUBLE, fields.get(4).getDataType().getFieldType());
+            assertEquals(RecordFieldType.STRING, fields.get(5).getDataType().getFieldType());
+            assertTrue(fields.get(0).isNullable());
+
+            assertNull(reader.nextRecord());
+        }
+    }
+
+    @Test
+    public void rowsAreReadIncrementally() throws IOException {
+        try (OpticRowRecordReader reader = newReader("{\"columns\":[" +
+            "{\"name\":\"Id\",\"type\":\"xs:int\"},{\"name\":\"Name\",\"type\":\"xs:string\"}],\"rows\":[" +
+            "{\"Id\":1,\"Name\":\"First\"}," +
+            "{\"Id\":\"2\",\"Name\":null}," +
+            "{\"Id\":{\"type\":\"xs:int\",\"value\":3},\"Name\":{\"type\":\"xs:string\",\"value\":\"Third\"},\"Unknown\":[1,2]}" +
+            "]}")) {
+
+            Record record = reader.nextRecord();
+            assertEquals(1, record.getValue("Id"));
+            assertEquals("First", record.getValue("Name"));
+
+            record = reader.nextRecord();
+            assertEquals(2, record.getValue("Id"));
+            assertNull(record.getValue("Name"));
+
+            record = reader.nextRecord();
+            assertEquals(3, record.getValue("Id"), "A value with its type in the row should be read as well");
+            assertEquals("Third", record.getValue("Name"));
+            assertNull(record.getValue("Unknown"), "A column that is not in the header should be ignored");
+
+            assertNull(reader.nextRecord());
+            assertNull(reader.nextRecord());
+        }
+    }
+
+    @Test
+    public void integersLargerThanLong() throws IOException {
+        try (OpticRowRecordReader reader = newReader("{\"columns\":[" +
+            "{\"name\":\"Big\",\"type\":\"xs:integer\"},{\"name\":\"Unsigned\",\"type\":\"xs:unsignedLong\"}," +
+            "{\"name\":\"Negative\",\"type\":\"xs:negativeInteger\"},{\"name\":\"Long\",\"type\":\"xs:long\"}],\"rows\":[" +
+            "{\"Big\":\"123456789012345678901234567890\",\"Unsigned\":18446744073709551615," +
+            "\"Negative\":-99999999999999999999,\"Long\":9223372036854775807}]}")) {
+
+            Record record = reader.nextRecord();
+            assertEquals(new BigInteger("123456789012345678901234567890"), record.getValue("Big"));
+            assertEquals(new BigInteger("18446744073709551615"), record.getValue("Unsigned"));
+            assertEquals(new BigInteger("-99999999999999999999"), record.getValue("Negative"));
+            assertEquals(Long.MAX_VALUE, record.getValue("Long"));
+        }
+    }
+
+    @Test
+    public void temporalValuesKeepTheirTimezone() throws IOException {
+        try (OpticRowRecordReader reader = newReader("{\"columns\":[" +
+            "{\"name\":\"Day\",\"type\":\"xs:date\"},{\"name\":\"Start\",\"type\":\"xs:time\"}],\"rows\":[" +
+            "{\"Day\":\"2024-03-01\",\"Start\":\"10:15:30\"}," +
+            "{\"Day\":\"2024-03-01-05:00\",\"Start\":\"10:15:30Z\"}]}")) {
+
+            DataType dayType = reader.getSchema().getField("Day").get().getDataType();
+            assertEquals(RecordFieldType.CHOICE, dayType.getFieldType());
+            assertEquals(List.of(RecordFieldType.DATE.getDataType(), RecordFieldType.STRING.getDataType()),
+                ((ChoiceDataType) dayType).getPossibleSubTypes());
+
+            Record record = reader.nextRecord();
+            assertEquals(Date.valueOf("2024-03-01"), record.getValue("Day"));
+            assertEquals(Time.valueOf("10:15:30"), record.getValue("Start"));
+
+            record = reader.nextRecord();
+            assertEquals("2024-03-01-05:00", record.getValue("Day"),
+                "A Record date has no timezone, so the value should be kept as a string rather than lose its timezone");
+            assertEquals("10:15:30Z", record.getValue("Start"));
+        }
+    }
+
+    @Test
+    public void temporalValues() {
+        assertEquals(Date.valueOf("2024-03-01"), OpticRowRecordReader.convert("2024-03-01", RecordFieldType.DATE));
+        assertEquals("2024-03-01-05:00", OpticRowRecordReader.convert("2024-03-01-05:00", RecordFieldType.DATE));
+        assertEquals("2024-03-01Z", OpticRowRecordReader.convert("2024-03-01Z", RecordFieldType.DATE));
+        assertEquals(Time.valueOf("10:15:30"), OpticRowRecordReader.convert("10:15:30", RecordFieldType.TIME));
+        assertEquals("10:15:30+02:00", OpticRowRecordReader.convert("10:15:30+02:00", RecordFieldType.TIME));
+        assertEquals(Timestamp.from(Instant.parse("2024-03-01T15:15:30Z")),
+            OpticRowRecordReader.convert("2024-03-01T10:15:30-05:00", RecordFieldType.TIMESTAMP));
+        assertEquals(Timestamp.from(Instant.parse("2024-03-01T10:15:30Z")),
+            OpticRowRecordReader.convert("2024-03-01T10:15:30Z", RecordFieldType.TIMESTAMP));
+        assertEquals(Timestamp.valueOf("2024-03-01 10:15:30"),
+            OpticRowRecordReader.convert("2024-03-01T10:15:30", RecordFieldType.TIMESTAMP));
+    }
+
+    @Test
+    public void emptyResponse() throws IOException {
+        try (OpticRowRecordReader reader = newReader("")) {
+            assertTrue(reader.getSchema().getFields().isEmpty());
+            assertNull(reader.nextRecord());
+        }
+    }
+
+    @Test
+    public void rowsBeforeColumns() {
+        IOException ex = assertThrows(IOException.class, () -> newReader("{\"rows\":[{\"Id\":1}],\"columns\":[]}"));
+        assertTrue(ex.getMessage().contains("ensure column types are requested in the header"), ex.getMessage());
+    }
+
+    private static OpticRowRecordReader newReader(String json) throws IOException {
+        return new OpticRowRecordReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpticWatermarkTest {
+
+    private static final String PLAN = "{\"$optic\":{\"ns\":\"op\",\"fn\":\"operators\",\"args\":[" +
+        "{\"ns\":\"op\",\"fn\":\"from-view\",\"args\":[\"Example\",\"default\",null,null]}," +
+        "{\"ns\":\"op\",\"fn\":\"limit\",\"args\":[10]}]}}";
+
+    @Test
+    public void restrictWithoutPreviousWatermark() throws IOException {
+        String plan = new OpticWatermark("modified", "xs:dateTime").restrict(PLAN, null, "2024-01-01T00:00:00Z");
+        assertEquals("{\"$optic\":{\"ns\":\"op\",\"fn\":\"operators\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"from-view\",\"args\":[\"Example\",\"default\",null,null]}," +
+            "{\"ns\":\"op\",\"fn\":\"where\",\"args\":[{\"ns\":\"op\",\"fn\":\"le\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"modified\"]}," +
+            "{\"ns\":\"xs\",\"fn\":\"dateTime\",\"args\":[\"2024-01-01T00:00:00Z\"]}]}]}," +
+            "{\"ns\":\"op\",\"fn\":\"limit\",\"args\":[10]}]}}", plan,
+            "The restriction should be inserted after the first operator so that it applies before the limit");
+    }
+
+    @Test
+    public void restrictWithPreviousWatermark() throws IOException {
+        String plan = new OpticWatermark("id", "xs:integer").restrict(PLAN, "5", "9");
+        assertTrue(plan.contains("{\"ns\":\"op\",\"fn\":\"where\",\"args\":[{\"ns\":\"op\",\"fn\":\"and\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"gt\",\"args\":[{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"id\"]}," +
+            "{\"ns\":\"xs\",\"fn\":\"integer\",\"args\":[\"5\"]}]}," +
+            "{\"ns\":\"op\",\"fn\":\"le\",\"args\":[{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"id\"]}," +
+            "{\"ns\":\"xs\",\"fn\":\"integer\",\"args\":[\"9\"]}]}]}]}"), plan);
+    }
+
+    @Test
+    public void stringValuesAreNotCastAndAreEscaped() throws IOException {
+        String plan = new OpticWatermark("name", "xs:string").restrict(PLAN, null, "a\"b");
+        assertTrue(plan.contains("{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"name\"]},\"a\\\"b\""), plan);
+    }
+
+    @Test
+    public void maxValuePlan() throws IOException {
+        String plan = new OpticWatermark("modified", "xs:dateTime").maxValuePlan(PLAN, "2024-01-01T00:00:00Z");
+        assertEquals("{\"$optic\":{\"ns\":\"op\",\"fn\":\"operators\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"from-view\",\"args\":[\"Example\",\"default\",null,null]}," +
+            "{\"ns\":\"op\",\"fn\":\"where\",\"args\":[{\"ns\":\"op\",\"fn\":\"gt\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"modified\"]}," +
+            "{\"ns\":\"xs\",\"fn\":\"dateTime\",\"args\":[\"2024-01-01T00:00:00Z\"]}]}]}," +
+            "{\"ns\":\"op\",\"fn\":\"group-by\",\"args\":[null,[{\"ns\":\"op\",\"fn\":\"max\",\"args\":[" +
+            "{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"watermarkMax\"]}," +
+            "{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"modified\"]}]}]]}]}}", plan,
+            "Only the first operator of the plan should be kept, as the remaining operators could change the maximum");
+    }
+
+    @Test
+    public void readMaxValue() throws IOException {
+        assertEquals("2024-01-01T00:00:00Z", OpticWatermark.readMaxValue(
+            "{\"columns\":[{\"name\":\"watermarkMax\"}],\"rows\":[{\"watermarkMax\":{\"type\":\"xs:dateTime\",\"value\":\"2024-01-01T00:00:00Z\"}}]}"));
+        assertEquals("9", OpticWatermark.readMaxValue("{\"rows\":[{\"watermarkMax\":9}]}"));
+        assertNull(OpticWatermark.readMaxValue("{\"rows\":[{\"watermarkMax\":{\"type\":\"null\",\"value\":null}}]}"));
+        assertNull(OpticWatermark.readMaxValue("{\"rows\":[]}"));
+        assertNull(OpticWatermark.readMaxValue(""), "MarkLogic returns an empty response when the plan has no rows");
+    }
+
+    @Test
+    public void invalidPlan() {
+        OpticWatermark watermark = new OpticWatermark("modified", "xs:dateTime");
+        assertThrows(IOException.class, () -> watermark.restrict("{\"$optic\":{\"args\":[]}}", null, "1"));
+        assertThrows(IOException.class, () -> watermark.maxValuePlan("[]", null));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatchListener;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares exporting documents with the QueryBatcher threads both retrieving URIs and reading documents against
+ * handing each batch off to a {@link PipelinedQueryBatchListener}. A stub server models the latency of retrieving a
+ * batch of URIs and of reading the documents in a batch, with reads being the slower of the two. Run via this class's
+ * main method after compiling the test classes, e.g. with the test classpath from "mvn dependency:build-classpath".
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelinedQueryBatchListenerBenchmark {
+
+    private static final int BATCH_COUNT = 200;
+
+    @Param({"4"})
+    public int threadCount;
+
+    @Param({"4", "12"})
+    public int readThreadCount;
+
+    @Param({"10"})
+    public int readQueueSize;
+
+    @Param({"2"})
+    public long uriLatencyMillis;
+
+    @Param({"10"})
+    public long readLatencyMillis;
+
+    private StubServer server;
+
+    @Setup
+    public void setup() {
+        server = new StubServer(uriLatencyMillis, readLatencyMillis);
+    }
+
+    @Benchmark
+    public long sharedThreads() throws InterruptedException {
+        return runJob(server::readDocuments);
+    }
+
+    @Benchmark
+    public long pipelined() throws InterruptedException {
+        PipelinedQueryBatchListener pipeline = new PipelinedQueryBatchListener(server::readDocuments, readThreadCount,
+            readQueueSize, (batch, throwable) -> {
+            throw new RuntimeException(throwable);
+        });
+        long batches = runJob(pipeline);
+        pipeline.awaitCompletion();
+        return batches;
+    }
+
+    /**
+     * Models a QueryBatcher job, in which each thread retrieves the next batch of URIs and then invokes the listener.
+     */
+    private long runJob(QueryBatchListener listener) throws InterruptedException {
+        AtomicLong nextBatchNumber = new AtomicLong();
+        ExecutorService uriThreads = Executors.newFixedThreadPool(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            uriThreads.execute(() -> {
+                for (long number = nextBatchNumber.incrementAndGet(); number <= BATCH_COUNT; number = nextBatchNumber.incrementAndGet()) {
+                    listener.processEvent(server.retrieveUris(number));
+                }
+            });
+        }
+        uriThreads.shutdown();
+        uriThreads.awaitTermination(1, TimeUnit.HOURS);
+        return BATCH_COUNT;
+    }
+
+    private static class StubServer {
+        private final long uriLatencyMillis;
+        private final long readLatencyMillis;
+
+        StubServer(long uriLatencyMillis, long readLatencyMillis) {
+            this.uriLatencyMillis = uriLatencyMillis;
+            this.readLatencyMillis = readLatencyMillis;
+        }
+
+        QueryBatch retrieveUris(long jobBatchNumber) {
+            pause(uriLatencyMillis);
+            return (QueryBatch) Proxy.newProxyInstance(QueryBatch.class.getClassLoader(), new Class[]{QueryBatch.class},
+                (proxy, method, args) -> "getJobBatchNumber".equals(method.getName()) ? jobBatchNumber : null);
+        }
+
+        void readDocuments(QueryBatch batch) {
+            pause(readLatencyMillis);
+        }
+
+        private static void pause(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PipelinedQueryBatchListenerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
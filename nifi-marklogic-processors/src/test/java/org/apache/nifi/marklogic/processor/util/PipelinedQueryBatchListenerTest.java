@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatcher;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelinedQueryBatchListenerTest {
+
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void batchesAreProcessedByReadThreads() {
+        Set<Long> processedBatches = Collections.synchronizedSet(new HashSet<>());
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger queueDepth = new AtomicInteger();
+        PipelinedQueryBatchListener pipeline = new PipelinedQueryBatchListener(batch -> {
+            processedBatches.add(batch.getJobBatchNumber());
+            threadNames.add(Thread.currentThread().getName());
+        }, 3, 5, (batch, throwable) -> failures.add(throwable)).withQueueDepthListener(queueDepth::addAndGet);
+
+        for (long i = 1; i <= 20; i++) {
+            pipeline.processEvent(newBatch(i, false));
+        }
+        pipeline.awaitCompletion();
+
+        assertEquals(20, processedBatches.size());
+        assertEquals(20, pipeline.getProcessedBatches());
+        assertFalse(threadNames.contains(Thread.currentThread().getName()));
+        assertEquals(0, queueDepth.get(), "Every batch that was queued should have been taken from the queue");
+        assertEquals(0, pipeline.getQueueDepth());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void uriRetrievalBlocksWhenQueueIsFull() throws Exception {
+        CountDownLatch readsReleased = new CountDownLatch(1);
+        PipelinedQueryBatchListener pipeline = new PipelinedQueryBatchListener(batch -> {
+            try {
+                readsReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 1, 1, (batch, throwable) -> failures.add(throwable));
+
+        pipeline.processEvent(newBatch(1, false));
+        pipeline.processEvent(newBatch(2, false));
+
+        CountDownLatch thirdBatchQueued = new CountDownLatch(1);
+        Thread uriThread = new Thread(() -> {
+            pipeline.processEvent(newBatch(3, false));
+            thirdBatchQueued.countDown();
+        });
+        uriThread.start();
+        assertFalse(thirdBatchQueued.await(200, TimeUnit.MILLISECONDS),
+            "With one batch being read and one queued, a third batch should wait for room in the queue");
+
+        readsReleased.countDown();
+        assertTrue(thirdBatchQueued.await(5, TimeUnit.SECONDS));
+        pipeline.awaitCompletion();
+
+        assertEquals(3, pipeline.getProcessedBatches());
+        assertTrue(pipeline.getMaxQueueDepth() <= 1);
+        assertTrue(pipeline.getUriRetrievalBlockedMillis() >= 100, "Unexpected blocked time: " + pipeline.getUriRetrievalBlockedMillis());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void failuresAreHandledAndBatchesOfStoppedJobsAreSkipped() {
+        AtomicBoolean stoppedBatchProcessed = new AtomicBoolean();
+        PipelinedQueryBatchListener pipeline = new PipelinedQueryBatchListener(batch -> {
+            if (batch.getBatcher().isStopped()) {
+                stoppedBatchProcessed.set(true);
+            }
+            throw new RuntimeException("Read failed for batch " + batch.getJobBatchNumber());
+        }, 2, 2, (batch, throwable) -> failures.add(throwable));
+
+        pipeline.processEvent(newBatch(1, false));
+        pipeline.processEvent(newBatch(2, true));
+        pipeline.awaitCompletion();
+
+        assertFalse(stoppedBatchProcessed.get());
+        assertEquals(1, failures.size());
+        assertEquals("Read failed for batch 1", failures.get(0).getMessage());
+
+        pipeline.processEvent(newBatch(3, false));
+        assertEquals(2, failures.size(), "A batch received after completion cannot be queued and should be handled as a failure");
+    }
+
+    private static QueryBatch newBatch(long jobBatchNumber, boolean stopped) {
+        QueryBatcher batcher = (QueryBatcher) Proxy.newProxyInstance(QueryBatcher.class.getClassLoader(),
+            new Class[]{QueryBatcher.class}, (proxy, method, args) -> "isStopped".equals(method.getName()) ? stopped : null);
+        return (QueryBatch) Proxy.newProxyInstance(QueryBatch.class.getClassLoader(), new Class[]{QueryBatch.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getJobBatchNumber":
+                        return jobBatchNumber;
+                    case "getItems":
+                        return new String[]{"/" + jobBatchNumber + ".json"};
+                    case "getBatcher":
+                        return batcher;
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.Forest;
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatchListener;
+import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.marklogic.processor.QueryMarkLogic;
+import org.apache.nifi.util.MockStateManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryBatchCheckpointTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void checkpointOnlyAdvancesOverContiguousBatches() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(tempDir.resolve("test.checkpoint"));
+        QueryBatchCheckpoint checkpoint = new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE);
+        List<String> processed = new ArrayList<>();
+        QueryBatchListener listener = checkpoint.wrap(batch -> processed.add(batch.getItems()[0]));
+
+        listener.processEvent(newBatch("forest-1", 1, "/a1.json", "/a2.json"));
+        listener.processEvent(newBatch("forest-1", 3, "/a5.json", "/a6.json"));
+        listener.processEvent(newBatch("forest-2", 1, "/b1.json"));
+        checkpoint.save();
+
+        Map<String, String> saved = store.load();
+        assertEquals("/a2.json", saved.get(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-1-id"),
+            "Batch 3 should not advance the checkpoint since batch 2 has not been processed");
+        assertEquals("/b1.json", saved.get(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-2-id"));
+        assertEquals("12345", saved.get(QueryBatchCheckpoint.SERVER_TIMESTAMP_KEY));
+        assertEquals(3, processed.size());
+    }
+
+    @Test
+    public void resumeSkipsProcessedBatches() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(tempDir.resolve("test.checkpoint"));
+        QueryBatchCheckpoint first = new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE);
+        QueryBatchListener firstListener = first.wrap(batch -> {
+        });
+        firstListener.processEvent(newBatch("forest-1", 1, "/a1.json", "/a2.json"));
+        first.save();
+
+        QueryBatchCheckpoint resumed = new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE);
+        assertTrue(resumed.isResuming());
+        assertEquals(12345L, resumed.getPreviousServerTimestamp());
+        List<String> processed = new ArrayList<>();
+        QueryBatchListener listener = resumed.wrap(batch -> processed.add(batch.getItems()[0]));
+        listener.processEvent(newBatch("forest-1", 1, "/a1.json", "/a2.json"));
+        listener.processEvent(newBatch("forest-1", 2, "/a2.json", "/a3.json"));
+        listener.processEvent(newBatch("forest-2", 1, "/b1.json"));
+
+        assertEquals(1, resumed.getSkippedBatches());
+        assertEquals(12345L, resumed.getServerTimestamp());
+        assertEquals(2, processed.size(), "A batch partially overlapping the checkpoint should be processed in full");
+
+        resumed.clear();
+        assertFalse(Files.exists(store.getFile()));
+    }
+
+    @Test
+    public void checkpointForDifferentQueryIsDiscarded() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(tempDir.resolve("test.checkpoint"));
+        QueryBatchCheckpoint first = new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE);
+        first.wrap(batch -> {
+        }).processEvent(newBatch("forest-1", 1, "/a1.json"));
+        first.save();
+
+        QueryBatchCheckpoint other = new QueryBatchCheckpoint(store, "other-query", Long.MAX_VALUE);
+        assertFalse(other.isResuming());
+        assertTrue(store.load().isEmpty());
+    }
+
+    @Test
+    public void failedBatchDoesNotAdvanceCheckpoint() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(tempDir.resolve("test.checkpoint"));
+        QueryBatchCheckpoint checkpoint = new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE);
+        QueryBatchListener listener = checkpoint.wrap(batch -> {
+            if (batch.getForestBatchNumber() == 2) {
+                checkpoint.batchFailed(batch);
+            }
+        });
+
+        listener.processEvent(newBatch("forest-1", 1, "/a1.json"));
+        listener.processEvent(newBatch("forest-1", 2, "/a2.json"));
+        listener.processEvent(newBatch("forest-1", 3, "/a3.json"));
+        checkpoint.save();
+
+        assertEquals("/a1.json", store.load().get(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-1-id"),
+            "The failed batch should not be recorded as processed, so the checkpoint should not advance past it");
+    }
+
+    @Test
+    public void queryIsIdentifiedByDigest() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(tempDir.resolve("test.checkpoint"));
+        new QueryBatchCheckpoint(store, "my-query", Long.MAX_VALUE).save();
+        String queryHash = store.load().get(QueryBatchCheckpoint.QUERY_HASH_KEY);
+        assertEquals(64, queryHash.length(), "Expected a hex-encoded SHA-256 digest: " + queryHash);
+    }
+
+    @Test
+    public void nodesDoNotOverwriteEachOthersCheckpoints() throws Exception {
+        MockStateManager stateManager = new MockStateManager(new QueryMarkLogic());
+        stateManager.setState(Map.of("queryState", "2020-01-01T00:00:00"), Scope.CLUSTER);
+        StateCheckpointStore firstNode = new StateCheckpointStore(stateManager, "node.a:8080");
+        StateCheckpointStore secondNode = new StateCheckpointStore(stateManager, "node.a");
+
+        firstNode.save(Map.of(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-1-id", "/a1.json"));
+        secondNode.save(Map.of(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-2-id", "/b1.json"));
+
+        assertEquals(Map.of(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-1-id", "/a1.json"), firstNode.load());
+        assertEquals(Map.of(QueryBatchCheckpoint.FOREST_KEY_PREFIX + "forest-2-id", "/b1.json"), secondNode.load());
+
+        secondNode.clear();
+        assertTrue(secondNode.load().isEmpty());
+        assertEquals(1, firstNode.load().size());
+        assertEquals("2020-01-01T00:00:00", stateManager.getState(Scope.CLUSTER).get("queryState"));
+    }
+
+    @Test
+    public void urisComparedByCodePoint() {
+        // U+1F600 is a supplementary character whose UTF-16 surrogates sort before U+FF5E as code units
+        assertTrue(QueryBatchCheckpoint.compareUris("/\uD83D\uDE00", "/\uFF5E") > 0);
+        assertTrue(QueryBatchCheckpoint.compareUris("/a", "/ab") < 0);
+        assertEquals(0, QueryBatchCheckpoint.compareUris("/a", "/a"));
+    }
+
+    private static QueryBatch newBatch(String forestName, long forestBatchNumber, String... uris) {
+        Forest forest = (Forest) Proxy.newProxyInstance(Forest.class.getClassLoader(), new Class[]{Forest.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getForestName":
+                        return forestName;
+                    case "getForestId":
+                        return forestName + "-id";
+                    default:
+                        return null;
+                }
+            });
+        return (QueryBatch) Proxy.newProxyInstance(QueryBatch.class.getClassLoader(), new Class[]{QueryBatch.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getItems":
+                        return uris;
+                    case "getForest":
+                        return forest;
+                    case "getForestBatchNumber":
+                        return forestBatchNumber;
+                    case "getServerTimestamp":
+                        return 12345L;
+                    default:
+                        return null;
+                }
+            });
+    }
+}
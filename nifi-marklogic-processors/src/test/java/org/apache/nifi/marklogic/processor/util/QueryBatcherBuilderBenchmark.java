@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.query.StructuredQueryBuilder;
+import com.marklogic.client.query.StructuredQueryBuilder.Operator;
+import org.apache.nifi.marklogic.processor.QueryMarkLogic.IndexTypes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building the raw combined query that a {@code QueryBatcher} runs when a State Index is used,
+ * for each query type. Run via this class's main method after compiling the test classes, e.g. with the test
+ * classpath from "mvn dependency:build-classpath".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBatcherBuilderBenchmark {
+
+    @Param({
+        QueryTypes.COLLECTION_STR,
+        QueryTypes.COMBINED_JSON_STR,
+        QueryTypes.COMBINED_XML_STR,
+        QueryTypes.STRING_STR,
+        QueryTypes.STRUCTURED_JSON_STR,
+        QueryTypes.STRUCTURED_XML_STR
+    })
+    public String queryType;
+
+    private QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue;
+    private List<RangeIndexQuery> stateQueries;
+    private long runCount;
+
+    @Setup
+    public void setup() {
+        queryTypeAndValue = new QueryBatcherBuilder.QueryTypeAndValue(queryType, buildQueryValue(queryType));
+        stateQueries = Collections.singletonList(new RangeIndexQuery(new StructuredQueryBuilder(),
+            IndexTypes.JSON_PROPERTY_STR, "lastModified", "xs:dateTime", Operator.GT, "2020-01-01T00:00:00"));
+    }
+
+    /**
+     * Simulates the processor running repeatedly with the same query, with only the stored State Index value changing.
+     */
+    @Benchmark
+    public String buildRawCombinedQueryWithStateQuery() {
+        stateQueries.get(0).setValue(String.format("2020-01-01T00:00:%02d", runCount++ % 60));
+        return QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateQueries);
+    }
+
+    private static String buildQueryValue(String queryType) {
+        switch (queryType) {
+            case QueryTypes.COLLECTION_STR:
+                return "orders,customers";
+            case QueryTypes.COMBINED_JSON_STR:
+                return "{\"search\": {\"ctsquery\": {\"andQuery\": {\"queries\": [" +
+                    "{\"collectionQuery\": {\"uris\": [\"orders\"]}}, " +
+                    "{\"wordQuery\": {\"text\": [\"shipped\"]}}]}}}}";
+            case QueryTypes.COMBINED_XML_STR:
+                return "<cts:collection-query xmlns:cts=\"http://marklogic.com/cts\"><cts:uri>orders</cts:uri></cts:collection-query>";
+            case QueryTypes.STRUCTURED_JSON_STR:
+                return "{\"and-query\": {\"queries\": [{\"collection-query\": {\"uri\": [\"orders\"]}}, " +
+                    "{\"term-query\": {\"text\": [\"shipped\"]}}]}}";
+            case QueryTypes.STRUCTURED_XML_STR:
+                return "<and-query><collection-query><uri>orders</uri></collection-query>" +
+                    "<term-query><text>shipped</text></term-query></and-query>";
+            default:
+                return "shipped AND priority:high";
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QueryBatcherBuilderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.marklogic.client.query.StructuredQueryBuilder;
+import com.marklogic.client.query.StructuredQueryBuilder.Operator;
+import org.apache.nifi.marklogic.processor.QueryMarkLogic.IndexTypes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryBatcherBuilderTest {
+
+    private final List<RangeIndexQuery> stateQueries = Collections.singletonList(
+        new RangeIndexQuery(new StructuredQueryBuilder(), IndexTypes.JSON_PROPERTY_STR, "lastModified",
+            "xs:dateTime", Operator.GT, "2020-01-01T00:00:00"));
+
+    @Test
+    public void nestedJsonWrappersAreRemoved() {
+        String query = QueryBatcherBuilder.prepQueryToCombineJSON(
+            "{\"search\": {\"ctsquery\": {\"collectionQuery\": {\"uris\": [\"a\"]}} }}");
+        assertEquals("{\"collectionQuery\": {\"uris\": [\"a\"]}}", query.trim());
+
+        String unwrapped = "{\"collectionQuery\": {\"uris\": [\"a\"]}}";
+        assertSame(unwrapped, QueryBatcherBuilder.prepQueryToCombineJSON(unwrapped));
+    }
+
+    @Test
+    public void combinedJsonQuery() {
+        QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue = new QueryBatcherBuilder.QueryTypeAndValue(
+            QueryTypes.COMBINED_JSON_STR, "{\"ctsquery\": {\"collectionQuery\": {\"uris\": [\"a\"]}}}");
+        String query = QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateQueries);
+
+        JsonArray queries = JsonParser.parseString(query).getAsJsonObject().getAsJsonObject("ctsquery")
+            .getAsJsonObject("andQuery").getAsJsonArray("queries");
+        assertEquals(2, queries.size());
+        assertTrue(queries.get(0).getAsJsonObject().has("jsonPropertyRangeQuery"));
+        assertTrue(queries.get(1).getAsJsonObject().has("collectionQuery"));
+    }
+
+    @Test
+    public void structuredJsonQuery() {
+        QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue = new QueryBatcherBuilder.QueryTypeAndValue(
+            QueryTypes.STRUCTURED_JSON_STR, "{\"collection-query\": {\"uri\": [\"a\"]}}");
+        String query = QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateQueries);
+
+        JsonArray queries = JsonParser.parseString(query).getAsJsonObject().getAsJsonObject("search")
+            .getAsJsonObject("query").getAsJsonArray("queries");
+        assertTrue(queries.get(0).getAsJsonObject().has("range-query"));
+        assertTrue(queries.get(1).getAsJsonObject().has("collection-query"));
+    }
+
+    @Test
+    public void stringQueryIsEscaped() {
+        String query = QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(
+            new QueryBatcherBuilder.QueryTypeAndValue(QueryTypes.STRING_STR, "a < b"), stateQueries);
+        assertTrue(query.startsWith("<search  xmlns=\"http://marklogic.com/appservices/search\">"));
+        assertTrue(query.contains("lastModified"));
+        assertTrue(query.endsWith("<qtext>a &lt; b</qtext></search>"));
+    }
+
+    @Test
+    public void uriCountQueryDefinesUriValues() {
+        String query = QueryBatcherBuilder.buildUriCountQuery(new QueryBatcherBuilder.QueryTypeAndValue(
+            QueryTypes.STRUCTURED_JSON_STR, "{\"collection-query\": {\"uri\": [\"a\"]}}"), stateQueries);
+        JsonObject search = JsonParser.parseString(query).getAsJsonObject().getAsJsonObject("search");
+        assertEquals(2, search.getAsJsonObject("query").getAsJsonArray("queries").size());
+        JsonObject values = search.getAsJsonObject("options").getAsJsonArray("values").get(0).getAsJsonObject();
+        assertEquals(QueryBatcherBuilder.URI_VALUES_NAME, values.get("name").getAsString());
+        assertTrue(values.has("uri"));
+
+        query = QueryBatcherBuilder.buildUriCountQuery(new QueryBatcherBuilder.QueryTypeAndValue(
+            QueryTypes.COMBINED_JSON_STR, "{\"ctsquery\": {\"collectionQuery\": {\"uris\": [\"a\"]}}}"),
+            Collections.emptyList());
+        search = JsonParser.parseString(query).getAsJsonObject().getAsJsonObject("search");
+        JsonArray queries = search.getAsJsonObject("ctsquery").getAsJsonObject("andQuery").getAsJsonArray("queries");
+        assertEquals(1, queries.size(), "With no state queries, only the user's query should be and-ed");
+        assertTrue(queries.get(0).getAsJsonObject().has("collectionQuery"));
+        assertTrue(search.has("options"));
+    }
+
+    @Test
+    public void xmlUriCountQuery() {
+        String options = "<options><values name=\"uris\"><uri/></values></options>";
+        String query = QueryBatcherBuilder.buildUriCountQuery(
+            new QueryBatcherBuilder.QueryTypeAndValue(QueryTypes.STRING_STR, "hello"), stateQueries);
+        assertTrue(query.startsWith("<search  xmlns=\"http://marklogic.com/appservices/search\">"));
+        assertTrue(query.endsWith("<qtext>hello</qtext>" + options + "</search>"), query);
+
+        query = QueryBatcherBuilder.buildUriCountQuery(new QueryBatcherBuilder.QueryTypeAndValue(
+            QueryTypes.COMBINED_XML_STR, "<cts:collection-query><cts:uri>a</cts:uri></cts:collection-query>"), stateQueries);
+        assertTrue(query.startsWith("<search xmlns=\"http://marklogic.com/appservices/search\"><cts:and-query"), query);
+        assertTrue(query.endsWith("</cts:and-query>" + options + "</search>"), query);
+    }
+
+    @Test
+    public void templateIsCachedAndOnlyStateQueryChanges() {
+        QueryBatcherBuilder.QueryTypeAndValue queryTypeAndValue =
+            new QueryBatcherBuilder.QueryTypeAndValue(QueryTypes.COLLECTION_STR, "template-test");
+        assertSame(QueryBatcherBuilder.getCombinedQueryTemplate(queryTypeAndValue),
+            QueryBatcherBuilder.getCombinedQueryTemplate(new QueryBatcherBuilder.QueryTypeAndValue(
+                QueryTypes.COLLECTION_STR, "template-test")));
+
+        String first = QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateQueries);
+        stateQueries.get(0).setValue("2021-01-01T00:00:00");
+        String second = QueryBatcherBuilder.buildRawCombinedQueryWithStateQuery(queryTypeAndValue, stateQueries);
+        assertTrue(first.contains("2020-01-01T00:00:00"));
+        assertTrue(second.contains("2021-01-01T00:00:00"));
+        assertEquals(first.replace("2020", "2021"), second);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueryJobSummaryTest {
+
+    @Test
+    public void countsAndTimings() {
+        QueryJobSummary summary = new QueryJobSummary();
+        summary.addBatch(100, true);
+        summary.addBatch(50, true);
+        summary.addBatch(25, false);
+
+        JsonObject json = summary.toJson(System.currentTimeMillis() + 1000);
+        assertEquals(2, json.get("successBatches").getAsLong());
+        assertEquals(150, json.get("successUris").getAsLong());
+        assertEquals(1, json.get("failureBatches").getAsLong());
+        assertEquals(25, json.get("failureUris").getAsLong());
+        assertEquals(json.get("endTime").getAsLong() - json.get("startTime").getAsLong(), json.get("durationMillis").getAsLong());
+    }
+}
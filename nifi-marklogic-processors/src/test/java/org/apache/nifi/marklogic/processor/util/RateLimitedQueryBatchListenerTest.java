@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.marklogic.client.datamovement.QueryBatch;
+import org.apache.nifi.marklogic.controller.TokenBucketRateLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitedQueryBatchListenerTest {
+
+    private final List<Long> waits = new ArrayList<>();
+
+    @Test
+    public void documentsAreLimitedBeforeEachBatch() {
+        List<Integer> processedBatchSizes = new ArrayList<>();
+        RateLimitedQueryBatchListener listener = new RateLimitedQueryBatchListener(
+            batch -> processedBatchSizes.add(batch.getItems().length),
+            new TokenBucketRateLimiter("documents", 10), null
+        ).withWaitListener(waits::add);
+
+        listener.processEvent(newBatch(10));
+        assertTrue(waits.isEmpty(), "The first batch fits within the bucket and should not wait");
+
+        listener.processEvent(newBatch(5));
+        assertEquals(1, waits.size());
+        assertTrue(waits.get(0) >= 400, "5 documents at 10 per second should wait about 500 ms; waited: " + waits.get(0));
+
+        assertEquals(List.of(10, 5), processedBatchSizes);
+        assertEquals(15, listener.getDocuments());
+        assertEquals(0, listener.getBytes());
+        assertEquals(waits.get(0), listener.getWaitMillis());
+    }
+
+    @Test
+    public void bytesReadByBatchDelayTheNextBatch() {
+        TokenBucketRateLimiter bytesLimiter = new TokenBucketRateLimiter("bytes", 4000);
+        RateLimitedQueryBatchListener listener = new RateLimitedQueryBatchListener(batch -> {
+            for (int i = 0; i < batch.getItems().length; i++) {
+                RateLimitedQueryBatchListener.recordBytes(1000);
+            }
+        }, null, bytesLimiter).withWaitListener(waits::add);
+
+        listener.processEvent(newBatch(4));
+        assertTrue(waits.isEmpty());
+        listener.processEvent(newBatch(2));
+        assertEquals(1, waits.size(), "The second batch puts the limiter in debt and should wait for it to be repaid");
+        assertTrue(waits.get(0) >= 400, "2000 bytes at 4000 per second should wait about 500 ms; waited: " + waits.get(0));
+
+        assertEquals(6000, listener.getBytes());
+        assertEquals(6000, bytesLimiter.getAcquiredPermits());
+    }
+
+    @Test
+    public void bytesRecordedOutsideOfBatchAreIgnored() {
+        TokenBucketRateLimiter bytesLimiter = new TokenBucketRateLimiter("bytes", 100);
+        RateLimitedQueryBatchListener listener = new RateLimitedQueryBatchListener(batch -> {
+        }, null, bytesLimiter);
+
+        RateLimitedQueryBatchListener.recordBytes(1000);
+        listener.processEvent(newBatch(1));
+        assertEquals(0, listener.getBytes());
+        assertEquals(0, bytesLimiter.getAcquiredPermits());
+    }
+
+    @Test
+    public void failingBatchIsStillCharged() {
+        TokenBucketRateLimiter bytesLimiter = new TokenBucketRateLimiter("bytes", 0);
+        RateLimitedQueryBatchListener listener = new RateLimitedQueryBatchListener(batch -> {
+            RateLimitedQueryBatchListener.recordBytes(50);
+            throw new RuntimeException("Read failed");
+        }, null, bytesLimiter);
+
+        assertThrows(RuntimeException.class, () -> listener.processEvent(newBatch(3)));
+        assertEquals(3, listener.getDocuments());
+        assertEquals(50, listener.getBytes());
+    }
+
+    private static QueryBatch newBatch(int uriCount) {
+        String[] uris = new String[uriCount];
+        for (int i = 0; i < uriCount; i++) {
+            uris[i] = "/" + i + ".json";
+        }
+        return (QueryBatch) Proxy.newProxyInstance(QueryBatch.class.getClassLoader(), new Class[]{QueryBatch.class},
+            (proxy, method, args) -> "getItems".equals(method.getName()) ? uris : null);
+    }
+}
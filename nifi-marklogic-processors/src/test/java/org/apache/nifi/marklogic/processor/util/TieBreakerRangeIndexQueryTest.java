@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.processor.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.query.StructuredQueryBuilder;
+import com.marklogic.client.query.StructuredQueryBuilder.Operator;
+import org.apache.nifi.marklogic.processor.QueryMarkLogic.IndexTypes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TieBreakerRangeIndexQueryTest {
+
+    private final TieBreakerRangeIndexQuery query = new TieBreakerRangeIndexQuery(
+        new RangeIndexQuery(new StructuredQueryBuilder(), IndexTypes.JSON_PROPERTY_STR, "lastModified",
+            "xs:dateTime", Operator.GT, "2020-01-01T00:00:00"),
+        Arrays.asList("/a.json", "/quote\".json"));
+
+    @Test
+    public void ctsJson() {
+        JsonArray queries = JsonParser.parseString(query.toCtsQuery(Format.JSON)).getAsJsonObject()
+            .getAsJsonObject("orQuery").getAsJsonArray("queries");
+        assertEquals(">", queries.get(0).getAsJsonObject().getAsJsonObject("jsonPropertyRangeQuery").get("operator").getAsString());
+
+        JsonArray andQueries = queries.get(1).getAsJsonObject().getAsJsonObject("andQuery").getAsJsonArray("queries");
+        assertEquals("=", andQueries.get(0).getAsJsonObject().getAsJsonObject("jsonPropertyRangeQuery").get("operator").getAsString());
+        JsonArray uris = andQueries.get(1).getAsJsonObject().getAsJsonObject("notQuery").getAsJsonObject("query")
+            .getAsJsonObject("documentQuery").getAsJsonArray("uris");
+        assertEquals("/quote\".json", uris.get(1).getAsString(), "URIs should be escaped");
+    }
+
+    @Test
+    public void structuredJson() {
+        JsonArray queries = JsonParser.parseString(query.toStructuredQuery(Format.JSON)).getAsJsonObject()
+            .getAsJsonObject("or-query").getAsJsonArray("queries");
+        assertEquals("GT", queries.get(0).getAsJsonObject().getAsJsonObject("range-query").get("range-operator").getAsString());
+        JsonObject andQuery = queries.get(1).getAsJsonObject().getAsJsonObject("and-query");
+        assertEquals("EQ", andQuery.getAsJsonArray("queries").get(0).getAsJsonObject().getAsJsonObject("range-query")
+            .get("range-operator").getAsString());
+    }
+
+    @Test
+    public void ctsXml() {
+        String xml = query.toCtsQuery(Format.XML);
+        assertTrue(xml.startsWith("<cts:or-query"));
+        assertTrue(xml.contains("<cts:uri>/a.json</cts:uri>"));
+    }
+
+    @Test
+    public void structuredXml() {
+        String xml = query.toStructuredQuery(Format.XML);
+        assertTrue(xml.contains("or-query"), "Unexpected query: " + xml);
+        assertTrue(xml.contains("/a.json"), "Unexpected query: " + xml);
+    }
+}
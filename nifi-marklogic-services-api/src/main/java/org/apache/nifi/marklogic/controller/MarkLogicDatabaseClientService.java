@@ -17,13 +17,61 @@
 package org.apache.nifi.marklogic.controller;
 
 import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.ForestConfiguration;
 import com.marklogic.client.ext.DatabaseClientConfig;
 import org.apache.nifi.controller.ControllerService;
 
 public interface MarkLogicDatabaseClientService extends ControllerService {
 
+    /**
+     * Names of the limiters returned by {@link #getSharedRateLimiter(String)}
+     */
+    String DOCUMENTS_RATE_LIMITER = "documents";
+    String BYTES_RATE_LIMITER = "bytes";
+
     DatabaseClient getDatabaseClient();
 
     DatabaseClientConfig getDatabaseClientConfig();
 
+    /**
+     * Returns a {@code DataMovementManager} that is shared by every processor that opts in to using it. The service
+     * owns its lifecycle, so processors must stop the jobs they start with it but must never release it.
+     *
+     * @return the shared manager, or null if this service does not provide one, in which case processors should
+     * create their own
+     */
+    default DataMovementManager getSharedDataMovementManager() {
+        return null;
+    }
+
+    /**
+     * @return the forest configuration most recently read by the shared {@code DataMovementManager}, or null if this
+     * service does not provide a shared manager
+     */
+    default ForestConfiguration getForestConfiguration() {
+        return null;
+    }
+
+    /**
+     * Informs the service of a failure encountered by a job that uses the shared {@code DataMovementManager}, so that
+     * the forest configuration can be refreshed if the failure indicates that a host is unavailable.
+     *
+     * @param failure
+     */
+    default void reportFailure(Throwable failure) {
+    }
+
+    /**
+     * Returns a rate limiter that is shared by every processor that opts in to using it, so that a single limit can be
+     * applied across processors. The rate is set when the service is enabled and is fixed while it remains enabled;
+     * a limit that must change while processors are running requires a limiter owned by each processor instead.
+     *
+     * @param name identifies the limit, such as {@link #DOCUMENTS_RATE_LIMITER} or {@link #BYTES_RATE_LIMITER}
+     * @return the shared limiter, or null if this service does not provide one with the given name
+     */
+    default TokenBucketRateLimiter getSharedRateLimiter(String name) {
+        return null;
+    }
+
 }
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits how many permits - such as documents or bytes - can be acquired per second, across every
+ * thread that shares it. The bucket holds up to one second's worth of permits, allowing short bursts. A request for
+ * more permits than are available waits for the missing permits to accrue; because the permits are taken from the
+ * bucket before waiting, a request larger than the bucket - such as a large batch - is still granted, and later
+ * requests queue up behind it.
+ * <p>
+ * The rate can be changed at any time, including while other threads are waiting, and takes effect for every
+ * subsequent request. A rate of zero or less means no limit.
+ */
+public class TokenBucketRateLimiter {
+
+    private final String name;
+    private double permitsPerSecond;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    private long acquiredPermits;
+    private long throttledNanos;
+
+    /**
+     * @param name             identifies the limiter in log messages and statistics
+     * @param permitsPerSecond zero or less for no limit
+     */
+    public TokenBucketRateLimiter(String name, double permitsPerSecond) {
+        this.name = name;
+        this.lastRefillNanos = System.nanoTime();
+        setRate(permitsPerSecond);
+        // Starts full so that the first batch is not delayed
+        this.availablePermits = Math.max(permitsPerSecond, 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param permitsPerSecond zero or less for no limit; takes effect for every subsequent request
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        if (permitsPerSecond > 0) {
+            availablePermits = Math.min(availablePermits, permitsPerSecond);
+        } else {
+            availablePermits = 0;
+        }
+    }
+
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Acquires the given number of permits, waiting as long as the rate requires.
+     *
+     * @param permits
+     * @return the number of milliseconds spent waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire(long permits) throws InterruptedException {
+        if (permits <= 0) {
+            return 0;
+        }
+        final long waitNanos;
+        synchronized (this) {
+            acquiredPermits += permits;
+            if (permitsPerSecond <= 0) {
+                return 0;
+            }
+            refill(System.nanoTime());
+            availablePermits -= permits;
+            waitNanos = availablePermits >= 0 ? 0 : (long) (-availablePermits / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            throttledNanos += waitNanos;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    private void refill(long now) {
+        if (permitsPerSecond > 0) {
+            final double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            availablePermits = Math.min(permitsPerSecond, availablePermits + elapsedSeconds * permitsPerSecond);
+        }
+        lastRefillNanos = now;
+    }
+
+    /**
+     * @return the total number of permits acquired since this limiter was created
+     */
+    public synchronized long getAcquiredPermits() {
+        return acquiredPermits;
+    }
+
+    /**
+     * @return the total time that requests have been made to wait since this limiter was created
+     */
+    public synchronized long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " (" + (permitsPerSecond > 0 ? permitsPerSecond + " per second" : "unlimited") + ")";
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.document.DocumentPage;
+import com.marklogic.client.document.DocumentRecord;
+import com.marklogic.client.expression.PlanBuilder;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.JacksonHandle;
+import com.marklogic.client.io.StringHandle;
+import com.marklogic.client.row.RowManager;
+import com.marklogic.client.type.ServerExpression;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.lookup.LookupFailureException;
+import org.apache.nifi.lookup.LookupService;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Base class for lookup services that look up values in MarkLogic, either as documents identified by URI or as rows
+ * in an Optic view identified by a key column.
+ * <p>
+ * Lookups made concurrently by the processors using the service are coalesced into batches via {@code LookupBatcher}
+ * so that a single request retrieves the values for many keys, and looked-up values are cached via
+ * {@code LookupCache}.
+ *
+ * @param <T> the type of value returned by the service
+ */
+public abstract class AbstractMarkLogicLookupService<T> extends AbstractControllerService implements LookupService<T> {
+
+    public static final String KEY = "key";
+
+    public static final PropertyDescriptor DATABASE_CLIENT_SERVICE = new PropertyDescriptor.Builder()
+        .name("DatabaseClient Service")
+        .displayName("DatabaseClient Service")
+        .required(true)
+        .description("The DatabaseClient Controller Service that provides the MarkLogic connection")
+        .identifiesControllerService(MarkLogicDatabaseClientService.class)
+        .build();
+
+    public static final PropertyDescriptor LOOKUP_SOURCE = new PropertyDescriptor.Builder()
+        .name("Lookup Source")
+        .displayName("Lookup Source")
+        .required(true)
+        .defaultValue(LookupSources.DOCUMENT_URI.getValue())
+        .description("Where the value for each key is looked up")
+        .allowableValues(LookupSources.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor URI_PREFIX = new PropertyDescriptor.Builder()
+        .name("URI Prefix")
+        .displayName("URI Prefix")
+        .required(false)
+        .description("When looking up documents, prepended to each key to construct the URI of the document")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor URI_SUFFIX = new PropertyDescriptor.Builder()
+        .name("URI Suffix")
+        .displayName("URI Suffix")
+        .required(false)
+        .description("When looking up documents, appended to each key to construct the URI of the document")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor SCHEMA = new PropertyDescriptor.Builder()
+        .name("Schema")
+        .displayName("Schema")
+        .required(false)
+        .description("When looking up rows, the schema of the Optic view")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor VIEW = new PropertyDescriptor.Builder()
+        .name("View")
+        .displayName("View")
+        .required(false)
+        .description("When looking up rows, the name of the Optic view")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor KEY_COLUMN = new PropertyDescriptor.Builder()
+        .name("Key Column")
+        .displayName("Key Column")
+        .required(false)
+        .description("When looking up rows, the column of the view that is matched against each key. If more than " +
+            "one row matches a key, the first row returned is used.")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor KEY_COLUMN_TYPE = new PropertyDescriptor.Builder()
+        .name("Key Column Type")
+        .displayName("Key Column Type")
+        .required(true)
+        .defaultValue(KeyColumnTypes.STRING.getValue())
+        .description("When looking up rows, the type of the Key Column in the view. Each key is converted to a value " +
+            "of this type, so that the column is compared without being cast and its index can be used to find the " +
+            "matching rows. A key that cannot be converted to this type is treated as not found.")
+        .allowableValues(KeyColumnTypes.allValues)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("Batch Size")
+        .displayName("Batch Size")
+        .required(true)
+        .defaultValue("100")
+        .description("The maximum number of keys to look up with a single request to MarkLogic")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor MAX_BATCH_WAIT = new PropertyDescriptor.Builder()
+        .name("Max Batch Wait")
+        .displayName("Max Batch Wait")
+        .required(true)
+        .defaultValue("10 ms")
+        .description("The maximum time to wait for other lookups to be added to a batch before the batch is sent " +
+            "to MarkLogic. A larger value allows for fuller batches at the cost of latency for each lookup.")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor CONCURRENT_REQUESTS = new PropertyDescriptor.Builder()
+        .name("Concurrent Requests")
+        .displayName("Concurrent Requests")
+        .required(true)
+        .defaultValue("4")
+        .description("The maximum number of batches to look up at the same time")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor LOOKUP_TIMEOUT = new PropertyDescriptor.Builder()
+        .name("Lookup Timeout")
+        .displayName("Lookup Timeout")
+        .required(true)
+        .defaultValue("30 sec")
+        .description("The maximum time to wait for a single lookup to complete before it fails")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor CACHE_SIZE = new PropertyDescriptor.Builder()
+        .name("Cache Size")
+        .displayName("Cache Size")
+        .required(true)
+        .defaultValue("1000")
+        .description("The maximum number of looked-up values to cache; the least recently used value is evicted once " +
+            "the cache is full. Set to 0 to disable caching.")
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+        .name("Cache TTL")
+        .displayName("Cache TTL")
+        .required(false)
+        .description("If set, cached values older than this are looked up again")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor NOT_FOUND_CACHE_TTL = new PropertyDescriptor.Builder()
+        .name("Not Found Cache TTL")
+        .displayName("Not Found Cache TTL")
+        .required(true)
+        .defaultValue("0 sec")
+        .description("How long to cache keys that were not found, so that repeated lookups of missing keys do not " +
+            "each require a request to MarkLogic. Set to '0 sec' to not cache keys that were not found.")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    protected static final List<PropertyDescriptor> COMMON_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+        DATABASE_CLIENT_SERVICE, LOOKUP_SOURCE, URI_PREFIX, URI_SUFFIX, SCHEMA, VIEW, KEY_COLUMN, KEY_COLUMN_TYPE,
+        BATCH_SIZE, MAX_BATCH_WAIT, CONCURRENT_REQUESTS, LOOKUP_TIMEOUT, CACHE_SIZE, CACHE_TTL, NOT_FOUND_CACHE_TTL
+    ));
+
+    private volatile DatabaseClient databaseClient;
+    private volatile LookupBatcher<JsonNode> lookupBatcher;
+    private volatile LookupCache<T> lookupCache;
+    private volatile long lookupTimeoutMillis;
+
+    private String uriPrefix;
+    private String uriSuffix;
+    private String schema;
+    private String view;
+    private String keyColumn;
+    private String keyColumnType;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return COMMON_PROPERTIES;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext validationContext) {
+        List<ValidationResult> results = new ArrayList<>();
+        if (LookupSources.OPTIC_VIEW_STR.equals(validationContext.getProperty(LOOKUP_SOURCE).getValue())) {
+            for (PropertyDescriptor descriptor : Arrays.asList(SCHEMA, VIEW, KEY_COLUMN)) {
+                if (!validationContext.getProperty(descriptor).isSet()) {
+                    results.add(new ValidationResult.Builder().subject(descriptor.getDisplayName()).valid(false)
+                        .explanation(descriptor.getDisplayName() + " is required when looking up rows in an Optic view").build());
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Set<String> getRequiredKeys() {
+        return Collections.singleton(KEY);
+    }
+
+    @OnEnabled
+    public void onEnabled(ConfigurationContext context) {
+        databaseClient = context.getProperty(DATABASE_CLIENT_SERVICE)
+            .asControllerService(MarkLogicDatabaseClientService.class).getDatabaseClient();
+        uriPrefix = context.getProperty(URI_PREFIX).isSet() ? context.getProperty(URI_PREFIX).getValue() : "";
+        uriSuffix = context.getProperty(URI_SUFFIX).isSet() ? context.getProperty(URI_SUFFIX).getValue() : "";
+        schema = context.getProperty(SCHEMA).getValue();
+        view = context.getProperty(VIEW).getValue();
+        keyColumn = context.getProperty(KEY_COLUMN).getValue();
+        keyColumnType = context.getProperty(KEY_COLUMN_TYPE).getValue();
+        lookupTimeoutMillis = context.getProperty(LOOKUP_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+
+        final boolean lookupRows = LookupSources.OPTIC_VIEW_STR.equals(context.getProperty(LOOKUP_SOURCE).getValue());
+        lookupBatcher = new LookupBatcher<>(
+            lookupRows ? this::lookupRows : this::lookupDocuments,
+            context.getProperty(BATCH_SIZE).asInteger(),
+            context.getProperty(MAX_BATCH_WAIT).asTimePeriod(TimeUnit.MILLISECONDS),
+            context.getProperty(CONCURRENT_REQUESTS).asInteger(),
+            "MarkLogicLookupService-" + getIdentifier()
+        );
+
+        initializeLookup(context);
+
+        final long ttlMillis = context.getProperty(CACHE_TTL).isSet() ?
+            context.getProperty(CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS) : 0;
+        lookupCache = new LookupCache<>(context.getProperty(CACHE_SIZE).asInteger(), ttlMillis,
+            context.getProperty(NOT_FOUND_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Invoked when the service is enabled, allowing a subclass to read its own properties.
+     *
+     * @param context
+     */
+    protected void initializeLookup(ConfigurationContext context) {
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        if (lookupBatcher != null) {
+            getLogger().info("Looked up values in {} batches; {} lookups shared a pending lookup for the same key",
+                lookupBatcher.getBatchCount(), lookupBatcher.getCoalescedLookups());
+            lookupBatcher.shutdown();
+            lookupBatcher = null;
+        }
+        if (lookupCache != null) {
+            lookupCache.clear();
+            lookupCache = null;
+        }
+        databaseClient = null;
+    }
+
+    @Override
+    public Optional<T> lookup(Map<String, Object> coordinates) throws LookupFailureException {
+        final Object keyValue = coordinates.get(KEY);
+        if (keyValue == null) {
+            return Optional.empty();
+        }
+        final String key = keyValue.toString();
+        LookupCache.CachedValue<T> cachedValue = lookupCache.get(key);
+        if (cachedValue != null) {
+            return Optional.ofNullable(cachedValue.getValue());
+        }
+
+        try {
+            Optional<JsonNode> node = lookupBatcher.submit(key).get(lookupTimeoutMillis, TimeUnit.MILLISECONDS);
+            T value = node.map(this::toLookupValue).orElse(null);
+            lookupCache.put(key, value);
+            return Optional.ofNullable(value);
+        } catch (ExecutionException ex) {
+            throw new LookupFailureException("Unable to look up key: " + key + "; cause: " + ex.getCause().getMessage(), ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new LookupFailureException("Timed out looking up key: " + key, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LookupFailureException("Interrupted while looking up key: " + key, ex);
+        }
+    }
+
+    /**
+     * Converts a looked-up document or row into the value returned by this service.
+     *
+     * @param node a JSON document, a JSON object representing a row, or a text node containing a non-JSON document
+     * @return the value; null if the document or row does not provide a value, in which case the key is treated as
+     * not found
+     */
+    protected abstract T toLookupValue(JsonNode node);
+
+    /**
+     * Reads the documents for a batch of keys with a single request.
+     */
+    private Map<String, JsonNode> lookupDocuments(Set<String> keys) {
+        Map<String, String> keysByUri = new LinkedHashMap<>();
+        keys.forEach(key -> keysByUri.put(uriPrefix + key + uriSuffix, key));
+        Map<String, JsonNode> results = new HashMap<>();
+        try (DocumentPage page = databaseClient.newDocumentManager().read(keysByUri.keySet().toArray(new String[0]))) {
+            for (DocumentRecord record : page) {
+                JsonNode node = Format.JSON.equals(record.getFormat()) ?
+                    record.getContent(new JacksonHandle()).get() :
+                    new TextNode(record.getContent(new StringHandle()).get());
+                results.put(keysByUri.get(record.getUri()), node);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Selects the rows for a batch of keys with a single Optic query. Column names in the returned rows are not
+     * qualified by the schema and view.
+     */
+    private Map<String, JsonNode> lookupRows(Set<String> keys) {
+        // Keys are matched by the value of the column in each row, which may be written differently than the key
+        Map<String, String> keysByColumnValue = new HashMap<>();
+        for (String key : keys) {
+            String columnValue = toColumnValue(key, keyColumnType);
+            if (columnValue != null) {
+                keysByColumnValue.putIfAbsent(columnValue, key);
+            }
+        }
+        Map<String, JsonNode> results = new HashMap<>();
+        if (keysByColumnValue.isEmpty()) {
+            return results;
+        }
+
+        RowManager rowManager = databaseClient.newRowManager();
+        rowManager.setDatatypeStyle(RowManager.RowSetPart.HEADER);
+        rowManager.setRowStructureStyle(RowManager.RowStructure.OBJECT);
+        PlanBuilder.ModifyPlan plan = buildRowsPlan(rowManager.newPlanBuilder(), schema, view, keyColumn, keyColumnType,
+            keysByColumnValue.keySet());
+
+        JsonNode doc = rowManager.resultDoc(plan, new JacksonHandle()).get();
+        if (doc == null || !doc.has("rows")) {
+            return results;
+        }
+        final String qualifier = schema + "." + view + ".";
+        for (JsonNode row : doc.get("rows")) {
+            ObjectNode unqualifiedRow = JsonNodeFactory.instance.objectNode();
+            row.fields().forEachRemaining(field -> {
+                String name = field.getKey().startsWith(qualifier) ? field.getKey().substring(qualifier.length()) : field.getKey();
+                unqualifiedRow.set(name, field.getValue());
+            });
+            JsonNode keyValue = unqualifiedRow.get(keyColumn);
+            String key = keyValue != null && !keyValue.isNull() ? keysByColumnValue.get(keyValue.asText()) : null;
+            if (key != null) {
+                results.putIfAbsent(key, unqualifiedRow);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Builds a plan that selects the rows whose key column equals one of the given values. The column is compared
+     * with a literal of its own type, rather than being cast to a string, so that its index can be used to filter the
+     * rows instead of every row in the view being scanned.
+     *
+     * @param columnValues values returned by {@link #toColumnValue(String, String)}
+     */
+    static PlanBuilder.ModifyPlan buildRowsPlan(PlanBuilder op, String schema, String view, String keyColumn,
+                                                String keyColumnType, Collection<String> columnValues) {
+        ServerExpression[] matches = columnValues.stream()
+            .map(value -> op.eq(op.col(keyColumn), toLiteral(op, value, keyColumnType)))
+            .toArray(ServerExpression[]::new);
+        return op.fromView(schema, view).where(matches.length == 1 ? matches[0] : op.or(matches));
+    }
+
+    private static ServerExpression toLiteral(PlanBuilder op, String columnValue, String keyColumnType) {
+        switch (keyColumnType) {
+            case KeyColumnTypes.INT_STR:
+                return op.xs.intVal(Integer.parseInt(columnValue));
+            case KeyColumnTypes.LONG_STR:
+                return op.xs.longVal(Long.parseLong(columnValue));
+            case KeyColumnTypes.INTEGER_STR:
+                return op.xs.integer(Long.parseLong(columnValue));
+            case KeyColumnTypes.DATE_STR:
+                return op.xs.date(columnValue);
+            default:
+                return op.xs.string(columnValue);
+        }
+    }
+
+    /**
+     * @return the key as it is written in a row of the view, so that rows can be matched back to keys; null if the
+     * key cannot be converted to the type of the key column
+     */
+    static String toColumnValue(String key, String keyColumnType) {
+        try {
+            switch (keyColumnType) {
+                case KeyColumnTypes.INT_STR:
+                    return Integer.toString(Integer.parseInt(key.trim()));
+                case KeyColumnTypes.LONG_STR:
+                case KeyColumnTypes.INTEGER_STR:
+                    return Long.toString(Long.parseLong(key.trim()));
+                case KeyColumnTypes.DATE_STR:
+                    return LocalDate.parse(key.trim()).toString();
+                default:
+                    return key;
+            }
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public static class LookupSources {
+        public static final String DOCUMENT_URI_STR = "Document URI";
+        public static final AllowableValue DOCUMENT_URI = new AllowableValue(DOCUMENT_URI_STR, DOCUMENT_URI_STR,
+            "Each key, along with the optional URI prefix and suffix, is the URI of a document to read");
+        public static final String OPTIC_VIEW_STR = "Optic View";
+        public static final AllowableValue OPTIC_VIEW = new AllowableValue(OPTIC_VIEW_STR, OPTIC_VIEW_STR,
+            "Each key is matched against the key column of the given Optic view");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{DOCUMENT_URI, OPTIC_VIEW};
+    }
+
+    public static class KeyColumnTypes {
+        public static final String STRING_STR = "xs:string";
+        public static final AllowableValue STRING = new AllowableValue(STRING_STR, STRING_STR);
+        public static final String INT_STR = "xs:int";
+        public static final AllowableValue INT = new AllowableValue(INT_STR, INT_STR);
+        public static final String LONG_STR = "xs:long";
+        public static final AllowableValue LONG = new AllowableValue(LONG_STR, LONG_STR);
+        public static final String INTEGER_STR = "xs:integer";
+        public static final AllowableValue INTEGER = new AllowableValue(INTEGER_STR, INTEGER_STR,
+            "Keys must be within the range of a long");
+        public static final String DATE_STR = "xs:date";
+        public static final AllowableValue DATE = new AllowableValue(DATE_STR, DATE_STR,
+            "Keys must be dates without a timezone, such as 2024-03-01");
+
+        public static final AllowableValue[] allValues = new AllowableValue[]{STRING, INT, LONG, INTEGER, DATE};
+    }
+}
@@ -18,6 +18,9 @@ package org.apache.nifi.marklogic.controller;
 
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.client.MarkLogicIOException;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.ForestConfiguration;
 import com.marklogic.client.ext.DatabaseClientConfig;
 import com.marklogic.client.ext.DefaultConfiguredDatabaseClientFactory;
 import com.marklogic.client.ext.SecurityContextType;
@@ -31,22 +34,33 @@ import org.apache.nifi.components.Validator;
 import org.apache.nifi.controller.AbstractControllerService;
 import org.apache.nifi.controller.ConfigurationContext;
 import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.security.util.ClientAuth;
 import org.apache.nifi.ssl.SSLContextService;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.security.KeyStore;
 import java.security.ProviderException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Tags({"MarkLogic"})
-@CapabilityDescription("Provides a MarkLogic DatabaseClient instance for use by other processors")
+@CapabilityDescription("Provides a MarkLogic DatabaseClient instance for use by other processors, along with a " +
+    "DataMovementManager that processors can opt in to sharing")
 public class DefaultMarkLogicDatabaseClientService extends AbstractControllerService implements MarkLogicDatabaseClientService {
 
     private static List<PropertyDescriptor> properties;
@@ -54,6 +68,12 @@ public class DefaultMarkLogicDatabaseClientService extends AbstractControllerSer
     private DatabaseClient databaseClient;
     private DatabaseClientConfig databaseClientConfig;
 
+    private volatile DataMovementManager sharedDataMovementManager;
+    private volatile ForestConfiguration forestConfiguration;
+    private volatile ScheduledExecutorService forestConfigurationRefresher;
+    private final AtomicBoolean forestConfigurationRefreshPending = new AtomicBoolean();
+    private final Map<String, TokenBucketRateLimiter> sharedRateLimiters = new ConcurrentHashMap<>();
+
     public static final PropertyDescriptor HOST = new PropertyDescriptor.Builder()
         .name("Host")
         .displayName("Host")
@@ -169,6 +189,36 @@ public class DefaultMarkLogicDatabaseClientService extends AbstractControllerSer
         .expressionLanguageSupported(ExpressionLanguageScope.ENVIRONMENT)
         .build();
 
+    public static final PropertyDescriptor FOREST_CONFIGURATION_REFRESH_INTERVAL = new PropertyDescriptor.Builder()
+        .name("Forest Configuration Refresh Interval")
+        .displayName("Forest Configuration Refresh Interval")
+        .description("How often the shared DataMovementManager re-reads the forest configuration of the database; " +
+            "it is also re-read whenever a processor using the shared manager reports that a host is unavailable. " +
+            "Set to '0 sec' to only re-read it when a host is unavailable. Only applies to processors that are " +
+            "configured to use the shared DataMovementManager.")
+        .required(true)
+        .defaultValue("5 min")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor SHARED_DOCUMENTS_PER_SECOND = new PropertyDescriptor.Builder()
+        .name("Shared Documents Per Second")
+        .displayName("Shared Documents Per Second")
+        .description("The maximum number of documents per second that can be read, across every processor whose " +
+            "'Rate Limit Scope' is 'Shared'. Leave blank for no limit.")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor SHARED_BYTES_PER_SECOND = new PropertyDescriptor.Builder()
+        .name("Shared Bytes Per Second")
+        .displayName("Shared Bytes Per Second")
+        .description("The maximum amount of document content per second, such as '10 MB', that can be read across " +
+            "every processor whose 'Rate Limit Scope' is 'Shared'. Leave blank for no limit.")
+        .required(false)
+        .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+        .build();
+
     static {
         List<PropertyDescriptor> list = new ArrayList<>();
         list.add(HOST);
@@ -183,6 +233,9 @@ public class DefaultMarkLogicDatabaseClientService extends AbstractControllerSer
         list.add(EXTERNAL_NAME);
         list.add(SSL_CONTEXT_SERVICE);
         list.add(CLIENT_AUTH);
+        list.add(FOREST_CONFIGURATION_REFRESH_INTERVAL);
+        list.add(SHARED_DOCUMENTS_PER_SECOND);
+        list.add(SHARED_BYTES_PER_SECOND);
         properties = Collections.unmodifiableList(list);
     }
 
@@ -191,10 +244,46 @@ public class DefaultMarkLogicDatabaseClientService extends AbstractControllerSer
         getLogger().info("Creating DatabaseClient");
         databaseClientConfig = buildDatabaseClientConfig(context);
         databaseClient = new DefaultConfiguredDatabaseClientFactory().newDatabaseClient(databaseClientConfig);
+
+        forestConfigurationRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MarkLogic forest configuration refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        PropertyValue refreshIntervalProp = context.getProperty(FOREST_CONFIGURATION_REFRESH_INTERVAL);
+        Objects.requireNonNull(refreshIntervalProp);
+        final long refreshIntervalMillis = refreshIntervalProp.asTimePeriod(TimeUnit.MILLISECONDS);
+        if (refreshIntervalMillis > 0) {
+            forestConfigurationRefresher.scheduleWithFixedDelay(() -> {
+                if (sharedDataMovementManager != null) {
+                    refreshForestConfiguration();
+                }
+            }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        final Integer documentsPerSecond = context.getProperty(SHARED_DOCUMENTS_PER_SECOND).asInteger();
+        sharedRateLimiters.put(DOCUMENTS_RATE_LIMITER, new TokenBucketRateLimiter("Shared documents per second",
+            documentsPerSecond != null ? documentsPerSecond : 0));
+        final Double bytesPerSecond = context.getProperty(SHARED_BYTES_PER_SECOND).asDataSize(DataUnit.B);
+        sharedRateLimiters.put(BYTES_RATE_LIMITER, new TokenBucketRateLimiter("Shared bytes per second",
+            bytesPerSecond != null ? bytesPerSecond : 0));
     }
 
     @OnDisabled
     public void shutdown() {
+        if (forestConfigurationRefresher != null) {
+            forestConfigurationRefresher.shutdownNow();
+            forestConfigurationRefresher = null;
+        }
+        synchronized (this) {
+            if (sharedDataMovementManager != null) {
+                getLogger().info("Releasing shared DataMovementManager");
+                sharedDataMovementManager.release();
+                sharedDataMovementManager = null;
+            }
+            forestConfiguration = null;
+        }
+        sharedRateLimiters.clear();
         if (databaseClient != null) {
             databaseClient.release();
             databaseClient = null;
@@ -303,6 +392,93 @@ public class DefaultMarkLogicDatabaseClientService extends AbstractControllerSer
         return databaseClientConfig;
     }
 
+    /**
+     * The shared manager is created when a processor first asks for it, so that enabling this service does not
+     * require MarkLogic to be available. The manager reuses the forest configuration it last read for every job it
+     * creates, which avoids reading it from MarkLogic each time a job is started.
+     */
+    @Override
+    public DataMovementManager getSharedDataMovementManager() {
+        DataMovementManager manager = sharedDataMovementManager;
+        if (manager == null) {
+            synchronized (this) {
+                if (sharedDataMovementManager == null && databaseClient != null) {
+                    getLogger().info("Creating shared DataMovementManager");
+                    DataMovementManager newManager = databaseClient.newDataMovementManager();
+                    forestConfiguration = newManager.readForestConfig();
+                    sharedDataMovementManager = newManager;
+                }
+                manager = sharedDataMovementManager;
+            }
+        }
+        return manager;
+    }
+
+    @Override
+    public ForestConfiguration getForestConfiguration() {
+        return getSharedDataMovementManager() != null ? forestConfiguration : null;
+    }
+
+    /**
+     * Refreshes the forest configuration asynchronously if the failure indicates that a host is unavailable. Failures
+     * reported while a refresh is pending are coalesced into that refresh.
+     */
+    @Override
+    public void reportFailure(Throwable failure) {
+        ScheduledExecutorService refresher = forestConfigurationRefresher;
+        if (refresher == null || sharedDataMovementManager == null || !isHostUnavailable(failure)) {
+            return;
+        }
+        if (forestConfigurationRefreshPending.compareAndSet(false, true)) {
+            getLogger().warn("Host appears to be unavailable; refreshing forest configuration; cause: " + failure.getMessage());
+            try {
+                refresher.execute(() -> {
+                    forestConfigurationRefreshPending.set(false);
+                    refreshForestConfiguration();
+                });
+            } catch (RejectedExecutionException ex) {
+                // The service is being disabled
+                forestConfigurationRefreshPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * A limiter exists for each of the shared limits whenever this service is enabled, even when its property is
+     * blank, in which case it does not limit the processors using it. The rates are set when the service is enabled
+     * and are fixed until it is disabled.
+     */
+    @Override
+    public TokenBucketRateLimiter getSharedRateLimiter(String name) {
+        return sharedRateLimiters.get(name);
+    }
+
+    private void refreshForestConfiguration() {
+        DataMovementManager manager = sharedDataMovementManager;
+        if (manager == null) {
+            return;
+        }
+        try {
+            forestConfiguration = manager.readForestConfig();
+            getLogger().debug("Refreshed forest configuration");
+        } catch (Exception ex) {
+            getLogger().warn("Unable to refresh forest configuration; will continue using the previous one; cause: " + ex.getMessage());
+        }
+    }
+
+    private static boolean isHostUnavailable(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MarkLogicIOException || cause instanceof SocketException ||
+                cause instanceof UnknownHostException || cause instanceof SSLException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         return properties;
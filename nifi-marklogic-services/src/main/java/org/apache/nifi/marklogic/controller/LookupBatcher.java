@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces lookups made concurrently by many threads into batches so that each batch of keys can be looked up with a
+ * single request to MarkLogic.
+ * <p>
+ * A dispatcher thread waits for a key to be submitted, and then gathers further keys until either the batch is full or
+ * the maximum wait has elapsed. A lookup for a key that is already waiting to be looked up shares the pending result
+ * instead of adding the key again. Up to the given number of batches are looked up at once; while every request is
+ * in flight, new keys accumulate so that the next batch is as full as possible.
+ *
+ * @param <V> the type of the value looked up for each key
+ */
+public class LookupBatcher<V> {
+
+    /**
+     * Looks up the values for a batch of keys.
+     */
+    public interface BatchLookup<V> {
+
+        /**
+         * @param keys the distinct keys to look up
+         * @return the value for each key that was found; keys that were not found are omitted
+         */
+        Map<String, V> lookup(Set<String> keys) throws Exception;
+    }
+
+    private final BatchLookup<V> batchLookup;
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final Thread dispatcher;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<String, CompletableFuture<Optional<V>>> pendingLookups = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedLookups = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param batchLookup        performs the lookup for each batch
+     * @param batchSize          the maximum number of keys per batch
+     * @param maxWaitMillis      the maximum time to wait for a batch to fill after its first key is submitted
+     * @param concurrentRequests the maximum number of batches to look up at once
+     * @param name               used to name the threads of the batcher
+     */
+    public LookupBatcher(BatchLookup<V> batchLookup, int batchSize, long maxWaitMillis, int concurrentRequests, String name) {
+        this.batchLookup = batchLookup;
+        this.batchSize = batchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.permits = new Semaphore(concurrentRequests);
+        this.executor = Executors.newFixedThreadPool(concurrentRequests, runnable -> {
+            Thread thread = new Thread(runnable, name + "-lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, name + "-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @param key
+     * @return a future that is completed with the value for the key, or an empty value if the key was not found
+     */
+    public CompletableFuture<Optional<V>> submit(String key) {
+        CompletableFuture<Optional<V>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<V>> pending = pendingLookups.putIfAbsent(key, future);
+        if (pending != null) {
+            coalescedLookups.incrementAndGet();
+            return pending;
+        }
+        if (!running) {
+            pendingLookups.remove(key, future);
+            future.completeExceptionally(new IllegalStateException("Lookups are no longer being performed"));
+        } else {
+            queue.add(key);
+        }
+        return future;
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                permits.acquire();
+                Set<String> keys = nextBatch();
+                if (keys.isEmpty()) {
+                    permits.release();
+                    continue;
+                }
+                batchCount.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        lookupBatch(keys);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RejectedExecutionException ex) {
+                return;
+            }
+        }
+    }
+
+    private Set<String> nextBatch() throws InterruptedException {
+        Set<String> keys = new LinkedHashSet<>();
+        String key = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return keys;
+        }
+        keys.add(key);
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (keys.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            key = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (key == null) {
+                break;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private void lookupBatch(Set<String> keys) {
+        Map<String, V> values;
+        try {
+            values = batchLookup.lookup(keys);
+        } catch (Throwable t) {
+            keys.forEach(key -> {
+                CompletableFuture<Optional<V>> future = pendingLookups.remove(key);
+                if (future != null) {
+                    future.completeExceptionally(t);
+                }
+            });
+            return;
+        }
+        keys.forEach(key -> {
+            CompletableFuture<Optional<V>> future = pendingLookups.remove(key);
+            if (future != null) {
+                future.complete(Optional.ofNullable(values.get(key)));
+            }
+        });
+    }
+
+    /**
+     * @return the number of lookups that shared the result of a lookup for the same key that was already pending
+     */
+    public long getCoalescedLookups() {
+        return coalescedLookups.get();
+    }
+
+    /**
+     * @return the number of batches that have been looked up
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Stops the batcher; any lookups that have not completed are failed.
+     */
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        IllegalStateException ex = new IllegalStateException("Lookups are no longer being performed");
+        pendingLookups.keySet().forEach(key -> {
+            CompletableFuture<Optional<V>> future = pendingLookups.remove(key);
+            if (future != null) {
+                future.completeExceptionally(ex);
+            }
+        });
+        queue.clear();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of looked-up values, bounded by the number of entries, that evicts the least recently used entry once full.
+ * Keys that were not found can also be cached - "negative caching" - with their own time-to-live, so that repeated
+ * lookups of missing keys do not each require a request to MarkLogic.
+ *
+ * @param <V> the type of the cached values
+ */
+public class LookupCache<V> {
+
+    private final long ttlMillis;
+    private final long notFoundTtlMillis;
+    private final Map<String, CachedValue<V>> entries;
+
+    /**
+     * @param maxEntries        the maximum number of entries; zero or less disables caching
+     * @param ttlMillis         found values older than this are not returned; zero or less for no limit
+     * @param notFoundTtlMillis how long keys that were not found are cached; zero or less to not cache them
+     */
+    public LookupCache(final int maxEntries, long ttlMillis, long notFoundTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.notFoundTtlMillis = notFoundTtlMillis;
+        this.entries = new LinkedHashMap<String, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return the cached value for the key, which is empty if the key is cached as not found; null if the key is not
+     * cached or its entry has expired
+     */
+    public synchronized CachedValue<V> get(String key) {
+        CachedValue<V> cached = entries.get(key);
+        if (cached != null) {
+            long ttl = cached.value != null ? ttlMillis : notFoundTtlMillis;
+            if (ttl > 0 && System.currentTimeMillis() - cached.createdTime > ttl) {
+                entries.remove(key);
+                return null;
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * @param key
+     * @param value null if the key was not found
+     */
+    public synchronized void put(String key, V value) {
+        if (value == null && notFoundTtlMillis <= 0) {
+            return;
+        }
+        entries.put(key, new CachedValue<>(value));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public static class CachedValue<V> {
+        private final V value;
+        private final long createdTime = System.currentTimeMillis();
+
+        private CachedValue(V value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the value, or null if the key was not found
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+}
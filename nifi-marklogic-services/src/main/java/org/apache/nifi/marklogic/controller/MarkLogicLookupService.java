@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.lookup.RecordLookupService;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+
+import java.util.*;
+
+@Tags({"MarkLogic", "lookup", "enrich", "record", "cache"})
+@CapabilityDescription("Looks up records in MarkLogic, either as JSON documents identified by URI or as rows in an " +
+    "Optic view identified by a key column, for use with processors such as LookupRecord. Concurrent lookups are " +
+    "combined into batches so that many keys are looked up with a single request, and looked-up records are cached. " +
+    "Non-JSON documents are returned as a record with a single 'content' field.")
+public class MarkLogicLookupService extends AbstractMarkLogicLookupService<Record> implements RecordLookupService {
+
+    @Override
+    protected Record toLookupValue(JsonNode node) {
+        if (node.isObject()) {
+            return toRecord(node);
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("content", node.isTextual() ? node.asText() : node.toString());
+        return new MapRecord(new SimpleRecordSchema(Collections.singletonList(
+            new RecordField("content", RecordFieldType.STRING.getDataType()))), values);
+    }
+
+    @Override
+    public Class<?> getValueType() {
+        return Record.class;
+    }
+
+    /**
+     * Converts a JSON object into a record whose schema is inferred from the object.
+     *
+     * @param object
+     * @return
+     */
+    static Record toRecord(JsonNode object) {
+        List<RecordField> fields = new ArrayList<>();
+        Map<String, Object> values = new LinkedHashMap<>();
+        object.fields().forEachRemaining(field -> {
+            Object value = toValue(field.getValue());
+            fields.add(new RecordField(field.getKey(), dataTypeOf(value)));
+            values.put(field.getKey(), value);
+        });
+        return new MapRecord(new SimpleRecordSchema(fields), values);
+    }
+
+    private static Object toValue(JsonNode node) {
+        if (node.isObject()) {
+            return toRecord(node);
+        } else if (node.isArray()) {
+            Object[] elements = new Object[node.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = toValue(node.get(i));
+            }
+            return elements;
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isInt()) {
+            return node.intValue();
+        } else if (node.isLong()) {
+            return node.longValue();
+        } else if (node.isBigInteger()) {
+            return node.bigIntegerValue();
+        } else if (node.isNumber()) {
+            return node.doubleValue();
+        } else if (node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        return node.asText();
+    }
+
+    private static DataType dataTypeOf(Object value) {
+        if (value instanceof Record) {
+            return RecordFieldType.RECORD.getRecordDataType(((Record) value).getSchema());
+        } else if (value instanceof Object[]) {
+            Set<DataType> elementTypes = new LinkedHashSet<>();
+            for (Object element : (Object[]) value) {
+                if (element != null) {
+                    elementTypes.add(dataTypeOf(element));
+                }
+            }
+            DataType elementType = elementTypes.isEmpty() ? RecordFieldType.STRING.getDataType() :
+                elementTypes.size() == 1 ? elementTypes.iterator().next() :
+                    RecordFieldType.CHOICE.getChoiceDataType(new ArrayList<>(elementTypes));
+            return RecordFieldType.ARRAY.getArrayDataType(elementType);
+        } else if (value instanceof Boolean) {
+            return RecordFieldType.BOOLEAN.getDataType();
+        } else if (value instanceof Integer) {
+            return RecordFieldType.INT.getDataType();
+        } else if (value instanceof Long) {
+            return RecordFieldType.LONG.getDataType();
+        } else if (value instanceof java.math.BigInteger) {
+            return RecordFieldType.BIGINT.getDataType();
+        } else if (value instanceof Double) {
+            return RecordFieldType.DOUBLE.getDataType();
+        }
+        return RecordFieldType.STRING.getDataType();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.lookup.StringLookupService;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Tags({"MarkLogic", "lookup", "enrich", "cache"})
+@CapabilityDescription("Looks up string values in MarkLogic, either from documents identified by URI or from rows in " +
+    "an Optic view identified by a key column, for use with processors such as LookupAttribute. Concurrent lookups " +
+    "are combined into batches so that many keys are looked up with a single request, and looked-up values are cached.")
+public class MarkLogicStringLookupService extends AbstractMarkLogicLookupService<String> implements StringLookupService {
+
+    public static final PropertyDescriptor VALUE_FIELD = new PropertyDescriptor.Builder()
+        .name("Value Field")
+        .displayName("Value Field")
+        .required(false)
+        .description("The top-level property of a JSON document, or the column of a view row, whose value is " +
+            "returned. If not set, the entire document is returned, with a row being returned as a JSON object. If " +
+            "set and a document or row does not have the field, the key is treated as not found.")
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    private static final List<PropertyDescriptor> properties;
+
+    static {
+        List<PropertyDescriptor> list = new ArrayList<>(COMMON_PROPERTIES);
+        list.add(VALUE_FIELD);
+        properties = Collections.unmodifiableList(list);
+    }
+
+    private volatile String valueField;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    protected void initializeLookup(ConfigurationContext context) {
+        valueField = context.getProperty(VALUE_FIELD).getValue();
+    }
+
+    @Override
+    protected String toLookupValue(JsonNode node) {
+        JsonNode value = node;
+        if (valueField != null && node.isObject()) {
+            value = node.get(valueField);
+            if (value == null || value.isNull()) {
+                return null;
+            }
+        }
+        return value.isValueNode() ? value.asText() : value.toString();
+    }
+
+    @Override
+    public Class<?> getValueType() {
+        return String.class;
+    }
+}
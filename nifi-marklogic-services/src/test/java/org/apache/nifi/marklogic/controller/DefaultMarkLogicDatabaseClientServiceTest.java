@@ -26,6 +26,7 @@ import org.opentest4j.AssertionFailedError;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DefaultMarkLogicDatabaseClientServiceTest {
@@ -55,6 +56,31 @@ public class DefaultMarkLogicDatabaseClientServiceTest {
             "When the processor is disabled, the DatabaseClient should be released and set to null");
     }
 
+    @Test
+    public void sharedRateLimiters() throws InitializationException {
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final DefaultMarkLogicDatabaseClientService service = new DefaultMarkLogicDatabaseClientService();
+        runner.addControllerService("test-good", service);
+        runner.setProperty(service, DefaultMarkLogicDatabaseClientService.HOST, "localhost");
+        runner.setProperty(service, DefaultMarkLogicDatabaseClientService.PORT, "8000");
+        runner.setProperty(service, DefaultMarkLogicDatabaseClientService.USERNAME, "admin");
+        runner.setProperty(service, DefaultMarkLogicDatabaseClientService.PASSWORD, "doesntmatter");
+        runner.setProperty(service, DefaultMarkLogicDatabaseClientService.SHARED_DOCUMENTS_PER_SECOND, "500");
+
+        runner.enableControllerService(service);
+        TokenBucketRateLimiter documentsLimiter = service.getSharedRateLimiter(MarkLogicDatabaseClientService.DOCUMENTS_RATE_LIMITER);
+        assertEquals(500, documentsLimiter.getRate());
+        assertSame(documentsLimiter, service.getSharedRateLimiter(MarkLogicDatabaseClientService.DOCUMENTS_RATE_LIMITER));
+
+        TokenBucketRateLimiter bytesLimiter = service.getSharedRateLimiter(MarkLogicDatabaseClientService.BYTES_RATE_LIMITER);
+        assertEquals(0, bytesLimiter.getRate(), "A limiter should exist even without a limit so that one can be " +
+            "imposed while processors are running");
+        assertNull(service.getSharedRateLimiter("unknown"));
+
+        runner.disableControllerService(service);
+        assertNull(service.getSharedRateLimiter(MarkLogicDatabaseClientService.DOCUMENTS_RATE_LIMITER));
+    }
+
     @Test
     public void cloudAuth() throws InitializationException {
         final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
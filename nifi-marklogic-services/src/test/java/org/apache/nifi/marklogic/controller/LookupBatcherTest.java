@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LookupBatcherTest {
+
+    @Test
+    public void concurrentLookupsAreBatched() throws Exception {
+        List<Set<String>> batches = new CopyOnWriteArrayList<>();
+        LookupBatcher<String> batcher = new LookupBatcher<>(keys -> {
+            batches.add(keys);
+            Map<String, String> values = new HashMap<>();
+            keys.stream().filter(key -> !key.equals("missing")).forEach(key -> values.put(key, key.toUpperCase()));
+            return values;
+        }, 10, 200, 1, "test");
+
+        try {
+            List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+            for (String key : Arrays.asList("a", "b", "c", "missing")) {
+                futures.add(batcher.submit(key));
+            }
+            assertEquals(Optional.of("A"), futures.get(0).get(5, TimeUnit.SECONDS));
+            assertEquals(Optional.of("C"), futures.get(2).get(5, TimeUnit.SECONDS));
+            assertEquals(Optional.empty(), futures.get(3).get(5, TimeUnit.SECONDS));
+            assertEquals(1, batches.size(), "All four keys should have been looked up in a single batch");
+            assertEquals(4, batches.get(0).size());
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void batchesAreLimitedBySize() throws Exception {
+        List<Set<String>> batches = new CopyOnWriteArrayList<>();
+        LookupBatcher<String> batcher = new LookupBatcher<>(keys -> {
+            batches.add(keys);
+            return Collections.emptyMap();
+        }, 2, 200, 1, "test");
+
+        try {
+            List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+            for (String key : Arrays.asList("a", "b", "c", "d", "e")) {
+                futures.add(batcher.submit(key));
+            }
+            for (CompletableFuture<Optional<String>> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(3, batches.size());
+            batches.forEach(batch -> assertTrue(batch.size() <= 2));
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void pendingLookupForSameKeyIsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LookupBatcher<String> batcher = new LookupBatcher<>(keys -> {
+            release.await();
+            return Collections.singletonMap("a", "A");
+        }, 10, 0, 1, "test");
+
+        try {
+            CompletableFuture<Optional<String>> first = batcher.submit("a");
+            CompletableFuture<Optional<String>> second = batcher.submit("a");
+            assertSame(first, second);
+            assertEquals(1, batcher.getCoalescedLookups());
+            release.countDown();
+            assertEquals(Optional.of("A"), second.get(5, TimeUnit.SECONDS));
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void failedBatchFailsEveryLookup() {
+        LookupBatcher<String> batcher = new LookupBatcher<>(keys -> {
+            throw new RuntimeException("Expected failure");
+        }, 10, 50, 1, "test");
+
+        try {
+            CompletableFuture<Optional<String>> first = batcher.submit("a");
+            CompletableFuture<Optional<String>> second = batcher.submit("b");
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertEquals("Expected failure", ex.getCause().getMessage());
+            assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public void lookupsFailAfterShutdown() {
+        LookupBatcher<String> batcher = new LookupBatcher<>(keys -> Collections.emptyMap(), 10, 50, 1, "test");
+        batcher.shutdown();
+        assertThrows(ExecutionException.class, () -> batcher.submit("a").get(5, TimeUnit.SECONDS));
+    }
+}
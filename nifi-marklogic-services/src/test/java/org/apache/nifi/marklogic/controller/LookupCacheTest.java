@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LookupCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        LookupCache<String> cache = new LookupCache<>(2, 0, 0);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a").getValue(), "Reading 'a' should make 'b' the eldest entry");
+        cache.put("c", "C");
+
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a").getValue());
+        assertEquals("C", cache.get("c").getValue());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void notFoundKeysAreOnlyCachedWithTtl() {
+        LookupCache<String> cache = new LookupCache<>(10, 0, 0);
+        cache.put("missing", null);
+        assertNull(cache.get("missing"), "Keys that were not found should not be cached when the TTL is zero");
+
+        cache = new LookupCache<>(10, 0, 60000);
+        cache.put("missing", null);
+        assertNotNull(cache.get("missing"));
+        assertNull(cache.get("missing").getValue());
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() throws InterruptedException {
+        LookupCache<String> cache = new LookupCache<>(10, 1, 1);
+        cache.put("a", "A");
+        cache.put("missing", null);
+        Thread.sleep(20);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("missing"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void zeroSizeDisablesCaching() {
+        LookupCache<String> cache = new LookupCache<>(0, 0, 60000);
+        cache.put("a", "A");
+        assertNull(cache.get("a"));
+    }
+}
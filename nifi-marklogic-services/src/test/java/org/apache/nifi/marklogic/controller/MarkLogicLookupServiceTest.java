@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.client.expression.PlanBuilder;
+import org.apache.nifi.marklogic.controller.AbstractMarkLogicLookupService.KeyColumnTypes;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.type.ArrayDataType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarkLogicLookupServiceTest {
+
+    @Test
+    public void jsonObjectToRecord() throws Exception {
+        Record record = MarkLogicLookupService.toRecord(new ObjectMapper().readTree(
+            "{\"name\": \"Jane\", \"age\": 42, \"score\": 1.5, \"active\": true, \"tags\": [\"a\", \"b\"], " +
+                "\"address\": {\"city\": \"Boston\"}, \"nickname\": null}"));
+
+        assertEquals("Jane", record.getAsString("name"));
+        assertEquals(42, record.getAsInt("age"));
+        assertEquals(1.5, record.getAsDouble("score"));
+        assertTrue(record.getAsBoolean("active"));
+        assertArrayEquals(new Object[]{"a", "b"}, record.getAsArray("tags"));
+        assertEquals("Boston", ((Record) record.getValue("address")).getAsString("city"));
+        assertNull(record.getValue("nickname"));
+
+        assertEquals(RecordFieldType.INT, record.getSchema().getDataType("age").get().getFieldType());
+        assertEquals(RecordFieldType.STRING,
+            ((ArrayDataType) record.getSchema().getDataType("tags").get()).getElementType().getFieldType());
+        assertEquals(RecordFieldType.RECORD, record.getSchema().getDataType("address").get().getFieldType());
+    }
+
+    @Test
+    public void nonJsonDocumentToRecord() {
+        Record record = new MarkLogicLookupService().toLookupValue(new TextNode("<doc/>"));
+        assertEquals("<doc/>", record.getAsString("content"));
+    }
+
+    @Test
+    public void rowsPlanComparesKeyColumnWithoutCastingIt() {
+        // Creating a client does not connect to MarkLogic, and plans are built on the client
+        DatabaseClient client = DatabaseClientFactory.newClient("localhost", 8000,
+            new DatabaseClientFactory.DigestAuthContext("user", "password"));
+        try {
+            PlanBuilder op = client.newRowManager().newPlanBuilder();
+            String plan = AbstractMarkLogicLookupService.buildRowsPlan(op, "Example", "Employee", "id",
+                KeyColumnTypes.INT_STR, List.of("42", "7")).exportAs(String.class).replaceAll("\\s", "");
+
+            assertTrue(plan.contains("\"fn\":\"from-view\",\"args\":[\"Example\",\"Employee\""), plan);
+            assertTrue(plan.contains("\"fn\":\"eq\",\"args\":[{\"ns\":\"op\",\"fn\":\"col\",\"args\":[\"id\"]}"),
+                "The column should be compared as is, so that its index can be used; plan: " + plan);
+            assertTrue(plan.contains("\"fn\":\"int\",\"args\":[42]"), plan);
+            assertTrue(plan.contains("\"fn\":\"int\",\"args\":[7]"), plan);
+            assertFalse(plan.contains("\"fn\":\"string\""), "Neither the column nor the keys should be cast to strings; plan: " + plan);
+        } finally {
+            client.release();
+        }
+    }
+
+    @Test
+    public void keysAreConvertedToColumnValues() {
+        assertEquals(" A1", AbstractMarkLogicLookupService.toColumnValue(" A1", KeyColumnTypes.STRING_STR));
+        assertEquals("42", AbstractMarkLogicLookupService.toColumnValue("042", KeyColumnTypes.INT_STR));
+        assertEquals("9000000000", AbstractMarkLogicLookupService.toColumnValue("9000000000", KeyColumnTypes.LONG_STR));
+        assertEquals("2024-03-01", AbstractMarkLogicLookupService.toColumnValue("2024-03-01", KeyColumnTypes.DATE_STR));
+        assertNull(AbstractMarkLogicLookupService.toColumnValue("abc", KeyColumnTypes.INT_STR),
+            "A key that cannot be converted to the column's type should be treated as not found");
+        assertNull(AbstractMarkLogicLookupService.toColumnValue("9000000000", KeyColumnTypes.INT_STR));
+    }
+}
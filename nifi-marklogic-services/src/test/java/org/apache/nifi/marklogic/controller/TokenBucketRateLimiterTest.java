@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nifi.marklogic.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    public void noLimit() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 0);
+        assertEquals(0, limiter.acquire(1_000_000));
+        assertEquals(0, limiter.acquire(1_000_000));
+        assertEquals(2_000_000, limiter.getAcquiredPermits());
+        assertEquals(0, limiter.getThrottledMillis());
+    }
+
+    @Test
+    public void burstUpToRateIsNotDelayed() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 100);
+        assertEquals(0, limiter.acquire(60));
+        assertEquals(0, limiter.acquire(40));
+    }
+
+    @Test
+    public void requestsWaitForMissingPermits() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 100);
+        long firstWait = limiter.acquire(150);
+        assertTrue(firstWait >= 450 && firstWait <= 500, "A request larger than the bucket should only wait for the " +
+            "50 missing permits; waited: " + firstWait);
+
+        long start = System.nanoTime();
+        long secondWait = limiter.acquire(20);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(secondWait >= 150 && secondWait <= 200, "The first request emptied the bucket, so the second " +
+            "should wait for all 20 permits at 100 per second; waited: " + secondWait);
+        assertTrue(elapsedMillis >= secondWait - 10, "The limiter should have slept for the time it reported");
+        assertEquals(170, limiter.getAcquiredPermits());
+        assertEquals(firstWait + secondWait, limiter.getThrottledMillis());
+    }
+
+    @Test
+    public void rateCanBeChangedWhileInUse() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 10);
+        limiter.acquire(10);
+
+        limiter.setRate(0);
+        assertEquals(0, limiter.acquire(1000), "Removing the limit should take effect immediately");
+
+        limiter.setRate(1000);
+        assertEquals(1000, limiter.getRate());
+        long waited = limiter.acquire(100);
+        assertTrue(waited <= 100, "Raising the limit should not grant a burst, but should refill at the new rate; " +
+            "waited: " + waited);
+    }
+
+    @Test
+    public void toStringDescribesRate() {
+        assertEquals("docs (unlimited)", new TokenBucketRateLimiter("docs", 0).toString());
+        assertEquals("docs (5.0 per second)", new TokenBucketRateLimiter("docs", 5).toString());
+    }
+}